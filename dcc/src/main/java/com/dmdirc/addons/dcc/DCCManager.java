@@ -23,6 +23,7 @@ import com.dmdirc.addons.dcc.events.DccSendRequestEvent;
 import com.dmdirc.addons.dcc.io.DCC;
 import com.dmdirc.addons.dcc.io.DCCChat;
 import com.dmdirc.addons.dcc.io.DCCTransfer;
+import com.dmdirc.addons.dcc.io.ResumeMap;
 import com.dmdirc.addons.dcc.kde.KFileChooser;
 import com.dmdirc.addons.dcc.ui.PlaceholderPanel;
 import com.dmdirc.addons.dcc.ui.TransferPanel;
@@ -66,8 +67,10 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Supplier;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.swing.JComponent;
 import javax.swing.JFileChooser;
@@ -104,6 +107,8 @@ public class DCCManager {
     private final EventBus eventBus;
     /** Plugin info. */
     private final PluginInfo pluginInfo;
+    /** Executor used to sample the progress of transfers. */
+    private final ScheduledExecutorService executorService;
 
     /**
      * Creates a new instance of this plugin.
@@ -122,7 +127,8 @@ public class DCCManager {
             final EventBus eventBus,
             final GlobalCommandParser commandParser,
             @Directory(DirectoryType.BASE) final String baseDirectory,
-            final BackBufferFactory backBufferFactory) {
+            final BackBufferFactory backBufferFactory,
+            @Named("dcc") final ScheduledExecutorService executorService) {
         this.mainWindow = mainWindow;
         this.windowManager = windowManager;
         this.commandController = commandController;
@@ -132,6 +138,7 @@ public class DCCManager {
         this.config = globalConfig;
         this.eventBus = eventBus;
         this.backBufferFactory = backBufferFactory;
+        this.executorService = executorService;
 
         windowFactory.registerImplementation(new ComponentFrameWindowProvider(
                 "com.dmdirc.addons.dcc.ui.PlaceholderPanel", componentFrameFactory,
@@ -207,12 +214,20 @@ public class DCCManager {
                 "general.percentageInTitle", "Show percentage of transfers in the window title",
                 "Show the current percentage of transfers in the DCC window " + "title",
                 manager.getConfigManager(), manager.getIdentity()));
+        general.addSetting(new PreferencesSetting(PreferencesType.INTEGER, pluginInfo.getDomain(),
+                "general.progressUpdates", "Progress updates per second",
+                "How many times a second to update the progress of each transfer",
+                manager.getConfigManager(), manager.getIdentity()));
     }
 
     public String getDomain() {
         return domain;
     }
 
+    public ScheduledExecutorService getExecutorService() {
+        return executorService;
+    }
+
     /**
      * Ask the location to save a file, then start the download.
      *
@@ -253,12 +268,12 @@ public class DCCManager {
                             "receive.reverse.sendtoken")) {
                         parser.sendCTCP(nickname, "DCC", "RESUME "
                                 + send.getShortFileName() + " 0 "
-                                + jc.getSelectedFile().length() + ' '
+                                + getResumePosition(jc) + ' '
                                 + token);
                     } else {
                         parser.sendCTCP(nickname, "DCC", "RESUME "
                                 + send.getShortFileName() + " 0 "
-                                + jc.getSelectedFile().length());
+                                + getResumePosition(jc));
                     }
                 } else {
                     if (listen(send)) {
@@ -278,7 +293,7 @@ public class DCCManager {
                     parser.sendCTCP(nickname, "DCC", "RESUME "
                             + send.getShortFileName() + ' '
                             + send.getPort() + ' '
-                            + jc.getSelectedFile().length());
+                            + getResumePosition(jc));
                 } else {
                     send.connect();
                 }
@@ -302,7 +317,7 @@ public class DCCManager {
             final String nickname, final Parser parser, final boolean reverse,
             final String token) {
         if (jc.getSelectedFile().exists() && send.getFileSize() > -1
-                && send.getFileSize() <= jc.getSelectedFile().length()) {
+                && send.getFileSize() <= getResumePosition(jc)) {
             if (config.getOptionBool(getDomain(), "receive.autoaccept")) {
                 return false;
             } else {
@@ -320,6 +335,19 @@ public class DCCManager {
         return true;
     }
 
+    /**
+     * Gets the position that a transfer into the selected file should resume from. Files being
+     * received are extended to their full size straight away, so this uses the file's resume map
+     * rather than its length where possible.
+     *
+     * @param jc File chooser
+     *
+     * @return The position to resume from
+     */
+    private long getResumePosition(final JFileChooser jc) {
+        return ResumeMap.getResumePosition(jc.getSelectedFile().getAbsoluteFile().toPath());
+    }
+
     /**
      * Prompts the user to resume a transfer if required.
      *
@@ -724,6 +752,7 @@ public class DCCManager {
         if (container != null) {
             container.close();
         }
+        executorService.shutdown();
     }
 
     /**
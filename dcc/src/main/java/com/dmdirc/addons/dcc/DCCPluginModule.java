@@ -20,6 +20,11 @@ package com.dmdirc.addons.dcc;
 import com.dmdirc.addons.ui_swing.injection.SwingModule;
 import com.dmdirc.plugins.PluginDomain;
 import com.dmdirc.plugins.PluginInfo;
+import com.dmdirc.util.LoggingScheduledExecutorService;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.inject.Named;
 
 import dagger.Module;
 import dagger.Provides;
@@ -43,4 +48,10 @@ public class DCCPluginModule {
         return pluginInfo;
     }
 
+    @Provides
+    @Named("dcc")
+    public ScheduledExecutorService getExecutorService() {
+        return new LoggingScheduledExecutorService(1, "DCC-Progress");
+    }
+
 }
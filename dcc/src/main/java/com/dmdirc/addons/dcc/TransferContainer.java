@@ -30,11 +30,15 @@ import com.dmdirc.config.provider.AggregateConfigProvider;
 import com.dmdirc.parser.events.SocketCloseEvent;
 import com.dmdirc.parser.interfaces.Parser;
 import com.dmdirc.ui.messages.BackBufferFactory;
+import com.dmdirc.util.collections.ListenerList;
 
 import java.awt.Desktop;
 import java.io.File;
 import java.util.Arrays;
 import java.util.Optional;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 import javax.swing.JOptionPane;
@@ -43,6 +47,10 @@ import net.engio.mbassy.listener.Handler;
 
 /**
  * This class links DCC Send objects to a window.
+ * <p>
+ * Progress is not reported for every block of data transferred. Instead the amount transferred is
+ * sampled a few times a second, and handlers added to this container, the window title and the
+ * event bus are only updated if it has changed.
  */
 public class TransferContainer extends FrameContainer implements
         DCCTransferHandler {
@@ -57,8 +65,18 @@ public class TransferContainer extends FrameContainer implements
     private final DCCTransfer dcc;
     /** Other Nickname */
     private final String otherNickname;
+    /** Length of the window used to calculate the transfer speed, in milliseconds. */
+    private static final long RATE_WINDOW = 5000;
     /** Total data transferred */
-    private volatile long transferCount = 0;
+    private final AtomicLong transferCount = new AtomicLong();
+    /** Total data transferred when progress was last reported. */
+    private long reportedCount;
+    /** Recent transfer speed. */
+    private volatile TransferRate rate = new TransferRate(RATE_WINDOW, 2);
+    /** Task sampling the progress of the transfer, if it is running. */
+    private ScheduledFuture<?> progressTask;
+    /** Handlers to notify of this transfer's progress. */
+    private final ListenerList handlers = new ListenerList();
     /** Time Started */
     private long timeStarted = 0;
     /** Plugin that this send belongs to. */
@@ -131,6 +149,18 @@ public class TransferContainer extends FrameContainer implements
         return otherNickname;
     }
 
+    /**
+     * Adds a handler to be told about this transfer's progress. Unlike handlers added directly to
+     * the {@link DCCTransfer}, these handlers receive at most a few
+     * {@link DCCTransferHandler#dataTransferred} calls a second, each covering all the data
+     * transferred since the previous call.
+     *
+     * @param handler The handler to add
+     */
+    public void addHandler(final DCCTransferHandler handler) {
+        handlers.add(DCCTransferHandler.class, handler);
+    }
+
     /**
      * Called when data is sent/received
      *
@@ -139,16 +169,26 @@ public class TransferContainer extends FrameContainer implements
      */
     @Override
     public void dataTransferred(final DCCTransfer dcc, final int bytes) {
-        final double percent;
-        synchronized (this) {
-            transferCount += bytes;
-            percent = getPercent();
+        transferCount.addAndGet(bytes);
+    }
+
+    /**
+     * Samples the amount of data transferred, and reports progress if it has changed.
+     */
+    private synchronized void sampleProgress() {
+        final long count = transferCount.get();
+        rate.sample(System.currentTimeMillis(), count);
+        if (count == reportedCount) {
+            return;
         }
+        final int bytes = (int) Math.min(Integer.MAX_VALUE, count - reportedCount);
+        reportedCount = count;
 
         final boolean percentageInTitle = config.getOptionBool(
                 plugin.getDomain(), "general.percentageInTitle");
 
         if (percentageInTitle) {
+            final double percent = getPercent();
             final StringBuilder title = new StringBuilder();
             if (dcc.isListenSocket()) {
                 title.append('*');
@@ -163,6 +203,9 @@ public class TransferContainer extends FrameContainer implements
             setTitle(title.toString());
         }
 
+        for (DCCTransferHandler handler : handlers.get(DCCTransferHandler.class)) {
+            handler.dataTransferred(dcc, bytes);
+        }
         eventBus.publish(new DccSendDatatransferedEvent(this, bytes));
     }
 
@@ -173,22 +216,25 @@ public class TransferContainer extends FrameContainer implements
      * @return The percentage of this transfer that has been completed
      */
     public double getPercent() {
-        return 100.00 / dcc.getFileSize() * (transferCount
+        return 100.00 / dcc.getFileSize() * (transferCount.get()
                 + dcc.getFileStart());
     }
 
     /**
-     * Retrieves the current transfer speed of this transfer.
+     * Retrieves the current transfer speed of this transfer, averaged over the last few seconds.
      *
      * @since 0.6.4
      * @return The speed of this transfer in Bytes/Sec
      */
     public double getBytesPerSecond() {
-        final long time = getElapsedTime();
-
-        synchronized (this) {
-            return time > 0 ? (double) transferCount / time : transferCount;
+        final TransferRate currentRate = rate;
+        if (currentRate.hasRate()) {
+            return currentRate.getBytesPerSecond();
         }
+
+        final long time = getElapsedTime();
+        final long count = transferCount.get();
+        return time > 0 ? (double) count / time : count;
     }
 
     /**
@@ -199,12 +245,8 @@ public class TransferContainer extends FrameContainer implements
      */
     public double getRemainingTime() {
         final double bytesPerSecond = getBytesPerSecond();
-        final long remainingBytes;
-
-        synchronized (this) {
-            remainingBytes = dcc.getFileSize() - dcc.getFileStart()
-                    - transferCount;
-        }
+        final long remainingBytes = dcc.getFileSize() - dcc.getFileStart()
+                - transferCount.get();
 
         return bytesPerSecond > 0 ? remainingBytes / bytesPerSecond : 1;
     }
@@ -236,7 +278,7 @@ public class TransferContainer extends FrameContainer implements
      * @return True if the transfer is complete, false otherwise
      */
     public boolean isComplete() {
-        return transferCount == dcc.getFileSize() - dcc.getFileStart();
+        return transferCount.get() == dcc.getFileSize() - dcc.getFileStart();
     }
 
     /**
@@ -256,10 +298,21 @@ public class TransferContainer extends FrameContainer implements
      */
     @Override
     public void socketClosed(final DCCTransfer dcc) {
+        synchronized (this) {
+            if (progressTask != null) {
+                progressTask.cancel(false);
+                progressTask = null;
+            }
+            sampleProgress();
+        }
+        for (DCCTransferHandler handler : handlers.get(DCCTransferHandler.class)) {
+            handler.socketClosed(dcc);
+        }
+
         eventBus.publish(new DccSendSocketclosedEvent(this));
         if (!windowClosing) {
             synchronized (this) {
-                if (transferCount == dcc.getFileSize() - dcc.getFileStart()) {
+                if (isComplete()) {
                     setIcon(dcc.getType() == DCCTransfer.TransferType.SEND
                             ? "dcc-send-done" : "dcc-receive-done");
                 } else {
@@ -277,6 +330,21 @@ public class TransferContainer extends FrameContainer implements
      */
     @Override
     public void socketOpened(final DCCTransfer dcc) {
+        final int updates = Math.max(1, config.getOptionInt(plugin.getDomain(),
+                "general.progressUpdates"));
+        final long interval = 1000 / updates;
+        synchronized (this) {
+            rate = new TransferRate(RATE_WINDOW, (int) (RATE_WINDOW / interval) + 1);
+            if (progressTask != null) {
+                progressTask.cancel(false);
+            }
+            progressTask = plugin.getExecutorService().scheduleAtFixedRate(
+                    this::sampleProgress, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        for (DCCTransferHandler handler : handlers.get(DCCTransferHandler.class)) {
+            handler.socketOpened(dcc);
+        }
+
         eventBus.publish(new DccSendSocketopenedEvent(this));
         timeStarted = System.currentTimeMillis();
         setIcon(dcc.getType() == DCCTransfer.TransferType.SEND
@@ -291,7 +359,9 @@ public class TransferContainer extends FrameContainer implements
      */
     public boolean resend() {
         synchronized (this) {
-            transferCount = 0;
+            transferCount.set(0);
+            reportedCount = 0;
+            rate.reset();
         }
         dcc.reset();
 
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.dcc;
+
+/**
+ * Calculates the speed of a transfer over a moving window of recent samples, so that the speed
+ * reflects current conditions rather than the average over the whole transfer.
+ */
+public class TransferRate {
+
+    /** Length of the window to calculate the rate over, in milliseconds. */
+    private final long window;
+    /** Times that samples were taken, in milliseconds. */
+    private final long[] times;
+    /** Total number of bytes transferred at each sample. */
+    private final long[] totals;
+    /** Index of the next sample to overwrite. */
+    private int next;
+    /** Number of samples held. */
+    private int count;
+
+    /**
+     * Creates a new transfer rate.
+     *
+     * @param window     Length of the window to calculate the rate over, in milliseconds
+     * @param maxSamples Maximum number of samples to keep
+     */
+    public TransferRate(final long window, final int maxSamples) {
+        this.window = window;
+        this.times = new long[Math.max(2, maxSamples)];
+        this.totals = new long[times.length];
+    }
+
+    /**
+     * Records the total number of bytes transferred at the given time.
+     *
+     * @param time  The time of the sample, in milliseconds
+     * @param total The total number of bytes transferred
+     */
+    public synchronized void sample(final long time, final long total) {
+        times[next] = time;
+        totals[next] = total;
+        next = (next + 1) % times.length;
+        count = Math.min(count + 1, times.length);
+    }
+
+    /**
+     * Determines whether enough samples have been taken to calculate a rate.
+     *
+     * @return True if a rate can be calculated, false otherwise
+     */
+    public synchronized boolean hasRate() {
+        return count >= 2;
+    }
+
+    /**
+     * Calculates the rate of transfer over the window ending at the most recent sample.
+     *
+     * @return The number of bytes transferred per second, or 0 if not enough samples have been
+     *         taken
+     */
+    public synchronized double getBytesPerSecond() {
+        if (count < 2) {
+            return 0;
+        }
+
+        final int newest = (next - 1 + times.length) % times.length;
+        int oldest = (next - count + times.length) % times.length;
+        while (oldest != newest && times[newest] - times[oldest] > window) {
+            oldest = (oldest + 1) % times.length;
+        }
+        if (oldest == newest) {
+            // The only sample within the window is the newest; use the one before it.
+            oldest = (newest - 1 + times.length) % times.length;
+        }
+
+        final long elapsed = times[newest] - times[oldest];
+        return elapsed > 0 ? (totals[newest] - totals[oldest]) * 1000.0 / elapsed : 0;
+    }
+
+    /**
+     * Discards all samples.
+     */
+    public synchronized void reset() {
+        next = 0;
+        count = 0;
+    }
+
+}
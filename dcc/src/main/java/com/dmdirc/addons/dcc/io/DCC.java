@@ -18,70 +18,63 @@
 package com.dmdirc.addons.dcc.io;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 /**
  * This class manages the socket and low-level I/O functionality for all types of DCC. Subclasses
  * process the data received by this class.
+ * <p>
+ * Sockets are non-blocking channels that are serviced by the shared {@link DCCReactor}, so a DCC
+ * does not need a thread of its own. Subclasses use {@link Socket#getChannel()} to access the
+ * channel, and are called back from the reactor's thread when it is ready.
  */
-public abstract class DCC implements Runnable {
+public abstract class DCC {
 
     /** Address. */
     protected long address = 0;
     /** Port. */
     protected int port = 0;
     /** Socket used to communicate with. */
-    protected Socket socket;
-    /** The Thread in use for this. */
-    private volatile Thread myThread;
-    /** Are we already running? */
-    protected final AtomicBoolean running = new AtomicBoolean();
+    protected volatile Socket socket;
     /** Are we a listen socket? */
     protected boolean listen = false;
-    /**
-     * The current socket in use if this is a listen socket. This reference may be changed if and
-     * only if exactly one permit from the {@link #serverSocketSem} and {@link #serverListeningSem}
-     * semaphores is held by the thread doing the modification.
-     */
-    private ServerSocket serverSocket;
-    /**
-     * Semaphore to control write access to ServerSocket. If an object acquires a permit from the
-     * {@link #serverSocketSem}, then {@link #serverSocket} is <em>guaranteed</em> not to be
-     * externally modified until that permit is released, <em>unless</em> the object also acquires a
-     * permit from the {@link #serverListeningSem}.
-     */
-    private final Semaphore serverSocketSem = new Semaphore(1);
-    /**
-     * Semaphore used when we're blocking waiting for connections. If an object acquires a permit
-     * from the {@link #serverListeningSem}, then it is <em>guaranteed</em> that the {@link #run()}
-     * method is blocking waiting for incoming connections. In addition, it is <em>guaranteed</em>
-     * that the {@link #run()} method is holding the {@link #serverSocketSem} permit, and it will
-     * continue holding that permit until it can reacquire the {@link #serverListeningSem} permit.
-     */
-    private final Semaphore serverListeningSem = new Semaphore(0);
+    /** The channel we're listening on, if this is a listen socket that hasn't yet connected. */
+    private volatile ServerSocketChannel serverChannel;
+    /** The key for our current channel in the reactor. */
+    private volatile SelectionKey key;
 
     /**
-     * Connect this dcc.
+     * Connect this dcc. The connection is made in the background; {@link #socketOpened()} is
+     * called once it has been established, or {@link #socketClosed()} if it fails.
      */
     public void connect() {
+        final SelectableChannel channel;
+        final int ops;
         try {
             if (listen) {
                 address = 0;
-                port = serverSocket.getLocalPort();
+                port = serverChannel.socket().getLocalPort();
+                channel = serverChannel;
+                ops = SelectionKey.OP_ACCEPT;
             } else {
-                socket = new Socket(longToIP(address), port);
-                socketOpened();
+                final SocketChannel socketChannel = SocketChannel.open();
+                socketChannel.configureBlocking(false);
+                socketChannel.connect(new InetSocketAddress(longToIP(address), port));
+                channel = socketChannel;
+                ops = SelectionKey.OP_CONNECT;
             }
-        } catch (IOException ioe) {
+        } catch (IOException | RuntimeException ex) {
             socketClosed();
             return;
         }
 
-        myThread = new Thread(this, "DCC-Thread-" + getHost());
-        myThread.start();
+        DCCReactor.getReactor().register(channel, ops, this);
     }
 
     /**
@@ -90,10 +83,7 @@ public abstract class DCC implements Runnable {
      * @throws IOException If the listen socket can't be created
      */
     public void listen() throws IOException {
-        serverSocketSem.acquireUninterruptibly();
-        serverSocket = new ServerSocket(0, 1);
-        serverSocketSem.release();
-
+        serverChannel = openServerChannel(0);
         listen = true;
         connect();
     }
@@ -111,18 +101,15 @@ public abstract class DCC implements Runnable {
 
         for (int i = startPort; i <= endPort; ++i) {
             try {
-                serverSocketSem.acquireUninterruptibly();
-                serverSocket = new ServerSocket(i, 1);
+                serverChannel = openServerChannel(i);
                 // Found a socket we can use!
                 break;
             } catch (IOException | SecurityException ioe) {
                 // Try next socket.
-            } finally {
-                serverSocketSem.release();
             }
         }
 
-        if (serverSocket == null) {
+        if (serverChannel == null) {
             throw new IOException("No available sockets in range " + startPort + ":" + endPort);
         } else {
             connect();
@@ -130,87 +117,141 @@ public abstract class DCC implements Runnable {
     }
 
     /**
-     * This handles the socket to keep it out of the main thread
+     * Opens a non-blocking server socket channel on the given port.
+     *
+     * @param port The port to listen on, or 0 for any free port
+     *
+     * @return The new server socket channel
+     *
+     * @throws IOException If the socket could not be opened
      */
-    @Override
-    public void run() {
-        if (running.getAndSet(true)) {
-            return;
+    private static ServerSocketChannel openServerChannel(final int port) throws IOException {
+        final ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().bind(new InetSocketAddress(port), 1);
+        } catch (IOException | SecurityException ex) {
+            channel.close();
+            throw ex;
         }
+        return channel;
+    }
 
-        // handleSocket is implemented by sub classes, and should return false
-        // when the socket is closed.
-        final Thread thisThread = Thread.currentThread();
-
-        while (myThread == thisThread) {
-            serverSocketSem.acquireUninterruptibly();
-
-            if (serverSocket == null) {
-                serverSocketSem.release();
+    /**
+     * Called by the reactor once this DCC's channel has been registered.
+     *
+     * @param key The key for the channel
+     */
+    void registered(final SelectionKey key) {
+        this.key = key;
+    }
 
-                if (!handleSocket()) {
-                    close();
-                    break;
+    /**
+     * Called by the reactor when this DCC's channel is ready.
+     *
+     * @param readyKey The key that is ready
+     */
+    void ready(final SelectionKey readyKey) {
+        try {
+            if (readyKey.isAcceptable()) {
+                final SocketChannel channel = serverChannel.accept();
+                if (channel == null) {
+                    return;
                 }
-            } else {
-                try {
-                    serverListeningSem.release();
-                    socket = serverSocket.accept();
-                    serverSocket.close();
-                    socketOpened();
-                } catch (IOException ioe) {
-                    socketClosed();
-                    break;
-                } finally {
-                    serverListeningSem.acquireUninterruptibly();
-                    serverSocket = null;
-                    serverSocketSem.release();
+                closeServerChannel();
+                channel.configureBlocking(false);
+                opened(channel);
+            } else if (readyKey.isConnectable()) {
+                final SocketChannel channel = (SocketChannel) readyKey.channel();
+                if (channel.finishConnect()) {
+                    readyKey.interestOps(0);
+                    opened(channel);
                 }
+            } else if (handleSocket()) {
+                readyKey.interestOps(getInterestOps());
+            } else {
+                close();
+            }
+        } catch (IOException | CancelledKeyException ex) {
+            if (socket == null) {
+                // We never connected, so there's no socket for close() to tidy up.
+                closeServerChannel();
+                socketClosed();
+            } else {
+                close();
             }
-
-            // Yield to reduce CPU usage.
-            Thread.yield();
         }
-        // Socket closed
+    }
 
-        running.set(false);
+    /**
+     * Handles a newly connected channel, and registers it with the reactor once it is prepared.
+     *
+     * @param channel The connected channel
+     *
+     * @throws IOException If the channel could not be set up
+     */
+    private void opened(final SocketChannel channel) throws IOException {
+        socket = channel.socket();
+        socketOpened();
+        if (socket != null) {
+            prepareSocket(() -> {
+                if (socket != null) {
+                    DCCReactor.getReactor().register(channel, getInterestOps(), this);
+                }
+            });
+        }
     }
 
     /**
      * Called to close the socket
      */
     public void close() {
-        boolean haveSLS = false;
-
-        while (!serverSocketSem.tryAcquire() && !(haveSLS = serverListeningSem.tryAcquire())) {
-            Thread.yield();
+        closeServerChannel();
+
+        final Socket oldSocket = socket;
+        socket = null;
+        final SelectionKey oldKey = key;
+        key = null;
+        if (oldKey != null) {
+            oldKey.cancel();
+            // Wake the reactor so that the channel is deregistered and closed promptly.
+            oldKey.selector().wakeup();
         }
-
-        if (serverSocket != null) {
+        if (oldSocket != null) {
             try {
-                if (!serverSocket.isClosed()) {
-                    serverSocket.close();
-                }
+                oldSocket.getChannel().close();
             } catch (IOException ioe) {
             }
-            serverSocket = null;
-        }
-
-        if (haveSLS) {
-            serverListeningSem.release();
-        } else {
-            serverSocketSem.release();
+            socketClosed();
         }
+    }
 
-        if (socket != null) {
+    /**
+     * Closes the server channel, if we are still listening.
+     */
+    private void closeServerChannel() {
+        final ServerSocketChannel oldChannel = serverChannel;
+        serverChannel = null;
+        if (oldChannel != null) {
             try {
-                if (!socket.isClosed()) {
-                    socket.close();
-                }
+                oldChannel.close();
             } catch (IOException ioe) {
             }
-            socketClosed();
-            socket = null;
+        }
+    }
+
+    /**
+     * Asks the reactor to update the operations this DCC is waiting for, after a change that
+     * affects {@link #getInterestOps()} was made outside of {@link #handleSocket()}.
+     */
+    protected void updateInterestOps() {
+        final SelectionKey currentKey = key;
+        if (currentKey != null) {
+            DCCReactor.getReactor().execute(() -> {
+                if (currentKey.isValid()) {
+                    currentKey.interestOps(getInterestOps());
+                }
+            });
         }
     }
 
@@ -221,7 +262,19 @@ public abstract class DCC implements Runnable {
     }
 
     /**
-     * Called when the socket is closed, before the thread terminates.
+     * Called from the reactor thread after {@link #socketOpened()}, before the socket is watched
+     * for reading or writing. The given task must be run once the socket is ready to be handled.
+     * Implementations with slow set up work should do it on another thread, so that they don't
+     * hold up other DCCs, and run the task from there.
+     *
+     * @param ready Task that starts the socket being handled
+     */
+    protected void prepareSocket(final Runnable ready) {
+        ready.run();
+    }
+
+    /**
+     * Called when the socket is closed, or when a connection could not be made.
      */
     protected void socketClosed() {
     }
@@ -236,14 +289,25 @@ public abstract class DCC implements Runnable {
     }
 
     /**
-     * Called periodically to read or write data to this DCC's socket. Implementations should
-     * attempt to send or receive one unit of data (for example one block of binary data, or one
-     * line of ASCII data) each time this method is called.
+     * Gets the operations this DCC's channel should be watched for, as a combination of
+     * {@link SelectionKey#OP_READ} and {@link SelectionKey#OP_WRITE}. This is checked after each
+     * call to {@link #handleSocket()}.
+     *
+     * @return The operations to wait for
+     */
+    protected int getInterestOps() {
+        return SelectionKey.OP_READ;
+    }
+
+    /**
+     * Called from the reactor thread when this DCC's socket is ready for one of the operations
+     * returned by {@link #getInterestOps()}. Implementations should read or write as much data as
+     * they can without blocking.
      * <p>
      * The return value of this method is used to determine whether the DCC has been completed. If
      * the method returns <code>false</code>, the DCC is assumed to have finished (i.e., the socket
      * has closed), and the method will not be called again. A return value of <code>true</code>
-     * will cause the method to be recalled.
+     * will cause the method to be recalled when the socket is next ready.
      *
      * @return false when socket is closed, true will cause the method to be called again.
      */
@@ -19,22 +19,34 @@ package com.dmdirc.addons.dcc.io;
 
 import com.dmdirc.addons.dcc.DCCChatHandler;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * This class handles a DCC Chat
  */
 public class DCCChat extends DCC {
 
+    /** Charset used to encode and decode lines. */
+    private final Charset charset = Charset.defaultCharset();
     /** The handler for this DCCChat. */
     private DCCChatHandler handler = null;
-    /** Used to send data out the socket. */
-    private PrintWriter out;
-    /** Used to read data from the socket. */
-    private BufferedReader in;
+    /** Channel used to communicate with. */
+    private volatile SocketChannel channel;
+    /** Buffer used to read data from the socket. */
+    private final ByteBuffer in = ByteBuffer.allocate(8192);
+    /** The part of the current line that has been read so far. */
+    private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+    /** Whether the last character read was a carriage return. */
+    private boolean lastWasCR;
+    /** Data waiting to be sent out of the socket. */
+    private final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
     /** Are we active? */
     private boolean active = false;
 
@@ -50,21 +62,19 @@ public class DCCChat extends DCC {
     @Override
     protected void socketOpened() {
         active = true;
-        try {
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            if (handler != null) {
-                handler.socketOpened(this);
-            }
-        } catch (IOException ioe) {
-            socketClosed();
+        in.clear();
+        partialLine.reset();
+        lastWasCR = false;
+        channel = socket.getChannel();
+        if (handler != null) {
+            handler.socketOpened(this);
         }
     }
 
     @Override
     protected void socketClosed() {
-        out = null;
-        in = null;
+        channel = null;
+        out.clear();
         if (handler != null) {
             handler.socketClosed(this);
         }
@@ -73,28 +83,77 @@ public class DCCChat extends DCC {
 
     @Override
     protected boolean handleSocket() {
-        if (out == null || in == null) {
+        final SocketChannel currentChannel = channel;
+        if (currentChannel == null) {
             return false;
         }
-        final String inLine;
         try {
-            inLine = in.readLine();
-            if (inLine == null) {
-                return false;
-            } else {
-                if (handler != null) {
-                    handler.handleChatMessage(this, inLine);
+            final int bytesRead = currentChannel.read(in);
+            if (bytesRead > 0) {
+                in.flip();
+                readLines();
+                in.clear();
+            }
+
+            while (!out.isEmpty()) {
+                currentChannel.write(out.peek());
+                if (out.peek().hasRemaining()) {
+                    break;
                 }
-                return true;
+                out.remove();
             }
+
+            if (bytesRead < 0) {
+                if (partialLine.size() > 0) {
+                    lineRead();
+                }
+                return false;
+            }
+            return true;
         } catch (IOException e) {
             return false;
         }
     }
 
+    @Override
+    protected int getInterestOps() {
+        return out.isEmpty() ? SelectionKey.OP_READ
+                : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+    }
+
+    /**
+     * Splits the data in the input buffer into lines, passing each complete line to the handler.
+     * Lines may be terminated by a carriage return, a line feed, or both.
+     */
+    private void readLines() {
+        while (in.hasRemaining()) {
+            final byte data = in.get();
+            if (data == '\n' && lastWasCR) {
+                lastWasCR = false;
+            } else if (data == '\n' || data == '\r') {
+                lastWasCR = data == '\r';
+                lineRead();
+            } else {
+                lastWasCR = false;
+                partialLine.write(data);
+            }
+        }
+    }
+
+    /**
+     * Passes the current line to the handler.
+     */
+    private void lineRead() {
+        final String line = new String(partialLine.toByteArray(), charset);
+        partialLine.reset();
+        if (handler != null) {
+            handler.handleChatMessage(this, line);
+        }
+    }
+
     @Override
     public boolean isWriteable() {
-        return out != null;
+        return channel != null;
     }
 
     /**
@@ -103,8 +162,9 @@ public class DCCChat extends DCC {
      * @param line The line to be sent
      */
     public void sendLine(final String line) {
-        if (out != null) {
-            out.printf("%s\r\n", line);
+        if (channel != null) {
+            out.add(charset.encode(line + "\r\n"));
+            updateInterestOps();
         }
     }
 
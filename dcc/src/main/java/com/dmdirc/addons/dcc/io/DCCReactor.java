@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.dcc.io;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Services the sockets of all {@link DCC}s from a single thread.
+ * <p>
+ * The reactor's thread is started when the first channel is registered, and stops once there
+ * are no channels left to service.
+ */
+final class DCCReactor implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DCCReactor.class);
+    /** Maximum time to wait for a channel to become ready, in milliseconds. */
+    private static final long IDLE_TIMEOUT = 10000;
+    /** The currently running reactor, if any. */
+    private static DCCReactor reactor;
+    /** Selector used to wait for channels to become ready. */
+    private final Selector selector;
+    /** Tasks to run on the reactor's thread. */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    /** Whether the reactor has stopped and can no longer be used. */
+    private boolean stopped;
+
+    private DCCReactor() throws IOException {
+        selector = Selector.open();
+    }
+
+    /**
+     * Gets the running reactor, starting a new one if required.
+     *
+     * @return The running reactor
+     */
+    static synchronized DCCReactor getReactor() {
+        if (reactor == null) {
+            try {
+                reactor = new DCCReactor();
+            } catch (IOException ex) {
+                throw new IllegalStateException("Unable to open DCC selector", ex);
+            }
+            final Thread thread = new Thread(reactor, "DCC-Reactor");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return reactor;
+    }
+
+    /**
+     * Runs a task on the reactor's thread.
+     *
+     * @param task The task to run
+     */
+    void execute(final Runnable task) {
+        synchronized (DCCReactor.class) {
+            if (stopped) {
+                // Our thread has finished, so hand the task over to a new reactor.
+                getReactor().execute(task);
+                return;
+            }
+            tasks.add(task);
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * Registers a channel with the reactor. The DCC's {@link DCC#ready(SelectionKey)} method will
+     * be called from the reactor's thread whenever the channel is ready.
+     *
+     * @param channel The channel to register
+     * @param ops     The operations to wait for
+     * @param dcc     The DCC that owns the channel
+     */
+    void register(final SelectableChannel channel, final int ops, final DCC dcc) {
+        synchronized (DCCReactor.class) {
+            if (stopped) {
+                getReactor().register(channel, ops, dcc);
+                return;
+            }
+        }
+        execute(() -> {
+            try {
+                dcc.registered(channel.register(selector, ops, dcc));
+            } catch (ClosedChannelException ex) {
+                // The DCC was closed before it could be registered.
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            runTasks();
+
+            int selected = 0;
+            try {
+                // Time out occasionally so that cancelled keys are cleared out, and we notice
+                // once we have nothing left to do.
+                selected = selector.select(IDLE_TIMEOUT);
+            } catch (IOException ex) {
+                LOG.warn("Unable to select DCC sockets", ex);
+            }
+
+            if (selected == 0) {
+                synchronized (DCCReactor.class) {
+                    if (selector.keys().isEmpty() && tasks.isEmpty()) {
+                        stopped = true;
+                        reactor = null;
+                        break;
+                    }
+                }
+            }
+
+            final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                final SelectionKey key = keys.next();
+                keys.remove();
+                if (key.isValid()) {
+                    dispatch(key);
+                }
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException ex) {
+            // Nothing to do.
+        }
+    }
+
+    /**
+     * Passes a ready key to its DCC, making sure that one misbehaving DCC can't take down the
+     * reactor.
+     *
+     * @param key The key that is ready
+     */
+    private void dispatch(final SelectionKey key) {
+        final DCC dcc = (DCC) key.attachment();
+        try {
+            dcc.ready(key);
+        } catch (RuntimeException ex) {
+            LOG.warn("Unexpected error handling DCC socket", ex);
+            dcc.close();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+}
@@ -21,23 +21,57 @@ import com.dmdirc.addons.dcc.DCCTransferHandler;
 import com.dmdirc.util.collections.ListenerList;
 import com.dmdirc.util.io.StreamUtils;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class handles a DCC transfer.
+ * <p>
+ * Data is moved between the file and the socket using NIO channels: sends use
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)} so the data
+ * never has to be copied into the JVM, and receives read into a single reused direct buffer.
+ * <p>
+ * Acknowledgements are handled independently of sending. Rather than waiting for each block to
+ * be acknowledged, the sender keeps up to a window of unacknowledged data in flight, doubling the
+ * window whenever it becomes the limiting factor. Acknowledgements are the standard 32-bit count
+ * of bytes received, so this remains compatible with both normal and turbo DCC peers.
+ * <p>
+ * Files being received are extended to their full size up front, on a background thread before the
+ * transfer starts as this can mean writing out the whole file, and a {@link ResumeMap} is kept
+ * next to them recording which parts have been written, so that an interrupted transfer can be
+ * resumed from the right place.
  */
 public class DCCTransfer extends DCC {
 
     /** List of active sends. */
     private static final List<DCCTransfer> TRANSFERS = new ArrayList<>();
+    /** Minimum size of the receive buffer. */
+    private static final int MIN_BUFFER_SIZE = 128 * 1024;
+    /** Initial amount of unacknowledged data to allow when sending. */
+    private static final int INITIAL_WINDOW = 64 * 1024;
+    /** Maximum amount of unacknowledged data to allow when sending. */
+    private static final int MAX_WINDOW = 8 * 1024 * 1024;
+    /**
+     * Maximum amount of data to send in one go. This stops one transfer monopolising the reactor
+     * when the socket can accept a lot of data at once.
+     */
+    private static final int MAX_CHUNK = 1024 * 1024;
+    /** Time (in seconds) the preallocating thread is kept alive while idle. */
+    private static final long PREALLOCATOR_KEEP_ALIVE = 60;
+    /** Executor used to extend received files to their full size, shared by all transfers. */
+    private static final Executor PREALLOCATOR = createPreallocator();
 
     /** File Transfer Types. */
     public enum TransferType {
@@ -49,22 +83,34 @@ public class DCCTransfer extends DCC {
     private TransferType transferType = TransferType.RECEIVE;
     /** The handlers for this DCCSend. */
     private final ListenerList handlers = new ListenerList();
-    /** Used to send data out the socket. */
-    private DataOutputStream out;
-    /** Used to read data from the socket. */
-    private DataInputStream in;
+    /** Channel for the socket. */
+    private SocketChannel channel;
     /** File we are using. */
     private File transferFile;
-    /** Used to write data to the file. */
-    private DataOutputStream fileOut;
-    /** Used to read data from the file. */
-    private DataInputStream fileIn;
+    /** Used to read from or write to the file. */
+    private FileChannel fileChannel;
+    /** Records which parts of a received file have been written. */
+    private ResumeMap resumeMap;
+    /** Whether a received file was created from scratch, rather than resumed. */
+    private boolean newFile;
+    /** Buffer used to receive data. */
+    private ByteBuffer buffer;
+    /** Buffer used to read acknowledgements when sending. */
+    private final ByteBuffer ackIn = ByteBuffer.allocate(4);
+    /** Buffer used to write acknowledgements when receiving. */
+    private final ByteBuffer ackOut = ByteBuffer.allocate(4);
+    /** Whether an acknowledgement needs to be sent. */
+    private boolean ackNeeded;
     /** Where are we starting from? */
     private int startpos;
     /** How big is this file? */
     private long size = -1;
     /** How much of this file have we read so far? */
     private long readSize;
+    /** How much of this file has the remote end acknowledged? */
+    private long acknowledged;
+    /** Amount of unacknowledged data to allow when sending. */
+    private int window = INITIAL_WINDOW;
     /** What is the name of the file? */
     private String filename = "";
     /** What is the token for this send? */
@@ -83,7 +129,8 @@ public class DCCTransfer extends DCC {
     /**
      * Creates a new instance of DCCTransfer.
      *
-     * @param blockSize Block size to use
+     * @param blockSize Block size to use. This is used as the minimum amount of data to read or
+     *                  write at once; larger blocks will be used where possible.
      */
     public DCCTransfer(final int blockSize) {
         this.blockSize = blockSize;
@@ -92,6 +139,17 @@ public class DCCTransfer extends DCC {
         }
     }
 
+    private static Executor createPreallocator() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, PREALLOCATOR_KEEP_ALIVE,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    final Thread thread = new Thread(r, "DCC-Preallocate");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     /**
      * Reset this send to be used again (eg a resend).
      */
@@ -133,10 +191,12 @@ public class DCCTransfer extends DCC {
         this.filename = filename;
         if (transferType == TransferType.SEND) {
             transferFile = new File(filename);
+            closeFile();
             try {
-                fileIn = new DataInputStream(new FileInputStream(transferFile.getAbsolutePath()));
-            } catch (FileNotFoundException | SecurityException e) {
-                fileIn = null;
+                fileChannel = FileChannel.open(transferFile.getAbsoluteFile().toPath(),
+                        StandardOpenOption.READ);
+            } catch (IOException | SecurityException e) {
+                fileChannel = null;
             }
         }
     }
@@ -270,16 +330,19 @@ public class DCCTransfer extends DCC {
      *
      * @param startpos Starting position
      *
-     * @return -1 if fileIn is null or if dcc receive, else the result of fileIn.skipBytes()
+     * @return -1 if the file isn't open or if dcc receive, else the position that will be started
+     *         from
      */
     public int setFileStart(final int startpos) {
         this.startpos = startpos;
         this.readSize = startpos;
+        this.acknowledged = startpos;
 
-        if (transferType == TransferType.SEND && fileIn != null) {
+        if (transferType == TransferType.SEND && fileChannel != null) {
             try {
-                this.startpos = fileIn.skipBytes(startpos);
+                this.startpos = (int) Math.min(startpos, fileChannel.size());
                 this.readSize = this.startpos;
+                this.acknowledged = this.startpos;
                 return this.startpos;
             } catch (IOException ioe) {
             }
@@ -312,34 +375,81 @@ public class DCCTransfer extends DCC {
             active = true;
             transferFile = new File(filename);
             if (transferType == TransferType.RECEIVE) {
-                fileOut = new DataOutputStream(new FileOutputStream(
-                        transferFile.getAbsolutePath(), startpos > 0));
+                final Path path = transferFile.getAbsoluteFile().toPath();
+                fileChannel = FileChannel.open(path, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE);
+                newFile = startpos <= 0;
+                if (newFile) {
+                    fileChannel.truncate(0);
+                    ResumeMap.delete(path);
+                } else {
+                    fileChannel.position(startpos);
+                }
+                if (size > 0) {
+                    resumeMap = ResumeMap.open(path, fileChannel, size, startpos);
+                    resumeMap.startStream(startpos);
+                }
+                buffer = ByteBuffer.allocateDirect(Math.max(blockSize, MIN_BUFFER_SIZE));
             }
-            out = new DataOutputStream(socket.getOutputStream());
-            in = new DataInputStream(socket.getInputStream());
+            channel = socket.getChannel();
+            ackIn.clear();
+            ackOut.clear().flip();
+            ackNeeded = false;
+            window = Math.max(blockSize, INITIAL_WINDOW);
 
             for (DCCTransferHandler handler : handlers.get(DCCTransferHandler.class)) {
                 handler.socketOpened(this);
             }
         } catch (IOException ioe) {
-            socketClosed();
+            close();
         }
     }
 
+    @Override
+    protected void prepareSocket(final Runnable ready) {
+        final FileChannel file = fileChannel;
+        final long length = size;
+        try {
+            if (transferType != TransferType.RECEIVE || file == null || length <= 0
+                    || file.size() >= length) {
+                ready.run();
+                return;
+            }
+        } catch (IOException ioe) {
+            close();
+            return;
+        }
+
+        PREALLOCATOR.execute(() -> {
+            try {
+                // Extend the file to its full size now, rather than a block at a time. Without
+                // sparse files this zero-fills the whole file, which can take a while.
+                file.write(ByteBuffer.allocate(1), length - 1);
+            } catch (IOException ioe) {
+                close();
+                return;
+            }
+            ready.run();
+        });
+    }
+
     @Override
     protected void socketClosed() {
-        // Try to close both, even if one fails.
-        StreamUtils.close(out);
-        StreamUtils.close(in);
-        out = null;
-        in = null;
+        channel = null;
+        buffer = null;
 
         for (DCCTransferHandler handler : handlers.get(DCCTransferHandler.class)) {
             handler.socketClosed(this);
         }
+        closeFile();
         // Try to delete empty files.
         if (transferType == TransferType.RECEIVE && transferFile != null
-                && transferFile.length() == 0) {
+                && (transferFile.length() == 0 || newFile && readSize == 0)) {
+            try {
+                ResumeMap.delete(transferFile.getAbsoluteFile().toPath());
+            } catch (IOException ex) {
+                // Not much we can do.
+            }
             transferFile.delete();
         }
         synchronized (TRANSFERS) {
@@ -350,7 +460,7 @@ public class DCCTransfer extends DCC {
 
     @Override
     protected boolean handleSocket() {
-        if (out == null || in == null) {
+        if (channel == null || fileChannel == null) {
             return false;
         }
         if (transferType == TransferType.RECEIVE) {
@@ -360,6 +470,17 @@ public class DCCTransfer extends DCC {
         }
     }
 
+    @Override
+    protected int getInterestOps() {
+        final boolean canWrite;
+        if (transferType == TransferType.RECEIVE) {
+            canWrite = ackOut.hasRemaining() || ackNeeded;
+        } else {
+            canWrite = readSize < size && (turbo || readSize - acknowledged < window);
+        }
+        return canWrite ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+    }
+
     /**
      * Handle the socket as a RECEIVE.
      *
@@ -368,41 +489,63 @@ public class DCCTransfer extends DCC {
      */
     protected boolean handleReceive() {
         try {
-            final byte[] data = new byte[blockSize];
-            final int bytesRead = in.read(data);
-            readSize += bytesRead;
+            final int bytesRead = channel.read(buffer);
+            if (bytesRead < 0) {
+                closeFile();
+                return false;
+            }
 
             if (bytesRead > 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    fileChannel.write(buffer);
+                }
+                buffer.clear();
+                readSize += bytesRead;
+                if (resumeMap != null) {
+                    resumeMap.received(readSize);
+                }
+
                 for (DCCTransferHandler handler : handlers.get(DCCTransferHandler.class)) {
                     handler.dataTransferred(this, bytesRead);
                 }
-                fileOut.write(data, 0, bytesRead);
-
-                if (!turbo) {
-                    // Send ack
-                    out.writeInt((int) readSize);
-                    out.flush();
+                if (channel == null) {
+                    // A handler closed the transfer.
+                    return false;
                 }
 
-                if (readSize == size) {
-                    fileOut.close();
-
-                    if (turbo) {
-                        in.close();
-                    }
+                // Acks are cumulative, so only the most recent one needs to be sent.
+                ackNeeded = !turbo;
+            }
 
-                    return false;
-                } else {
-                    return true;
-                }
-            } else if (bytesRead < 0) {
-                fileOut.close();
+            if (sendAck() && readSize == size) {
+                closeFile();
                 return false;
             }
+            return true;
         } catch (IOException e) {
             return false;
         }
-        return false;
+    }
+
+    /**
+     * Writes as much of the pending acknowledgement as the socket will accept.
+     *
+     * @return True if there are no more acknowledgements to send, false otherwise
+     *
+     * @throws IOException If the acknowledgement could not be sent
+     */
+    private boolean sendAck() throws IOException {
+        if (!ackOut.hasRemaining() && ackNeeded) {
+            ackOut.clear();
+            ackOut.putInt((int) readSize);
+            ackOut.flip();
+            ackNeeded = false;
+        }
+        if (ackOut.hasRemaining()) {
+            channel.write(ackOut);
+        }
+        return !ackOut.hasRemaining() && !ackNeeded;
     }
 
     /**
@@ -413,56 +556,82 @@ public class DCCTransfer extends DCC {
      */
     protected boolean handleSend() {
         try {
-            final byte[] data = new byte[blockSize];
-            final int bytesRead = fileIn.read(data);
-            readSize += bytesRead;
+            final boolean open = readAcks();
 
-            if (bytesRead > 0) {
-                for (DCCTransferHandler handler : handlers.get(DCCTransferHandler.class)) {
-                    handler.dataTransferred(this, bytesRead);
-                }
-                out.write(data, 0, bytesRead);
-                out.flush();
-
-                // Wait for acknowledgement packet.
-                if (!turbo) {
-                    int bytesReceived;
-                    do {
-                        bytesReceived = in.readInt();
-                    } while (readSize - bytesReceived > 0);
-                }
-
-                if (readSize == size) {
-                    fileIn.close();
-
-                    // Process all the ack packets that may have been sent.
-                    // In true turbo dcc mode, none will have been sent and the socket
-                    // will just close, in fast-dcc mode all the acks will be here,
-                    // So keep reading acks until the socket closes (IOException) or we
-                    // have received all the acks.
-                    if (turbo) {
-                        int ack;
-                        do {
-                            try {
-                                ack = in.readInt();
-                            } catch (IOException e) {
-                                break;
-                            }
-                        } while (ack > 0 && readSize - ack > 0);
-                    }
+            if (readSize == size && (!open || acknowledged >= size)) {
+                // Everything has been sent and acknowledged, or the remote end closed the socket
+                // once it had received everything (which is all true turbo dcc will do).
+                closeFile();
+                return false;
+            } else if (!open) {
+                return false;
+            }
 
+            final long inFlight = readSize - acknowledged;
+            if (readSize < size && (turbo || inFlight < window)) {
+                if (readSize >= fileChannel.size()) {
+                    // The file has been truncated since the send was offered.
+                    closeFile();
                     return false;
                 }
 
-                return true;
-            } else if (bytesRead < 0) {
-                fileIn.close();
-                return true;
+                final long count = Math.min(Math.min(size - readSize, MAX_CHUNK),
+                        turbo ? MAX_CHUNK : window - inFlight);
+                final long bytesSent = fileChannel.transferTo(readSize, count, channel);
+                if (bytesSent > 0) {
+                    readSize += bytesSent;
+                    for (DCCTransferHandler handler : handlers.get(DCCTransferHandler.class)) {
+                        handler.dataTransferred(this, (int) bytesSent);
+                    }
+                }
             }
+
+            return true;
         } catch (IOException e) {
             return false;
         }
-        return false;
+    }
+
+    /**
+     * Reads any acknowledgements sent by the remote end, growing the send window if it was full.
+     *
+     * @return False if the remote end has closed the socket, true otherwise
+     *
+     * @throws IOException If the socket could not be read
+     */
+    private boolean readAcks() throws IOException {
+        final boolean windowFull = readSize - acknowledged >= window;
+        final long previous = acknowledged;
+        int bytesRead;
+        while ((bytesRead = channel.read(ackIn)) > 0) {
+            if (!ackIn.hasRemaining()) {
+                ackIn.flip();
+                // Acks only hold the low 32 bits of the position, so work out which of the
+                // positions we have sent they refer to.
+                final long ack = ackIn.getInt() & 0xFFFFFFFFL;
+                acknowledged = Math.max(acknowledged, readSize - ((readSize - ack) & 0xFFFFFFFFL));
+                ackIn.clear();
+            }
+        }
+
+        if (windowFull && acknowledged > previous && window < MAX_WINDOW) {
+            window = Math.min(MAX_WINDOW, window * 2);
+        }
+        return bytesRead >= 0;
+    }
+
+    /**
+     * Closes the file being transferred, if it is open.
+     */
+    private void closeFile() {
+        if (resumeMap != null) {
+            // The map is saved in the background, and closes the file once it's on disk.
+            resumeMap.close(fileChannel);
+            resumeMap = null;
+        } else {
+            StreamUtils.close(fileChannel);
+        }
+        fileChannel = null;
     }
 
     /**
@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.dcc.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records which parts of a file being received have been written to disk, in a sidecar file next
+ * to it. Received files are preallocated to their full size, so their length says nothing about
+ * how much has been received; this map is used to work out where to resume from instead.
+ * <p>
+ * The file is divided into fixed size chunks, and a chunk is only marked as received once all of
+ * it has been written. The map is saved at most once a second (and when closed), after the data it
+ * describes has been forced to disk, so after a crash it never claims more than was received.
+ * <p>
+ * Forcing data to disk can take a long time, so saves triggered while receiving are done on a
+ * separate thread from a snapshot of the map, leaving the reactor free to service other sockets.
+ * Saves that are requested while one is still pending are merged into it.
+ */
+public class ResumeMap implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResumeMap.class);
+
+    /** Suffix appended to a file's name to get its map. */
+    private static final String SUFFIX = ".dccpart";
+    /** Value identifying a resume map file. */
+    private static final int MAGIC = 0x44434301;
+    /** Size of the map's header: magic, chunk size and file size. */
+    private static final int HEADER_SIZE = 16;
+    /** Size of each chunk of the file. */
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    /** Minimum time between saving the map, in milliseconds. */
+    private static final long SAVE_INTERVAL = 1000;
+    /** Time the save thread is kept alive for once idle, in seconds. */
+    private static final long SAVER_KEEP_ALIVE = 30;
+    /** Executor used to save maps in the background, shared by all transfers. */
+    private static final Executor SAVER = createSaver();
+
+    /** Path of the map. */
+    private final Path mapPath;
+    /** Channel used to read and write the map. */
+    private final FileChannel channel;
+    /** Channel used to write the file the map describes. */
+    private final FileChannel data;
+    /** Size of the file being received. */
+    private final long size;
+    /** Number of chunks in the file. */
+    private final int chunkCount;
+    /** Chunks that have been received. */
+    private final BitSet chunks;
+    /** Executor used to save the map in the background. */
+    private final Executor saver;
+    /** The most recent snapshot of the map that is waiting to be saved, if any. */
+    private final AtomicReference<ByteBuffer> pending = new AtomicReference<>();
+    /** The first chunk that the current stream hasn't yet finished. */
+    private int nextChunk;
+    /** Whether the map has changed since it was last saved. */
+    private boolean dirty;
+    /** Time the map was last saved. */
+    private long lastSaved;
+    /** Whether the map has been closed. */
+    private boolean closed;
+
+    private ResumeMap(final Path mapPath, final FileChannel channel, final FileChannel data,
+            final long size, final BitSet chunks, final Executor saver) {
+        this.mapPath = mapPath;
+        this.channel = channel;
+        this.data = data;
+        this.size = size;
+        this.chunkCount = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        this.chunks = chunks;
+        this.saver = saver;
+    }
+
+    private static Executor createSaver() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, SAVER_KEEP_ALIVE,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    final Thread thread = new Thread(r, "DCC-ResumeMap");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Gets the path of the map for a file.
+     *
+     * @param file The file being received
+     *
+     * @return The path of the file's map
+     */
+    public static Path getMapPath(final Path file) {
+        return file.resolveSibling(file.getFileName() + SUFFIX);
+    }
+
+    /**
+     * Opens the map for a file, creating a new one if it doesn't exist or describes a file of a
+     * different size.
+     *
+     * @param file     The file being received
+     * @param data     The channel being used to write the file
+     * @param size     The size of the file being received
+     * @param received The amount of the start of the file that is known to have been received
+     *                 already. This is only used when a new map is created.
+     *
+     * @return The file's map
+     *
+     * @throws IOException If the map could not be opened
+     */
+    public static ResumeMap open(final Path file, final FileChannel data, final long size,
+            final long received) throws IOException {
+        return open(file, data, size, received, SAVER);
+    }
+
+    /**
+     * Opens the map for a file, saving it in the background using the given executor.
+     *
+     * @param file     The file being received
+     * @param data     The channel being used to write the file
+     * @param size     The size of the file being received
+     * @param received The amount of the start of the file that is known to have been received
+     *                 already. This is only used when a new map is created.
+     * @param saver    The executor to save the map with
+     *
+     * @return The file's map
+     *
+     * @throws IOException If the map could not be opened
+     */
+    static ResumeMap open(final Path file, final FileChannel data, final long size,
+            final long received, final Executor saver) throws IOException {
+        final Path mapPath = getMapPath(file);
+        final FileChannel channel = FileChannel.open(mapPath, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            BitSet chunks = read(channel, size);
+            final boolean created = chunks == null;
+            if (created) {
+                chunks = new BitSet();
+            }
+            final ResumeMap map = new ResumeMap(mapPath, channel, data, size, chunks, saver);
+            if (created) {
+                map.chunks.set(0, map.getChunk(received));
+                map.scheduleSave();
+            }
+            return map;
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Gets the position a transfer of the given file should resume from. If the file has a map,
+     * this is the start of the first chunk that hasn't been received; if it has a map that can't
+     * be read the transfer must start again from the beginning; otherwise it is the length of the
+     * file.
+     *
+     * @param file The file being received
+     *
+     * @return The position to resume from
+     */
+    public static long getResumePosition(final Path file) {
+        final Path mapPath = getMapPath(file);
+        if (Files.exists(mapPath)) {
+            try (FileChannel channel = FileChannel.open(mapPath, StandardOpenOption.READ)) {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                channel.read(header, 0);
+                header.flip();
+                if (header.remaining() == HEADER_SIZE && header.getInt() == MAGIC
+                        && header.getInt() == CHUNK_SIZE) {
+                    final long size = header.getLong();
+                    final BitSet chunks = read(channel, size);
+                    if (chunks != null) {
+                        return Math.min(size, (long) chunks.nextClearBit(0) * CHUNK_SIZE);
+                    }
+                }
+            } catch (IOException ex) {
+                // Treat as unreadable.
+            }
+            return 0;
+        }
+
+        try {
+            return Files.exists(file) ? Files.size(file) : 0;
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Deletes the map for a file, if it exists.
+     *
+     * @param file The file being received
+     *
+     * @throws IOException If the map could not be deleted
+     */
+    public static void delete(final Path file) throws IOException {
+        Files.deleteIfExists(getMapPath(file));
+    }
+
+    /**
+     * Reads the chunks stored in a map.
+     *
+     * @param channel The channel to read the map from
+     * @param size    The expected size of the file
+     *
+     * @return The received chunks, or null if the map is empty or doesn't match
+     *
+     * @throws IOException If the map could not be read
+     */
+    private static BitSet read(final FileChannel channel, final long size) throws IOException {
+        final int length = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE + 7) / 8;
+        if (channel.size() != HEADER_SIZE + length) {
+            return null;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+            // Keep reading.
+        }
+        buffer.flip();
+        if (buffer.remaining() != HEADER_SIZE + length || buffer.getInt() != MAGIC
+                || buffer.getInt() != CHUNK_SIZE || buffer.getLong() != size) {
+            return null;
+        }
+        return BitSet.valueOf(buffer);
+    }
+
+    /**
+     * Notes that a new stream of data is being received, starting at the given position. Anything
+     * before the position is assumed to have been received already, as the transfer wouldn't have
+     * been resumed from there otherwise.
+     *
+     * @param position The position in the file the data will start at
+     */
+    public void startStream(final long position) {
+        nextChunk = getChunk(position);
+    }
+
+    /**
+     * Notes that all data in the current stream up to the given position has been written to the
+     * file. The map will be saved in the background if it hasn't been recently.
+     *
+     * @param position The position in the file that has been received up to
+     */
+    public void received(final long position) {
+        final int end = getChunk(position);
+        if (end > nextChunk) {
+            chunks.set(nextChunk, end);
+            nextChunk = end;
+            dirty = true;
+        }
+
+        if (dirty && !closed && System.currentTimeMillis() - lastSaved >= SAVE_INTERVAL) {
+            scheduleSave();
+        }
+    }
+
+    /**
+     * Gets the position a transfer should resume from.
+     *
+     * @return The start of the first chunk that hasn't been received
+     */
+    public long getResumePosition() {
+        return Math.min(size, (long) chunks.nextClearBit(0) * CHUNK_SIZE);
+    }
+
+    /**
+     * Determines whether the whole file has been received.
+     *
+     * @return True if every chunk has been received, false otherwise
+     */
+    public boolean isComplete() {
+        return chunks.nextClearBit(0) >= chunkCount;
+    }
+
+    /**
+     * Saves the map on the calling thread, after making sure that the data it describes is on
+     * disk. Any save still pending in the background is superseded.
+     *
+     * @throws IOException If the map could not be saved
+     */
+    public void save() throws IOException {
+        pending.set(null);
+        write(getSnapshot());
+        dirty = false;
+        lastSaved = System.currentTimeMillis();
+    }
+
+    /**
+     * Closes the map. Any changes are saved in the background, after which the map's file is
+     * closed, and deleted if the whole file was received. The data channel is left open, and must
+     * not be closed by the caller until the save completes; see {@link #close(Closeable)}.
+     */
+    @Override
+    public void close() {
+        close(null);
+    }
+
+    /**
+     * Closes the map, then closes the data channel once any final save has completed. Any changes
+     * are saved in the background, after which the map's file is closed, and deleted if the whole
+     * file was received.
+     *
+     * @param file The file being received, or null to leave the data channel open
+     */
+    public void close(final Closeable file) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        final ByteBuffer snapshot = dirty ? getSnapshot() : null;
+        final boolean complete = isComplete();
+        saver.execute(() -> {
+            try {
+                if (snapshot != null && data.isOpen()) {
+                    pending.set(null);
+                    write(snapshot);
+                }
+            } catch (IOException ex) {
+                LOG.info("Unable to save DCC resume map", ex);
+            } finally {
+                closeQuietly(channel);
+                closeQuietly(file);
+            }
+            if (complete) {
+                try {
+                    Files.deleteIfExists(mapPath);
+                } catch (IOException ex) {
+                    LOG.info("Unable to delete DCC resume map", ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues a save of the current state of the map. If a save is already waiting to run, its
+     * snapshot is replaced rather than queueing another.
+     */
+    private void scheduleSave() {
+        dirty = false;
+        lastSaved = System.currentTimeMillis();
+        if (pending.getAndSet(getSnapshot()) == null) {
+            saver.execute(() -> {
+                final ByteBuffer snapshot = pending.getAndSet(null);
+                if (snapshot == null || !channel.isOpen()) {
+                    return;
+                }
+                try {
+                    write(snapshot);
+                } catch (IOException ex) {
+                    LOG.info("Unable to save DCC resume map", ex);
+                }
+            });
+        }
+    }
+
+    /**
+     * Takes a snapshot of the map, in the form it is saved in.
+     *
+     * @return A buffer containing the map, ready to be written
+     */
+    private ByteBuffer getSnapshot() {
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + (chunkCount + 7) / 8);
+        buffer.putInt(MAGIC);
+        buffer.putInt(CHUNK_SIZE);
+        buffer.putLong(size);
+        final byte[] bits = chunks.toByteArray();
+        buffer.put(bits, 0, Math.min(bits.length, buffer.remaining()));
+        buffer.position(buffer.limit());
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes a snapshot of the map, after forcing the data it describes to disk.
+     *
+     * @param snapshot The snapshot to write
+     *
+     * @throws IOException If the data couldn't be forced or the map couldn't be written
+     */
+    private void write(final ByteBuffer snapshot) throws IOException {
+        data.force(false);
+        while (snapshot.hasRemaining()) {
+            channel.write(snapshot, snapshot.position());
+        }
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ex) {
+                // Nothing more can be done.
+            }
+        }
+    }
+
+    /**
+     * Gets the chunk containing a position in the file.
+     *
+     * @param position The position in the file
+     *
+     * @return The index of the chunk, or the number of chunks if the position is at the end
+     */
+    private int getChunk(final long position) {
+        if (position >= size) {
+            return chunkCount;
+        }
+        return (int) (position / CHUNK_SIZE);
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.dcc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TransferRateTest {
+
+    @Test
+    public void testNeedsTwoSamples() {
+        final TransferRate rate = new TransferRate(5000, 10);
+        assertFalse(rate.hasRate());
+        rate.sample(1000, 100);
+        assertFalse(rate.hasRate());
+        assertEquals(0, rate.getBytesPerSecond(), 0);
+        rate.sample(2000, 300);
+        assertTrue(rate.hasRate());
+        assertEquals(200, rate.getBytesPerSecond(), 0.001);
+    }
+
+    @Test
+    public void testIgnoresSamplesOutsideWindow() {
+        final TransferRate rate = new TransferRate(2000, 10);
+        rate.sample(0, 0);
+        rate.sample(1000, 10000);
+        rate.sample(2000, 10100);
+        rate.sample(3000, 10200);
+        assertEquals(100, rate.getBytesPerSecond(), 0.001);
+    }
+
+    @Test
+    public void testOverwritesOldestSamples() {
+        final TransferRate rate = new TransferRate(60000, 3);
+        rate.sample(0, 0);
+        rate.sample(1000, 5000);
+        rate.sample(2000, 5500);
+        rate.sample(3000, 6000);
+        assertEquals(500, rate.getBytesPerSecond(), 0.001);
+    }
+
+    @Test
+    public void testUsesPreviousSampleWhenOthersAreStale() {
+        final TransferRate rate = new TransferRate(1000, 10);
+        rate.sample(0, 0);
+        rate.sample(10000, 1000);
+        assertEquals(100, rate.getBytesPerSecond(), 0.001);
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.dcc.io;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResumeMapTest {
+
+    private static final long CHUNK = 1024 * 1024;
+    private static final long SIZE = 10 * CHUNK + 100;
+    private static final Executor DIRECT = Runnable::run;
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+    private Path file;
+    private FileChannel data;
+
+    @Before
+    public void setUp() throws Exception {
+        file = folder.getRoot().toPath().resolve("file.bin");
+        data = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        data.close();
+    }
+
+    @Test
+    public void testNewMapStartsFromReceivedPosition() throws Exception {
+        final ResumeMap map = ResumeMap.open(file, data, SIZE, 3 * CHUNK + 10, DIRECT);
+
+        assertTrue(Files.exists(ResumeMap.getMapPath(file)));
+        assertEquals(3 * CHUNK, map.getResumePosition());
+        assertEquals(3 * CHUNK, ResumeMap.getResumePosition(file));
+        map.close();
+    }
+
+    @Test
+    public void testOnlyWholeChunksAreMarked() throws Exception {
+        final ResumeMap map = ResumeMap.open(file, data, SIZE, 0, DIRECT);
+        map.startStream(0);
+        map.received(CHUNK + CHUNK / 2);
+        map.save();
+
+        assertEquals(CHUNK, map.getResumePosition());
+        assertEquals(CHUNK, ResumeMap.getResumePosition(file));
+        assertFalse(map.isComplete());
+        map.close();
+    }
+
+    @Test
+    public void testReopenedMapKeepsChunks() throws Exception {
+        ResumeMap map = ResumeMap.open(file, data, SIZE, 0, DIRECT);
+        map.startStream(0);
+        map.received(4 * CHUNK);
+        map.close();
+
+        map = ResumeMap.open(file, data, SIZE, 0, DIRECT);
+        assertEquals(4 * CHUNK, map.getResumePosition());
+
+        // A second stream resumed from the gap fills it in.
+        map.startStream(4 * CHUNK);
+        map.received(6 * CHUNK);
+        map.close();
+        assertEquals(6 * CHUNK, ResumeMap.getResumePosition(file));
+    }
+
+    @Test
+    public void testMapForDifferentSizeIsReplaced() throws Exception {
+        ResumeMap map = ResumeMap.open(file, data, SIZE, 0, DIRECT);
+        map.startStream(0);
+        map.received(4 * CHUNK);
+        map.close();
+
+        map = ResumeMap.open(file, data, 2 * SIZE, 2 * CHUNK, DIRECT);
+        assertEquals(2 * CHUNK, map.getResumePosition());
+        map.close();
+    }
+
+    @Test
+    public void testCompleteMapIsDeletedOnClose() throws Exception {
+        final ResumeMap map = ResumeMap.open(file, data, SIZE, 0, DIRECT);
+        map.startStream(0);
+        map.received(SIZE);
+
+        assertTrue(map.isComplete());
+        assertEquals(SIZE, map.getResumePosition());
+        map.close(data);
+        assertFalse(Files.exists(ResumeMap.getMapPath(file)));
+        assertFalse(data.isOpen());
+    }
+
+    @Test
+    public void testTornMapRestartsTransfer() throws Exception {
+        final ResumeMap map = ResumeMap.open(file, data, SIZE, 5 * CHUNK, DIRECT);
+        map.close();
+        try (FileChannel channel = FileChannel.open(ResumeMap.getMapPath(file),
+                StandardOpenOption.WRITE)) {
+            channel.truncate(17);
+        }
+
+        assertEquals(0, ResumeMap.getResumePosition(file));
+    }
+
+    @Test
+    public void testCorruptMapRestartsTransfer() throws Exception {
+        final ResumeMap map = ResumeMap.open(file, data, SIZE, 5 * CHUNK, DIRECT);
+        map.close();
+        final byte[] bytes = Files.readAllBytes(ResumeMap.getMapPath(file));
+        bytes[0] ^= 0xff;
+        Files.write(ResumeMap.getMapPath(file), bytes);
+
+        assertEquals(0, ResumeMap.getResumePosition(file));
+    }
+
+    @Test
+    public void testWithoutMapResumesFromFileLength() throws Exception {
+        Files.write(file, new byte[123]);
+
+        assertEquals(123, ResumeMap.getResumePosition(file));
+        ResumeMap.delete(file);
+        assertEquals(0, ResumeMap.getResumePosition(folder.getRoot().toPath().resolve("none")));
+    }
+
+    @Test
+    public void testBackgroundSavesUseSnapshots() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        final ResumeMap map = ResumeMap.open(file, data, SIZE, 0, tasks::add);
+        map.startStream(0);
+        map.received(2 * CHUNK);
+
+        // Only the save from creating the map is queued, and it records nothing received. The
+        // second change falls inside the save interval.
+        assertEquals(1, tasks.size());
+        assertEquals(0, ResumeMap.getResumePosition(file));
+        runAll(tasks);
+        assertEquals(0, ResumeMap.getResumePosition(file));
+
+        map.close(data);
+        assertTrue(data.isOpen());
+        runAll(tasks);
+        assertEquals(2 * CHUNK, ResumeMap.getResumePosition(file));
+        assertFalse(data.isOpen());
+    }
+
+    private static void runAll(final List<Runnable> tasks) {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+}
@@ -26,8 +26,6 @@ import com.dmdirc.interfaces.CommandController;
 import com.dmdirc.interfaces.WindowModel;
 import com.dmdirc.util.CommandUtils;
 import com.dmdirc.util.LogUtils;
-import com.dmdirc.util.io.StreamUtils;
-import com.google.common.io.CharStreams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,8 +33,7 @@ import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.List;
+import java.util.Collection;
 
 /**
  * A command which allows users execute scripts.
@@ -46,50 +43,91 @@ public class ExecCommand extends BaseCommand {
     private static final Logger LOG = LoggerFactory.getLogger(ExecCommand.class);
     /** A command info object for this command. */
     public static final BaseCommandInfo INFO = new BaseCommandInfo("exec",
-            "exec <command> [<parameters>] - executes an external program "
-            + "and displays the output", CommandType.TYPE_GLOBAL);
+            "exec [--list | --kill <job id> | [--timeout <seconds>] <command> [<parameters>]]"
+            + " - lists running programs / kills a running program / executes an external "
+            + "program and displays the output as it runs", CommandType.TYPE_GLOBAL);
+    /** The manager to run programs with. */
+    private final ExecManager manager;
 
     @Inject
-    public ExecCommand(final CommandController controller) {
+    public ExecCommand(final CommandController controller, final ExecManager manager) {
         super(controller);
+        this.manager = manager;
     }
 
     @Override
     public void execute(@Nonnull final WindowModel origin,
             final CommandArguments args, final CommandContext context) {
-        final String[] commandArray = CommandUtils.parseArguments(
-                args.getArgumentsAsString());
+        final String[] arguments = args.getArguments();
+        if (arguments.length > 0 && "--list".equals(arguments[0])) {
+            doList(origin, args.isSilent());
+        } else if (arguments.length > 0 && "--kill".equals(arguments[0])) {
+            doKill(origin, args.isSilent(), args.getArgumentsAsString(1));
+        } else if (arguments.length > 0 && "--timeout".equals(arguments[0])) {
+            final int timeout;
+            try {
+                timeout = arguments.length > 1 ? Integer.parseInt(arguments[1]) : -1;
+            } catch (NumberFormatException ex) {
+                showUsage(origin, args.isSilent(), INFO.getName(), INFO.getHelp());
+                return;
+            }
+            if (timeout < 0) {
+                showUsage(origin, args.isSilent(), INFO.getName(), INFO.getHelp());
+            } else {
+                doExecute(origin, args.isSilent(), args.getArgumentsAsString(2), timeout);
+            }
+        } else {
+            doExecute(origin, args.isSilent(), args.getArgumentsAsString(), -1);
+        }
+    }
+
+    private void doExecute(final WindowModel origin, final boolean isSilent,
+            final String commandLine, final int timeout) {
+        final String[] commandArray = CommandUtils.parseArguments(commandLine);
 
         try {
             // This checks the command to execute has correct quotes
             // (if necessary). Without this /exec "command arg1 arg2 would error.
             if (commandArray.length == 0) {
-                showError(origin, args.isSilent(),
+                showError(origin, isSilent,
                         "Could not execute: Invalid file name provided");
             } else if (!new File(commandArray[0]).exists()) {
-                showError(origin, args.isSilent(),
+                showError(origin, isSilent,
                         "Could not execute: " + commandArray[0] + " does not exist.");
             } else {
-                final Process p = Runtime.getRuntime().exec(commandArray);
-                if (args.isSilent()) {
-                    StreamUtils.readStream(p.getInputStream());
-                    StreamUtils.readStream(p.getErrorStream());
-                } else {
-                    final List<String> execOutput = CharStreams.readLines(
-                            new InputStreamReader(p.getInputStream()));
-                    final List<String> errorOutput = CharStreams.readLines(
-                            new InputStreamReader(p.getErrorStream()));
-                    for (String line : execOutput) {
-                        showOutput(origin, args.isSilent(), line);
-                    }
-                    for (String line : errorOutput) {
-                        showError(origin, args.isSilent(), line);
-                    }
-                }
+                manager.execute(origin, commandArray, isSilent, timeout);
             }
         } catch (IOException ex) {
             LOG.info(LogUtils.USER_ERROR, "Unable to run application: {}", ex.getMessage(), ex);
         }
     }
 
+    private void doList(final WindowModel origin, final boolean isSilent) {
+        final Collection<ExecJob> jobs = manager.getJobs();
+        if (jobs.isEmpty()) {
+            showError(origin, isSilent, "There are currently no running programs");
+        } else {
+            final long now = System.currentTimeMillis();
+            for (ExecJob job : jobs) {
+                showOutput(origin, isSilent, "Job ID: " + job.getId() + " - " + job.getCommand()
+                        + " (running for " + (now - job.getStartTime()) / 1000 + "s)");
+            }
+        }
+    }
+
+    private void doKill(final WindowModel origin, final boolean isSilent, final String arg) {
+        final int id;
+        try {
+            id = Integer.parseInt(arg);
+        } catch (NumberFormatException ex) {
+            showUsage(origin, isSilent, INFO.getName(), INFO.getHelp());
+            return;
+        }
+        if (manager.kill(id)) {
+            showOutput(origin, isSilent, "Killing job " + id);
+        } else {
+            showError(origin, isSilent, "There is currently no running program with that ID");
+        }
+    }
+
 }
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.exec;
+
+import com.dmdirc.events.CommandErrorEvent;
+import com.dmdirc.events.CommandOutputEvent;
+import com.dmdirc.interfaces.WindowModel;
+import com.dmdirc.util.io.StreamUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A running external program, started by {@link ExecManager}.
+ *
+ * <p>The program's standard output and standard error are each read by their own pump, so
+ * neither can fill up and block the program while the other is being read. Lines are shown in
+ * the origin window as they arrive, up to a limit per second shared between both streams. Once the
+ * limit is reached the pumps stop reading, which makes the program wait rather than building up
+ * output in memory.
+ */
+public class ExecJob {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ExecJob.class);
+    /** How long to wait for output to finish after the program exits, in milliseconds. */
+    private static final long PUMP_TIMEOUT = 1000;
+    /** The ID of this job. */
+    private final int id;
+    /** The command line being executed, for display. */
+    private final String command;
+    /** The window to show output in. */
+    private final WindowModel origin;
+    /** Whether output should be discarded. */
+    private final boolean silent;
+    /** The running program. */
+    private final Process process;
+    /** The maximum number of lines to show per second, or 0 for no limit. */
+    private final int rateLimit;
+    /** The manager to tell when the job finishes. */
+    private final ExecManager manager;
+    /** The time the job was started, in milliseconds. */
+    private final long startTime = System.currentTimeMillis();
+    /** Counts down as each pump finishes. */
+    private final CountDownLatch pumps = new CountDownLatch(2);
+    /** The start of the current rate limiting period, in nanoseconds. */
+    private long periodStart = System.nanoTime();
+    /** The number of lines shown in the current rate limiting period. */
+    private int periodLines;
+    /** Why the job was killed, if it was. */
+    private volatile String killReason;
+    /** The pending timeout for the job, if any. */
+    private volatile Future<?> timeout;
+
+    /**
+     * Creates a new job for a program that has been started.
+     *
+     * @param id        The ID of the job
+     * @param command   The command line being executed, for display
+     * @param origin    The window to show output in
+     * @param silent    Whether output should be discarded
+     * @param process   The running program
+     * @param rateLimit The maximum number of lines to show per second, or 0 for no limit
+     * @param manager   The manager to tell when the job finishes
+     */
+    public ExecJob(final int id, final String command, final WindowModel origin,
+            final boolean silent, final Process process, final int rateLimit,
+            final ExecManager manager) {
+        this.id = id;
+        this.command = command;
+        this.origin = origin;
+        this.silent = silent;
+        this.process = process;
+        this.rateLimit = rateLimit;
+        this.manager = manager;
+    }
+
+    /**
+     * Starts pumping the program's output, and waiting for it to exit.
+     *
+     * @param executor The executor to run the pumps on
+     */
+    public void start(final Executor executor) {
+        // Nothing is ever written to the program, so don't leave it waiting for input.
+        StreamUtils.close(process.getOutputStream());
+        executor.execute(() -> pump(process.getInputStream(), false));
+        executor.execute(() -> pump(process.getErrorStream(), true));
+        executor.execute(this::waitFor);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public boolean isAlive() {
+        return process.isAlive();
+    }
+
+    void setTimeout(final Future<?> timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Asks the program to terminate, and stops showing its output.
+     *
+     * @param reason Why the job was killed, to show in the origin window
+     */
+    public void kill(final String reason) {
+        killReason = reason;
+        process.destroy();
+    }
+
+    /**
+     * Forcibly terminates the program, if it is still running.
+     */
+    public void destroy() {
+        if (process.isAlive()) {
+            process.destroyForcibly();
+        }
+    }
+
+    /**
+     * Reads lines from one of the program's output streams until it is closed.
+     *
+     * @param stream The stream to read
+     * @param error  Whether the stream is the program's standard error
+     */
+    private void pump(final InputStream stream, final boolean error) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream))) {
+            String line;
+            while ((line = reader.readLine()) != null && killReason == null) {
+                if (!silent) {
+                    throttle();
+                    show(line, error);
+                }
+            }
+        } catch (IOException ex) {
+            // The stream is closed when the program is killed.
+            LOG.debug("Output of {} closed", command, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pumps.countDown();
+        }
+    }
+
+    /**
+     * Waits until another line may be shown without exceeding the rate limit.
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    private synchronized void throttle() throws InterruptedException {
+        if (rateLimit <= 0) {
+            return;
+        }
+        final long period = TimeUnit.SECONDS.toNanos(1);
+        long now = System.nanoTime();
+        if (now - periodStart >= period) {
+            periodStart = now;
+            periodLines = 0;
+        } else if (periodLines >= rateLimit) {
+            // Holding the lock also holds up the other stream, so the limit is shared.
+            TimeUnit.NANOSECONDS.sleep(periodStart + period - now);
+            now = System.nanoTime();
+            periodStart = now;
+            periodLines = 0;
+        }
+        periodLines++;
+    }
+
+    /**
+     * Waits for the program to exit and its output to be shown, then removes the job.
+     */
+    private void waitFor() {
+        try {
+            final int exitValue = process.waitFor();
+            // Output may be held open by the program's own children, so don't wait forever.
+            pumps.await(PUMP_TIMEOUT, TimeUnit.MILLISECONDS);
+            if (killReason != null) {
+                show("Job " + id + " (" + command + ") " + killReason, true);
+            } else if (exitValue != 0 && !silent) {
+                show("Job " + id + " (" + command + ") exited with status " + exitValue, true);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            final Future<?> pending = timeout;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            manager.jobFinished(this);
+        }
+    }
+
+    private void show(final String line, final boolean error) {
+        if (error) {
+            origin.getEventBus().publishAsync(new CommandErrorEvent(origin, line));
+        } else {
+            origin.getEventBus().publishAsync(new CommandOutputEvent(origin, line));
+        }
+    }
+
+}
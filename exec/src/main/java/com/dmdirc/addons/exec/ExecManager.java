@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.exec;
+
+import com.dmdirc.config.GlobalConfig;
+import com.dmdirc.config.binding.ConfigBinder;
+import com.dmdirc.config.binding.ConfigBinding;
+import com.dmdirc.config.provider.AggregateConfigProvider;
+import com.dmdirc.interfaces.WindowModel;
+import com.dmdirc.plugins.PluginDomain;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Starts external programs and keeps track of those that are still running.
+ */
+@Singleton
+public class ExecManager {
+
+    /** How long to give a killed program to exit before forcibly terminating it, in ms. */
+    private static final long KILL_GRACE = 2000;
+    /** The jobs that are still running. */
+    private final Map<Integer, ExecJob> jobs = new ConcurrentSkipListMap<>();
+    /** The ID to give to the next job. */
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    /** Binder used to keep settings up to date. */
+    private final ConfigBinder binder;
+    /** Pool that runs the output pumps of all jobs. */
+    private ExecutorService pool;
+    /** Scheduler for timeouts and forced kills. */
+    private ScheduledExecutorService scheduler;
+    /** The maximum number of lines per second to show from each job, or 0 for no limit. */
+    private int rateLimit;
+    /** The default number of seconds a job may run for, or 0 for no limit. */
+    private int timeout;
+
+    @Inject
+    public ExecManager(@GlobalConfig final AggregateConfigProvider config,
+            @PluginDomain(ExecPlugin.class) final String domain) {
+        binder = config.getBinder().withDefaultDomain(domain);
+    }
+
+    /**
+     * Starts the manager's threads and binds its settings.
+     */
+    public void start() {
+        final AtomicInteger threads = new AtomicInteger();
+        pool = Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r, "Exec pump " + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "Exec watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        binder.bind(this, ExecManager.class);
+    }
+
+    /**
+     * Terminates all running jobs and stops the manager's threads.
+     */
+    public void stop() {
+        binder.unbind(this);
+        jobs.values().forEach(job -> {
+            job.kill("was stopped");
+            job.destroy();
+        });
+        jobs.clear();
+        pool.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @ConfigBinding(key = "ratelimit")
+    void handleRateLimit(final int value) {
+        rateLimit = value;
+    }
+
+    @ConfigBinding(key = "timeout")
+    void handleTimeout(final int value) {
+        timeout = value;
+    }
+
+    /**
+     * Starts an external program.
+     *
+     * @param origin  The window to show the program's output in
+     * @param command The program to execute and its arguments
+     * @param silent  Whether the program's output should be discarded
+     * @param seconds The number of seconds the program may run for, 0 for no limit, or -1 to use
+     *                the configured timeout
+     *
+     * @return The new job
+     *
+     * @throws IOException If the program could not be started
+     */
+    public ExecJob execute(final WindowModel origin, final String[] command,
+            final boolean silent, final int seconds) throws IOException {
+        final Process process = startProcess(command);
+        final ExecJob job = new ExecJob(nextId.getAndIncrement(), String.join(" ", command),
+                origin, silent, process, rateLimit, this);
+        jobs.put(job.getId(), job);
+        job.start(pool);
+
+        final int limit = seconds < 0 ? timeout : seconds;
+        if (limit > 0) {
+            job.setTimeout(scheduler.schedule(() -> kill(job, "timed out"), limit,
+                    TimeUnit.SECONDS));
+        }
+        return job;
+    }
+
+    /**
+     * Kills the job with the given ID.
+     *
+     * @param id The ID of the job to kill
+     *
+     * @return True if the job was found, false otherwise
+     */
+    public boolean kill(final int id) {
+        final ExecJob job = jobs.get(id);
+        if (job == null) {
+            return false;
+        }
+        kill(job, "was killed");
+        return true;
+    }
+
+    /**
+     * Gets all jobs that are still running.
+     *
+     * @return The running jobs, in order of ID
+     */
+    public Collection<ExecJob> getJobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * Called by a job once its program has exited.
+     *
+     * @param job The job that has finished
+     */
+    void jobFinished(final ExecJob job) {
+        jobs.remove(job.getId());
+    }
+
+    /**
+     * Starts the process for a program.
+     *
+     * @param command The program to execute and its arguments
+     *
+     * @return The running process
+     *
+     * @throws IOException If the program could not be started
+     */
+    @VisibleForTesting
+    Process startProcess(final String[] command) throws IOException {
+        return new ProcessBuilder(command).start();
+    }
+
+    private void kill(final ExecJob job, final String reason) {
+        job.kill(reason);
+        scheduler.schedule(job::destroy, KILL_GRACE, TimeUnit.MILLISECONDS);
+    }
+
+}
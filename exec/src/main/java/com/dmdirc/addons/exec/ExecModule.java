@@ -18,10 +18,25 @@
 package com.dmdirc.addons.exec;
 
 import com.dmdirc.ClientModule;
+import com.dmdirc.plugins.PluginDomain;
+import com.dmdirc.plugins.PluginInfo;
 
 import dagger.Module;
+import dagger.Provides;
 
-@Module(injects = ExecCommand.class, addsTo = ClientModule.class)
+@Module(injects = {ExecCommand.class, ExecManager.class}, addsTo = ClientModule.class)
 public class ExecModule {
 
+    private final PluginInfo pluginInfo;
+
+    public ExecModule(final PluginInfo pluginInfo) {
+        this.pluginInfo = pluginInfo;
+    }
+
+    @Provides
+    @PluginDomain(ExecPlugin.class)
+    public String getSettingsDomain() {
+        return pluginInfo.getDomain();
+    }
+
 }
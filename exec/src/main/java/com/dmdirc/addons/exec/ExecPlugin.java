@@ -27,12 +27,28 @@ import dagger.ObjectGraph;
  */
 public class ExecPlugin extends BaseCommandPlugin {
 
+    /** The manager that runs external programs. */
+    private ExecManager manager;
+
     @Override
     public void load(final PluginInfo pluginInfo, final ObjectGraph graph) {
         super.load(pluginInfo, graph);
 
-        setObjectGraph(graph.plus(new ExecModule()));
+        setObjectGraph(graph.plus(new ExecModule(pluginInfo)));
         registerCommand(ExecCommand.class, ExecCommand.INFO);
+        manager = getObjectGraph().get(ExecManager.class);
+    }
+
+    @Override
+    public void onLoad() {
+        super.onLoad();
+        manager.start();
+    }
+
+    @Override
+    public void onUnload() {
+        super.onUnload();
+        manager.stop();
     }
 
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.exec;
+
+import com.dmdirc.commandparser.CommandArguments;
+import com.dmdirc.commandparser.commands.context.CommandContext;
+import com.dmdirc.events.CommandErrorEvent;
+import com.dmdirc.events.CommandOutputEvent;
+import com.dmdirc.events.eventbus.EventBus;
+import com.dmdirc.interfaces.CommandController;
+import com.dmdirc.interfaces.WindowModel;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.aryEq;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ExecCommandTest {
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+    @Mock private CommandController controller;
+    @Mock private ExecManager manager;
+    @Mock private WindowModel origin;
+    @Mock private EventBus eventBus;
+    @Mock private CommandArguments arguments;
+    @Mock private CommandContext context;
+    @Mock private ExecJob job;
+    @Captor private ArgumentCaptor<CommandOutputEvent> outputEventCaptor;
+    @Captor private ArgumentCaptor<CommandErrorEvent> errorEventCaptor;
+    private ExecCommand command;
+
+    @Before
+    public void setUp() {
+        when(controller.getCommandChar()).thenReturn('/');
+        when(origin.getEventBus()).thenReturn(eventBus);
+        command = new ExecCommand(controller, manager);
+    }
+
+    @Test
+    public void testListWithNoJobs() {
+        when(manager.getJobs()).thenReturn(Collections.emptyList());
+        execute("--list");
+
+        verify(eventBus).publishAsync(errorEventCaptor.capture());
+        assertEquals("There are currently no running programs",
+                errorEventCaptor.getValue().getMessage());
+    }
+
+    @Test
+    public void testListShowsRunningJobs() {
+        when(job.getId()).thenReturn(2);
+        when(job.getCommand()).thenReturn("/bin/test arg");
+        when(job.getStartTime()).thenReturn(System.currentTimeMillis() - 5000);
+        when(manager.getJobs()).thenReturn(Collections.singletonList(job));
+        execute("--list");
+
+        verify(eventBus).publishAsync(outputEventCaptor.capture());
+        assertEquals("Job ID: 2 - /bin/test arg (running for 5s)",
+                outputEventCaptor.getValue().getMessage());
+    }
+
+    @Test
+    public void testKill() {
+        when(manager.kill(3)).thenReturn(true);
+        execute("--kill", "3");
+
+        verify(manager).kill(3);
+        verify(eventBus).publishAsync(outputEventCaptor.capture());
+        assertEquals("Killing job 3", outputEventCaptor.getValue().getMessage());
+    }
+
+    @Test
+    public void testKillUnknownJob() {
+        execute("--kill", "4");
+
+        verify(eventBus).publishAsync(errorEventCaptor.capture());
+        assertEquals("There is currently no running program with that ID",
+                errorEventCaptor.getValue().getMessage());
+    }
+
+    @Test
+    public void testKillWithInvalidId() {
+        execute("--kill", "four");
+
+        verify(manager, never()).kill(anyInt());
+    }
+
+    @Test
+    public void testExecuteUsesDefaultTimeout() throws Exception {
+        final String program = folder.newFile("program").getAbsolutePath();
+        execute(program, "arg");
+
+        verify(manager).execute(same(origin), aryEq(new String[]{program, "arg"}), eq(false),
+                eq(-1));
+    }
+
+    @Test
+    public void testExecuteWithTimeout() throws Exception {
+        final String program = folder.newFile("program").getAbsolutePath();
+        execute("--timeout", "5", program);
+
+        verify(manager).execute(same(origin), aryEq(new String[]{program}), eq(false), eq(5));
+    }
+
+    @Test
+    public void testExecuteWithInvalidTimeout() throws Exception {
+        final String program = folder.newFile("program").getAbsolutePath();
+        execute("--timeout", "five", program);
+
+        verify(manager, never()).execute(any(), any(), anyBoolean(), anyInt());
+    }
+
+    @Test
+    public void testExecuteMissingProgram() throws Exception {
+        final String program = folder.getRoot().getAbsolutePath() + "/missing";
+        execute(program);
+
+        verify(manager, never()).execute(any(), any(), anyBoolean(), anyInt());
+        verify(eventBus).publishAsync(errorEventCaptor.capture());
+        assertEquals("Could not execute: " + program + " does not exist.",
+                errorEventCaptor.getValue().getMessage());
+    }
+
+    private void execute(final String... args) {
+        when(arguments.getArguments()).thenReturn(args);
+        when(arguments.getArgumentsAsString()).thenReturn(String.join(" ", args));
+        for (int i = 1; i < args.length; i++) {
+            when(arguments.getArgumentsAsString(i)).thenReturn(
+                    String.join(" ", Arrays.copyOfRange(args, i, args.length)));
+        }
+        command.execute(origin, arguments, context);
+    }
+
+}
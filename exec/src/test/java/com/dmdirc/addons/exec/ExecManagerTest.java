@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.exec;
+
+import com.dmdirc.config.binding.ConfigBinder;
+import com.dmdirc.config.provider.AggregateConfigProvider;
+import com.dmdirc.events.CommandErrorEvent;
+import com.dmdirc.events.CommandOutputEvent;
+import com.dmdirc.events.eventbus.EventBus;
+import com.dmdirc.interfaces.WindowModel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ExecManagerTest {
+
+    @Mock private AggregateConfigProvider config;
+    @Mock private ConfigBinder binder;
+    @Mock private WindowModel origin;
+    @Mock private EventBus eventBus;
+    private final List<Object> events = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private StubProcess process;
+    private ExecManager manager;
+
+    @Before
+    public void setUp() throws IOException {
+        when(config.getBinder()).thenReturn(binder);
+        when(binder.withDefaultDomain("exec")).thenReturn(binder);
+        when(origin.getEventBus()).thenReturn(eventBus);
+        doAnswer(invocation -> events.add(invocation.getArguments()[0]))
+                .when(eventBus).publishAsync(any());
+
+        process = new StubProcess();
+        manager = new ExecManager(config, "exec") {
+            @Override
+            Process startProcess(final String[] command) {
+                return process;
+            }
+
+            @Override
+            void jobFinished(final ExecJob job) {
+                super.jobFinished(job);
+                finished.countDown();
+            }
+        };
+        manager.start();
+    }
+
+    @After
+    public void tearDown() {
+        manager.stop();
+    }
+
+    @Test
+    public void testNoisyErrorOutputDoesNotBlockStandardOutput() throws Exception {
+        manager.execute(origin, new String[]{"test"}, false, 0);
+
+        // Far more than the pipe can hold, so the program would block if stderr wasn't read.
+        final Thread errors = write(process.stderr, 5000, "error");
+        final Thread output = write(process.stdout, 10, "output");
+        output.join(5000);
+        errors.join(5000);
+        process.exit(0);
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(5000, getMessages(CommandErrorEvent.class).size());
+        assertEquals(10, getMessages(CommandOutputEvent.class).size());
+        assertTrue(manager.getJobs().isEmpty());
+    }
+
+    @Test
+    public void testRateLimitIsSharedBetweenStreams() throws Exception {
+        manager.handleRateLimit(10);
+        manager.execute(origin, new String[]{"test"}, false, 0);
+
+        final long start = System.nanoTime();
+        write(process.stdout, 12, "output");
+        write(process.stderr, 12, "error");
+        waitForEvents(24);
+
+        // 24 lines at 10 a second takes at least two seconds; 12 at a time would only take one.
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 1900);
+        assertEquals(12, getMessages(CommandErrorEvent.class).size());
+        assertEquals(12, getMessages(CommandOutputEvent.class).size());
+        process.exit(0);
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testNonZeroExitStatusIsReported() throws Exception {
+        manager.execute(origin, new String[]{"test", "arg"}, false, 0);
+        process.exit(3);
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("Job 1 (test arg) exited with status 3"),
+                getMessages(CommandErrorEvent.class));
+    }
+
+    @Test
+    public void testKill() throws Exception {
+        final ExecJob job = manager.execute(origin, new String[]{"test"}, false, 0);
+        assertEquals(Collections.singletonList(job), new ArrayList<>(manager.getJobs()));
+        assertFalse(manager.kill(job.getId() + 1));
+
+        assertTrue(manager.kill(job.getId()));
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertFalse(process.isAlive());
+        assertEquals(Collections.singletonList("Job 1 (test) was killed"),
+                getMessages(CommandErrorEvent.class));
+        assertTrue(manager.getJobs().isEmpty());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        manager.execute(origin, new String[]{"test"}, false, 1);
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertFalse(process.isAlive());
+        assertEquals(Collections.singletonList("Job 1 (test) timed out"),
+                getMessages(CommandErrorEvent.class));
+    }
+
+    @Test
+    public void testConfiguredTimeoutIsUsedByDefault() throws Exception {
+        manager.handleTimeout(1);
+        manager.execute(origin, new String[]{"test"}, false, -1);
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("Job 1 (test) timed out"),
+                getMessages(CommandErrorEvent.class));
+    }
+
+    @Test
+    public void testSilentJobsShowNoOutput() throws Exception {
+        manager.execute(origin, new String[]{"test"}, true, 0);
+        write(process.stdout, 10, "output").join();
+        process.exit(1);
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void testStopKillsRunningJobs() throws Exception {
+        manager.execute(origin, new String[]{"test"}, false, 0);
+        manager.stop();
+
+        assertFalse(process.isAlive());
+        assertTrue(manager.getJobs().isEmpty());
+    }
+
+    private void waitForEvents(final int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (events.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private List<String> getMessages(final Class<?> type) {
+        synchronized (events) {
+            return events.stream().filter(type::isInstance).map(event ->
+                    event instanceof CommandErrorEvent ? ((CommandErrorEvent) event).getMessage()
+                            : ((CommandOutputEvent) event).getMessage())
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Writes lines to one of the process' streams in the background, then closes it.
+     */
+    private static Thread write(final OutputStream stream, final int lines, final String text) {
+        final Thread thread = new Thread(() -> {
+            try {
+                for (int i = 0; i < lines; i++) {
+                    stream.write((text + ' ' + i + '\n').getBytes(StandardCharsets.UTF_8));
+                }
+                stream.close();
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    /** A process whose output is written by the test through pipes. */
+    private static class StubProcess extends Process {
+
+        private final PipedOutputStream stdout = new PipedOutputStream();
+        private final PipedOutputStream stderr = new PipedOutputStream();
+        private final InputStream stdoutReader;
+        private final InputStream stderrReader;
+        private final CountDownLatch exited = new CountDownLatch(1);
+        private volatile int exitValue;
+
+        StubProcess() throws IOException {
+            stdoutReader = new PipedInputStream(stdout, 1024);
+            stderrReader = new PipedInputStream(stderr, 1024);
+        }
+
+        void exit(final int value) {
+            exitValue = value;
+            try {
+                stdout.close();
+                stderr.close();
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+            exited.countDown();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return stdoutReader;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return stderrReader;
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            exited.await();
+            return exitValue;
+        }
+
+        @Override
+        public int exitValue() {
+            if (isAlive()) {
+                throw new IllegalThreadStateException("Still running");
+            }
+            return exitValue;
+        }
+
+        @Override
+        public boolean isAlive() {
+            return exited.getCount() > 0;
+        }
+
+        @Override
+        public void destroy() {
+            if (isAlive()) {
+                exit(143);
+            }
+        }
+
+    }
+
+}
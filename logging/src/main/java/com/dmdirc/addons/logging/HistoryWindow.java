@@ -23,14 +23,12 @@ import com.dmdirc.events.eventbus.EventBus;
 import com.dmdirc.interfaces.WindowModel;
 import com.dmdirc.ui.core.components.WindowComponent;
 import com.dmdirc.ui.messages.BackBufferFactory;
-import com.dmdirc.util.io.ReverseFileReader;
 
 import com.google.common.annotations.VisibleForTesting;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Collections;
-import java.util.List;
 import java.util.Optional;
 
 import org.slf4j.Logger;
@@ -75,10 +73,8 @@ public class HistoryWindow extends FrameContainer {
 
     @VisibleForTesting
     void outputLoggingBackBuffer(final int limit) {
-        try (final ReverseFileReader reader = new ReverseFileReader(logFile)) {
-            final List<String> lines = reader.getLines(Math.min(limit, numLines));
-            Collections.reverse(lines);
-            lines.forEach(l ->
+        try {
+            LogFileReader.getLastLines(logFile, Math.min(limit, numLines)).forEach(l ->
                     getEventBus().publishAsync(new HistoricalLineRestoredEvent(this, l)));
         } catch (IOException | SecurityException ex) {
             LOG.warn(USER_ERROR, "Unable to read log file.", ex);
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.logging;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads lines from a log file using the sidecar index maintained by {@link LogIndexWriter}.
+ *
+ * <p>Both the index and the requested region of the log are memory mapped, so reading any range
+ * of lines costs a constant number of seeks regardless of the size of the log. Large regions are
+ * mapped in bounded windows rather than all at once.
+ */
+public class IndexedLogReader implements Closeable {
+
+    /** Default maximum number of bytes of the log to map at once. */
+    private static final int MAP_WINDOW = 4 * 1024 * 1024;
+
+    /** Charset used to read log files. */
+    private final Charset charset = Charset.defaultCharset();
+    /** Channel used to read the log. */
+    private final FileChannel logChannel;
+    /** The mapped index. */
+    private final MappedByteBuffer index;
+    /** Number of lines available to read. */
+    private final int lineCount;
+    /** Maximum number of bytes of the log to map at once, unless a single line is larger. */
+    private final int mapWindow;
+
+    /**
+     * Creates a new reader for the given log file.
+     *
+     * @param log The log file to read
+     *
+     * @throws IOException If the log or its index could not be read
+     */
+    public IndexedLogReader(final Path log) throws IOException {
+        this(log, MAP_WINDOW);
+    }
+
+    /**
+     * Creates a new reader for the given log file, mapping at most the given number of bytes of
+     * the log at once.
+     *
+     * @param log       The log file to read
+     * @param mapWindow The maximum number of bytes to map at once
+     *
+     * @throws IOException If the log or its index could not be read
+     */
+    IndexedLogReader(final Path log, final int mapWindow) throws IOException {
+        this.mapWindow = mapWindow;
+        try (FileChannel indexChannel = FileChannel.open(LogIndexWriter.getIndexPath(log),
+                StandardOpenOption.READ)) {
+            final long entries = indexChannel.size() / LogIndexWriter.ENTRY_SIZE;
+            index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    entries * LogIndexWriter.ENTRY_SIZE);
+        }
+        logChannel = FileChannel.open(log, StandardOpenOption.READ);
+
+        // Ignore any entries describing data that hasn't made it to the log yet.
+        final long logSize = logChannel.size();
+        int count = index.capacity() / LogIndexWriter.ENTRY_SIZE;
+        while (count > 0 && getEnd(count - 1) > logSize) {
+            count--;
+        }
+        lineCount = count;
+    }
+
+    /**
+     * Determines whether the given log file has an index that can be read. Indexes are deleted
+     * whenever a log is appended to without indexing, so any index that exists is up to date.
+     *
+     * @param log The log file to check
+     *
+     * @return True if an {@link IndexedLogReader} can be used for the log, false otherwise
+     */
+    public static boolean isAvailable(final Path log) {
+        final Path index = LogIndexWriter.getIndexPath(log);
+        try {
+            return Files.exists(index) && Files.exists(log)
+                    && Files.size(index) >= LogIndexWriter.ENTRY_SIZE;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the number of lines that can be read from the log.
+     *
+     * @return The number of indexed lines
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Gets the last lines in the log.
+     *
+     * @param count The maximum number of lines to get
+     *
+     * @return The lines, oldest first
+     *
+     * @throws IOException If the log could not be read
+     */
+    public List<String> getLastLines(final int count) throws IOException {
+        final int lines = Math.min(count, lineCount);
+        return getLines(lineCount - lines, lines);
+    }
+
+    /**
+     * Gets all lines written at or after the given time.
+     *
+     * @param timestamp The earliest time to include, in milliseconds since the epoch
+     *
+     * @return The lines, oldest first
+     *
+     * @throws IOException If the log could not be read
+     */
+    public List<String> getLinesSince(final long timestamp) throws IOException {
+        final int first = findFirstLineSince(timestamp);
+        return getLines(first, lineCount - first);
+    }
+
+    /**
+     * Gets a range of lines from the log.
+     *
+     * @param first The index of the first line to get
+     * @param count The maximum number of lines to get
+     *
+     * @return The lines, oldest first
+     *
+     * @throws IOException If the log could not be read
+     */
+    public List<String> getLines(final int first, final int count) throws IOException {
+        final int start = Math.max(0, first);
+        final int end = Math.min(lineCount, start + Math.max(0, count));
+        if (start >= end) {
+            return Collections.emptyList();
+        }
+
+        final List<String> lines = new ArrayList<>(end - start);
+        int line = start;
+        while (line < end) {
+            // Map as many whole lines as fit in the window; a longer line gets a window of its own.
+            final long windowStart = getStart(line);
+            int last = line;
+            while (last + 1 < end && getEnd(last + 1) - windowStart <= mapWindow) {
+                last++;
+            }
+
+            final ByteBuffer window = logChannel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                    getEnd(last) - windowStart);
+            for (int i = line; i <= last; i++) {
+                lines.add(readLine(window, getStart(i) - windowStart, getEnd(i) - windowStart));
+            }
+            line = last + 1;
+        }
+        return lines;
+    }
+
+    /**
+     * Reads a single line from a mapped window, without its line terminator.
+     *
+     * @param window The mapped window containing the line
+     * @param start  The offset of the start of the line within the window
+     * @param end    The offset of the end of the line within the window
+     *
+     * @return The decoded line
+     */
+    private String readLine(final ByteBuffer window, final long start, final long end) {
+        final int lineStart = Math.toIntExact(start);
+        int lineEnd = Math.toIntExact(end);
+        while (lineEnd > lineStart && (window.get(lineEnd - 1) == '\n'
+                || window.get(lineEnd - 1) == '\r')) {
+            lineEnd--;
+        }
+        final byte[] bytes = new byte[lineEnd - lineStart];
+        window.position(lineStart);
+        window.get(bytes);
+        return new String(bytes, charset);
+    }
+
+    /**
+     * Finds the first line written at or after the given time.
+     *
+     * @param timestamp The time to search for, in milliseconds since the epoch
+     *
+     * @return The index of the first matching line, or the line count if there are none
+     */
+    public int findFirstLineSince(final long timestamp) {
+        int low = 0;
+        int high = lineCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (getTimestamp(mid) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public void close() throws IOException {
+        logChannel.close();
+    }
+
+    private long getStart(final int line) {
+        return line == 0 ? 0 : getEnd(line - 1);
+    }
+
+    private long getEnd(final int line) {
+        return index.getLong(line * LogIndexWriter.ENTRY_SIZE);
+    }
+
+    private long getTimestamp(final int line) {
+        return index.getLong(line * LogIndexWriter.ENTRY_SIZE + 8);
+    }
+
+}
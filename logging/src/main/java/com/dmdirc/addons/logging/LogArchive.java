@@ -0,0 +1,438 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.logging;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Block compressed archives of log files.
+ *
+ * <p>An archive is a standard gzip file made up of a number of independently compressed members,
+ * each holding a whole number of lines. Any gzip tool can decompress the whole archive. A sidecar
+ * block table records the compressed end offset of each member, so that the most recent lines can
+ * be read by decompressing only the last few blocks. The table also records how much of the file
+ * being archived each block covers, so that an interrupted archive can be resumed without
+ * duplicating lines.
+ *
+ * <p>Archiving a log file that already has an archive appends new blocks to the existing archive.
+ */
+public final class LogArchive {
+
+    /** Suffix appended to a log file's name to get its archive. */
+    private static final String SUFFIX = ".gz";
+    /** Suffix appended to an archive's name to get its block table. */
+    private static final String BLOCKS_SUFFIX = ".blocks";
+    /** Target amount of uncompressed data in each block. */
+    private static final int BLOCK_SIZE = 64 * 1024;
+    /**
+     * Size of each block table entry: the compressed end offset of the block in the archive,
+     * followed by the offset in the archived file that the block ends at.
+     */
+    private static final int ENTRY_SIZE = 16;
+    /** Archived file offset recorded once the file the block came from has been deleted. */
+    private static final long SEALED = -1;
+
+    private LogArchive() {
+        // Shouldn't be instantiated
+    }
+
+    /**
+     * Gets the path of the archive for a log file.
+     *
+     * @param log The log file
+     *
+     * @return The path of the log's archive
+     */
+    public static Path getArchivePath(final Path log) {
+        return log.resolveSibling(log.getFileName() + SUFFIX);
+    }
+
+    /**
+     * Determines whether the given log file has an archive.
+     *
+     * @param log The log file
+     *
+     * @return True if an archive exists, false otherwise
+     */
+    public static boolean exists(final Path log) {
+        return Files.exists(getArchivePath(log));
+    }
+
+    /**
+     * Compresses the given file, appending it to the archive for a log file. The source file is
+     * deleted once it has been archived.
+     *
+     * @param source The file containing the lines to archive
+     * @param log    The log file the lines belong to
+     *
+     * @throws IOException If the file could not be archived
+     */
+    public static void archive(final Path source, final Path log) throws IOException {
+        archive(source, log, false);
+    }
+
+    /**
+     * Finishes archiving a file whose archiving was interrupted. Any blocks of the file that were
+     * already recorded in the block table are skipped, and any partially written block is
+     * discarded, so no lines end up in the archive twice. The source file is deleted once it has
+     * been archived.
+     *
+     * @param source The file containing the lines to archive
+     * @param log    The log file the lines belong to
+     *
+     * @throws IOException If the file could not be archived
+     */
+    public static void resume(final Path source, final Path log) throws IOException {
+        archive(source, log, true);
+    }
+
+    private static void archive(final Path source, final Path log, final boolean resume)
+            throws IOException {
+        try (InputStream input = Files.newInputStream(source)) {
+            archive(input, log, resume);
+        }
+        // The source must be gone before the table is sealed, otherwise a crash in between would
+        // cause it to be archived again from the start.
+        Files.delete(source);
+        seal(getBlocksPath(getArchivePath(log)));
+    }
+
+    /**
+     * Compresses the given data, appending it to the archive for a log file.
+     *
+     * @param input  The data to archive
+     * @param log    The log file the lines belong to
+     * @param resume Whether the data was previously partially archived
+     *
+     * @throws IOException If the data could not be archived
+     */
+    static void archive(final InputStream input, final Path log, final boolean resume)
+            throws IOException {
+        final Path archive = getArchivePath(log);
+        final Path blocks = getBlocksPath(archive);
+        long position = prepare(archive, blocks, resume);
+        long skipped = 0;
+        while (skipped < position) {
+            final long count = input.skip(position - skipped);
+            if (count <= 0) {
+                // Everything has already been archived.
+                return;
+            }
+            skipped += count;
+        }
+
+        long offset = Files.exists(archive) ? Files.size(archive) : 0;
+        try (OutputStream output = Files.newOutputStream(archive, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+                OutputStream table = Files.newOutputStream(blocks, StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND)) {
+            final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE * 2);
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream(BLOCK_SIZE);
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    block.write(buffer[i]);
+                    position++;
+                    if (buffer[i] == '\n' && block.size() >= BLOCK_SIZE) {
+                        offset += writeBlock(block, compressed, output);
+                        table.write(getEntry(offset, position));
+                    }
+                }
+            }
+            if (block.size() > 0) {
+                offset += writeBlock(block, compressed, output);
+                table.write(getEntry(offset, position));
+            }
+        }
+    }
+
+    /**
+     * Gets the number of blocks in the archive for a log file.
+     *
+     * @param log The log file
+     *
+     * @return The number of blocks, or 0 if there is no archive
+     *
+     * @throws IOException If the block table could not be read
+     */
+    public static int getBlockCount(final Path log) throws IOException {
+        final Path archive = getArchivePath(log);
+        final Path blocks = getBlocksPath(archive);
+        if (!Files.exists(archive) || !Files.exists(blocks)
+                || getLastBlockEnd(blocks) != Files.size(archive)) {
+            return 0;
+        }
+        return (int) (Files.size(blocks) / ENTRY_SIZE);
+    }
+
+    /**
+     * Decompresses a single block from the archive for a log file.
+     *
+     * @param log   The log file
+     * @param block The index of the block to read
+     *
+     * @return The lines in the block
+     *
+     * @throws IOException If the block could not be read
+     */
+    public static List<String> getBlock(final Path log, final int block) throws IOException {
+        final Path archive = getArchivePath(log);
+        try (RandomAccessFile table = new RandomAccessFile(getBlocksPath(archive).toFile(), "r");
+                RandomAccessFile data = new RandomAccessFile(archive.toFile(), "r")) {
+            return readBlock(table, data, block);
+        }
+    }
+
+    /**
+     * Reads the last lines from the archive for a log file, decompressing as few blocks as
+     * possible.
+     *
+     * @param log   The log file
+     * @param count The maximum number of lines to read
+     *
+     * @return The lines, oldest first
+     *
+     * @throws IOException If the archive could not be read
+     */
+    public static List<String> getLastLines(final Path log, final int count) throws IOException {
+        final Path archive = getArchivePath(log);
+        final Path blocks = getBlocksPath(archive);
+        final LinkedList<String> lines = new LinkedList<>();
+        if (count <= 0 || !Files.exists(archive)) {
+            return lines;
+        }
+
+        if (!Files.exists(blocks) || getLastBlockEnd(blocks) != Files.size(archive)) {
+            // No usable block table; fall back to reading the whole archive.
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(Files.newInputStream(archive)),
+                    Charset.defaultCharset()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                    if (lines.size() > count) {
+                        lines.removeFirst();
+                    }
+                }
+            }
+            return lines;
+        }
+
+        try (RandomAccessFile table = new RandomAccessFile(blocks.toFile(), "r");
+                RandomAccessFile data = new RandomAccessFile(archive.toFile(), "r")) {
+            for (int block = (int) (table.length() / ENTRY_SIZE) - 1;
+                    block >= 0 && lines.size() < count; block--) {
+                final List<String> blockLines = readBlock(table, data, block);
+                lines.addAll(0, blockLines.subList(
+                        Math.max(0, blockLines.size() - (count - lines.size())),
+                        blockLines.size()));
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Deletes the archive for the given log file, if it exists.
+     *
+     * @param log The log file whose archive should be deleted
+     *
+     * @throws IOException If the archive could not be deleted
+     */
+    public static void delete(final Path log) throws IOException {
+        final Path archive = getArchivePath(log);
+        Files.deleteIfExists(getBlocksPath(archive));
+        Files.deleteIfExists(archive);
+    }
+
+    private static Path getBlocksPath(final Path archive) {
+        return archive.resolveSibling(archive.getFileName() + BLOCKS_SUFFIX);
+    }
+
+    private static long getLastBlockEnd(final Path blocks) throws IOException {
+        try (RandomAccessFile table = new RandomAccessFile(blocks.toFile(), "r")) {
+            final long length = table.length();
+            if (length < ENTRY_SIZE || length % ENTRY_SIZE != 0) {
+                return -1;
+            }
+            table.seek(length - ENTRY_SIZE);
+            return table.readLong();
+        }
+    }
+
+    /**
+     * Makes sure the block table describes exactly the data in the archive, before more blocks
+     * are appended to it.
+     *
+     * @param archive The archive
+     * @param blocks  The archive's block table
+     * @param resume  Whether a partially archived source is being resumed
+     *
+     * @return The offset in the source to continue archiving from
+     *
+     * @throws IOException If the archive or table could not be repaired
+     */
+    private static long prepare(final Path archive, final Path blocks, final boolean resume)
+            throws IOException {
+        if (!Files.exists(archive)) {
+            Files.deleteIfExists(blocks);
+            return 0;
+        }
+
+        final long size = Files.size(archive);
+        try (RandomAccessFile table = new RandomAccessFile(blocks.toFile(), "rw")) {
+            // Drop any entry that was only partially written.
+            table.setLength(table.length() - table.length() % ENTRY_SIZE);
+            final long end;
+            final long position;
+            if (table.length() == 0) {
+                end = -1;
+                position = SEALED;
+            } else {
+                table.seek(table.length() - ENTRY_SIZE);
+                end = table.readLong();
+                position = table.readLong();
+            }
+
+            if (end < 0 || end > size) {
+                // Without a matching block table the archive can only be read sequentially, so
+                // rebuild the table by treating the existing data as a single block.
+                table.setLength(0);
+                if (size > 0) {
+                    table.write(getEntry(size, SEALED));
+                }
+                return 0;
+            }
+
+            if (end < size) {
+                // A block was being written when archiving was interrupted.
+                try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.WRITE)) {
+                    channel.truncate(end);
+                }
+            }
+
+            if (position == SEALED) {
+                return 0;
+            } else if (resume) {
+                return position;
+            } else {
+                // The previous source was deleted, but the table wasn't sealed afterwards.
+                table.seek(table.length() - ENTRY_SIZE + 8);
+                table.writeLong(SEALED);
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Marks the last entry in a block table as ending a source that has been fully archived.
+     *
+     * @param blocks The block table
+     *
+     * @throws IOException If the table could not be updated
+     */
+    private static void seal(final Path blocks) throws IOException {
+        try (RandomAccessFile table = new RandomAccessFile(blocks.toFile(), "rw")) {
+            if (table.length() >= ENTRY_SIZE) {
+                table.seek(table.length() - ENTRY_SIZE + 8);
+                table.writeLong(SEALED);
+            }
+        }
+    }
+
+    /**
+     * Encodes a block table entry. Entries are written in a single call, so that an interrupted
+     * write leaves at most a partial entry to discard.
+     *
+     * @param end      The compressed end offset of the block
+     * @param position The offset in the archived file that the block ends at
+     *
+     * @return The encoded entry
+     */
+    private static byte[] getEntry(final long end, final long position) {
+        return ByteBuffer.allocate(ENTRY_SIZE).putLong(end).putLong(position).array();
+    }
+
+    /**
+     * Compresses a block as a new gzip member.
+     *
+     * @param block      The uncompressed data, which is cleared once written
+     * @param compressed Buffer to compress into
+     * @param output     The stream to write the compressed block to
+     *
+     * @return The number of compressed bytes written
+     *
+     * @throws IOException If the block could not be written
+     */
+    private static int writeBlock(final ByteArrayOutputStream block,
+            final ByteArrayOutputStream compressed, final OutputStream output)
+            throws IOException {
+        compressed.reset();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            block.writeTo(gzip);
+        }
+        compressed.writeTo(output);
+        block.reset();
+        return compressed.size();
+    }
+
+    private static List<String> readBlock(final RandomAccessFile table,
+            final RandomAccessFile data, final int block) throws IOException {
+        table.seek((long) block * ENTRY_SIZE);
+        final long end = table.readLong();
+        long start = 0;
+        if (block > 0) {
+            table.seek((long) (block - 1) * ENTRY_SIZE);
+            start = table.readLong();
+        }
+
+        final byte[] compressed = new byte[(int) (end - start)];
+        data.seek(start);
+        data.readFully(compressed);
+
+        final List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(compressed)),
+                Charset.defaultCharset()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.logging;
+
+import com.dmdirc.commandline.CommandLineOptionsModule.Directory;
+import com.dmdirc.config.GlobalConfig;
+import com.dmdirc.config.provider.AggregateConfigProvider;
+import com.dmdirc.plugins.PluginDomain;
+import com.dmdirc.util.LoggingScheduledExecutorService;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.dmdirc.util.LogUtils.USER_ERROR;
+
+/**
+ * Periodically compresses log files that are no longer being written to into {@link LogArchive}s.
+ *
+ * <p>A log file is considered sealed once it hasn't been modified for the configured number of
+ * hours. With date directories enabled this means each period's logs are archived shortly after
+ * the period ends. Files are moved aside before being compressed, so lines logged while an
+ * archive is being written simply start a new log file. If archiving is interrupted, the moved
+ * file is left in place and its archive is resumed by the next check.
+ */
+@Singleton
+public class LogArchiver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LogArchiver.class);
+    /** Suffix given to log files while they are being archived. */
+    private static final String STAGING_SUFFIX = ".archiving";
+    /** Delay before the first check for logs to archive, in minutes. */
+    private static final long INITIAL_DELAY = 1;
+    /** Delay between checks for logs to archive, in minutes. */
+    private static final long CHECK_INTERVAL = 60;
+    /** Global config. */
+    private final AggregateConfigProvider config;
+    /** The domain to read settings from. */
+    private final String domain;
+    /** Provider of the log directory. */
+    private final Provider<String> directoryProvider;
+    /** The writer whose open files must not be archived. */
+    private final LogWriter writer;
+    /** The search index to tell about archived logs. */
+    private final LogSearchIndex searchIndex;
+    /** Executor used to archive files, if archiving is enabled. */
+    private ScheduledExecutorService executor;
+
+    @Inject
+    public LogArchiver(
+            @GlobalConfig final AggregateConfigProvider globalConfig,
+            @PluginDomain(LoggingPlugin.class) final String domain,
+            @Directory(LoggingModule.LOGS_DIRECTORY) final Provider<String> directoryProvider,
+            final LogWriter writer,
+            final LogSearchIndex searchIndex) {
+        this.config = globalConfig;
+        this.domain = domain;
+        this.directoryProvider = directoryProvider;
+        this.writer = writer;
+        this.searchIndex = searchIndex;
+    }
+
+    /**
+     * Starts archiving logs in the background, if enabled.
+     */
+    public void start() {
+        if (config.getOptionBool(domain, "advanced.archive")) {
+            executor = new LoggingScheduledExecutorService(1, "LoggingPlugin Archiver");
+            executor.scheduleWithFixedDelay(this::archiveSealedLogs, INITIAL_DELAY,
+                    CHECK_INTERVAL, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Stops archiving logs. Any archive currently being written is finished first.
+     */
+    public void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Starts or stops archiving if the setting has changed.
+     */
+    public void reconfigure() {
+        if ((executor != null) != config.getOptionBool(domain, "advanced.archive")) {
+            stop();
+            start();
+        }
+    }
+
+    /**
+     * Archives all log files that haven't been modified recently.
+     */
+    private void archiveSealedLogs() {
+        final long oldestTime = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(
+                config.getOptionInt(domain, "advanced.archiveafter"));
+        final List<Path> paths;
+        try (Stream<Path> stream = Files.walk(Paths.get(directoryProvider.get()))) {
+            paths = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        } catch (IOException ex) {
+            LOG.info(USER_ERROR, "Unable to scan log directory: {}", ex.getMessage(), ex);
+            return;
+        }
+
+        // Interrupted archives are finished first, so that their lines stay in order.
+        for (Path path : paths) {
+            final String name = path.getFileName().toString();
+            if (name.endsWith(".log" + STAGING_SUFFIX)) {
+                final Path log = path.resolveSibling(
+                        name.substring(0, name.length() - STAGING_SUFFIX.length()));
+                try {
+                    LogArchive.resume(path, log);
+                    searchIndex.markDirty(LogArchive.getArchivePath(log).toString());
+                } catch (IOException ex) {
+                    LOG.info(USER_ERROR, "Unable to archive log file {}: {}", path,
+                            ex.getMessage(), ex);
+                }
+            }
+        }
+
+        for (Path path : paths) {
+            try {
+                if (path.getFileName().toString().endsWith(".log")
+                        && Files.getLastModifiedTime(path).toMillis() < oldestTime) {
+                    archive(path);
+                }
+            } catch (IOException ex) {
+                LOG.info(USER_ERROR, "Unable to archive log file {}: {}", path, ex.getMessage(),
+                        ex);
+            }
+        }
+    }
+
+    private void archive(final Path log) throws IOException {
+        final Path staging = log.resolveSibling(log.getFileName() + STAGING_SUFFIX);
+        if (Files.exists(staging)) {
+            // A previous archive of this log couldn't be finished; don't overwrite it.
+            return;
+        }
+        if (writer.getFileCache().moveIfClosed(log.toString(), staging)) {
+            searchIndex.markDirty(log.toString());
+            LogArchive.archive(staging, log);
+            searchIndex.markDirty(LogArchive.getArchivePath(log).toString());
+        }
+    }
+
+}
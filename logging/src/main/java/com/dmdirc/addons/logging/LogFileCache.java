@@ -0,0 +1,487 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.logging;
+
+import com.dmdirc.util.io.StreamUtils;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A bounded cache of open log files.
+ *
+ * <p>Files are kept in least-recently-used order. When more than the maximum number of files are
+ * open, the least recently used file is closed. Files that haven't been used for a while can also be
+ * closed explicitly using {@link #closeIdle(long)}.
+ *
+ * <p>If indexing is enabled, a {@link LogIndexWriter} is kept alongside each open file so that the
+ * log's sidecar line index is updated as lines are written. Indexes that are missing or out of date
+ * are rebuilt in the background; the file is written without an index until the rebuild has caught
+ * up with it.
+ *
+ * <p>All methods are synchronised on the cache; callers performing several operations that must
+ * happen atomically should also synchronise on it.
+ */
+public class LogFileCache {
+
+    /** Time (in seconds) the shared index rebuilding thread is kept alive while idle. */
+    private static final long REBUILDER_KEEP_ALIVE = 60;
+    /** Amount of the log left to scan at which a rebuild stops to catch up with the writer. */
+    private static final long CATCH_UP_SIZE = 64 * 1024;
+    /** Maximum number of passes a rebuild makes over a log before catching up with the writer. */
+    private static final int MAX_SCAN_PASSES = 8;
+    /** Executor used to rebuild indexes, shared by all caches by default. */
+    private static final Executor REBUILDER = createRebuilder();
+    /** Open files, in least-recently-used order. */
+    private final Map<String, OpenFile> files = new LinkedHashMap<>(16, 0.75f, true);
+    /** Names of files whose indexes are currently being rebuilt. */
+    private final Set<String> rebuilding = new HashSet<>();
+    /** Executor used to rebuild indexes. */
+    private final Executor rebuilder;
+    /** Listener notified whenever lines written to a file have been flushed to disk. */
+    private volatile Consumer<Path> flushListener = path -> { };
+    /** Maximum number of files to keep open. */
+    private int maxOpenFiles;
+    /** Whether to maintain line indexes for open files. */
+    private boolean indexing;
+    /** Number of requests satisfied by an already open file. */
+    private long hits;
+    /** Number of requests that required a file to be opened. */
+    private long misses;
+    /** Number of files closed to make room for others. */
+    private long evictions;
+    /** Number of files closed because they were idle. */
+    private long idleCloses;
+
+    /**
+     * Creates a new file cache.
+     *
+     * @param maxOpenFiles Maximum number of files to keep open
+     */
+    public LogFileCache(final int maxOpenFiles) {
+        this(maxOpenFiles, REBUILDER);
+    }
+
+    /**
+     * Creates a new file cache.
+     *
+     * @param maxOpenFiles Maximum number of files to keep open
+     * @param rebuilder    Executor used to rebuild indexes
+     */
+    public LogFileCache(final int maxOpenFiles, final Executor rebuilder) {
+        this.maxOpenFiles = Math.max(1, maxOpenFiles);
+        this.rebuilder = rebuilder;
+    }
+
+    private static Executor createRebuilder() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, REBUILDER_KEEP_ALIVE,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    final Thread thread = new Thread(r, "LoggingPlugin Indexer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Gets the open file with the given name, opening it (and closing the least recently used file
+     * if the cache is full) if required.
+     *
+     * @param filename Name of the file to get
+     *
+     * @return The open file
+     *
+     * @throws IOException If the file could not be opened
+     */
+    public synchronized OpenFile get(final String filename) throws IOException {
+        OpenFile file = files.get(filename);
+        if (file == null) {
+            misses++;
+            final Path path = Paths.get(filename);
+            if (path.getParent() != null) {
+                // Paths are cached by the locator, so the directory may have gone away since.
+                Files.createDirectories(path.getParent());
+            }
+            file = new OpenFile(path, new BufferedWriter(new FileWriter(filename, true)),
+                    openIndex(path), flushed -> flushListener.accept(flushed));
+            files.put(filename, file);
+            trim();
+            if (indexing && file.index == null && rebuilding.add(filename)) {
+                rebuilder.execute(() -> rebuildIndex(filename, path));
+            }
+        } else {
+            hits++;
+        }
+        return file;
+    }
+
+    /**
+     * Closes the given file, if it is open.
+     *
+     * @param filename Name of the file to close
+     */
+    public synchronized void close(final String filename) {
+        final OpenFile file = files.remove(filename);
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    /**
+     * Moves a file out of the way, provided it isn't currently open or being indexed. Once moved,
+     * any further lines
+     * written to the original file name will start a new file. The file's line index no longer
+     * describes anything, so it is deleted before the file can be reopened.
+     *
+     * @param filename Name of the file to move
+     * @param target   The path to move the file to
+     *
+     * @return True if the file was moved, false if it is open or being indexed
+     *
+     * @throws IOException If the file could not be moved
+     */
+    public synchronized boolean moveIfClosed(final String filename, final Path target)
+            throws IOException {
+        if (files.containsKey(filename) || rebuilding.contains(filename)) {
+            return false;
+        }
+        final Path path = Paths.get(filename);
+        Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+        LogIndexWriter.delete(path);
+        return true;
+    }
+
+    /**
+     * Closes any files that haven't been used since the specified time.
+     *
+     * @param oldestTime Oldest last used time to keep files open for
+     */
+    public synchronized void closeIdle(final long oldestTime) {
+        // Iteration is in least-recently-used order, so stop at the first file in use.
+        final Iterator<OpenFile> iterator = files.values().iterator();
+        while (iterator.hasNext()) {
+            final OpenFile file = iterator.next();
+            if (file.lastUsedTime >= oldestTime) {
+                break;
+            }
+            file.close();
+            iterator.remove();
+            idleCloses++;
+        }
+    }
+
+    /**
+     * Closes all open files.
+     */
+    public synchronized void closeAll() {
+        files.values().forEach(OpenFile::close);
+        files.clear();
+    }
+
+    /**
+     * Performs an action on each open file, without affecting their usage order.
+     *
+     * @param action The action to perform
+     */
+    public synchronized void forEach(final Consumer<OpenFile> action) {
+        new ArrayList<>(files.values()).forEach(action);
+    }
+
+    /**
+     * Changes the maximum number of files to keep open, closing files if required.
+     *
+     * @param maxOpenFiles Maximum number of files to keep open
+     */
+    public synchronized void setMaxOpenFiles(final int maxOpenFiles) {
+        this.maxOpenFiles = Math.max(1, maxOpenFiles);
+        trim();
+    }
+
+    /**
+     * Sets whether line indexes should be maintained, closing all open files if this changes.
+     *
+     * @param indexing True to maintain line indexes, false otherwise
+     */
+    public synchronized void setIndexing(final boolean indexing) {
+        if (this.indexing != indexing) {
+            this.indexing = indexing;
+            closeAll();
+        }
+    }
+
+    /**
+     * Sets the listener to notify whenever lines written to a file have been flushed to disk,
+     * either explicitly or because the file was closed. The listener is called while the cache is
+     * locked, so it should return quickly.
+     *
+     * @param flushListener The listener to notify with the path of each flushed file
+     */
+    public void setFlushListener(final Consumer<Path> flushListener) {
+        this.flushListener = flushListener;
+    }
+
+    public synchronized int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    public synchronized int getOpenFiles() {
+        return files.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getIdleCloses() {
+        return idleCloses;
+    }
+
+    /**
+     * Opens the index for a log file, or deletes it if indexing is disabled or it is out of date.
+     * Once a log has been written to without updating its index the index is stale, so it must not
+     * be left behind.
+     *
+     * @param log The log file being opened
+     *
+     * @return The index writer to use, or null if the file is not being indexed or its index
+     * needs rebuilding
+     */
+    private LogIndexWriter openIndex(final Path log) {
+        try {
+            if (indexing) {
+                final LogIndexWriter index = LogIndexWriter.open(log);
+                if (index != null) {
+                    return index;
+                }
+            }
+            LogIndexWriter.delete(log);
+        } catch (IOException ex) {
+            deleteIndex(log);
+        }
+        return null;
+    }
+
+    /**
+     * Rebuilds the index for a log file, then starts maintaining it if the file is open.
+     *
+     * <p>Most of the log is scanned without holding the cache, so lines can still be written to
+     * it. Once the scan has nearly caught up with the end of the log, the cache is locked so that
+     * the remainder can be indexed and the index attached before anything else is written.
+     *
+     * @param filename Name of the file being indexed
+     * @param log      Path of the file being indexed
+     */
+    private void rebuildIndex(final String filename, final Path log) {
+        try (LogIndexWriter.Builder builder = new LogIndexWriter.Builder(log)) {
+            for (int pass = 0; pass < MAX_SCAN_PASSES; pass++) {
+                if (builder.scan() <= CATCH_UP_SIZE) {
+                    break;
+                }
+            }
+
+            synchronized (this) {
+                if (indexing) {
+                    final OpenFile file = files.get(filename);
+                    if (file != null) {
+                        file.flush();
+                    }
+                    builder.finish();
+                    if (file != null && file.index == null) {
+                        file.index = LogIndexWriter.open(log);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            deleteIndex(log);
+        } finally {
+            synchronized (this) {
+                rebuilding.remove(filename);
+            }
+        }
+    }
+
+    /**
+     * Deletes the index for a log file, ignoring any errors.
+     *
+     * @param log The log file whose index should be deleted
+     */
+    private static void deleteIndex(final Path log) {
+        try {
+            LogIndexWriter.delete(log);
+        } catch (IOException ex) {
+            // Nothing more we can do; readers will see an index that is out of date.
+        }
+    }
+
+    /**
+     * Closes least recently used files until no more than the maximum number are open.
+     */
+    private void trim() {
+        final Iterator<OpenFile> iterator = files.values().iterator();
+        while (files.size() > maxOpenFiles && iterator.hasNext()) {
+            iterator.next().close();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /** Open File. */
+    public static class OpenFile {
+
+        /** Last used time. */
+        private long lastUsedTime = System.currentTimeMillis();
+        /** Last time the writer was flushed. */
+        private long lastFlushTime = lastUsedTime;
+        /** Number of lines written since the last flush. */
+        private int unflushedLines;
+        /** Open file's writer. */
+        private final BufferedWriter writer;
+        /** Path of the open file. */
+        private final Path path;
+        /** Listener to notify when lines have been flushed to the file. */
+        private final Consumer<Path> flushListener;
+        /** Writer for the file's line index, if it is being indexed. */
+        private LogIndexWriter index;
+
+        /**
+         * Creates a new open file.
+         *
+         * @param path          Path of the open file
+         * @param writer        Writer that has file open
+         * @param index         Writer for the file's line index, or null if it isn't indexed
+         * @param flushListener Listener to notify when lines have been flushed to the file
+         */
+        OpenFile(final Path path, final BufferedWriter writer, final LogIndexWriter index,
+                final Consumer<Path> flushListener) {
+            this.path = path;
+            this.writer = writer;
+            this.index = index;
+            this.flushListener = flushListener;
+        }
+
+        /**
+         * Writes a line to the file, without flushing.
+         *
+         * @param line      The line to write. (NewLine will be added Automatically)
+         * @param timestamp The time the line was logged
+         *
+         * @return true on success, else false.
+         */
+        public boolean write(final String line, final long timestamp) {
+            lastUsedTime = System.currentTimeMillis();
+            try {
+                writer.write(line);
+                writer.newLine();
+                unflushedLines++;
+            } catch (IOException ex) {
+                return false;
+            }
+
+            if (index != null) {
+                try {
+                    index.lineWritten(line, timestamp);
+                } catch (IOException ex) {
+                    dropIndex();
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Flushes any lines written to the file.
+         *
+         * @return true on success, else false.
+         */
+        public boolean flush() {
+            final boolean written = unflushedLines > 0;
+            lastFlushTime = System.currentTimeMillis();
+            unflushedLines = 0;
+            try {
+                writer.flush();
+            } catch (IOException ex) {
+                return false;
+            }
+
+            if (index != null) {
+                try {
+                    index.flush();
+                } catch (IOException ex) {
+                    dropIndex();
+                }
+            }
+            if (written) {
+                flushListener.accept(path);
+            }
+            return true;
+        }
+
+        public long getLastFlushTime() {
+            return lastFlushTime;
+        }
+
+        public int getUnflushedLines() {
+            return unflushedLines;
+        }
+
+        private void close() {
+            StreamUtils.close(writer);
+            if (index != null) {
+                StreamUtils.close(index);
+            }
+            if (unflushedLines > 0) {
+                unflushedLines = 0;
+                flushListener.accept(path);
+            }
+        }
+
+        /**
+         * Stops maintaining the index for this file after an error, and deletes it.
+         */
+        private void dropIndex() {
+            StreamUtils.close(index);
+            index = null;
+            deleteIndex(path);
+        }
+
+    }
+
+}
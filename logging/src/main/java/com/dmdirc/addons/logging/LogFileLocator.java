@@ -25,12 +25,17 @@ import com.dmdirc.interfaces.GroupChat;
 import com.dmdirc.interfaces.User;
 import com.dmdirc.config.provider.AggregateConfigProvider;
 import com.dmdirc.plugins.PluginDomain;
+import com.google.common.annotations.VisibleForTesting;
 import java.io.File;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -48,23 +53,42 @@ import static com.dmdirc.util.LogUtils.USER_ERROR;
 public class LogFileLocator {
 
     private static final Logger LOG = LoggerFactory.getLogger(LogFileLocator.class);
+    /** How often to check whether the date directory has changed, in milliseconds. */
+    private static final long DATE_CHECK_INTERVAL = 1000;
+    /** Maximum number of paths to cache. */
+    private static final int MAX_CACHED_PATHS = 256;
     private final Provider<String> directoryProvider;
+    /**
+     * Cached paths, keyed on network (or null) and window name, in least-recently-used order.
+     * Once full, the path that has gone unused the longest is discarded.
+     */
+    private final Map<List<String>, String> paths =
+            new LinkedHashMap<List<String>, String>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<List<String>, String> eldest) {
+                    return size() > MAX_CACHED_PATHS;
+                }
+            };
 
     /** Whether to append a hash of the file name to the file name... */
-    @ConfigBinding(key = "advanced.filenamehash")
-    private boolean filenamehash;
+    private volatile boolean filenamehash;
 
     /** Whether to create a new folder for each network. */
-    @ConfigBinding(key = "general.networkfolders")
-    private boolean networkfolders;
+    private volatile boolean networkfolders;
 
     /** Whether to use date formats in file names. */
-    @ConfigBinding(key = "advanced.usedate")
-    private boolean usedate;
+    private volatile boolean usedate;
 
     /** Date format to use in file names if {@link #usedate} is true. */
-    @ConfigBinding(key = "advanced.usedateformat")
-    private String usedateformat;
+    private volatile String usedateformat;
+
+    /** The date directory used by cached paths, if {@link #usedate} is true. */
+    private volatile String dateDirectory;
+
+    /** The last time {@link #dateDirectory} was checked. */
+    private volatile long dateCheckedAt;
 
     @Inject
     public LogFileLocator(
@@ -76,6 +100,47 @@ public class LogFileLocator {
         globalConfig.getBinder().withDefaultDomain(domain).bind(this, LogFileLocator.class);
     }
 
+    @ConfigBinding(key = "advanced.filenamehash")
+    public void handleFilenameHash(final boolean value) {
+        filenamehash = value;
+        clearCache();
+    }
+
+    @ConfigBinding(key = "general.networkfolders")
+    public void handleNetworkFolders(final boolean value) {
+        networkfolders = value;
+        clearCache();
+    }
+
+    @ConfigBinding(key = "advanced.usedate")
+    public void handleUseDate(final boolean value) {
+        usedate = value;
+        dateCheckedAt = 0;
+        clearCache();
+    }
+
+    @ConfigBinding(key = "advanced.usedateformat")
+    public void handleUseDateFormat(final String value) {
+        usedateformat = value;
+        dateCheckedAt = 0;
+        clearCache();
+    }
+
+    @ConfigBinding(key = "general.directory")
+    public void handleDirectory(final String value) {
+        clearCache();
+    }
+
+    /**
+     * Discards all cached paths. They will be recomputed (and any directories they need
+     * recreated) the next time they are requested.
+     */
+    public void clearCache() {
+        synchronized (paths) {
+            paths.clear();
+        }
+    }
+
     /**
      * Sanitises the log file directory.
      *
@@ -98,12 +163,8 @@ public class LogFileLocator {
      * @return the name of the log file to use for this object.
      */
     public String getLogFile(final GroupChat channel) {
-        final StringBuffer directory = getLogDirectory();
-        final StringBuffer file = new StringBuffer();
         final Optional<String> network = channel.getConnection().map(Connection::getNetwork);
-        network.ifPresent(n -> addNetworkDir(directory, file, n));
-        file.append(sanitise(channel.getName().toLowerCase()));
-        return getPath(directory, file, channel.getName());
+        return getCachedPath(network.orElse(null), channel.getName());
     }
 
     /**
@@ -114,11 +175,67 @@ public class LogFileLocator {
      * @return the name of the log file to use for this object.
      */
     public String getLogFile(final User user) {
+        return getCachedPath(user.getConnection().getNetwork(), user.getNickname());
+    }
+
+    /**
+     * Gets the name of the log file for a window, using a previously computed name if there is
+     * one for the current date.
+     *
+     * @param network The name of the window's network, or null if it doesn't have one
+     * @param name    The name of the window
+     *
+     * @return the name of the log file to use for the window.
+     */
+    private String getCachedPath(@Nullable final String network, final String name) {
+        checkDateDirectory();
+        synchronized (paths) {
+            return paths.computeIfAbsent(Arrays.asList(network, name),
+                    k -> buildPath(network, name));
+        }
+    }
+
+    /**
+     * Computes the name of the log file for a window, creating any directories required.
+     *
+     * @param network The name of the window's network, or null if it doesn't have one
+     * @param name    The name of the window
+     *
+     * @return the name of the log file to use for the window.
+     */
+    @VisibleForTesting
+    String buildPath(@Nullable final String network, final String name) {
         final StringBuffer directory = getLogDirectory();
         final StringBuffer file = new StringBuffer();
-        addNetworkDir(directory, file, user.getConnection().getNetwork());
-        file.append(sanitise(user.getNickname().toLowerCase()));
-        return getPath(directory, file, user.getNickname());
+        if (network != null) {
+            addNetworkDir(directory, file, network);
+        }
+        file.append(sanitise(name.toLowerCase()));
+        return getPath(directory, file, name);
+    }
+
+    /**
+     * Checks whether the date directory has changed, and discards cached paths if it has. The
+     * check is only performed once every {@link #DATE_CHECK_INTERVAL} milliseconds.
+     */
+    private void checkDateDirectory() {
+        if (!usedate) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        if (now - dateCheckedAt >= DATE_CHECK_INTERVAL) {
+            synchronized (this) {
+                if (now - dateCheckedAt >= DATE_CHECK_INTERVAL) {
+                    final String current = new SimpleDateFormat(usedateformat).format(new Date(now));
+                    if (!current.equals(dateDirectory)) {
+                        dateDirectory = current;
+                        clearCache();
+                    }
+                    dateCheckedAt = now;
+                }
+            }
+        }
     }
 
     /**
@@ -134,8 +251,8 @@ public class LogFileLocator {
     public String getPath(final StringBuffer directory, final StringBuffer file,
             final String md5String) {
         if (usedate) {
-            final String dateFormat = usedateformat;
-            final String dateDir = new SimpleDateFormat(dateFormat).format(new Date());
+            final String dateDir = dateDirectory == null
+                    ? new SimpleDateFormat(usedateformat).format(new Date()) : dateDirectory;
             directory.append(dateDir);
             if (directory.charAt(directory.length() - 1) != File.separatorChar) {
                 directory.append(File.separatorChar);
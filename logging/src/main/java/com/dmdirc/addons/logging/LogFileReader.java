@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.logging;
+
+import com.dmdirc.util.io.ReverseFileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the most recent lines of a log, using whichever of the log file, its line index and its
+ * archive are available.
+ */
+public final class LogFileReader {
+
+    private LogFileReader() {
+        // Shouldn't be instantiated
+    }
+
+    /**
+     * Determines whether there is anything to read for the given log.
+     *
+     * @param log The log file
+     *
+     * @return True if the log file or its archive exists, false otherwise
+     */
+    public static boolean exists(final Path log) {
+        return Files.exists(log) || LogArchive.exists(log);
+    }
+
+    /**
+     * Gets the last lines of a log. If the log file has fewer lines than requested, and older lines
+     * have been archived, the remainder are read from the archive.
+     *
+     * @param log   The log file
+     * @param count The maximum number of lines to get
+     *
+     * @return The lines, oldest first
+     *
+     * @throws IOException If the log could not be read
+     */
+    public static List<String> getLastLines(final Path log, final int count) throws IOException {
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+
+        final List<String> lines = Files.exists(log) ? readLog(log, count)
+                : Collections.emptyList();
+        if (lines.size() >= count || !LogArchive.exists(log)) {
+            return lines;
+        }
+
+        final List<String> result = new ArrayList<>(
+                LogArchive.getLastLines(log, count - lines.size()));
+        result.addAll(lines);
+        return result;
+    }
+
+    private static List<String> readLog(final Path log, final int count) throws IOException {
+        if (IndexedLogReader.isAvailable(log)) {
+            try (IndexedLogReader reader = new IndexedLogReader(log)) {
+                return reader.getLastLines(count);
+            }
+        }
+
+        try (ReverseFileReader reader = new ReverseFileReader(log)) {
+            // Because the file normally ends with a newline char, an empty line is returned
+            // first by getLines. To counter this, we ask for an extra line and drop it.
+            final List<String> lines = new ArrayList<>(reader.getLines(count + 1));
+            if (!lines.isEmpty() && lines.get(0).isEmpty()) {
+                lines.remove(0);
+            }
+            final List<String> result = new ArrayList<>(
+                    lines.subList(0, Math.min(count, lines.size())));
+            Collections.reverse(result);
+            return result;
+        }
+    }
+
+}
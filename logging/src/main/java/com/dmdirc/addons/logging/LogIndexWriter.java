@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.logging;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Maintains a sidecar line index for a log file.
+ *
+ * <p>The index is a sequence of fixed size entries, one per line in the log. Each entry holds the
+ * byte offset of the end of the line (after its line separator) and the time the line was written,
+ * both as big-endian longs. The index is valid when the end offset of its last entry matches the
+ * size of the log file.
+ *
+ * <p>Indexes that are missing or out of date are rebuilt using a {@link Builder}, which writes to a
+ * temporary file and only moves it into place once it describes the whole log.
+ */
+public class LogIndexWriter implements Closeable {
+
+    /** Size of each index entry, in bytes. */
+    public static final int ENTRY_SIZE = 16;
+    /** Suffix appended to a log file's name to get its index file. */
+    private static final String SUFFIX = ".idx";
+    /** Suffix appended to an index file's name while it is being rebuilt. */
+    private static final String TEMP_SUFFIX = ".tmp";
+    /** Length of the timestamp prefix added to lines. */
+    private static final int TIMESTAMP_LENGTH = 21;
+    /** Size of the buffer used to scan logs when rebuilding. */
+    private static final int SCAN_BUFFER = 64 * 1024;
+    /** Charset used to write log files. */
+    private final Charset charset = Charset.defaultCharset();
+    /** Length, in bytes, of the separator written after each line. */
+    private final int separatorLength = System.lineSeparator().getBytes(charset).length;
+    /** Stream used to append entries to the index. */
+    private final DataOutputStream out;
+    /** Offset of the end of the last line in the log. */
+    private long position;
+
+    /**
+     * Creates a new index writer.
+     *
+     * @param index    The index file to append to
+     * @param position Offset of the end of the last line in the log
+     *
+     * @throws IOException If the index could not be opened
+     */
+    private LogIndexWriter(final Path index, final long position) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(index,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        this.position = position;
+    }
+
+    /**
+     * Opens the index for the given log file, provided it is up to date. Empty logs are always
+     * considered up to date, as there is nothing to index.
+     *
+     * @param log The log file to index
+     *
+     * @return A writer that will append to the log's index, or null if the index is missing or
+     * out of date and must be rebuilt
+     *
+     * @throws IOException If the index could not be read or written
+     */
+    public static LogIndexWriter open(final Path log) throws IOException {
+        final Path index = getIndexPath(log);
+        final long logSize = Files.exists(log) ? Files.size(log) : 0;
+        if (logSize == 0) {
+            Files.deleteIfExists(index);
+            return new LogIndexWriter(index, 0);
+        }
+        return getIndexedSize(index) == logSize ? new LogIndexWriter(index, logSize) : null;
+    }
+
+    /**
+     * Deletes the index for the given log file, if it exists.
+     *
+     * @param log The log file whose index should be deleted
+     *
+     * @throws IOException If the index could not be deleted
+     */
+    public static void delete(final Path log) throws IOException {
+        Files.deleteIfExists(getIndexPath(log));
+    }
+
+    /**
+     * Gets the path of the index file for a log file.
+     *
+     * @param log The log file
+     *
+     * @return The path of the log's index
+     */
+    public static Path getIndexPath(final Path log) {
+        return log.resolveSibling(log.getFileName() + SUFFIX);
+    }
+
+    /**
+     * Records that a line has been written to the log.
+     *
+     * @param line      The line that was written, excluding its separator
+     * @param timestamp The time the line was written
+     *
+     * @throws IOException If the index could not be written to
+     */
+    public void lineWritten(final String line, final long timestamp) throws IOException {
+        position += line.getBytes(charset).length + separatorLength;
+        out.writeLong(position);
+        out.writeLong(timestamp);
+    }
+
+    /**
+     * Flushes any pending entries. This should be called after the log itself is flushed, so that
+     * readers never see entries for data that is not yet in the log.
+     *
+     * @throws IOException If the index could not be flushed
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Gets the size of the log file described by an index.
+     *
+     * @param index The index file to read
+     *
+     * @return The end offset of the last indexed line, or -1 if the index is missing or corrupt
+     *
+     * @throws IOException If the index could not be read
+     */
+    private static long getIndexedSize(final Path index) throws IOException {
+        if (!Files.exists(index)) {
+            return -1;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(index.toFile(), "r")) {
+            final long length = file.length();
+            if (length % ENTRY_SIZE != 0) {
+                return -1;
+            } else if (length == 0) {
+                return 0;
+            }
+            file.seek(length - ENTRY_SIZE);
+            return file.readLong();
+        }
+    }
+
+    /**
+     * Attempts to parse the timestamp at the start of a line.
+     *
+     * @param format   The format timestamps are written in
+     * @param prefix   The bytes at the start of the line
+     * @param length   The number of valid bytes in the prefix
+     * @param fallback The value to return if the line has no timestamp
+     *
+     * @return The time the line was written, or the fallback value
+     */
+    private static long parseTimestamp(final SimpleDateFormat format, final byte[] prefix,
+            final int length, final long fallback) {
+        if (length < TIMESTAMP_LENGTH || prefix[0] != '[') {
+            return fallback;
+        }
+
+        final Date date = format.parse(new String(prefix, 0, length, Charset.defaultCharset()),
+                new ParsePosition(0));
+        return date == null ? fallback : date.getTime();
+    }
+
+    /**
+     * Rebuilds the index for a log file by scanning it from the start.
+     *
+     * <p>The log may be scanned in several passes while it is still being appended to. Each pass
+     * only indexes complete lines; {@link #finish()} indexes anything left and replaces the log's
+     * index with the rebuilt one. Callers must make sure nothing is written to the log while it
+     * is being finished.
+     */
+    public static class Builder implements Closeable {
+
+        /** Format timestamps are written in. */
+        private final SimpleDateFormat format = new SimpleDateFormat("[dd/MM/yyyy HH:mm:ss]");
+        /** The bytes at the start of the current line. */
+        private final byte[] prefix = new byte[TIMESTAMP_LENGTH];
+        /** Buffer used to read the log. */
+        private final ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER);
+        /** The log being indexed. */
+        private final Path log;
+        /** The temporary file the index is built in. */
+        private final Path temp;
+        /** Channel used to read the log. */
+        private final FileChannel input;
+        /** Stream used to write the rebuilt index. */
+        private final DataOutputStream output;
+        /** Number of valid bytes in the prefix. */
+        private int prefixLength;
+        /** Offset of the next byte of the log to read. */
+        private long offset;
+        /** Timestamp of the most recent line that had one. */
+        private long timestamp;
+        /** Whether the index has been moved into place. */
+        private boolean finished;
+
+        /**
+         * Starts rebuilding the index for a log file.
+         *
+         * @param log The log file to index
+         *
+         * @throws IOException If the log could not be read or the index created
+         */
+        public Builder(final Path log) throws IOException {
+            this.log = log;
+            this.temp = getIndexPath(log).resolveSibling(getIndexPath(log).getFileName()
+                    + TEMP_SUFFIX);
+            this.input = FileChannel.open(log, StandardOpenOption.READ);
+            try {
+                this.output = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(temp)));
+            } catch (IOException ex) {
+                input.close();
+                throw ex;
+            }
+        }
+
+        /**
+         * Indexes all complete lines currently in the log.
+         *
+         * @return The number of bytes in the log that have still not been read
+         *
+         * @throws IOException If the log could not be read or the index written
+         */
+        public long scan() throws IOException {
+            final long size = input.size();
+            while (offset < size) {
+                buffer.clear();
+                final int read = input.read(buffer, offset);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    final byte value = buffer.get(i);
+                    if (value == '\n') {
+                        timestamp = parseTimestamp(format, prefix, prefixLength, timestamp);
+                        output.writeLong(offset + i + 1);
+                        output.writeLong(timestamp);
+                        prefixLength = 0;
+                    } else if (prefixLength < TIMESTAMP_LENGTH) {
+                        prefix[prefixLength++] = value;
+                    }
+                }
+                offset += read;
+            }
+            return Math.max(0, input.size() - offset);
+        }
+
+        /**
+         * Indexes the rest of the log, including any unterminated final line, and replaces the
+         * log's index with the rebuilt one.
+         *
+         * @throws IOException If the log could not be read or the index written
+         */
+        public void finish() throws IOException {
+            scan();
+            if (prefixLength > 0) {
+                // Unterminated final line.
+                output.writeLong(offset);
+                output.writeLong(parseTimestamp(format, prefix, prefixLength, timestamp));
+            }
+            output.close();
+            input.close();
+            Files.move(temp, getIndexPath(log), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                output.close();
+                input.close();
+                Files.deleteIfExists(temp);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.logging;
+
+import com.dmdirc.CustomWindow;
+import com.dmdirc.commandparser.BaseCommandInfo;
+import com.dmdirc.commandparser.CommandArguments;
+import com.dmdirc.commandparser.CommandType;
+import com.dmdirc.commandparser.commands.BaseCommand;
+import com.dmdirc.commandparser.commands.IntelligentCommand;
+import com.dmdirc.commandparser.commands.context.CommandContext;
+import com.dmdirc.interfaces.CommandController;
+import com.dmdirc.interfaces.WindowModel;
+import com.dmdirc.ui.WindowManager;
+import com.dmdirc.ui.input.AdditionalTabTargets;
+import com.dmdirc.ui.messages.BackBufferFactory;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+
+/**
+ * Searches the contents of log files.
+ */
+public class LogSearchCommand extends BaseCommand implements IntelligentCommand {
+
+    /** Command name. */
+    private static final String LOGSEARCH = "logsearch";
+    /** Command usage. */
+    private static final String USAGE = "[--channel <name>] [--network <name>] [--nick <nick>] "
+            + "[--from <yyyy-mm-dd>] [--to <yyyy-mm-dd>] <terms>";
+    /** A command info object for this command. */
+    public static final BaseCommandInfo INFO = new BaseCommandInfo(LOGSEARCH,
+            LOGSEARCH + ' ' + USAGE + " - search log files", CommandType.TYPE_GLOBAL);
+    /** The index to search. */
+    private final LogSearchIndex index;
+    /** The manager to add result windows to. */
+    private final WindowManager windowManager;
+    /** Factory used to create back buffers for result windows. */
+    private final BackBufferFactory backBufferFactory;
+
+    /**
+     * Creates a new instance of this command.
+     *
+     * @param controller        The controller to use for command information.
+     * @param index             The index to search.
+     * @param windowManager     The manager to add result windows to.
+     * @param backBufferFactory The factory to use to create back buffers.
+     */
+    @Inject
+    public LogSearchCommand(final CommandController controller, final LogSearchIndex index,
+            final WindowManager windowManager, final BackBufferFactory backBufferFactory) {
+        super(controller);
+        this.index = index;
+        this.windowManager = windowManager;
+        this.backBufferFactory = backBufferFactory;
+    }
+
+    @Override
+    public void execute(@Nonnull final WindowModel origin,
+            final CommandArguments args, final CommandContext context) {
+        final String[] arguments = args.getArguments();
+        final List<String> terms = new ArrayList<>();
+        Optional<String> target = Optional.empty();
+        Optional<String> network = Optional.empty();
+        Optional<String> nickname = Optional.empty();
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+
+        try {
+            for (int i = 0; i < arguments.length; i++) {
+                final boolean hasValue = i + 1 < arguments.length;
+                if ("--channel".equalsIgnoreCase(arguments[i]) && hasValue) {
+                    target = Optional.of(arguments[++i]);
+                } else if ("--network".equalsIgnoreCase(arguments[i]) && hasValue) {
+                    network = Optional.of(arguments[++i]);
+                } else if ("--nick".equalsIgnoreCase(arguments[i]) && hasValue) {
+                    nickname = Optional.of(arguments[++i]);
+                } else if ("--from".equalsIgnoreCase(arguments[i]) && hasValue) {
+                    from = LocalDate.parse(arguments[++i]).atStartOfDay(ZoneId.systemDefault())
+                            .toInstant().toEpochMilli();
+                } else if ("--to".equalsIgnoreCase(arguments[i]) && hasValue) {
+                    to = LocalDate.parse(arguments[++i]).plusDays(1)
+                            .atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli() - 1;
+                } else {
+                    terms.add(arguments[i]);
+                }
+            }
+        } catch (DateTimeParseException ex) {
+            showError(origin, args.isSilent(), "Invalid date '" + ex.getParsedString()
+                    + "'. Dates should be in the format yyyy-mm-dd.");
+            return;
+        }
+
+        if (LogSearchIndex.tokenise(String.join(" ", terms)).isEmpty()) {
+            showUsage(origin, args.isSilent(), LOGSEARCH, USAGE);
+            return;
+        }
+
+        final String title = "Search: " + String.join(" ", terms);
+        final CustomWindow window = new CustomWindow(title, title, origin, backBufferFactory);
+        windowManager.addWindow(origin, window);
+
+        index.search(new LogSearchQuery(terms, target, network, nickname, from, to),
+                line -> window.getEventBus().publishAsync(
+                        new HistoricalLineRestoredEvent(window, line)),
+                count -> window.getEventBus().publishAsync(
+                        new HistoricalLineRestoredEvent(window, "--- " + count + " result"
+                                + (count == 1 ? "" : "s") + " found")));
+    }
+
+    @Override
+    public AdditionalTabTargets getSuggestions(final int arg,
+            final IntelligentCommandContext context) {
+        final AdditionalTabTargets res = new AdditionalTabTargets();
+        res.add("--channel");
+        res.add("--network");
+        res.add("--nick");
+        res.add("--from");
+        res.add("--to");
+        return res;
+    }
+
+}
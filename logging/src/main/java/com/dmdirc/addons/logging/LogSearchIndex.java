@@ -0,0 +1,996 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.logging;
+
+import com.dmdirc.commandline.CommandLineOptionsModule.Directory;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.dmdirc.util.LogUtils.USER_ERROR;
+
+/**
+ * An inverted index over the contents of the log directory, stored on disk alongside the logs.
+ *
+ * <p>Each log file and log archive has a segment file next to it, listing the terms in the file
+ * and the positions of the lines containing them. Segments are only ever appended to: new lines
+ * in a file are indexed into a new chunk at the end of its segment, so indexing carries on where
+ * it left off, including across restarts. Each segment records the identity of the file it
+ * describes, and is discarded if the file is replaced (for example when a log is archived and a
+ * new one started).
+ *
+ * <p>The whole log directory is indexed in the background when the index is started. After that,
+ * files are indexed incrementally shortly after lines written to them are flushed, so only the
+ * lines written since the last update need to be indexed before a search.
+ *
+ * <p>When searching, only the postings for the terms being searched for are read back, one chunk
+ * at a time, so memory use is bounded by the size of a chunk rather than the size of the logs.
+ * The lines themselves are read back from the logs when results are produced.
+ *
+ * <p>All indexing and searching happens on a single background thread, so the index itself needs
+ * no locking.
+ */
+@Singleton
+public class LogSearchIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LogSearchIndex.class);
+    /** Maximum number of results to return from a search. */
+    private static final int MAX_RESULTS = 1000;
+    /** Minimum length of a term to index. */
+    private static final int MIN_TERM_LENGTH = 2;
+    /** Maximum number of postings to collect before writing a chunk. */
+    private static final int MAX_CHUNK_POSTINGS = 256 * 1024;
+    /** Time to wait for indexing to stop, in seconds. */
+    private static final long STOP_TIMEOUT = 5;
+    /** Time to wait after a file is marked dirty before indexing it, in seconds. */
+    private static final long UPDATE_DELAY = 5;
+    /** Size of the buffer used to read lines back from logs. */
+    private static final int READ_BUFFER = 8192;
+    /** Suffix of log files. */
+    private static final String LOG_SUFFIX = ".log";
+    /** Suffix of log archives. */
+    private static final String ARCHIVE_SUFFIX = ".log.gz";
+    /** Suffix appended to a file's name to get its segment. */
+    private static final String SEGMENT_SUFFIX = ".terms";
+    /** Value at the start of every segment. */
+    private static final int SEGMENT_MAGIC = 0x444d5331;
+    /** Pattern matching the timestamp at the start of a line. */
+    private static final Pattern TIMESTAMP = Pattern.compile(
+            "^\\[\\d\\d/\\d\\d/\\d{4} \\d\\d:\\d\\d:\\d\\d] ");
+    /** Pattern matching the nickname of the user who sent a message or action. */
+    private static final Pattern AUTHOR = Pattern.compile("^(?:<([^>]*)>|\\* (\\S+))");
+    /** Charset used to read log files. */
+    private final Charset charset = Charset.defaultCharset();
+    /** Provider of the log directory. */
+    private final Provider<String> directoryProvider;
+    /** Files that have been written to since they were last indexed. */
+    private final Set<String> dirtyFiles = ConcurrentHashMap.newKeySet();
+    /** Files that have been indexed. */
+    private final List<IndexedFile> files = new ArrayList<>();
+    /** Map of file names to their position in {@link #files}. */
+    private final Map<String, Integer> fileIds = new HashMap<>();
+    /** Format of timestamps at the start of lines. */
+    private final SimpleDateFormat timestampFormat = new SimpleDateFormat("[dd/MM/yyyy HH:mm:ss]");
+    /** Whether an update of dirty files has been scheduled and not yet started. */
+    private final AtomicBoolean updateScheduled = new AtomicBoolean();
+    /** Executor used to build and search the index. */
+    private volatile ScheduledExecutorService executor;
+    /** Whether the initial build of the index has been started. */
+    private boolean built;
+
+    @Inject
+    public LogSearchIndex(
+            @Directory(LoggingModule.LOGS_DIRECTORY) final Provider<String> directoryProvider) {
+        this.directoryProvider = directoryProvider;
+    }
+
+    /**
+     * Starts the background thread used for indexing and searching, and starts indexing the log
+     * directory.
+     */
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "LoggingPlugin Search");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::runUpdate);
+    }
+
+    /**
+     * Stops indexing and searching. Anything indexed so far is kept on disk, and indexing resumes
+     * from there the next time the index is started.
+     */
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(STOP_TIMEOUT, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+        }
+        built = false;
+        updateScheduled.set(false);
+        dirtyFiles.clear();
+        files.clear();
+        fileIds.clear();
+    }
+
+    /**
+     * Marks a log file or archive as having been written to, so that new lines will be indexed
+     * shortly, or before the next search if that happens first.
+     *
+     * @param filename The file that was written to
+     */
+    public void markDirty(final String filename) {
+        dirtyFiles.add(filename);
+        final ScheduledExecutorService service = executor;
+        if (service != null && updateScheduled.compareAndSet(false, true)) {
+            try {
+                service.schedule(this::runUpdate, UPDATE_DELAY, TimeUnit.SECONDS);
+            } catch (RejectedExecutionException ex) {
+                // Stopping; anything dirty is indexed when the index is next started.
+                updateScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Searches the logs. Results are passed to the given consumer as they are found, on a
+     * background thread.
+     *
+     * @param query    The query to perform
+     * @param results  Consumer to pass matching lines to
+     * @param finished Consumer to pass the total number of results to once the search is complete
+     */
+    public void search(final LogSearchQuery query, final Consumer<String> results,
+            final Consumer<Integer> finished) {
+        executor.submit(() -> {
+            try {
+                update();
+                finished.accept(doSearch(query, results));
+            } catch (RuntimeException ex) {
+                LOG.warn(USER_ERROR, "Unable to search logs: {}", ex.getMessage(), ex);
+                finished.accept(0);
+            }
+        });
+    }
+
+    /**
+     * Gets the path of the segment describing a log file or archive.
+     *
+     * @param path The log file or archive
+     *
+     * @return The path of the file's segment
+     */
+    public static Path getSegmentPath(final Path path) {
+        return path.resolveSibling(path.getFileName() + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Performs a scheduled update of the index.
+     */
+    private void runUpdate() {
+        updateScheduled.set(false);
+        try {
+            update();
+        } catch (RuntimeException ex) {
+            LOG.warn(USER_ERROR, "Unable to index logs: {}", ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Indexes any new lines in dirty files, or in every file in the log directory if the index
+     * hasn't been built since starting.
+     */
+    private void update() {
+        if (built) {
+            final List<String> dirty = new ArrayList<>(dirtyFiles);
+            dirtyFiles.removeAll(dirty);
+            dirty.forEach(this::indexFile);
+            return;
+        }
+
+        built = true;
+        dirtyFiles.clear();
+        try (Stream<Path> paths = Files.walk(Paths.get(directoryProvider.get()))) {
+            paths.filter(Files::isRegularFile)
+                    .map(Path::toString)
+                    .filter(name -> name.endsWith(LOG_SUFFIX) || name.endsWith(ARCHIVE_SUFFIX))
+                    .forEach(this::indexFile);
+        } catch (IOException ex) {
+            LOG.info(USER_ERROR, "Unable to index log directory: {}", ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Indexes any lines in the given file that its segment doesn't already cover.
+     *
+     * @param filename The file to index
+     */
+    private void indexFile(final String filename) {
+        final Path path = Paths.get(filename);
+        final Path segment = getSegmentPath(path);
+        try {
+            if (!Files.exists(path)) {
+                // Logs are moved away when they're archived, leaving nothing to describe.
+                Files.deleteIfExists(segment);
+                return;
+            }
+
+            final IndexedFile file = getFile(filename);
+            final String identity = getIdentity(path);
+            long covered = getCoverage(segment, identity);
+            final long size = file.archive ? LogArchive.getBlockCount(getLog(path))
+                    : Files.size(path);
+            if (size < covered && file.archive) {
+                // The block table is being appended to, and doesn't match the archive yet.
+                dirtyFiles.add(filename);
+                return;
+            } else if (size < covered) {
+                // The log has been rewritten in place, so start again.
+                Files.delete(segment);
+                covered = getCoverage(segment, identity);
+            }
+
+            if (file.archive) {
+                indexArchive(path, segment, covered, size);
+            } else {
+                indexLog(path, segment, covered);
+            }
+        } catch (IOException ex) {
+            LOG.info(USER_ERROR, "Unable to index log file {}: {}", filename, ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Indexes the lines of a log file after the given offset.
+     *
+     * @param path    The log file
+     * @param segment The log's segment
+     * @param covered The offset of the first line to index
+     *
+     * @throws IOException If the log couldn't be read or the segment couldn't be written
+     */
+    private void indexLog(final Path path, final Path segment, final long covered)
+            throws IOException {
+        final Chunk chunk = new Chunk(segment, covered);
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(path))) {
+            long skipped = 0;
+            while (skipped < covered) {
+                final long count = input.skip(covered - skipped);
+                if (count <= 0) {
+                    return;
+                }
+                skipped += count;
+            }
+
+            final ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long offset = covered;
+            long lineStart = offset;
+            int read;
+            while ((read = input.read()) != -1) {
+                offset++;
+                if (read == '\n') {
+                    chunk.add(lineStart, new String(line.toByteArray(), charset));
+                    line.reset();
+                    lineStart = offset;
+                    if (chunk.isFull()) {
+                        chunk.write(lineStart);
+                        if (Thread.currentThread().isInterrupted()) {
+                            return;
+                        }
+                    }
+                } else {
+                    line.write(read);
+                }
+            }
+            // Only complete lines are indexed, so partial writes are picked up later.
+            chunk.write(lineStart);
+        }
+    }
+
+    /**
+     * Indexes the lines in the blocks of an archive after the given block.
+     *
+     * @param path    The archive
+     * @param segment The archive's segment
+     * @param covered The first block to index
+     * @param blocks  The number of blocks in the archive
+     *
+     * @throws IOException If the archive couldn't be read or the segment couldn't be written
+     */
+    private void indexArchive(final Path path, final Path segment, final long covered,
+            final long blocks) throws IOException {
+        final Path log = getLog(path);
+        final Chunk chunk = new Chunk(segment, covered);
+        for (int block = (int) covered; block < blocks; block++) {
+            final List<String> lines = LogArchive.getBlock(log, block);
+            for (int i = 0; i < lines.size(); i++) {
+                chunk.add(getArchivePosition(block, i), lines.get(i));
+            }
+            if (chunk.isFull()) {
+                chunk.write(block + 1);
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+            }
+        }
+        chunk.write(blocks);
+    }
+
+    private IndexedFile getFile(final String filename) {
+        final Integer id = fileIds.get(filename);
+        if (id != null) {
+            return files.get(id);
+        }
+
+        final Path directory = Paths.get(directoryProvider.get());
+        final Path path = Paths.get(filename);
+        final IndexedFile file = new IndexedFile(files.size(), filename,
+                path.startsWith(directory) ? directory.relativize(path) : path.getFileName());
+        files.add(file);
+        fileIds.put(filename, file.id);
+        return file;
+    }
+
+    /**
+     * Performs a search of the index.
+     *
+     * @param query   The query to perform
+     * @param results Consumer to pass matching lines to
+     *
+     * @return The number of matching lines found
+     */
+    private int doSearch(final LogSearchQuery query, final Consumer<String> results) {
+        final Set<String> queryTerms = query.getTerms().stream()
+                .flatMap(term -> tokenise(term).stream())
+                .collect(Collectors.toSet());
+        if (queryTerms.isEmpty()) {
+            return 0;
+        }
+
+        int found = 0;
+        for (IndexedFile file : files) {
+            if (found >= MAX_RESULTS || Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            if (!file.matches(query) || !Files.exists(Paths.get(file.filename))) {
+                continue;
+            }
+
+            try {
+                found += searchFile(file, query, queryTerms, results, MAX_RESULTS - found);
+            } catch (IOException ex) {
+                LOG.info(USER_ERROR, "Unable to search log file {}: {}", file.filename,
+                        ex.getMessage(), ex);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Searches a single file, reading its segment one chunk at a time.
+     *
+     * @param file       The file to search
+     * @param query      The query being performed
+     * @param queryTerms The terms that must appear in matching lines
+     * @param results    Consumer to pass matching lines to
+     * @param limit      The maximum number of results to find
+     *
+     * @return The number of matching lines found
+     *
+     * @throws IOException If the segment or file couldn't be read
+     */
+    private int searchFile(final IndexedFile file, final LogSearchQuery query,
+            final Set<String> queryTerms, final Consumer<String> results, final int limit)
+            throws IOException {
+        final Path path = Paths.get(file.filename);
+        final Path segment = getSegmentPath(path);
+        if (!Files.exists(segment)) {
+            return 0;
+        }
+
+        int found = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(segment)));
+                LineReader reader = file.archive ? new ArchiveLineReader(getLog(path))
+                        : new LogLineReader(path)) {
+            if (input.readInt() != SEGMENT_MAGIC || !getIdentity(path).equals(input.readUTF())) {
+                return 0;
+            }
+
+            final Map<String, long[]> postings = new HashMap<>();
+            while (found < limit && input.available() > 0) {
+                input.readInt();
+                input.readLong();
+                final int termCount = input.readInt();
+                postings.clear();
+                for (int i = 0; i < termCount; i++) {
+                    final String term = input.readUTF();
+                    final int count = input.readInt();
+                    final int length = input.readInt();
+                    if (queryTerms.contains(term)) {
+                        postings.put(term, readPostings(input, count));
+                    } else {
+                        input.skipBytes(length);
+                    }
+                }
+                if (postings.size() < queryTerms.size()) {
+                    continue;
+                }
+
+                // Every query term occurs in each candidate, but the line is still checked in
+                // case the file has changed since it was indexed.
+                for (long position : intersect(postings.values())) {
+                    final String line = reader.getLine(position);
+                    if (line != null && tokenise(stripTimestamp(line)).containsAll(queryTerms)
+                            && matchesLine(query, line)) {
+                        results.accept(file.getDescription() + ": " + line);
+                        if (++found >= limit) {
+                            break;
+                        }
+                    }
+                }
+            }
+        } catch (EOFException ex) {
+            // The segment is being appended to; anything complete has been searched.
+        }
+        return found;
+    }
+
+    /**
+     * Checks whether a line satisfies the date and nickname restrictions of a query.
+     *
+     * @param query The query being performed
+     * @param line  The line to check
+     *
+     * @return True if the line matches, false otherwise
+     */
+    private boolean matchesLine(final LogSearchQuery query, final String line) {
+        if (query.hasDateRange()) {
+            final Date date = TIMESTAMP.matcher(line).lookingAt()
+                    ? timestampFormat.parse(line, new ParsePosition(0)) : null;
+            if (date == null || date.getTime() < query.getFrom()
+                    || date.getTime() > query.getTo()) {
+                return false;
+            }
+        }
+
+        if (query.getNickname().isPresent()) {
+            final Matcher matcher = AUTHOR.matcher(stripTimestamp(line));
+            if (!matcher.find()) {
+                return false;
+            }
+            final String author = matcher.group(1) == null ? matcher.group(2) : matcher.group(1);
+            return author.replaceFirst("^[~&@%+]+", "")
+                    .equalsIgnoreCase(query.getNickname().get());
+        }
+
+        return true;
+    }
+
+    private static String stripTimestamp(final String line) {
+        final Matcher matcher = TIMESTAMP.matcher(line);
+        return matcher.lookingAt() ? line.substring(matcher.end()) : line;
+    }
+
+    /**
+     * Splits text into the terms used by the index.
+     *
+     * @param text The text to split
+     *
+     * @return The set of lower case terms in the text
+     */
+    protected static Set<String> tokenise(final String text) {
+        final Set<String> result = new HashSet<>();
+        final StringBuilder term = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            if (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                term.append(Character.toLowerCase(text.charAt(i)));
+            } else {
+                if (term.length() >= MIN_TERM_LENGTH) {
+                    result.add(term.toString());
+                }
+                term.setLength(0);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets a string identifying a file, which changes if the file is deleted and recreated.
+     *
+     * @param path The file to identify
+     *
+     * @return The file's identity
+     *
+     * @throws IOException If the file's attributes couldn't be read
+     */
+    private static String getIdentity(final Path path) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(path,
+                BasicFileAttributes.class);
+        return attributes.fileKey() == null ? attributes.creationTime().toString()
+                : attributes.fileKey().toString();
+    }
+
+    /**
+     * Works out how much of a file its segment already covers. A segment describing a different
+     * file is replaced with an empty one, and any chunk that was only partially written is
+     * discarded.
+     *
+     * @param segment  The segment to check
+     * @param identity The identity of the file the segment should describe
+     *
+     * @return The offset or block in the file that indexing should continue from
+     *
+     * @throws IOException If the segment couldn't be read or created
+     */
+    private static long getCoverage(final Path segment, final String identity)
+            throws IOException {
+        if (Files.exists(segment)) {
+            try (RandomAccessFile input = new RandomAccessFile(segment.toFile(), "rw")) {
+                if (input.readInt() == SEGMENT_MAGIC && identity.equals(input.readUTF())) {
+                    long covered = 0;
+                    long end = input.getFilePointer();
+                    while (end + 12 <= input.length()) {
+                        input.seek(end);
+                        final int length = input.readInt();
+                        if (length < 12 || end + 4 + length > input.length()) {
+                            break;
+                        }
+                        covered = input.readLong();
+                        end += 4 + length;
+                    }
+                    input.setLength(end);
+                    return covered;
+                }
+            } catch (EOFException | UTFDataFormatException ex) {
+                // Not a usable segment; replace it below.
+            }
+        }
+
+        try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(segment))) {
+            output.writeInt(SEGMENT_MAGIC);
+            output.writeUTF(identity);
+        }
+        return 0;
+    }
+
+    /**
+     * Reads a list of delta encoded postings.
+     *
+     * @param input The stream to read from
+     * @param count The number of postings to read
+     *
+     * @return The postings, in ascending order
+     *
+     * @throws IOException If the postings couldn't be read
+     */
+    private static long[] readPostings(final DataInputStream input, final int count)
+            throws IOException {
+        final long[] postings = new long[count];
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            long delta = 0;
+            int shift = 0;
+            int read;
+            do {
+                read = input.readUnsignedByte();
+                delta |= (long) (read & 0x7f) << shift;
+                shift += 7;
+            } while ((read & 0x80) != 0);
+            previous += delta;
+            postings[i] = previous;
+        }
+        return postings;
+    }
+
+    /**
+     * Finds the postings common to all of the given lists.
+     *
+     * @param lists Lists of postings, each in ascending order
+     *
+     * @return The postings present in every list, in ascending order
+     */
+    private static long[] intersect(final Iterable<long[]> lists) {
+        long[] result = null;
+        for (long[] list : lists) {
+            if (result == null) {
+                result = list;
+                continue;
+            }
+            final long[] merged = new long[Math.min(result.length, list.length)];
+            int size = 0;
+            int i = 0;
+            int j = 0;
+            while (i < result.length && j < list.length) {
+                if (result[i] < list[j]) {
+                    i++;
+                } else if (result[i] > list[j]) {
+                    j++;
+                } else {
+                    merged[size++] = result[i];
+                    i++;
+                    j++;
+                }
+            }
+            result = Arrays.copyOf(merged, size);
+        }
+        return result == null ? new long[0] : result;
+    }
+
+    private static long getArchivePosition(final int block, final int line) {
+        return (long) block << 32 | line;
+    }
+
+    private static Path getLog(final Path archive) {
+        final String name = archive.getFileName().toString();
+        return archive.resolveSibling(name.substring(0, name.length() - ".gz".length()));
+    }
+
+    /** A log file or archive that has been indexed. */
+    private static class IndexedFile {
+
+        /** The file's position in the list of files. */
+        private final int id;
+        /** The full path of the file. */
+        private final String filename;
+        /** Whether the file is an archive rather than a plain log. */
+        private final boolean archive;
+        /** The directories between the log directory and the file, and the file's base name. */
+        private final List<String> components;
+
+        IndexedFile(final int id, final String filename, final Path relativePath) {
+            this.id = id;
+            this.filename = filename;
+            this.archive = filename.endsWith(ARCHIVE_SUFFIX);
+            this.components = new ArrayList<>();
+            for (Path component : relativePath) {
+                components.add(component.toString().toLowerCase());
+            }
+            final String name = components.remove(components.size() - 1);
+            components.add(name.substring(0, name.length()
+                    - (archive ? ARCHIVE_SUFFIX : LOG_SUFFIX).length()));
+        }
+
+        String getDescription() {
+            return components.get(components.size() - 1);
+        }
+
+        /**
+         * Checks whether this file satisfies the target and network restrictions of a query.
+         * Files are named by {@link LogFileLocator}, which puts them in a directory per network
+         * or prefixes their name with the network, and may add a hash to the end of the name.
+         *
+         * @param query The query being performed
+         *
+         * @return True if lines in this file may match, false otherwise
+         */
+        boolean matches(final LogSearchQuery query) {
+            final String name = getDescription();
+            if (query.getTarget().isPresent()) {
+                final String target = LogFileLocator.sanitise(
+                        query.getTarget().get().toLowerCase());
+                if (!name.equals(target) && !name.startsWith(target + '.')
+                        && !name.endsWith(" -- " + target)
+                        && !name.contains(" -- " + target + '.')) {
+                    return false;
+                }
+            }
+
+            if (query.getNetwork().isPresent()) {
+                final String network = LogFileLocator.sanitise(
+                        query.getNetwork().get().toLowerCase());
+                return name.startsWith(network + " -- ")
+                        || components.subList(0, components.size() - 1).contains(network);
+            }
+
+            return true;
+        }
+
+    }
+
+    /** The postings for a range of a file that are yet to be written to its segment. */
+    private static class Chunk {
+
+        /** The segment to write to. */
+        private final Path segment;
+        /** Map of terms to the positions of the lines containing them. */
+        private final Map<String, Postings> terms = new HashMap<>();
+        /** Number of postings collected. */
+        private int postings;
+        /** The offset or block in the file that the segment covers up to. */
+        private long covered;
+
+        Chunk(final Path segment, final long covered) {
+            this.segment = segment;
+            this.covered = covered;
+        }
+
+        void add(final long position, final String line) {
+            for (String term : tokenise(stripTimestamp(line))) {
+                terms.computeIfAbsent(term, k -> new Postings()).add(position);
+                postings++;
+            }
+        }
+
+        boolean isFull() {
+            return postings >= MAX_CHUNK_POSTINGS;
+        }
+
+        /**
+         * Appends the collected postings to the segment as a single chunk.
+         *
+         * @param end The offset or block in the file that the chunk covers up to
+         *
+         * @throws IOException If the segment couldn't be written
+         */
+        void write(final long end) throws IOException {
+            if (end <= covered) {
+                return;
+            }
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(0);
+            output.writeLong(end);
+            output.writeInt(terms.size());
+            final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+                encoded.reset();
+                entry.getValue().writeTo(encoded);
+                output.writeUTF(entry.getKey());
+                output.writeInt(entry.getValue().size);
+                output.writeInt(encoded.size());
+                encoded.writeTo(output);
+            }
+            output.flush();
+
+            // The chunk is appended in one go, so an interrupted write leaves at most one partial
+            // chunk at the end of the segment, which is discarded next time.
+            final byte[] chunk = bytes.toByteArray();
+            ByteBuffer.wrap(chunk).putInt(0, chunk.length - 4);
+            try (OutputStream segmentOutput = Files.newOutputStream(segment,
+                    StandardOpenOption.APPEND)) {
+                segmentOutput.write(chunk);
+            }
+
+            terms.clear();
+            postings = 0;
+            covered = end;
+        }
+
+    }
+
+    /** The positions of all lines in a chunk containing a term. */
+    private static class Postings {
+
+        /** Number of lines recorded. */
+        private int size;
+        /** The position of each line within its file, in ascending order. */
+        private long[] positions = new long[4];
+
+        void add(final long position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+
+        /**
+         * Writes the positions as variable length deltas.
+         *
+         * @param output The stream to write to
+         */
+        void writeTo(final ByteArrayOutputStream output) {
+            long previous = 0;
+            for (int i = 0; i < size; i++) {
+                long delta = positions[i] - previous;
+                previous = positions[i];
+                while ((delta & ~0x7fL) != 0) {
+                    output.write((int) (delta & 0x7f) | 0x80);
+                    delta >>>= 7;
+                }
+                output.write((int) delta);
+            }
+        }
+
+    }
+
+    /** Reads lines from an indexed file given their positions. */
+    private interface LineReader extends AutoCloseable {
+
+        /**
+         * Reads the line at the given position.
+         *
+         * @param position The position of the line, as recorded in the segment
+         *
+         * @return The line, or null if it no longer exists
+         *
+         * @throws IOException If the file couldn't be read
+         */
+        String getLine(long position) throws IOException;
+
+        @Override
+        void close() throws IOException;
+
+    }
+
+    /**
+     * Reads lines from a plain log file, where positions are byte offsets. The log is read a
+     * block at a time, and matches are found in ascending order, so nearby lines are usually
+     * served from the same block.
+     */
+    private class LogLineReader implements LineReader {
+
+        /** The log being read, opened when the first line is read. */
+        private final Path path;
+        /** Buffer holding the most recently read block of the log. */
+        private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER);
+        /** Line currently being assembled. */
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        /** Offset in the log of the start of the buffer. */
+        private long bufferStart;
+        /** The open log. */
+        private FileChannel channel;
+
+        LogLineReader(final Path path) {
+            this.path = path;
+            buffer.limit(0);
+        }
+
+        @Override
+        public String getLine(final long position) throws IOException {
+            if (channel == null) {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+            }
+            if (position >= channel.size()) {
+                return null;
+            }
+
+            line.reset();
+            long offset = position;
+            boolean complete = false;
+            while (!complete && (isBuffered(offset) || fill(offset))) {
+                final int start = (int) (offset - bufferStart);
+                int end = start;
+                while (end < buffer.limit() && buffer.get(end) != '\n') {
+                    end++;
+                }
+                line.write(buffer.array(), start, end - start);
+                complete = end < buffer.limit();
+                offset = bufferStart + end;
+            }
+
+            final String result = new String(line.toByteArray(), charset);
+            return result.indexOf('\r') < 0 ? result : result.replace("\r", "");
+        }
+
+        private boolean isBuffered(final long offset) {
+            return offset >= bufferStart && offset < bufferStart + buffer.limit();
+        }
+
+        /**
+         * Reads the block of the log starting at the given offset into the buffer.
+         *
+         * @param offset The offset to read from
+         *
+         * @return True if anything was read, false at the end of the log
+         *
+         * @throws IOException If the log couldn't be read
+         */
+        private boolean fill(final long offset) throws IOException {
+            buffer.clear();
+            final int read = channel.read(buffer, offset);
+            buffer.flip();
+            bufferStart = offset;
+            return read > 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+
+    }
+
+    /**
+     * Reads lines from a log archive, where positions are a block number and the index of the
+     * line within the block.
+     */
+    private static class ArchiveLineReader implements LineReader {
+
+        /** The log whose archive is being read. */
+        private final Path log;
+        /** The most recently read block. */
+        private int block = -1;
+        /** The lines in the most recently read block. */
+        private List<String> lines;
+
+        ArchiveLineReader(final Path log) {
+            this.log = log;
+        }
+
+        @Override
+        public String getLine(final long position) throws IOException {
+            final int wanted = (int) (position >>> 32);
+            if (wanted != block) {
+                if (wanted >= LogArchive.getBlockCount(log)) {
+                    return null;
+                }
+                lines = LogArchive.getBlock(log, wanted);
+                block = wanted;
+            }
+            final int line = (int) position;
+            return line < lines.size() ? lines.get(line) : null;
+        }
+
+        @Override
+        public void close() {
+            // Nothing to close
+        }
+
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.logging;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Optional;
+
+/**
+ * Describes a search of the log files.
+ */
+public class LogSearchQuery {
+
+    /** Terms that must all appear in a matching line. */
+    private final Collection<String> terms;
+    /** Channel or query the line must have been logged in, if any. */
+    private final Optional<String> target;
+    /** Network the line must have been logged on, if any. */
+    private final Optional<String> network;
+    /** Nickname of the user who must have said the line, if any. */
+    private final Optional<String> nickname;
+    /** Earliest time the line can have been logged, in milliseconds since the epoch. */
+    private final long from;
+    /** Latest time the line can have been logged, in milliseconds since the epoch. */
+    private final long to;
+
+    public LogSearchQuery(final Collection<String> terms, final Optional<String> target,
+            final Optional<String> network, final Optional<String> nickname, final long from,
+            final long to) {
+        this.terms = Collections.unmodifiableCollection(terms);
+        this.target = target;
+        this.network = network;
+        this.nickname = nickname;
+        this.from = from;
+        this.to = to;
+    }
+
+    public Collection<String> getTerms() {
+        return terms;
+    }
+
+    public Optional<String> getTarget() {
+        return target;
+    }
+
+    public Optional<String> getNetwork() {
+        return network;
+    }
+
+    public Optional<String> getNickname() {
+        return nickname;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    /**
+     * Determines whether this query restricts results by date.
+     *
+     * @return True if a date range has been given, false otherwise
+     */
+    public boolean hasDateRange() {
+        return from != Long.MIN_VALUE || to != Long.MAX_VALUE;
+    }
+
+}
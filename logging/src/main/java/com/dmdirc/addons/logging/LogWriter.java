@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.logging;
+
+import com.dmdirc.config.GlobalConfig;
+import com.dmdirc.config.provider.AggregateConfigProvider;
+import com.dmdirc.addons.logging.LogFileCache.OpenFile;
+import com.dmdirc.plugins.PluginDomain;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes formatted lines to log files.
+ *
+ * <p>In synchronous mode every line is written and flushed on the calling thread. In asynchronous
+ * mode lines are placed on a bounded queue and a dedicated writer thread formats and groups them
+ * per file, flushing each file once it has accumulated a configured number of lines or a
+ * configured amount of time has passed since it was last flushed. Callers are never blocked
+ * waiting for space on the queue: if it is full the line is dropped and counted instead.
+ *
+ * <p>Open files are held in a bounded {@link LogFileCache}, and files that have been idle for longer
+ * than the configured timeout are closed periodically.
+ */
+@Singleton
+public class LogWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LogWriter.class);
+    /** Maximum number of lines to take from the queue in one go. */
+    private static final int MAX_BATCH = 1024;
+    /** Maximum time to wait for the writer thread to drain when stopping. */
+    private static final long DRAIN_TIMEOUT = 10000;
+    /** How often to check for idle files, in milliseconds. */
+    private static final long IDLE_CHECK_INTERVAL = 60000;
+    /** Marker placed on the queue to stop the writer thread. */
+    private static final PendingLine STOP = new PendingLine(null, null, 0);
+    /** Number of lines dropped because the queue was full. */
+    private final AtomicLong droppedLines = new AtomicLong();
+    /** Cache of open files. */
+    private final LogFileCache openFiles = new LogFileCache(1);
+    /** Global config. */
+    private final AggregateConfigProvider config;
+    /** The domain to read settings from. */
+    private final String domain;
+    /** Queue of lines waiting to be written, or null if running synchronously. */
+    private volatile BlockingQueue<PendingLine> queue;
+    /** Thread draining the queue, if running asynchronously. */
+    private Thread writerThread;
+    /** Timer used to close idle files. */
+    private Timer idleFileTimer;
+    /** Time (in milliseconds) after which unused files are closed. */
+    private volatile long idleTimeout;
+    /** Whether lines are written asynchronously. */
+    private boolean async;
+    /** Maximum time (in milliseconds) a line may sit unflushed. */
+    private int flushInterval;
+    /** Number of unflushed lines that will cause a file to be flushed. */
+    private int flushLines;
+    /** Maximum number of lines that may be waiting to be written. */
+    private int queueSize;
+
+    @Inject
+    public LogWriter(
+            @GlobalConfig final AggregateConfigProvider globalConfig,
+            @PluginDomain(LoggingPlugin.class) final String domain) {
+        this.config = globalConfig;
+        this.domain = domain;
+    }
+
+    /**
+     * Starts the writer using the current settings.
+     */
+    public void start() {
+        async = config.getOptionBool(domain, "advanced.asyncwrite");
+        flushInterval = Math.max(1, config.getOptionInt(domain, "advanced.flushinterval"));
+        flushLines = Math.max(1, config.getOptionInt(domain, "advanced.flushlines"));
+        queueSize = Math.max(1, config.getOptionInt(domain, "advanced.queuesize"));
+        updateCacheSettings();
+
+        idleFileTimer = new Timer("LoggingPlugin Timer");
+        idleFileTimer.schedule(new TimerTask() {
+
+            @Override
+            public void run() {
+                openFiles.closeIdle(System.currentTimeMillis() - idleTimeout);
+            }
+        }, IDLE_CHECK_INTERVAL, IDLE_CHECK_INTERVAL);
+
+        if (async) {
+            final BlockingQueue<PendingLine> pending = new ArrayBlockingQueue<>(queueSize);
+            writerThread = new Thread(() -> runWriter(pending), "LoggingPlugin Writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+            queue = pending;
+        }
+    }
+
+    /**
+     * Stops the writer, writing out any queued lines and closing all open files.
+     */
+    public void stop() {
+        if (idleFileTimer != null) {
+            idleFileTimer.cancel();
+            idleFileTimer.purge();
+            idleFileTimer = null;
+        }
+
+        if (writerThread != null) {
+            // Any lines written from now on are handled synchronously.
+            final BlockingQueue<PendingLine> pending = queue;
+            queue = null;
+            try {
+                if (pending.offer(STOP, DRAIN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    writerThread.join(DRAIN_TIMEOUT);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            if (writerThread.isAlive()) {
+                LOG.warn("Timed out waiting for log writer to finish");
+                // Make sure it exits once it is no longer stuck, instead of polling forever.
+                writerThread.interrupt();
+            }
+            writerThread = null;
+
+            // Pick up anything queued by threads that raced with the switch above.
+            final List<PendingLine> remaining = new ArrayList<>(pending.size());
+            pending.drainTo(remaining);
+            remaining.remove(STOP);
+            writeBatch(remaining, true);
+        }
+
+        openFiles.closeAll();
+    }
+
+    /**
+     * Applies any changed settings, restarting the writer if required.
+     */
+    public void reconfigure() {
+        updateCacheSettings();
+
+        if (async != config.getOptionBool(domain, "advanced.asyncwrite")
+                || flushInterval != config.getOptionInt(domain, "advanced.flushinterval")
+                || flushLines != config.getOptionInt(domain, "advanced.flushlines")
+                || queueSize != config.getOptionInt(domain, "advanced.queuesize")) {
+            stop();
+            start();
+        }
+    }
+
+    /**
+     * Writes a line to a file.
+     *
+     * @param filename Name of file to write to
+     * @param line     Line to add. (NewLine will be added Automatically)
+     *
+     * @return true if the line was written or queued, else false.
+     */
+    public boolean write(final String filename, final String line) {
+        return write(filename, () -> line);
+    }
+
+    /**
+     * Writes a line to a file. When writing asynchronously the line is built on the writer
+     * thread, so callers can defer any formatting work to it.
+     *
+     * @param filename Name of file to write to
+     * @param line     Supplier of the line to add. (NewLine will be added Automatically)
+     *
+     * @return true if the line was written or queued, else false.
+     */
+    public boolean write(final String filename, final Supplier<String> line) {
+        final BlockingQueue<PendingLine> pending = queue;
+        if (pending != null) {
+            return enqueue(pending, new PendingLine(filename, line, System.currentTimeMillis()));
+        }
+
+        synchronized (openFiles) {
+            final OpenFile file = getFile(filename);
+            return file != null && file.write(line.get(), System.currentTimeMillis())
+                    && file.flush();
+        }
+    }
+
+    /**
+     * Closes a file once any lines already written to it have been handled.
+     *
+     * @param filename Name of file to close
+     */
+    public void close(final String filename) {
+        final BlockingQueue<PendingLine> pending = queue;
+        if (pending != null) {
+            enqueue(pending, new PendingLine(filename, null, 0));
+        } else {
+            closeFile(filename);
+        }
+    }
+
+    /**
+     * Gets the cache of open files used by this writer.
+     *
+     * @return The cache of open files
+     */
+    public LogFileCache getFileCache() {
+        return openFiles;
+    }
+
+    /**
+     * Gets the number of lines that have been dropped because the write queue was full.
+     *
+     * @return The number of dropped lines
+     */
+    public long getDroppedLines() {
+        return droppedLines.get();
+    }
+
+    /**
+     * Gets the number of lines currently waiting to be written.
+     *
+     * @return The number of queued lines, or 0 if writing synchronously
+     */
+    public int getQueuedLines() {
+        final BlockingQueue<PendingLine> pending = queue;
+        return pending == null ? 0 : pending.size();
+    }
+
+    private void updateCacheSettings() {
+        idleTimeout = config.getOptionInt(domain, "advanced.idletimeout");
+        openFiles.setMaxOpenFiles(config.getOptionInt(domain, "advanced.maxopenfiles"));
+        openFiles.setIndexing(config.getOptionBool(domain, "advanced.lineindex"));
+    }
+
+    private boolean enqueue(final BlockingQueue<PendingLine> pending, final PendingLine line) {
+        if (pending.offer(line)) {
+            return true;
+        }
+        droppedLines.incrementAndGet();
+        return false;
+    }
+
+    private void closeFile(final String filename) {
+        openFiles.close(filename);
+    }
+
+    /**
+     * Gets the open file with the given name, opening it if required.
+     *
+     * @param filename Name of the file to get
+     *
+     * @return The open file, or null if it couldn't be opened.
+     */
+    private OpenFile getFile(final String filename) {
+        try {
+            return openFiles.get(filename);
+        } catch (IOException ex) {
+            /*
+             * Do Nothing
+             *
+             * Makes no sense to keep adding errors to the logger when we can't write to the
+             * file, as chances are it will happen on every incoming line.
+             */
+            return null;
+        }
+    }
+
+    /**
+     * Main loop of the writer thread.
+     *
+     * @param pending The queue to take lines from
+     */
+    private void runWriter(final BlockingQueue<PendingLine> pending) {
+        final List<PendingLine> batch = new ArrayList<>(MAX_BATCH);
+        boolean running = true;
+        while (running) {
+            try {
+                final PendingLine first = pending.poll(flushInterval, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    pending.drainTo(batch, MAX_BATCH - 1);
+                }
+            } catch (InterruptedException ex) {
+                running = false;
+            }
+
+            final int stopIndex = batch.indexOf(STOP);
+            if (stopIndex >= 0) {
+                // Writers that raced with stop() may have queued lines behind the marker; they
+                // were accepted, so they are written along with the rest of the batch.
+                running = false;
+                batch.remove(stopIndex);
+            }
+
+            writeBatch(batch, !running);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes a batch of lines, grouped by file, then flushes any files that are due.
+     *
+     * @param batch    The lines to write
+     * @param flushAll Whether all files should be flushed regardless of thresholds
+     */
+    private void writeBatch(final List<PendingLine> batch, final boolean flushAll) {
+        final Map<String, List<PendingLine>> grouped = new LinkedHashMap<>();
+        final Collection<String> toClose = new ArrayList<>();
+        for (PendingLine line : batch) {
+            if (line.line == null) {
+                // Lines queued before the close will still be written, below.
+                toClose.add(line.filename);
+            } else {
+                grouped.computeIfAbsent(line.filename, k -> new ArrayList<>()).add(line);
+            }
+        }
+
+        final long now = System.currentTimeMillis();
+        synchronized (openFiles) {
+            grouped.forEach((filename, lines) -> {
+                final OpenFile file = getFile(filename);
+                if (file != null) {
+                    for (PendingLine line : lines) {
+                        final String text = line.getText();
+                        if (text != null) {
+                            file.write(text, line.timestamp);
+                        }
+                    }
+                }
+            });
+
+            toClose.forEach(this::closeFile);
+
+            openFiles.forEach(file -> {
+                if (file.getUnflushedLines() > 0 && (flushAll
+                        || file.getUnflushedLines() >= flushLines
+                        || now - file.getLastFlushTime() >= flushInterval)) {
+                    file.flush();
+                }
+            });
+        }
+    }
+
+    /** A line waiting to be written. A null line indicates the file should be closed. */
+    private static class PendingLine {
+
+        /** Name of the file to write to. */
+        private final String filename;
+        /** Supplier of the line to write, or null to close the file. */
+        private final Supplier<String> line;
+        /** The time the line was logged. */
+        private final long timestamp;
+
+        PendingLine(final String filename, final Supplier<String> line, final long timestamp) {
+            this.filename = filename;
+            this.line = line;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * Builds the text of this line.
+         *
+         * @return The text to write, or null if it couldn't be built
+         */
+        String getText() {
+            try {
+                return line.get();
+            } catch (RuntimeException ex) {
+                LOG.warn("Unable to format log line for {}", filename, ex);
+                return null;
+            }
+        }
+
+    }
+
+}
@@ -39,21 +39,26 @@ public class LoggingCommand extends BaseCommand implements IntelligentCommand {
     private static final String LOGGING = "logging";
     /** A command info object for this command. */
     public static final BaseCommandInfo INFO = new BaseCommandInfo(LOGGING,
-            "logging <history|help> - view logging related information",
+            "logging <history|stats|help> - view logging related information",
             CommandType.TYPE_SERVER);
     /** Logging manager. */
     private final LoggingManager manager;
+    /** Log writer, used for statistics. */
+    private final LogWriter writer;
 
     /**
      * Creates a new instance of this command.
      *
      * @param controller The controller to use for command information.
      * @param manager    The manager providing logging services.
+     * @param writer     The writer used to write log files.
      */
     @Inject
-    public LoggingCommand(final CommandController controller, final LoggingManager manager) {
+    public LoggingCommand(final CommandController controller, final LoggingManager manager,
+            final LogWriter writer) {
         super(controller);
         this.manager = manager;
+        this.writer = writer;
     }
 
     @Override
@@ -64,9 +69,20 @@ public class LoggingCommand extends BaseCommand implements IntelligentCommand {
                 if (!manager.showHistory(origin)) {
                     showError(origin, args.isSilent(), "Unable to open history for this window.");
                 }
+            } else if ("stats".equalsIgnoreCase(args.getArguments()[0])) {
+                final LogFileCache cache = writer.getFileCache();
+                showOutput(origin, args.isSilent(), "Open log files: " + cache.getOpenFiles()
+                        + '/' + cache.getMaxOpenFiles());
+                showOutput(origin, args.isSilent(), "Cache hits: " + cache.getHits()
+                        + ", misses: " + cache.getMisses() + ", evictions: "
+                        + cache.getEvictions() + ", idle closes: " + cache.getIdleCloses());
+                showOutput(origin, args.isSilent(), "Queued lines: " + writer.getQueuedLines()
+                        + ", dropped lines: " + writer.getDroppedLines());
             } else if ("help".equalsIgnoreCase(args.getArguments()[0])) {
                 showOutput(origin, args.isSilent(), LOGGING
                         + " history          - Open the history of this window, if available.");
+                showOutput(origin, args.isSilent(), LOGGING
+                        + " stats            - Show statistics about open log files.");
                 showOutput(origin, args.isSilent(), LOGGING
                         + " help             - Show this help.");
             } else {
@@ -85,6 +101,7 @@ public class LoggingCommand extends BaseCommand implements IntelligentCommand {
         final AdditionalTabTargets res = new AdditionalTabTargets();
         if (arg == 0) {
             res.add("history");
+            res.add("stats");
             res.add("help");
             res.excludeAll();
         }
@@ -58,28 +58,17 @@ import com.dmdirc.ui.WindowManager;
 import com.dmdirc.ui.messages.BackBufferFactory;
 import com.dmdirc.ui.messages.IRCControlCodes;
 import com.dmdirc.ui.messages.StyledMessageUtils;
-import com.dmdirc.util.io.ReverseFileReader;
-import com.dmdirc.util.io.StreamUtils;
 import java.awt.Color;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Stack;
-import java.util.Timer;
-import java.util.TimerTask;
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
@@ -101,7 +90,9 @@ public class LoggingManager implements ConfigChangeListener {
             "EEEE MMMM dd, yyyy - HH:mm:ss");
     /** Object for synchronising access to the date forma.t */
     private static final Object FORMAT_LOCK = new Object();
-    private static final DateFormat LOG_FORMAT = new SimpleDateFormat("[dd/MM/yyyy HH:mm:ss]");
+    /** Format used for timestamps added to lines, which may be formatted on any thread. */
+    private static final DateTimeFormatter LOG_FORMAT =
+            DateTimeFormatter.ofPattern("[dd/MM/yyyy HH:mm:ss]");
     /** This plugin's plugin info. */
     private final String domain;
     private final PluginInfo pluginInfo;
@@ -109,15 +100,17 @@ public class LoggingManager implements ConfigChangeListener {
     private final AggregateConfigProvider config;
     /** The manager to add history windows to. */
     private final WindowManager windowManager;
-    /** Map of open files. */
-    private final Map<String, OpenFile> openFiles = Collections.synchronizedMap(new HashMap<>());
+    /** Writer used to write lines to files. */
+    private final LogWriter writer;
+    /** Index used to search log files. */
+    private final LogSearchIndex searchIndex;
+    /** Archiver used to compress old log files. */
+    private final LogArchiver archiver;
     private final EventBus eventBus;
     private final Provider<String> directoryProvider;
     private final BackBufferFactory backBufferFactory;
     private final LogFileLocator locator;
     private final StyledMessageUtils styleUtils;
-    /** Timer used to close idle files. */
-    private Timer idleFileTimer;
     /** Cached boolean settings. */
     private boolean addtime;
     private boolean stripcodes;
@@ -137,7 +130,10 @@ public class LoggingManager implements ConfigChangeListener {
             @Directory(LoggingModule.LOGS_DIRECTORY) final Provider<String> directoryProvider,
             final BackBufferFactory backBufferFactory,
             final LogFileLocator locator,
-            final StyledMessageUtils styleUtils) {
+            final StyledMessageUtils styleUtils,
+            final LogWriter writer,
+            final LogSearchIndex searchIndex,
+            final LogArchiver archiver) {
         this.domain = domain;
         this.pluginInfo = pluginInfo;
         this.config = globalConfig;
@@ -147,6 +143,9 @@ public class LoggingManager implements ConfigChangeListener {
         this.backBufferFactory = backBufferFactory;
         this.locator = locator;
         this.styleUtils = styleUtils;
+        this.writer = writer;
+        this.searchIndex = searchIndex;
+        this.archiver = archiver;
     }
 
     public void load() {
@@ -163,55 +162,22 @@ public class LoggingManager implements ConfigChangeListener {
             }
         }
 
+        // New lines are indexed for searching once they have been flushed to disk.
+        writer.getFileCache().setFlushListener(path -> searchIndex.markDirty(path.toString()));
+        writer.start();
+        searchIndex.start();
+        archiver.start();
         config.addChangeListener(domain, this);
 
-        // Close idle files every hour.
-        idleFileTimer = new Timer("LoggingPlugin Timer");
-        idleFileTimer.schedule(new TimerTask() {
-
-            @Override
-            public void run() {
-                timerTask();
-            }
-        }, 3600000);
-
         eventBus.subscribe(this);
     }
 
     public void unload() {
-        if (idleFileTimer != null) {
-            idleFileTimer.cancel();
-            idleFileTimer.purge();
-        }
-
-        synchronized (openFiles) {
-            for (OpenFile file : openFiles.values()) {
-                StreamUtils.close(file.writer);
-            }
-            openFiles.clear();
-        }
-
         eventBus.unsubscribe(this);
-    }
-
-    /**
-     * What to do every hour when the timer fires.
-     */
-    protected void timerTask() {
-        // Oldest time to allow
-        final long oldestTime = System.currentTimeMillis() - 3480000;
-
-        synchronized (openFiles) {
-            final Collection<String> old = new ArrayList<>(openFiles.size());
-            openFiles.entrySet().stream()
-                    .filter(entry -> entry.getValue().lastUsedTime < oldestTime)
-                    .forEach(entry -> {
-                        StreamUtils.close(entry.getValue().writer);
-                        old.add(entry.getKey());
-                    });
-
-            openFiles.keySet().removeAll(old);
-        }
+        config.removeListener(this);
+        archiver.stop();
+        writer.stop();
+        searchIndex.stop();
     }
 
     @Handler
@@ -238,10 +204,7 @@ public class LoggingManager implements ConfigChangeListener {
             appendLine(filename, "*** Query closed at: %s", OPENED_AT_FORMAT.format(new Date()));
         }
 
-        if (openFiles.containsKey(filename)) {
-            StreamUtils.close(openFiles.get(filename).writer);
-            openFiles.remove(filename);
-        }
+        writer.close(filename);
     }
 
     @Handler
@@ -390,6 +353,8 @@ public class LoggingManager implements ConfigChangeListener {
     @Override
     public void configChanged(final String domain, final String key) {
         setCachedSettings();
+        writer.reconfigure();
+        archiver.reconfigure();
     }
 
     @Handler
@@ -414,10 +379,7 @@ public class LoggingManager implements ConfigChangeListener {
             appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(new Date()));
         }
 
-        if (openFiles.containsKey(filename)) {
-            StreamUtils.close(openFiles.get(filename).writer);
-            openFiles.remove(filename);
-        }
+        writer.close(filename);
     }
 
     /**
@@ -433,18 +395,12 @@ public class LoggingManager implements ConfigChangeListener {
         }
 
         final Path testFile = Paths.get(filename);
-        if (Files.exists(testFile)) {
-            try (final ReverseFileReader file = new ReverseFileReader(testFile)) {
-                // Because the file includes a newline char at the end, an empty line
-                // is returned by getLines. To counter this, we call getLines(1) and do
-                // nothing with the output.
-                file.getLines(1);
-                final Stack<String> lines = file.getLines(backbufferLines);
-                while (!lines.empty()) {
+        if (LogFileReader.exists(testFile)) {
+            try {
+                for (String line : LogFileReader.getLastLines(testFile, backbufferLines)) {
                     frame.getEventBus().publishAsync(new HistoricalLineRestoredEvent(frame,
-                            getColouredString(colour, lines.pop())));
+                            getColouredString(colour, line)));
                 }
-                file.close();
                 frame.getEventBus().publishAsync(new HistoricalLineRestoredEvent(frame,
                         getColouredString(colour, "--- End of backbuffer\n")));
             } catch (IOException | SecurityException e) {
@@ -490,16 +446,21 @@ public class LoggingManager implements ConfigChangeListener {
     }
 
     /**
-     * Add a line to a file.
+     * Add a line to a file. The line is formatted by the writer, so when writing asynchronously
+     * none of the formatting work happens on the calling thread.
      *
      * @param filename Name of file to write to
      * @param format   Format of line to add. (NewLine will be added Automatically)
      * @param args     Arguments for format
      *
-     * @return true on success, else false.
+     * @return true on success (or if the line was queued to be written), else false.
      */
     protected boolean appendLine(final String filename, final String format, final Object... args) {
-        return appendLine(filename, String.format(format, args));
+        final long time = System.currentTimeMillis();
+        final boolean timestamp = addtime;
+        final boolean strip = stripcodes;
+        return writer.write(filename,
+                () -> formatLine(time, timestamp, strip, String.format(format, args)));
     }
 
     /**
@@ -508,46 +469,42 @@ public class LoggingManager implements ConfigChangeListener {
      * @param filename Name of file to write to
      * @param line     Line to add. (NewLine will be added Automatically)
      *
-     * @return true on success, else false.
+     * @return true on success (or if the line was queued to be written), else false.
      */
     protected boolean appendLine(final String filename, final String line) {
+        final long time = System.currentTimeMillis();
+        final boolean timestamp = addtime;
+        final boolean strip = stripcodes;
+        return writer.write(filename, () -> formatLine(time, timestamp, strip, line));
+    }
+
+    /**
+     * Builds the final text of a line to be logged.
+     *
+     * @param time      The time the line was logged
+     * @param timestamp Whether to prefix the line with a timestamp
+     * @param strip     Whether to strip control codes from the line
+     * @param line      The line to log
+     *
+     * @return The text to write to the log file
+     */
+    private String formatLine(final long time, final boolean timestamp, final boolean strip,
+            final String line) {
         final StringBuilder finalLine = new StringBuilder();
 
-        if (addtime) {
-            final String dateString = LOG_FORMAT.format(new Date()).trim();
-            finalLine.append(dateString);
+        if (timestamp) {
+            finalLine.append(LOG_FORMAT.format(
+                    Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault())));
             finalLine.append(' ');
         }
 
-        if (stripcodes) {
+        if (strip) {
             finalLine.append(styleUtils.stripControlCodes(line));
         } else {
             finalLine.append(line);
         }
 
-        try {
-            final BufferedWriter out;
-            if (openFiles.containsKey(filename)) {
-                final OpenFile of = openFiles.get(filename);
-                of.lastUsedTime = System.currentTimeMillis();
-                out = of.writer;
-            } else {
-                out = new BufferedWriter(new FileWriter(filename, true));
-                openFiles.put(filename, new OpenFile(out));
-            }
-            out.write(finalLine.toString());
-            out.newLine();
-            out.flush();
-            return true;
-        } catch (IOException e) {
-            /*
-             * Do Nothing
-             *
-             * Makes no sense to keep adding errors to the logger when we can't write to the file,
-             * as chances are it will happen on every incoming line.
-             */
-        }
-        return false;
+        return finalLine.toString();
     }
 
     /**
@@ -602,7 +559,7 @@ public class LoggingManager implements ConfigChangeListener {
 
 
 
-        if (!Files.exists(log)) {
+        if (!LogFileReader.exists(log)) {
             // File doesn't exist
             return false;
         }
@@ -687,28 +644,51 @@ public class LoggingManager implements ConfigChangeListener {
                         + "directory name(s) for archiving",
                 manager.getConfigManager(), manager.getIdentity()));
 
+        advanced.addSetting(new PreferencesSetting(PreferencesType.INTEGER,
+                pluginInfo.getDomain(), "advanced.maxopenfiles", "Maximum open files",
+                "Maximum number of log files to keep open at once. The least recently "
+                        + "used file is closed when this is exceeded",
+                manager.getConfigManager(), manager.getIdentity()));
+        advanced.addSetting(new PreferencesSetting(PreferencesType.INTEGER,
+                pluginInfo.getDomain(), "advanced.idletimeout", "Idle file timeout",
+                "Time (in milliseconds) after which unused log files are closed",
+                manager.getConfigManager(), manager.getIdentity()));
+        advanced.addSetting(new PreferencesSetting(PreferencesType.BOOLEAN,
+                pluginInfo.getDomain(), "advanced.lineindex", "Index log files",
+                "Should a line index be kept alongside each log file? This makes showing "
+                        + "the backbuffer and history of large logs much faster",
+                manager.getConfigManager(), manager.getIdentity()));
+        advanced.addSetting(new PreferencesSetting(PreferencesType.BOOLEAN,
+                pluginInfo.getDomain(), "advanced.archive", "Compress old logs",
+                "Should log files that are no longer being written to be compressed?",
+                manager.getConfigManager(), manager.getIdentity()));
+        advanced.addSetting(new PreferencesSetting(PreferencesType.INTEGER,
+                pluginInfo.getDomain(), "advanced.archiveafter", "Compress after",
+                "Number of hours after a log file was last written to before it is compressed",
+                manager.getConfigManager(), manager.getIdentity()));
+        advanced.addSetting(new PreferencesSetting(PreferencesType.BOOLEAN,
+                pluginInfo.getDomain(), "advanced.asyncwrite", "Write asynchronously",
+                "Should lines be written to log files in the background? Lines may be lost "
+                        + "if the client crashes before they are flushed",
+                manager.getConfigManager(), manager.getIdentity()));
+        advanced.addSetting(new PreferencesSetting(PreferencesType.INTEGER,
+                pluginInfo.getDomain(), "advanced.flushinterval", "Flush interval",
+                "Maximum time (in milliseconds) before written lines are flushed to disk "
+                        + "when writing asynchronously",
+                manager.getConfigManager(), manager.getIdentity()));
+        advanced.addSetting(new PreferencesSetting(PreferencesType.INTEGER,
+                pluginInfo.getDomain(), "advanced.flushlines", "Flush after lines",
+                "Number of lines after which a log file is flushed to disk when writing "
+                        + "asynchronously (1 flushes every line)",
+                manager.getConfigManager(), manager.getIdentity()));
+        advanced.addSetting(new PreferencesSetting(PreferencesType.INTEGER,
+                pluginInfo.getDomain(), "advanced.queuesize", "Write queue size",
+                "Maximum number of lines waiting to be written when writing asynchronously",
+                manager.getConfigManager(), manager.getIdentity()));
+
         general.addSubCategory(backbuffer.setInline());
         general.addSubCategory(advanced.setInline());
         manager.getCategory("Plugins").addSubCategory(general.setInlineAfter());
     }
 
-    /** Open File. */
-    private static class OpenFile {
-
-        /** Last used time. */
-        public long lastUsedTime = System.currentTimeMillis();
-        /** Open file's writer. */
-        public final BufferedWriter writer;
-
-        /**
-         * Creates a new open file.
-         *
-         * @param writer Writer that has file open
-         */
-        protected OpenFile(final BufferedWriter writer) {
-            this.writer = writer;
-        }
-
-    }
-
 }
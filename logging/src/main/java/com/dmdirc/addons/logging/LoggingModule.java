@@ -33,7 +33,8 @@ import java.io.File;
 /**
  * Dependency injection module for the logging plugin.
  */
-@Module(addsTo = ClientModule.class, injects = {LoggingManager.class, LoggingCommand.class})
+@Module(addsTo = ClientModule.class, injects = {LoggingManager.class, LoggingCommand.class,
+        LogSearchCommand.class})
 public class LoggingModule {
 
     public static final String LOGS_DIRECTORY = "logs";
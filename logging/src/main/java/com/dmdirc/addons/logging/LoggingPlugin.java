@@ -38,6 +38,7 @@ public class LoggingPlugin extends BaseCommandPlugin {
         manager = getObjectGraph().get(LoggingManager.class);
 
         registerCommand(LoggingCommand.class, LoggingCommand.INFO);
+        registerCommand(LogSearchCommand.class, LogSearchCommand.INFO);
     }
 
     @Override
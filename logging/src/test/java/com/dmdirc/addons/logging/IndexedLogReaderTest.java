@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.logging;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IndexedLogReaderTest {
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+    private Path log;
+    private LogFileCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        log = new File(folder.getRoot(), "test.log").toPath();
+        cache = new LogFileCache(10, Runnable::run);
+        cache.setIndexing(true);
+    }
+
+    @Test
+    public void testIndexIsMaintainedByWriter() throws Exception {
+        final LogFileCache.OpenFile file = cache.get(log.toString());
+        file.write("one", 1000);
+        file.write("two", 2000);
+        file.write("three", 3000);
+        file.flush();
+
+        try (IndexedLogReader reader = new IndexedLogReader(log)) {
+            assertEquals(3, reader.getLineCount());
+            assertEquals(Arrays.asList("two", "three"), reader.getLastLines(2));
+            assertEquals(Arrays.asList("one", "two"), reader.getLines(0, 2));
+            assertEquals(Arrays.asList("two", "three"), reader.getLinesSince(1500));
+        }
+    }
+
+    @Test
+    public void testLinesAreReadAcrossMapWindows() throws Exception {
+        final LogFileCache.OpenFile file = cache.get(log.toString());
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final String line = i == 50 ? String.join("", Collections.nCopies(100, "long"))
+                    : "line " + i;
+            expected.add(line);
+            file.write(line, 1000 + i);
+        }
+        file.flush();
+
+        try (IndexedLogReader reader = new IndexedLogReader(log, 64)) {
+            assertEquals(expected, reader.getLines(0, 100));
+            assertEquals(expected.subList(45, 55), reader.getLines(45, 10));
+            assertEquals(expected.subList(50, 51), reader.getLines(50, 1));
+        }
+    }
+
+    @Test
+    public void testIndexIsRebuiltForExistingLog() throws Exception {
+        Files.write(log, Arrays.asList("[21/12/2015 12:58:02] RAAR", "[21/12/2015 12:59:03] RAAAR"),
+                Charset.defaultCharset());
+        final LogFileCache.OpenFile file = cache.get(log.toString());
+        file.write("[21/12/2015 13:00:04] RAAAAR", System.currentTimeMillis());
+        file.flush();
+
+        try (IndexedLogReader reader = new IndexedLogReader(log)) {
+            assertEquals(3, reader.getLineCount());
+            assertEquals(Arrays.asList("[21/12/2015 12:59:03] RAAAR",
+                    "[21/12/2015 13:00:04] RAAAAR"), reader.getLastLines(2));
+        }
+    }
+
+    @Test
+    public void testRebuiltIndexCatchesUpWithLinesWrittenMeanwhile() throws Exception {
+        final List<Runnable> rebuilds = new ArrayList<>();
+        cache = new LogFileCache(10, rebuilds::add);
+        cache.setIndexing(true);
+        Files.write(log, Arrays.asList("[21/12/2015 12:58:02] RAAR", "[21/12/2015 12:59:03] RAAAR"),
+                Charset.defaultCharset());
+        final LogFileCache.OpenFile file = cache.get(log.toString());
+        file.write("[21/12/2015 13:00:04] RAAAAR", System.currentTimeMillis());
+        file.flush();
+        assertEquals(1, rebuilds.size());
+        assertFalse(IndexedLogReader.isAvailable(log));
+
+        file.write("[21/12/2015 13:01:05] RAAAAAR", System.currentTimeMillis());
+        rebuilds.forEach(Runnable::run);
+        file.write("[21/12/2015 13:02:06] RAAAAAAR", System.currentTimeMillis());
+        file.flush();
+
+        try (IndexedLogReader reader = new IndexedLogReader(log)) {
+            assertEquals(5, reader.getLineCount());
+            assertEquals(Arrays.asList("[21/12/2015 13:00:04] RAAAAR",
+                    "[21/12/2015 13:01:05] RAAAAAR", "[21/12/2015 13:02:06] RAAAAAAR"),
+                    reader.getLastLines(3));
+        }
+    }
+
+    @Test
+    public void testIndexIsDeletedWhenWritingWithoutIndexing() throws Exception {
+        cache.get(log.toString()).write("one", 1000);
+        cache.closeAll();
+        assertTrue(IndexedLogReader.isAvailable(log));
+
+        cache.setIndexing(false);
+        cache.get(log.toString()).write("two", 2000);
+        cache.closeAll();
+        assertFalse(IndexedLogReader.isAvailable(log));
+    }
+
+}
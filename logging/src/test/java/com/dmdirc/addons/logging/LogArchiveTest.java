@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.logging;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LogArchiveTest {
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+    private Path log;
+    private Path source;
+
+    @Before
+    public void setUp() throws Exception {
+        log = folder.getRoot().toPath().resolve("test.log");
+        source = folder.getRoot().toPath().resolve("test.log.archiving");
+    }
+
+    @Test
+    public void testArchiveRoundTrip() throws Exception {
+        final List<String> lines = writeSource(0, 10000);
+        LogArchive.archive(source, log);
+
+        assertFalse(Files.exists(source));
+        assertTrue(LogArchive.exists(log));
+        assertTrue(LogArchive.getBlockCount(log) > 1);
+        assertEquals(lines, readArchive());
+        assertEquals(lines.subList(9990, 10000), LogArchive.getLastLines(log, 10));
+        assertEquals(lines, LogArchive.getLastLines(log, 20000));
+    }
+
+    @Test
+    public void testArchivingAppendsToExistingArchive() throws Exception {
+        final List<String> lines = writeSource(0, 100);
+        LogArchive.archive(source, log);
+        lines.addAll(writeSource(100, 100));
+        LogArchive.archive(source, log);
+
+        assertEquals(lines, readArchive());
+        assertEquals(lines.subList(150, 200), LogArchive.getLastLines(log, 50));
+    }
+
+    @Test
+    public void testLastLinesOnlyReadTrailingBlocks() throws Exception {
+        final List<String> lines = writeSource(0, 10000);
+        LogArchive.archive(source, log);
+        final int blocks = LogArchive.getBlockCount(log);
+
+        final List<String> lastBlock = LogArchive.getBlock(log, blocks - 1);
+        assertEquals(lines.get(lines.size() - 1), lastBlock.get(lastBlock.size() - 1));
+        assertEquals(lines.get(0), LogArchive.getBlock(log, 0).get(0));
+
+        // Damage the first block; reading the most recent lines must not touch it.
+        final byte[] data = Files.readAllBytes(LogArchive.getArchivePath(log));
+        for (int i = 20; i < 100; i++) {
+            data[i] = 0;
+        }
+        Files.write(LogArchive.getArchivePath(log), data);
+        assertEquals(lines.subList(9995, 10000), LogArchive.getLastLines(log, 5));
+    }
+
+    @Test
+    public void testResumeSkipsArchivedBlocks() throws Exception {
+        final List<String> lines = writeSource(0, 10000);
+        interruptArchive(200 * 1024);
+        assertTrue(LogArchive.getBlockCount(log) > 0);
+
+        LogArchive.resume(source, log);
+
+        assertFalse(Files.exists(source));
+        assertEquals(lines, readArchive());
+    }
+
+    @Test
+    public void testResumeDiscardsPartialBlock() throws Exception {
+        final List<String> lines = writeSource(0, 10000);
+        interruptArchive(200 * 1024);
+        Files.write(LogArchive.getArchivePath(log), new byte[]{0x1f, (byte) 0x8b, 8, 0},
+                StandardOpenOption.APPEND);
+
+        LogArchive.resume(source, log);
+
+        assertEquals(lines, readArchive());
+    }
+
+    @Test
+    public void testResumeAfterCompletedArchiveStartsFromBeginning() throws Exception {
+        final List<String> lines = writeSource(0, 5000);
+        LogArchive.archive(source, log);
+        lines.addAll(writeSource(5000, 5000));
+        interruptArchive(0);
+
+        LogArchive.resume(source, log);
+
+        assertEquals(lines, readArchive());
+    }
+
+    @Test
+    public void testResumeWithFullyArchivedSource() throws Exception {
+        final List<String> lines = writeSource(0, 100);
+        interruptArchive(Long.MAX_VALUE);
+
+        LogArchive.resume(source, log);
+
+        assertFalse(Files.exists(source));
+        assertEquals(lines, readArchive());
+    }
+
+    private List<String> writeSource(final int first, final int count) throws IOException {
+        final List<String> lines = new ArrayList<>(count);
+        for (int i = first; i < first + count; i++) {
+            lines.add("[01/01/2017 00:00:00] <nick> line number " + i);
+        }
+        Files.write(source, lines, Charset.defaultCharset());
+        return lines;
+    }
+
+    /**
+     * Archives the source, failing after the given number of bytes have been read from it. The
+     * source is left in place, as it would be after a crash.
+     */
+    private void interruptArchive(final long limit) throws IOException {
+        try (InputStream input = new FailingInputStream(Files.newInputStream(source), limit)) {
+            LogArchive.archive(input, log, false);
+            if (limit < Long.MAX_VALUE) {
+                fail("Archiving should have been interrupted");
+            }
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+
+    private List<String> readArchive() throws IOException {
+        final List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(LogArchive.getArchivePath(log))),
+                Charset.defaultCharset()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static class FailingInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        FailingInputStream(final InputStream in, final long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] buffer = new byte[1];
+            return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (remaining <= 0) {
+                throw new IOException("Interrupted");
+            }
+            final int read = super.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.logging;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LogFileCacheTest {
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReusesOpenFiles() throws Exception {
+        final LogFileCache cache = new LogFileCache(2);
+        final LogFileCache.OpenFile file = cache.get(getFile("a"));
+
+        assertSame(file, cache.get(getFile("a")));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        final LogFileCache cache = new LogFileCache(2);
+        final LogFileCache.OpenFile a = cache.get(getFile("a"));
+        final LogFileCache.OpenFile b = cache.get(getFile("b"));
+        cache.get(getFile("a"));
+        cache.get(getFile("c"));
+
+        assertEquals(2, cache.getOpenFiles());
+        assertEquals(1, cache.getEvictions());
+        assertSame(a, cache.get(getFile("a")));
+        assertNotSame(b, cache.get(getFile("b")));
+    }
+
+    @Test
+    public void testEvictedFilesAreFlushed() throws Exception {
+        final LogFileCache cache = new LogFileCache(1);
+        cache.get(getFile("a")).write("line", 0);
+        cache.get(getFile("b"));
+
+        assertEquals(4 + System.lineSeparator().length(), new File(getFile("a")).length());
+    }
+
+    @Test
+    public void testCloseIdle() throws Exception {
+        final LogFileCache cache = new LogFileCache(10);
+        cache.get(getFile("a"));
+        cache.get(getFile("b"));
+        cache.closeIdle(System.currentTimeMillis() + 1);
+
+        assertEquals(0, cache.getOpenFiles());
+        assertEquals(2, cache.getIdleCloses());
+    }
+
+    @Test
+    public void testReducingMaximumClosesFiles() throws Exception {
+        final LogFileCache cache = new LogFileCache(3);
+        cache.get(getFile("a"));
+        cache.get(getFile("b"));
+        cache.get(getFile("c"));
+        cache.setMaxOpenFiles(1);
+
+        assertEquals(1, cache.getOpenFiles());
+        assertEquals(2, cache.getEvictions());
+    }
+
+    @Test
+    public void testMoveIfClosedSkipsOpenFiles() throws Exception {
+        final LogFileCache cache = new LogFileCache(10);
+        cache.get(getFile("a")).write("line", 0);
+        final Path target = new File(folder.getRoot(), "moved").toPath();
+
+        assertFalse(cache.moveIfClosed(getFile("a"), target));
+        assertFalse(Files.exists(target));
+    }
+
+    @Test
+    public void testMoveIfClosedDeletesIndex() throws Exception {
+        final LogFileCache cache = new LogFileCache(10);
+        cache.setIndexing(true);
+        cache.get(getFile("a")).write("line", 0);
+        cache.closeAll();
+        final Path log = Paths.get(getFile("a"));
+        final Path target = new File(folder.getRoot(), "moved").toPath();
+        assertTrue(Files.exists(LogIndexWriter.getIndexPath(log)));
+
+        assertTrue(cache.moveIfClosed(getFile("a"), target));
+        assertTrue(Files.exists(target));
+        assertFalse(Files.exists(log));
+        assertFalse(Files.exists(LogIndexWriter.getIndexPath(log)));
+    }
+
+    @Test
+    public void testFlushListenerIsNotifiedOfWrittenFiles() throws Exception {
+        final LogFileCache cache = new LogFileCache(1);
+        final List<Path> flushed = new ArrayList<>();
+        cache.setFlushListener(flushed::add);
+        cache.get(getFile("a")).write("line", 0);
+        cache.get(getFile("a")).flush();
+        cache.get(getFile("a")).flush();
+        cache.get(getFile("b")).write("line", 0);
+        cache.get(getFile("c"));
+
+        assertEquals(Arrays.asList(Paths.get(getFile("a")), Paths.get(getFile("b"))), flushed);
+    }
+
+    private String getFile(final String name) {
+        return new File(folder.getRoot(), name + ".log").getAbsolutePath();
+    }
+
+}
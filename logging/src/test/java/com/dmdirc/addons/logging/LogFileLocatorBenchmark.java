@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.logging;
+
+import com.dmdirc.config.binding.ConfigBinder;
+import com.dmdirc.config.provider.AggregateConfigProvider;
+import com.dmdirc.interfaces.Connection;
+import com.dmdirc.interfaces.GroupChat;
+import java.nio.file.Files;
+import java.util.Optional;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares the cost of computing a log file path for every line against using the cached paths
+ * held by {@link LogFileLocator}.
+ *
+ * <p>This is not run as part of the test suite; run its main method directly.
+ */
+public final class LogFileLocatorBenchmark {
+
+    private static final int WINDOWS = 50;
+    private static final int LINES = 200000;
+    private static final int ROUNDS = 5;
+
+    private LogFileLocatorBenchmark() {
+        // Shouldn't be instantiated
+    }
+
+    public static void main(final String... args) throws Exception {
+        final String directory = Files.createTempDirectory("logbench").toString();
+        final AggregateConfigProvider config = mock(AggregateConfigProvider.class);
+        final ConfigBinder binder = mock(ConfigBinder.class);
+        when(config.getBinder()).thenReturn(binder);
+        when(binder.withDefaultDomain("logging")).thenReturn(binder);
+
+        final LogFileLocator locator = new LogFileLocator(() -> directory, config, "logging");
+        locator.handleNetworkFolders(true);
+        locator.handleUseDate(args.length == 0 || Boolean.parseBoolean(args[0]));
+        locator.handleUseDateFormat("yyyy/MMMM");
+
+        final GroupChat[] channels = new GroupChat[WINDOWS];
+        final Connection connection = mock(Connection.class);
+        when(connection.getNetwork()).thenReturn("Example");
+        for (int i = 0; i < WINDOWS; i++) {
+            channels[i] = mock(GroupChat.class);
+            when(channels[i].getConnection()).thenReturn(Optional.of(connection));
+            when(channels[i].getName()).thenReturn("#channel" + i);
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < LINES; i++) {
+                locator.buildPath("Example", "#channel" + (i % WINDOWS));
+            }
+            final long uncached = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < LINES; i++) {
+                locator.getLogFile(channels[i % WINDOWS]);
+            }
+            final long cached = System.nanoTime() - start;
+
+            System.out.printf("Round %d: uncached %d ns/line, cached %d ns/line%n", round + 1,
+                    uncached / LINES, cached / LINES);
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.logging;
+
+import com.dmdirc.config.binding.ConfigBinder;
+import com.dmdirc.config.provider.AggregateConfigProvider;
+import com.dmdirc.interfaces.Connection;
+import com.dmdirc.interfaces.GroupChat;
+import java.io.File;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LogFileLocatorTest {
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+    @Mock private AggregateConfigProvider config;
+    @Mock private ConfigBinder configBinder;
+    @Mock private GroupChat channel;
+    @Mock private Connection connection;
+    @Mock private GroupChat otherChannel;
+    @Mock private Connection otherConnection;
+    private LogFileLocator locator;
+
+    @Before
+    public void setup() {
+        when(config.getBinder()).thenReturn(configBinder);
+        when(configBinder.withDefaultDomain("domain")).thenReturn(configBinder);
+        when(channel.getConnection()).thenReturn(Optional.of(connection));
+        when(channel.getName()).thenReturn("#Channel");
+        when(connection.getNetwork()).thenReturn("Network");
+        locator = new LogFileLocator(() -> folder.getRoot().getPath(), config, "domain");
+        locator.handleUseDateFormat("yyyy");
+    }
+
+    @Test
+    public void testReusesCachedPath() {
+        locator.handleNetworkFolders(true);
+        final String path = locator.getLogFile(channel);
+        assertEquals(new File(folder.getRoot(), "network" + File.separator + "#channel.log")
+                .getPath(), path);
+
+        // The network directory is only created when the path is computed.
+        assertTrue(new File(folder.getRoot(), "network").delete());
+        assertEquals(path, locator.getLogFile(channel));
+        assertFalse(new File(folder.getRoot(), "network").exists());
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        when(otherChannel.getConnection()).thenReturn(Optional.of(otherConnection));
+        when(otherConnection.getNetwork()).thenReturn("Other");
+        locator.handleNetworkFolders(true);
+        final String path = locator.getLogFile(channel);
+        assertTrue(new File(folder.getRoot(), "network").delete());
+
+        for (int i = 0; i < 1000; i++) {
+            when(otherChannel.getName()).thenReturn("#other" + i);
+            locator.getLogFile(otherChannel);
+        }
+
+        // The channel's path has been evicted, so it is computed (and its directory created)
+        // again.
+        assertEquals(path, locator.getLogFile(channel));
+        assertTrue(new File(folder.getRoot(), "network").exists());
+    }
+
+    @Test
+    public void testConfigChangeClearsCache() {
+        locator.handleNetworkFolders(true);
+        locator.getLogFile(channel);
+        locator.handleNetworkFolders(false);
+
+        assertEquals(new File(folder.getRoot(), "#channel.log").getPath(),
+                locator.getLogFile(channel));
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.logging;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogFileReaderTest {
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+    private Path log;
+
+    @Before
+    public void setUp() throws Exception {
+        log = folder.getRoot().toPath().resolve("test.log");
+    }
+
+    @Test
+    public void testNothingToRead() throws Exception {
+        assertFalse(LogFileReader.exists(log));
+    }
+
+    @Test
+    public void testReadsPlainLog() throws Exception {
+        Files.write(log, Arrays.asList("one", "two", "three"), Charset.defaultCharset());
+
+        assertTrue(LogFileReader.exists(log));
+        assertEquals(Arrays.asList("two", "three"), LogFileReader.getLastLines(log, 2));
+        assertEquals(Arrays.asList("one", "two", "three"), LogFileReader.getLastLines(log, 10));
+        assertEquals(Collections.emptyList(), LogFileReader.getLastLines(log, 0));
+    }
+
+    @Test
+    public void testReadsIndexedLog() throws Exception {
+        final LogFileCache cache = new LogFileCache(10);
+        cache.setIndexing(true);
+        cache.get(log.toString()).write("one", 1000);
+        cache.get(log.toString()).write("two", 2000);
+        cache.closeAll();
+
+        assertTrue(IndexedLogReader.isAvailable(log));
+        assertEquals(Arrays.asList("one", "two"), LogFileReader.getLastLines(log, 5));
+    }
+
+    @Test
+    public void testReadsArchiveOnly() throws Exception {
+        final List<String> lines = archive(0, 5000);
+
+        assertFalse(Files.exists(log));
+        assertTrue(LogFileReader.exists(log));
+        assertEquals(lines.subList(4900, 5000), LogFileReader.getLastLines(log, 100));
+    }
+
+    @Test
+    public void testContinuesIntoArchive() throws Exception {
+        final List<String> lines = archive(0, 5000);
+        Files.write(log, Arrays.asList("new 1", "new 2"), Charset.defaultCharset());
+        lines.add("new 1");
+        lines.add("new 2");
+
+        assertEquals(lines.subList(5002 - 50, 5002), LogFileReader.getLastLines(log, 50));
+        assertEquals(Arrays.asList("new 1", "new 2"), LogFileReader.getLastLines(log, 2));
+        assertEquals(lines, LogFileReader.getLastLines(log, 10000));
+    }
+
+    private List<String> archive(final int first, final int count) throws Exception {
+        final List<String> lines = new ArrayList<>(count);
+        for (int i = first; i < first + count; i++) {
+            lines.add("[01/01/2017 00:00:00] <nick> archived line " + i);
+        }
+        final Path source = log.resolveSibling("test.log.archiving");
+        Files.write(source, lines, Charset.defaultCharset());
+        LogArchive.archive(source, log);
+        return lines;
+    }
+
+}
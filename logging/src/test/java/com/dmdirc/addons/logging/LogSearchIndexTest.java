@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.logging;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogSearchIndexTest {
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+    private Path directory;
+    private Path channel;
+    private LogSearchIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.getRoot().toPath();
+        Files.createDirectories(directory.resolve("quakenet"));
+        channel = directory.resolve("quakenet").resolve("#dmdirc.log");
+        write(channel, "[01/01/2017 10:00:00] <Alice> hello world",
+                "[01/01/2017 10:01:00] <@Bob> Hello there",
+                "[02/01/2017 09:00:00] * Alice waves at the world");
+        write(directory.resolve("freenode -- #other.log"),
+                "[01/01/2017 11:00:00] <Carol> hello from elsewhere");
+        index = new LogSearchIndex(directory::toString);
+        index.start();
+    }
+
+    @After
+    public void tearDown() {
+        index.stop();
+    }
+
+    @Test
+    public void testFindsLinesContainingAllTerms() throws Exception {
+        assertEquals(Arrays.asList(
+                "#dmdirc: [01/01/2017 10:00:00] <Alice> hello world",
+                "#dmdirc: [01/01/2017 10:01:00] <@Bob> Hello there",
+                "freenode -- #other: [01/01/2017 11:00:00] <Carol> hello from elsewhere"),
+                sorted(search("HELLO")));
+        assertEquals(Collections.singletonList(
+                "#dmdirc: [01/01/2017 10:00:00] <Alice> hello world"), search("world", "hello"));
+        assertEquals(Collections.emptyList(), search("hello", "missing"));
+    }
+
+    @Test
+    public void testTargetAndNetworkRestrictions() throws Exception {
+        assertEquals(2, search(query("hello").withTarget("#dmdirc")).size());
+        assertEquals(2, search(query("hello").withNetwork("quakenet")).size());
+        assertEquals(1, search(query("hello").withNetwork("freenode")).size());
+        assertEquals(0, search(query("hello").withTarget("#other").withNetwork("quakenet"))
+                .size());
+    }
+
+    @Test
+    public void testNicknameAndDateRestrictions() throws Exception {
+        assertEquals(Collections.singletonList(
+                "#dmdirc: [01/01/2017 10:01:00] <@Bob> Hello there"),
+                search(query("hello").withNickname("bob")));
+        assertEquals(Collections.singletonList(
+                "#dmdirc: [02/01/2017 09:00:00] * Alice waves at the world"),
+                search(query("world").withNickname("alice").from(timestamp("02/01/2017"))));
+    }
+
+    @Test
+    public void testIndexesNewLinesInDirtyFiles() throws Exception {
+        assertEquals(0, search("goodbye").size());
+
+        write(channel, "[03/01/2017 10:00:00] <Bob> goodbye world");
+        index.markDirty(channel.toString());
+
+        assertEquals(Collections.singletonList(
+                "#dmdirc: [03/01/2017 10:00:00] <Bob> goodbye world"), search("goodbye"));
+        assertEquals(3, search("world").size());
+    }
+
+    @Test
+    public void testPartialLinesAreIndexedOnceComplete() throws Exception {
+        Files.write(channel, "[03/01/2017 10:00:00] <Bob> partial".getBytes(Charset.defaultCharset()),
+                StandardOpenOption.APPEND);
+        index.markDirty(channel.toString());
+        assertEquals(0, search("partial", "line").size());
+
+        write(channel, " line");
+        index.markDirty(channel.toString());
+        assertEquals(1, search("partial", "line").size());
+    }
+
+    @Test
+    public void testSegmentsArePersistedAndReused() throws Exception {
+        assertEquals(3, search("hello").size());
+        final Path segment = LogSearchIndex.getSegmentPath(channel);
+        assertTrue(Files.exists(segment));
+        final long size = Files.size(segment);
+
+        index.stop();
+        index = new LogSearchIndex(directory::toString);
+        index.start();
+
+        // Nothing new to index, so the segment is used as it is.
+        assertEquals(3, search("hello").size());
+        assertEquals(size, Files.size(segment));
+
+        write(channel, "[03/01/2017 10:00:00] <Bob> hello again");
+        index.stop();
+        index.start();
+        assertEquals(4, search("hello").size());
+        assertTrue(Files.size(segment) > size);
+    }
+
+    @Test
+    public void testReplacedFileIsReindexed() throws Exception {
+        assertEquals(2, search(query("hello").withTarget("#dmdirc")).size());
+
+        Files.delete(channel);
+        write(channel, "[04/01/2017 10:00:00] <Dave> brand new hello");
+        index.markDirty(channel.toString());
+
+        assertEquals(Collections.singletonList(
+                "#dmdirc: [04/01/2017 10:00:00] <Dave> brand new hello"),
+                search(query("hello").withTarget("#dmdirc")));
+    }
+
+    @Test
+    public void testArchivesAreIndexed() throws Exception {
+        final Path staging = channel.resolveSibling("#dmdirc.log.archiving");
+        Files.move(channel, staging);
+        index.markDirty(channel.toString());
+        LogArchive.archive(staging, channel);
+        index.markDirty(LogArchive.getArchivePath(channel).toString());
+
+        assertEquals(Arrays.asList(
+                "#dmdirc: [01/01/2017 10:00:00] <Alice> hello world",
+                "#dmdirc: [02/01/2017 09:00:00] * Alice waves at the world"),
+                search("world"));
+        assertTrue(Files.exists(LogSearchIndex.getSegmentPath(
+                LogArchive.getArchivePath(channel))));
+    }
+
+    @Test
+    public void testArchivingMovesLinesBetweenSegments() throws Exception {
+        assertEquals(2, search("world").size());
+
+        final Path staging = channel.resolveSibling("#dmdirc.log.archiving");
+        Files.move(channel, staging);
+        index.markDirty(channel.toString());
+        LogArchive.archive(staging, channel);
+        index.markDirty(LogArchive.getArchivePath(channel).toString());
+
+        assertEquals(2, search("world").size());
+        assertFalse(Files.exists(LogSearchIndex.getSegmentPath(channel)));
+    }
+
+    @Test
+    public void testLargeFilesAreIndexedInChunks() throws Exception {
+        final List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            lines.add("[01/01/2017 10:00:00] <Alice> common words line" + i);
+        }
+        lines.add("[01/01/2017 10:00:00] <Alice> common words needle");
+        write(channel, lines.toArray(new String[lines.size()]));
+        index.markDirty(channel.toString());
+
+        assertEquals(Collections.singletonList(
+                "#dmdirc: [01/01/2017 10:00:00] <Alice> common words needle"),
+                search("needle", "common"));
+        assertEquals(1000, search("common").size());
+    }
+
+    @Test
+    public void testIndexIsBuiltWhenStarted() throws Exception {
+        final Path segment = LogSearchIndex.getSegmentPath(channel);
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (!Files.exists(segment) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertTrue(Files.exists(segment));
+    }
+
+    @Test
+    public void testLinesLongerThanReadBufferAreReadBack() throws Exception {
+        final String line = "[03/01/2017 10:00:00] <Bob> lengthy "
+                + String.join(" ", Collections.nCopies(5000, "word"));
+        write(channel, line, "[03/01/2017 10:01:00] <Bob> lengthy reply");
+        index.markDirty(channel.toString());
+
+        assertEquals(Arrays.asList("#dmdirc: " + line,
+                "#dmdirc: [03/01/2017 10:01:00] <Bob> lengthy reply"), search("lengthy"));
+    }
+
+    @Test
+    public void testStopDiscardsState() throws Exception {
+        assertEquals(3, search("hello").size());
+        index.stop();
+        Files.delete(directory.resolve("freenode -- #other.log"));
+        index.start();
+
+        assertEquals(2, search("hello").size());
+    }
+
+    private static void write(final Path path, final String... lines) throws Exception {
+        Files.write(path, Arrays.asList(lines), Charset.defaultCharset(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static long timestamp(final String date) throws Exception {
+        return new java.text.SimpleDateFormat("dd/MM/yyyy").parse(date).getTime();
+    }
+
+    private static List<String> sorted(final List<String> lines) {
+        final List<String> result = new ArrayList<>(lines);
+        Collections.sort(result);
+        return result;
+    }
+
+    private List<String> search(final String... terms) throws Exception {
+        return search(query(terms));
+    }
+
+    private List<String> search(final QueryBuilder query) throws Exception {
+        final List<String> results = Collections.synchronizedList(new ArrayList<>());
+        final CompletableFuture<Integer> finished = new CompletableFuture<>();
+        index.search(query.build(), results::add, finished::complete);
+        final int count = finished.get(10, TimeUnit.SECONDS);
+        assertEquals(count, results.size());
+        return results;
+    }
+
+    private static QueryBuilder query(final String... terms) {
+        return new QueryBuilder(terms);
+    }
+
+    private static class QueryBuilder {
+
+        private final List<String> terms;
+        private Optional<String> target = Optional.empty();
+        private Optional<String> network = Optional.empty();
+        private Optional<String> nickname = Optional.empty();
+        private long from = Long.MIN_VALUE;
+
+        QueryBuilder(final String... terms) {
+            this.terms = Arrays.asList(terms);
+        }
+
+        QueryBuilder withTarget(final String value) {
+            target = Optional.of(value);
+            return this;
+        }
+
+        QueryBuilder withNetwork(final String value) {
+            network = Optional.of(value);
+            return this;
+        }
+
+        QueryBuilder withNickname(final String value) {
+            nickname = Optional.of(value);
+            return this;
+        }
+
+        QueryBuilder from(final long value) {
+            from = value;
+            return this;
+        }
+
+        LogSearchQuery build() {
+            return new LogSearchQuery(terms, target, network, nickname, from, Long.MAX_VALUE);
+        }
+
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.logging;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Optional;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogSearchQueryTest {
+
+    @Test
+    public void testGetters() {
+        final LogSearchQuery query = new LogSearchQuery(Arrays.asList("one", "two"),
+                Optional.of("#chan"), Optional.of("net"), Optional.of("nick"), 10, 20);
+
+        assertEquals(Arrays.asList("one", "two"), new ArrayList<>(query.getTerms()));
+        assertEquals(Optional.of("#chan"), query.getTarget());
+        assertEquals(Optional.of("net"), query.getNetwork());
+        assertEquals(Optional.of("nick"), query.getNickname());
+        assertEquals(10, query.getFrom());
+        assertEquals(20, query.getTo());
+    }
+
+    @Test
+    public void testNoDateRange() {
+        assertFalse(new LogSearchQuery(Arrays.asList("one"), Optional.empty(), Optional.empty(),
+                Optional.empty(), Long.MIN_VALUE, Long.MAX_VALUE).hasDateRange());
+    }
+
+    @Test
+    public void testOpenEndedDateRanges() {
+        assertTrue(new LogSearchQuery(Arrays.asList("one"), Optional.empty(), Optional.empty(),
+                Optional.empty(), 1000, Long.MAX_VALUE).hasDateRange());
+        assertTrue(new LogSearchQuery(Arrays.asList("one"), Optional.empty(), Optional.empty(),
+                Optional.empty(), Long.MIN_VALUE, 1000).hasDateRange());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testTermsAreUnmodifiable() {
+        new LogSearchQuery(Arrays.asList("one"), Optional.empty(), Optional.empty(),
+                Optional.empty(), Long.MIN_VALUE, Long.MAX_VALUE).getTerms().add("two");
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.logging;
+
+import com.dmdirc.config.provider.AggregateConfigProvider;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LogWriterTest {
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+    @Mock private AggregateConfigProvider config;
+    private String filename;
+    private LogWriter instance;
+
+    @Before
+    public void setUp() throws Exception {
+        when(config.getOptionInt("domain", "advanced.flushinterval")).thenReturn(60000);
+        when(config.getOptionInt("domain", "advanced.flushlines")).thenReturn(1000);
+        when(config.getOptionInt("domain", "advanced.queuesize")).thenReturn(10);
+        filename = new File(folder.getRoot(), "test.log").getAbsolutePath();
+        instance = new LogWriter(config, "domain");
+    }
+
+    @Test
+    public void testSynchronousWriteIsFlushedImmediately() throws Exception {
+        when(config.getOptionBool("domain", "advanced.asyncwrite")).thenReturn(false);
+        instance.start();
+
+        assertTrue(instance.write(filename, "line 1"));
+        assertTrue(instance.write(filename, "line 2"));
+
+        assertEquals(Arrays.asList("line 1", "line 2"), readLines());
+        instance.stop();
+    }
+
+    @Test
+    public void testAsynchronousWritesAreDrainedOnStop() throws Exception {
+        when(config.getOptionBool("domain", "advanced.asyncwrite")).thenReturn(true);
+        when(config.getOptionInt("domain", "advanced.queuesize")).thenReturn(100);
+        instance.start();
+
+        for (int i = 0; i < 50; i++) {
+            assertTrue(instance.write(filename, "line " + i));
+        }
+        instance.stop();
+
+        final List<String> lines = readLines();
+        assertEquals(50, lines.size());
+        assertEquals("line 0", lines.get(0));
+        assertEquals("line 49", lines.get(49));
+    }
+
+    @Test
+    public void testAsynchronousLinesAreFormattedByWriter() throws Exception {
+        when(config.getOptionBool("domain", "advanced.asyncwrite")).thenReturn(true);
+        instance.start();
+
+        final Thread caller = Thread.currentThread();
+        final Collection<Thread> formatters = new ArrayList<>();
+        instance.write(filename, () -> {
+            formatters.add(Thread.currentThread());
+            return "formatted";
+        });
+        instance.stop();
+
+        assertEquals(Collections.singletonList("formatted"), readLines());
+        assertEquals(1, formatters.size());
+        assertNotSame(caller, formatters.iterator().next());
+    }
+
+    @Test
+    public void testFullQueueDropsLinesWithoutBlocking() throws Exception {
+        when(config.getOptionBool("domain", "advanced.asyncwrite")).thenReturn(true);
+        instance.start();
+
+        int accepted = 0;
+        // Holding the cache stops the writer thread from writing anything out.
+        synchronized (instance.getFileCache()) {
+            for (int i = 0; i < 2000; i++) {
+                if (instance.write(filename, "line " + i)) {
+                    accepted++;
+                }
+            }
+        }
+        instance.stop();
+
+        assertTrue(instance.getDroppedLines() > 0);
+        assertEquals(2000, accepted + instance.getDroppedLines());
+        assertEquals(accepted, readLines().size());
+    }
+
+    @Test
+    public void testAsynchronousCloseWritesPendingLines() throws Exception {
+        when(config.getOptionBool("domain", "advanced.asyncwrite")).thenReturn(true);
+        instance.start();
+
+        instance.write(filename, "before close");
+        instance.close(filename);
+        instance.write(filename, "after close");
+        instance.stop();
+
+        assertEquals(Arrays.asList("before close", "after close"), readLines());
+    }
+
+    @Test
+    public void testLinesAcceptedWhileStoppingAreWritten() throws Exception {
+        when(config.getOptionBool("domain", "advanced.asyncwrite")).thenReturn(true);
+        when(config.getOptionInt("domain", "advanced.queuesize")).thenReturn(10000);
+        instance = new LogWriter(config, "domain");
+        instance.start();
+
+        final AtomicInteger accepted = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(4);
+        final Collection<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int id = t;
+            final Thread writer = new Thread(() -> {
+                started.countDown();
+                for (int i = 0; i < 2000; i++) {
+                    if (instance.write(filename, "writer " + id + " line " + i)) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+
+        started.await();
+        instance.stop();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertEquals(accepted.get(), readLines().size());
+    }
+
+    private List<String> readLines() throws Exception {
+        return Files.readAllLines(new File(filename).toPath(), Charset.defaultCharset());
+    }
+
+}
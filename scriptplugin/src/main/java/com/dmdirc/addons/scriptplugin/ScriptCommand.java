@@ -186,6 +186,17 @@ public class ScriptCommand extends BaseCommand implements IntelligentCommand {
                 showError(origin, args.isSilent(),
                         "You must specify a function name and some script to save.");
             }
+        } else if (sargs.length > 0 && "stats".equalsIgnoreCase(sargs[0])) {
+            final Map<String, ScriptExecutor> executors = scriptManager.getExecutors();
+            if (executors.isEmpty()) {
+                showOutput(origin, args.isSilent(), "No scripts loaded.");
+            }
+            for (Map.Entry<String, ScriptExecutor> entry : executors.entrySet()) {
+                showOutput(origin, args.isSilent(), entry.getKey() + ": " + entry.getValue());
+                for (String line : entry.getValue().getFunctionStats()) {
+                    showOutput(origin, args.isSilent(), "    " + line);
+                }
+            }
         } else if (sargs.length > 0 && "help".equalsIgnoreCase(sargs[0])) {
             showOutput(origin, args.isSilent(),
                     "This command allows you to interact with the script plugin");
@@ -198,6 +209,8 @@ public class ScriptCommand extends BaseCommand implements IntelligentCommand {
                     "unload <script>                - unload <script> (full file name)");
             showOutput(origin, args.isSilent(),
                     "eval <script>                  - evaluate the code <script> and return the result");
+            showOutput(origin, args.isSilent(),
+                    "stats                          - show how long each script's functions take");
             showOutput(origin, args.isSilent(),
                     "savetobasefile <name> <script> - save the code <script> to the eval basefile ("
                     + domain + ".eval.basefile)");
@@ -224,6 +237,7 @@ public class ScriptCommand extends BaseCommand implements IntelligentCommand {
             res.add("load");
             res.add("unload");
             res.add("eval");
+            res.add("stats");
             res.add("savetobasefile");
         } else if (arg == 1) {
             final Map<String, ScriptEngineWrapper> scripts = scriptManager.getScripts();
@@ -22,8 +22,11 @@ import com.google.common.base.Preconditions;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.script.Invocable;
+import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
@@ -35,6 +38,11 @@ import static com.dmdirc.util.LogUtils.USER_ERROR;
 
 /**
  * Class to create script engines!
+ *
+ * <p>Each wrapper keeps an index of the {@code action_*} functions its script defines, so that
+ * events the script doesn't handle can be skipped without calling into the engine. The index is
+ * rebuilt whenever the script is (re)loaded and after any other function is called, so handlers
+ * defined at the top level or from a callback such as {@code onLoad} are picked up.
  */
 public class ScriptEngineWrapper {
 
@@ -47,6 +55,8 @@ public class ScriptEngineWrapper {
     private final JavaScriptHelper localHelper = new JavaScriptHelper();
     /** Manager to get script engines. */
     private final ScriptEngineManager scriptEngineManager;
+    /** Names of the action functions defined by the script. */
+    private volatile Set<String> actionFunctions;
 
     /**
      * Create a new ScriptEngineWrapper
@@ -111,10 +121,35 @@ public class ScriptEngineWrapper {
 
         result.put("localHelper", localHelper);
         result.put("thisEngine", this);
+        indexActionFunctions(result);
 
         return result;
     }
 
+    /**
+     * Determines whether this script may define the given function. Action functions are looked
+     * up in the script's index; any other function is assumed to be defined.
+     *
+     * @param functionName Name of function
+     *
+     * @return False if the script definitely doesn't define the function, true otherwise
+     */
+    protected boolean isFunctionDefined(final String functionName) {
+        return !functionName.startsWith(ScriptEventType.ACTION_PREFIX)
+                || actionFunctions.contains(functionName);
+    }
+
+    /**
+     * Rebuilds the index of action functions from the engine's global bindings.
+     *
+     * @param scriptEngine The engine to index
+     */
+    private void indexActionFunctions(final ScriptEngine scriptEngine) {
+        actionFunctions = scriptEngine.getBindings(ScriptContext.ENGINE_SCOPE).keySet().stream()
+                .filter(name -> name.startsWith(ScriptEventType.ACTION_PREFIX))
+                .collect(Collectors.toSet());
+    }
+
     /**
      * Call a function in this script.
      *
@@ -126,6 +161,9 @@ public class ScriptEngineWrapper {
             // Call Function
             final Invocable invEngine = (Invocable) engine;
             invEngine.invokeFunction(functionName, args);
+            if (!functionName.startsWith(ScriptEventType.ACTION_PREFIX)) {
+                indexActionFunctions(engine);
+            }
         } catch (NoSuchMethodException nsme) {
             // There is no "methodExists" function, so we catch NoSuchMethodException
             // and do nothing rather that add an error every time a method is called
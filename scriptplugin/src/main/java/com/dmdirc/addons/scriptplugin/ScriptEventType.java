@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.scriptplugin;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes how an event class is passed to scripts: the name of the function that handles it,
+ * and the getters whose values are given to that function as arguments.
+ *
+ * <p>Working this out requires reflection, so it is done once per event class and cached in
+ * {@link #TYPES}.
+ */
+public final class ScriptEventType {
+
+    /** Prefix given to the names of functions that handle events. */
+    public static final String ACTION_PREFIX = "action_";
+
+    /** The type of each event class, computed on first use. */
+    public static final ClassValue<ScriptEventType> TYPES = new ClassValue<ScriptEventType>() {
+        @Override
+        protected ScriptEventType computeValue(final Class<?> type) {
+            return new ScriptEventType(type);
+        }
+    };
+
+    /** Type all getters are adapted to, so they can be invoked exactly. */
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class,
+            Object.class);
+
+    /** Name of the function that handles this event. */
+    private final String functionName;
+    /** Getters for the arguments given to the function, in order. */
+    private final MethodHandle[] getters;
+
+    private ScriptEventType(final Class<?> type) {
+        functionName = ACTION_PREFIX + type.getSimpleName()
+                .replaceAll("Event$", "")
+                .replaceAll("(.)([A-Z])", "$1_$2")
+                .toUpperCase();
+
+        final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        final List<MethodHandle> handles = new ArrayList<>();
+        for (Method method : type.getMethods()) {
+            if (method.getName().startsWith("get") && method.getParameterTypes().length == 0 &&
+                    !"getDisplayFormat".equals(method.getName())) {
+                try {
+                    handles.add(lookup.unreflect(method).asType(GETTER_TYPE));
+                } catch (IllegalAccessException ex) {
+                    throw new IllegalStateException("Unable to access " + method, ex);
+                }
+            }
+        }
+        getters = handles.toArray(new MethodHandle[handles.size()]);
+    }
+
+    /**
+     * Gets the name of the function that handles this event, for example
+     * {@code action_CHANNEL_MESSAGE}.
+     *
+     * @return The name of the event's handler function
+     */
+    public String getFunctionName() {
+        return functionName;
+    }
+
+    /**
+     * Gets the arguments to pass to the handler function for an event of this type.
+     *
+     * @param event The event being handled
+     *
+     * @return The values of each of the event's getters
+     *
+     * @throws InvocationTargetException If one of the getters throws a checked exception
+     */
+    public Object[] getArguments(final Object event) throws InvocationTargetException {
+        final Object[] arguments = new Object[getters.length];
+        for (int i = 0; i < getters.length; i++) {
+            try {
+                arguments[i] = (Object) getters[i].invokeExact(event);
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new InvocationTargetException(ex);
+            }
+        }
+        return arguments;
+    }
+
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.scriptplugin;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.dmdirc.util.LogUtils.USER_ERROR;
+
+/**
+ * Runs calls into a single script one at a time, on a pool shared with other scripts.
+ *
+ * <p>Calls are queued and run in order, so the script's engine is never used by two threads at
+ * once. If too many calls are queued, new calls are dropped. If a call runs for longer than the
+ * timeout, its thread is interrupted and any queued calls are discarded; further calls are
+ * dropped until the slow call returns, so a looping script can only ever tie up its own thread.
+ *
+ * <p>The time taken by each function is recorded so misbehaving scripts can be found.
+ */
+public class ScriptExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScriptExecutor.class);
+    /** The script calls are run in. */
+    private final ScriptEngineWrapper script;
+    /** Calls waiting to run. */
+    private final Deque<Call> queue = new ArrayDeque<>();
+    /** Time taken by each function that has been called. */
+    private final Map<String, FunctionStats> functions = new HashMap<>();
+    /** The call currently running, if any. */
+    private Call current;
+    /** Thread running the current call, if any. */
+    private Thread currentThread;
+    /** Whether a task is draining the queue. */
+    private boolean draining;
+    /** Whether the current call has run for longer than the timeout. */
+    private boolean stuck;
+    /** Maximum number of calls to queue. */
+    private int maxQueued;
+    /** Maximum time a call may run for, in milliseconds. */
+    private int timeout;
+    /** Largest number of calls that have been queued at once. */
+    private int maxDepth;
+    /** Number of calls that were dropped or discarded. */
+    private long dropped;
+    /** Number of calls that ran for longer than the timeout. */
+    private long timeouts;
+
+    /**
+     * Creates a new executor.
+     *
+     * @param script    The script to run calls in
+     * @param maxQueued Maximum number of calls to queue
+     * @param timeout   Maximum time a call may run for, in milliseconds
+     */
+    public ScriptExecutor(final ScriptEngineWrapper script, final int maxQueued,
+            final int timeout) {
+        this.script = script;
+        setLimits(maxQueued, timeout);
+    }
+
+    public ScriptEngineWrapper getScript() {
+        return script;
+    }
+
+    /**
+     * Changes the limits applied to calls.
+     *
+     * @param maxQueued Maximum number of calls to queue
+     * @param timeout   Maximum time a call may run for, in milliseconds
+     */
+    public synchronized void setLimits(final int maxQueued, final int timeout) {
+        this.maxQueued = Math.max(1, maxQueued);
+        this.timeout = Math.max(1, timeout);
+    }
+
+    /**
+     * Queues a call to a function in the script.
+     *
+     * @param pool         The pool to run calls on
+     * @param watchdog     The service used to enforce timeouts
+     * @param functionName Name of function
+     * @param args         Arguments for function
+     *
+     * @return True if the call was queued, false if it was dropped
+     */
+    public boolean callFunction(final ExecutorService pool, final ScheduledExecutorService watchdog,
+            final String functionName, final Object... args) {
+        return submit(pool, watchdog, new Call(functionName,
+                () -> script.callFunction(functionName, args)), false);
+    }
+
+    /**
+     * Queues a task that uses the script, such as reloading it. Tasks are not subject to the queue
+     * limit, and are not dropped while the script is stuck.
+     *
+     * @param pool     The pool to run calls on
+     * @param watchdog The service used to enforce timeouts
+     * @param name     Name of the task, used when reporting timings
+     * @param task     The task to run
+     */
+    public void execute(final ExecutorService pool, final ScheduledExecutorService watchdog,
+            final String name, final Runnable task) {
+        submit(pool, watchdog, new Call(name, task), true);
+    }
+
+    /**
+     * Calls a function in the script on the current thread, waiting for it to finish. The call's
+     * time is recorded, but the timeout is not enforced.
+     *
+     * @param functionName Name of function
+     * @param args         Arguments for function
+     */
+    public void callFunctionNow(final String functionName, final Object... args) {
+        run(new Call(functionName, () -> script.callFunction(functionName, args)));
+    }
+
+    /**
+     * Discards any calls that have not yet started.
+     */
+    public synchronized void clear() {
+        dropped += queue.size();
+        queue.clear();
+    }
+
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    public synchronized int getMaxQueueDepth() {
+        return maxDepth;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public synchronized long getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * Gets a summary of the time taken by each function that has been called, slowest first.
+     *
+     * @return Human-readable timings for each function
+     */
+    public synchronized List<String> getFunctionStats() {
+        final List<Map.Entry<String, FunctionStats>> entries =
+                new ArrayList<>(functions.entrySet());
+        entries.sort((e1, e2) -> Long.compare(e2.getValue().totalTime, e1.getValue().totalTime));
+        final List<String> res = new ArrayList<>(entries.size());
+        for (Map.Entry<String, FunctionStats> entry : entries) {
+            res.add(entry.getKey() + ": " + entry.getValue());
+        }
+        return res;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long calls = 0;
+        long totalTime = 0;
+        for (FunctionStats stats : functions.values()) {
+            calls += stats.calls;
+            totalTime += stats.totalTime;
+        }
+        return calls + " calls in " + TimeUnit.NANOSECONDS.toMillis(totalTime) + "ms, "
+                + queue.size() + " queued (max " + maxDepth + "), " + dropped + " dropped, "
+                + timeouts + " timed out" + (stuck ? ", currently stuck" : "");
+    }
+
+    private boolean submit(final ExecutorService pool, final ScheduledExecutorService watchdog,
+            final Call call, final boolean force) {
+        synchronized (this) {
+            if (!force && (stuck || queue.size() >= maxQueued)) {
+                dropped++;
+                return false;
+            }
+            queue.add(call);
+            maxDepth = Math.max(maxDepth, queue.size());
+            if (draining) {
+                return true;
+            }
+            draining = true;
+        }
+
+        try {
+            pool.execute(() -> drain(watchdog));
+        } catch (RejectedExecutionException ex) {
+            // The pool has been shut down; nothing further will run.
+            synchronized (this) {
+                draining = false;
+                clear();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private void drain(final ScheduledExecutorService watchdog) {
+        while (true) {
+            final Call call;
+            final int limit;
+            synchronized (this) {
+                call = queue.poll();
+                if (call == null) {
+                    draining = false;
+                    return;
+                }
+                current = call;
+                currentThread = Thread.currentThread();
+                limit = timeout;
+            }
+
+            ScheduledFuture<?> timer = null;
+            try {
+                timer = watchdog.schedule(() -> timedOut(call), limit, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                // Shutting down; run the call without a timeout.
+            }
+            try {
+                run(call);
+            } finally {
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+                synchronized (this) {
+                    current = null;
+                    currentThread = null;
+                    if (stuck) {
+                        stuck = false;
+                        LOG.info(USER_ERROR, "Call to '{}' in '{}' has finished; accepting calls "
+                                + "again", call.name, script.getFile().getPath());
+                    }
+                }
+                // Clear any interrupt from the watchdog so it doesn't affect the next call.
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private void run(final Call call) {
+        final long start = System.nanoTime();
+        try {
+            call.task.run();
+        } catch (RuntimeException ex) {
+            LOG.info(USER_ERROR, "Error calling '{}' in '{}': {}", call.name,
+                    script.getFile().getPath(), ex.getMessage(), ex);
+        } finally {
+            final long time = System.nanoTime() - start;
+            synchronized (this) {
+                functions.computeIfAbsent(call.name, k -> new FunctionStats()).add(time);
+            }
+        }
+    }
+
+    private void timedOut(final Call call) {
+        final int limit;
+        synchronized (this) {
+            if (current != call) {
+                return;
+            }
+            stuck = true;
+            timeouts++;
+            clear();
+            currentThread.interrupt();
+            limit = timeout;
+        }
+        LOG.info(USER_ERROR, "Call to '{}' in '{}' has taken more than {}ms; dropping calls "
+                + "until it finishes", call.name, script.getFile().getPath(), limit);
+    }
+
+    /** A queued call. */
+    private static class Call {
+
+        private final String name;
+        private final Runnable task;
+
+        Call(final String name, final Runnable task) {
+            this.name = name;
+            this.task = task;
+        }
+
+    }
+
+    /** Timings for a single function. */
+    private static class FunctionStats {
+
+        private long calls;
+        private long totalTime;
+        private long maxTime;
+
+        void add(final long time) {
+            calls++;
+            totalTime += time;
+            maxTime = Math.max(maxTime, time);
+        }
+
+        @Override
+        public String toString() {
+            return calls + " calls, " + TimeUnit.NANOSECONDS.toMicros(totalTime / calls)
+                    + "us mean, " + TimeUnit.NANOSECONDS.toMicros(maxTime) + "us max";
+        }
+
+    }
+
+}
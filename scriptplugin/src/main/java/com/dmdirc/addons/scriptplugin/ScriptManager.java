@@ -18,6 +18,11 @@
 package com.dmdirc.addons.scriptplugin;
 
 import com.dmdirc.commandline.CommandLineOptionsModule.Directory;
+import com.dmdirc.config.GlobalConfig;
+import com.dmdirc.config.binding.ConfigBinder;
+import com.dmdirc.config.binding.ConfigBinding;
+import com.dmdirc.config.provider.AggregateConfigProvider;
+import com.dmdirc.plugins.PluginDomain;
 
 import java.io.File;
 import java.util.Arrays;
@@ -25,8 +30,14 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 
@@ -35,6 +46,14 @@ import org.slf4j.LoggerFactory;
 
 import static com.dmdirc.util.LogUtils.USER_ERROR;
 
+/**
+ * Loads scripts and calls functions in them.
+ *
+ * <p>Unless {@code executor.async} is disabled, calls are run on a pool shared by all scripts,
+ * with each script's calls queued by its own {@link ScriptExecutor}. This keeps slow scripts
+ * from holding up the thread delivering events, and each other.
+ */
+@Singleton
 public class ScriptManager {
 
     private static final Logger LOG = LoggerFactory.getLogger(ScriptManager.class);
@@ -42,14 +61,78 @@ public class ScriptManager {
     private final ScriptEngineManager scriptEngineManager;
     /** Script directory. */
     private final String scriptDirectory;
+    /** Binder used to keep settings up to date. */
+    private final ConfigBinder binder;
     /** Store Script State Name,Engine */
-    private final Map<String, ScriptEngineWrapper> scripts = new HashMap<>();
+    private final Map<String, ScriptExecutor> scripts = new ConcurrentHashMap<>();
+    /** Pool shared by all scripts' executors. */
+    private ExecutorService pool;
+    /** Service used to time out calls that take too long. */
+    private ScheduledExecutorService watchdog;
+    /** Whether to run calls on the pool rather than the calling thread. */
+    private volatile boolean async;
+    /** Maximum number of calls to queue for each script. */
+    private volatile int maxQueued;
+    /** Maximum time a call may run for, in milliseconds. */
+    private volatile int timeout;
 
     @Inject
     public ScriptManager(final ScriptEngineManager scriptEngineManager,
-            @Directory(ScriptModule.SCRIPTS) final String scriptDirectory) {
+            @Directory(ScriptModule.SCRIPTS) final String scriptDirectory,
+            @GlobalConfig final AggregateConfigProvider config,
+            @PluginDomain(ScriptPlugin.class) final String domain) {
         this.scriptEngineManager = scriptEngineManager;
         this.scriptDirectory = scriptDirectory;
+        binder = config.getBinder().withDefaultDomain(domain);
+    }
+
+    /**
+     * Starts the threads used to run scripts.
+     */
+    public void start() {
+        final AtomicInteger threads = new AtomicInteger();
+        pool = Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r, "Script executor " + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "Script watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        binder.bind(this, ScriptManager.class);
+    }
+
+    /**
+     * Stops the threads used to run scripts, discarding any queued calls.
+     */
+    public void stop() {
+        binder.unbind(this);
+        scripts.values().forEach(ScriptExecutor::clear);
+        if (pool != null) {
+            pool.shutdownNow();
+            watchdog.shutdownNow();
+            pool = null;
+            watchdog = null;
+        }
+    }
+
+    @ConfigBinding(key = "executor.async")
+    void handleAsync(final boolean value) {
+        async = value;
+    }
+
+    @ConfigBinding(key = "executor.queuesize")
+    void handleQueueSize(final int value) {
+        maxQueued = value;
+        updateLimits();
+    }
+
+    @ConfigBinding(key = "executor.timeout")
+    void handleTimeout(final int value) {
+        timeout = value;
+        updateLimits();
     }
 
     /**
@@ -58,25 +141,61 @@ public class ScriptManager {
      * @return a clone of the scripts map
      */
     protected Map<String, ScriptEngineWrapper> getScripts() {
+        final Map<String, ScriptEngineWrapper> res = new HashMap<>();
+        scripts.forEach((name, executor) -> res.put(name, executor.getScript()));
+        return res;
+    }
+
+    /**
+     * Get a clone of the map of executors used to run each script.
+     *
+     * @return a clone of the executors map
+     */
+    protected Map<String, ScriptExecutor> getExecutors() {
         return new HashMap<>(scripts);
     }
 
     /** Reload all scripts */
     public void rehash() {
-        scripts.values().forEach(ScriptEngineWrapper::reload);
-        // Advise the Garbage collector that now would be a good time to run
-        System.gc();
+        for (final ScriptExecutor executor : scripts.values()) {
+            run(executor, "rehash", executor.getScript()::reload);
+        }
+    }
+
+    /**
+     * Determines whether any loaded script may define the given function.
+     *
+     * @param functionName Name of function
+     *
+     * @return True if calling the function could reach at least one script
+     */
+    public boolean isFunctionDefined(final String functionName) {
+        for (final ScriptExecutor executor : scripts.values()) {
+            if (executor.getScript().isFunctionDefined(functionName)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Call a function in all scripts.
+     * Call a function in all scripts. Scripts known not to define the function are skipped.
      *
      * @param functionName Name of function
      * @param args         Arguments for function
      */
     public void callFunctionAll(final String functionName, final Object... args) {
-        for (final ScriptEngineWrapper engine : scripts.values()) {
-            engine.callFunction(functionName, args);
+        final ExecutorService currentPool = pool;
+        final ScheduledExecutorService currentWatchdog = watchdog;
+        for (final ScriptExecutor executor : scripts.values()) {
+            if (!executor.getScript().isFunctionDefined(functionName)) {
+                continue;
+            }
+            if (async && currentPool != null) {
+                executor.callFunction(currentPool, currentWatchdog, functionName, args);
+            } else {
+                executor.callFunctionNow(functionName, args);
+            }
         }
     }
 
@@ -88,12 +207,12 @@ public class ScriptManager {
      * @return true for Success (or already loaded), false for fail. (Fail occurs if script already
      *         exists, or if it has errors)
      */
-    public boolean loadScript(final String scriptFilename) {
+    public synchronized boolean loadScript(final String scriptFilename) {
         if (!scripts.containsKey(scriptFilename)) {
             try {
                 final ScriptEngineWrapper wrapper = new ScriptEngineWrapper(scriptEngineManager,
                         scriptFilename);
-                scripts.put(scriptFilename, wrapper);
+                scripts.put(scriptFilename, new ScriptExecutor(wrapper, maxQueued, timeout));
             } catch (ScriptException e) {
                 LOG.info(USER_ERROR, "Error loading '{}': {}", scriptFilename, e.getMessage(), e);
                 return false;
@@ -107,17 +226,37 @@ public class ScriptManager {
      *
      * @param scriptFilename Path to script
      */
-    public void unloadScript(final String scriptFilename) {
-        if (scripts.containsKey(scriptFilename)) {
-            // Tell it that its about to be unloaded.
-            scripts.get(scriptFilename).callFunction("onUnload");
-            // Remove the script
-            scripts.remove(scriptFilename);
-            // Advise the Garbage collector that now would be a good time to run
-            System.gc();
+    public synchronized void unloadScript(final String scriptFilename) {
+        final ScriptExecutor executor = scripts.remove(scriptFilename);
+        if (executor != null) {
+            // Drop anything still waiting, then tell it that its about to be unloaded.
+            executor.clear();
+            run(executor, "onUnload", () -> executor.getScript().callFunction("onUnload"));
+        }
+    }
+
+    /**
+     * Runs a task that uses a script, queueing it behind any outstanding calls if running
+     * asynchronously.
+     *
+     * @param executor The executor for the script
+     * @param name     Name of the task, used when reporting timings
+     * @param task     The task to run
+     */
+    private void run(final ScriptExecutor executor, final String name, final Runnable task) {
+        final ExecutorService currentPool = pool;
+        final ScheduledExecutorService currentWatchdog = watchdog;
+        if (async && currentPool != null) {
+            executor.execute(currentPool, currentWatchdog, name, task);
+        } else {
+            task.run();
         }
     }
 
+    private void updateLimits() {
+        scripts.values().forEach(executor -> executor.setLimits(maxQueued, timeout));
+    }
+
     /**
      * Retrieves a list of all installed scripts. Any file under the main plugin directory
      * (~/.DMDirc/scripts or similar) that matches *.js is deemed to be a valid script.
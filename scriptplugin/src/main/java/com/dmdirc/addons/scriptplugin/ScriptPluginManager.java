@@ -27,9 +27,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.List;
 
 import javax.inject.Inject;
 import javax.script.ScriptEngineManager;
@@ -63,6 +60,7 @@ public class ScriptPluginManager {
     public void onLoad() {
         // Register the plugin_loaded action initially, this will be called
         // after this method finishes for us to register the rest.
+        scriptManager.start();
         eventBus.subscribe(this);
 
         // Make sure our scripts dir exists
@@ -84,6 +82,7 @@ public class ScriptPluginManager {
 
     public void onUnLoad() {
         eventBus.unsubscribe(this);
+        scriptManager.stop();
 
         final File savedVariables = new File(scriptDir + "storedVariables");
         try (FileOutputStream fos = new FileOutputStream(savedVariables)) {
@@ -99,17 +98,9 @@ public class ScriptPluginManager {
         if (event instanceof PluginLoadedEvent || event instanceof PluginUnloadedEvent) {
             return;
         }
-        final String name = event.getClass().getSimpleName()
-                .replaceAll("Event$", "")
-                .replaceAll("(.)([A-Z])", "$1_$2")
-                .toUpperCase();
-        final List<Object> arguments = new ArrayList<>();
-        for (Method method : event.getClass().getMethods()) {
-            if (method.getName().startsWith("get") && method.getParameterTypes().length == 0 &&
-                    !"getDisplayFormat".equals(method.getName())) {
-                arguments.add(method.invoke(event));
-            }
+        final ScriptEventType type = ScriptEventType.TYPES.get(event.getClass());
+        if (scriptManager.isFunctionDefined(type.getFunctionName())) {
+            scriptManager.callFunctionAll(type.getFunctionName(), type.getArguments(event));
         }
-        scriptManager.callFunctionAll("action_" + name, arguments.toArray());
     }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.scriptplugin;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ScriptEventTypeTest {
+
+    @Test
+    public void testFunctionNames() {
+        assertEquals("action_CHANNEL_MESSAGE",
+                ScriptEventType.TYPES.get(ChannelMessageEvent.class).getFunctionName());
+        assertEquals("action_QUIT", ScriptEventType.TYPES.get(QuitEvent.class).getFunctionName());
+        assertEquals("action_SERVER_CTCP_REPLY",
+                ScriptEventType.TYPES.get(ServerCtcpReply.class).getFunctionName());
+    }
+
+    @Test
+    public void testTypesAreCached() {
+        assertSame(ScriptEventType.TYPES.get(ChannelMessageEvent.class),
+                ScriptEventType.TYPES.get(ChannelMessageEvent.class));
+    }
+
+    @Test
+    public void testArgumentsAreGetterValues() throws InvocationTargetException {
+        final List<Object> arguments = Arrays.asList(ScriptEventType.TYPES
+                .get(ChannelMessageEvent.class).getArguments(new ChannelMessageEvent()));
+
+        // getClass() is a getter too.
+        assertEquals(3, arguments.size());
+        assertTrue(arguments.contains("#channel"));
+        assertTrue(arguments.contains(42));
+        assertTrue(arguments.contains(ChannelMessageEvent.class));
+        assertFalse(arguments.contains("format"));
+    }
+
+    @Test(expected = InvocationTargetException.class)
+    public void testCheckedExceptionsAreWrapped() throws InvocationTargetException {
+        ScriptEventType.TYPES.get(QuitEvent.class).getArguments(new QuitEvent());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUncheckedExceptionsArePropagated() throws InvocationTargetException {
+        ScriptEventType.TYPES.get(ServerCtcpReply.class).getArguments(new ServerCtcpReply());
+    }
+
+    public static class ChannelMessageEvent {
+
+        public String getChannel() {
+            return "#channel";
+        }
+
+        public int getCount() {
+            return 42;
+        }
+
+        public String getDisplayFormat() {
+            return "format";
+        }
+
+        public String getWithArgument(final String argument) {
+            return argument;
+        }
+
+        public String describe() {
+            return "description";
+        }
+
+    }
+
+    public static class QuitEvent {
+
+        public String getReason() throws IOException {
+            throw new IOException("Failed");
+        }
+
+    }
+
+    public static class ServerCtcpReply {
+
+        public String getType() {
+            throw new IllegalStateException("Failed");
+        }
+
+    }
+
+}
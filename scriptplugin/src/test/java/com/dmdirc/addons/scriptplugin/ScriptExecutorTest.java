@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.scriptplugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ScriptExecutorTest {
+
+    @Mock private ScriptEngineWrapper script;
+    private final List<String> called = Collections.synchronizedList(new ArrayList<>());
+    private ExecutorService pool;
+    private ScheduledExecutorService watchdog;
+
+    @Before
+    public void setUp() {
+        when(script.getFile()).thenReturn(new File("test.js"));
+        doAnswer(invocation -> called.add((String) invocation.getArguments()[0]))
+                .when(script).callFunction(anyString(), anyVararg());
+        pool = Executors.newFixedThreadPool(4);
+        watchdog = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    @Test
+    public void testCallsRunInOrderOneAtATime() throws InterruptedException {
+        final ScriptExecutor executor = new ScriptExecutor(script, 1000, 10000);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final List<String> expected = new ArrayList<>();
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 100; i++) {
+            final String name = "task" + i;
+            expected.add(name);
+            executor.execute(pool, watchdog, name, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                order.add(name);
+                running.decrementAndGet();
+            });
+        }
+        waitForQueue(executor);
+
+        assertEquals(expected, order);
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    public void testCallsBeyondQueueLimitAreDropped() throws InterruptedException {
+        final ScriptExecutor executor = new ScriptExecutor(script, 2, 10000);
+        final CountDownLatch release = block(executor);
+
+        assertTrue(executor.callFunction(pool, watchdog, "first"));
+        assertTrue(executor.callFunction(pool, watchdog, "second"));
+        assertFalse(executor.callFunction(pool, watchdog, "third"));
+        assertEquals(1, executor.getDropped());
+        assertEquals(2, executor.getMaxQueueDepth());
+
+        release.countDown();
+        waitForQueue(executor);
+        assertEquals(Arrays.asList("first", "second"), called);
+    }
+
+    @Test
+    public void testTimeoutMarksScriptStuckUntilCallReturns() throws InterruptedException {
+        final ScriptExecutor executor = new ScriptExecutor(script, 10, 50);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute(pool, watchdog, "slow", () -> {
+            while (release.getCount() > 0) {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    interrupted.countDown();
+                }
+            }
+        });
+        assertTrue(executor.callFunction(pool, watchdog, "queued"));
+
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, executor.getTimeouts());
+        assertEquals(0, executor.getQueueDepth());
+        assertFalse(executor.callFunction(pool, watchdog, "dropped"));
+        assertEquals(2, executor.getDropped());
+        assertTrue(executor.toString().endsWith("currently stuck"));
+
+        release.countDown();
+        waitForQueue(executor);
+        assertTrue(executor.callFunction(pool, watchdog, "recovered"));
+        waitForQueue(executor);
+        assertEquals(Collections.singletonList("recovered"), called);
+        assertFalse(executor.toString().endsWith("currently stuck"));
+    }
+
+    @Test
+    public void testClearDiscardsQueuedCallsOnUnload() throws InterruptedException {
+        final ScriptExecutor executor = new ScriptExecutor(script, 10, 10000);
+        final CountDownLatch release = block(executor);
+        executor.callFunction(pool, watchdog, "first");
+        executor.callFunction(pool, watchdog, "second");
+
+        // As when the script is unloaded: drop what's waiting, then queue onUnload.
+        executor.clear();
+        executor.execute(pool, watchdog, "onUnload", () -> script.callFunction("onUnload"));
+        assertEquals(1, executor.getQueueDepth());
+        assertEquals(2, executor.getDropped());
+
+        release.countDown();
+        waitForQueue(executor);
+        assertEquals(Collections.singletonList("onUnload"), called);
+    }
+
+    @Test
+    public void testCallsAreDroppedOncePoolIsShutDown() {
+        final ScriptExecutor executor = new ScriptExecutor(script, 10, 10000);
+        pool.shutdown();
+
+        assertFalse(executor.callFunction(pool, watchdog, "late"));
+        assertEquals(0, executor.getQueueDepth());
+    }
+
+    @Test
+    public void testCallFunctionNowRecordsTimings() {
+        final ScriptExecutor executor = new ScriptExecutor(script, 10, 10000);
+        executor.callFunctionNow("now");
+
+        assertEquals(Collections.singletonList("now"), called);
+        assertEquals(1, executor.getFunctionStats().size());
+        assertTrue(executor.getFunctionStats().get(0).startsWith("now: 1 calls"));
+    }
+
+    /**
+     * Starts a task that runs until the returned latch is released, so later calls are queued.
+     */
+    private CountDownLatch block(final ScriptExecutor executor) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute(pool, watchdog, "block", () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    /**
+     * Waits for every call queued so far to finish, by queueing a task behind them.
+     */
+    private void waitForQueue(final ScriptExecutor executor) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(pool, watchdog, "wait", done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+}
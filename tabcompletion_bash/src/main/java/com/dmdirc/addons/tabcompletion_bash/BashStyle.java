@@ -17,6 +17,8 @@
 
 package com.dmdirc.addons.tabcompletion_bash;
 
+import com.dmdirc.addons.tabcompletion_mirc.CompletionCursor;
+import com.dmdirc.addons.tabcompletion_mirc.CompletionIndex;
 import com.dmdirc.interfaces.WindowModel;
 import com.dmdirc.ui.input.AdditionalTabTargets;
 import com.dmdirc.ui.input.TabCompleter;
@@ -24,8 +26,6 @@ import com.dmdirc.ui.input.tabstyles.TabCompletionResult;
 import com.dmdirc.ui.input.tabstyles.TabCompletionStyle;
 
 import java.awt.Toolkit;
-import java.util.List;
-import java.util.Locale;
 
 public class BashStyle implements TabCompletionStyle {
 
@@ -35,6 +35,8 @@ public class BashStyle implements TabCompletionStyle {
     private int tabCount = 0;
     /** The last word that was tab completed. */
     private String lastWord = "";
+    /** The candidates we complete from. */
+    private final CompletionIndex index;
     /** The tab completer that we use. */
     protected final TabCompleter tabCompleter;
     /** The input window that we use. */
@@ -49,6 +51,7 @@ public class BashStyle implements TabCompletionStyle {
     public BashStyle(final TabCompleter completer, final WindowModel window) {
         this.tabCompleter = completer;
         this.window = window;
+        this.index = new CompletionIndex(completer, window);
     }
 
     @Override
@@ -56,7 +59,8 @@ public class BashStyle implements TabCompletionStyle {
             final int end, final boolean shiftPressed,
             final AdditionalTabTargets additional) {
         final String word = original.substring(start, end);
-        final List<String> res = tabCompleter.complete(word, additional);
+        final CompletionCursor res = index.complete(word, additional, window.getConfigManager()
+                .getOptionBool("tabcompletion", "casesensitive"));
 
         if (start == lastPosition && word.equals(lastWord)) {
             tabCount++;
@@ -70,10 +74,10 @@ public class BashStyle implements TabCompletionStyle {
             Toolkit.getDefaultToolkit().beep();
 
             return null;
-        } else if (res.size() == 1) {
+        } else if (res.isUnique()) {
             // One result, just replace it
 
-            final String result = res.get(0);
+            final String result = res.next();
 
             return new TabCompletionResult(
                     original.substring(0, start) + result + original.substring(end),
@@ -81,10 +85,10 @@ public class BashStyle implements TabCompletionStyle {
         } else {
             // Multiple results
 
-            final String sub = getBestSubstring(res);
+            final String sub = res.getLongestCommonPrefix();
             if (sub.equalsIgnoreCase(word) && tabCount >= 2) {
                 window.getEventBus().publishAsync(
-                        new BashDisambiguationEvent(window, res.toString()));
+                        new BashDisambiguationEvent(window, res.getMatches().toString()));
                 return null;
             } else {
                 return new TabCompletionResult(
@@ -94,34 +98,4 @@ public class BashStyle implements TabCompletionStyle {
         }
     }
 
-    /**
-     * Returns the longest substring that matches all results.
-     *
-     * @return longest possible substring matching all results
-     */
-    private String getBestSubstring(final List<String> res) {
-        if (res.isEmpty()) {
-            return "";
-        }
-
-        final boolean caseSensitive = window.getConfigManager()
-                .getOptionBool("tabcompletion", "casesensitive");
-
-        String substring = res.get(0);
-        for (String entry : res) {
-            if (caseSensitive) {
-                while (!entry.startsWith(substring)) {
-                    substring = substring.substring(0, substring.length() - 1);
-                }
-            } else {
-                while (!entry.toLowerCase(Locale.getDefault()).startsWith(
-                        substring.toLowerCase(Locale.getDefault()))) {
-                    substring = substring.substring(0, substring.length() - 1);
-                }
-            }
-        }
-
-        return substring;
-    }
-
 }
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.tabcompletion_mirc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Cycles through the entries in one or more {@link CompletionTrie}s that start with a prefix.
+ *
+ * <p>The cursor only remembers its current entry, so it always reflects the current contents of
+ * the tries: entries added or removed while cycling are picked up or skipped as appropriate.
+ */
+public class CompletionCursor {
+
+    /** The prefix being completed. */
+    private final String prefix;
+    /** Whether entries must match the prefix's case. */
+    private final boolean caseSensitive;
+    /** The tries to take entries from. */
+    private final List<CompletionTrie> tries;
+    /** The current entry, if any. */
+    private String current;
+
+    /**
+     * Creates a new cursor, positioned before the first entry.
+     *
+     * @param prefix        The prefix being completed
+     * @param caseSensitive Whether entries must match the prefix's case
+     * @param tries         The tries to take entries from
+     */
+    public CompletionCursor(final String prefix, final boolean caseSensitive,
+            final CompletionTrie... tries) {
+        this.prefix = prefix;
+        this.caseSensitive = caseSensitive;
+        this.tries = Arrays.asList(tries);
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String getCurrent() {
+        return current;
+    }
+
+    /**
+     * Moves the cursor to the given entry, which need not be in any of the tries. Cycling will
+     * continue from where the entry would be.
+     *
+     * @param entry The entry to move to, which must start with the prefix
+     */
+    public void setCurrent(final String entry) {
+        current = entry;
+    }
+
+    /**
+     * Moves to the next matching entry, wrapping around to the first after the last.
+     *
+     * @return The new current entry, or null if there are no matching entries
+     */
+    public String next() {
+        current = cycle(current, true);
+        return current;
+    }
+
+    /**
+     * Moves to the previous matching entry, wrapping around to the last before the first.
+     *
+     * @return The new current entry, or null if there are no matching entries
+     */
+    public String previous() {
+        current = cycle(current, false);
+        return current;
+    }
+
+    /**
+     * Determines whether there are any matching entries.
+     *
+     * @return True if there are no matching entries
+     */
+    public boolean isEmpty() {
+        return following(null, true) == null;
+    }
+
+    /**
+     * Determines whether there is exactly one matching entry.
+     *
+     * @return True if there is exactly one matching entry
+     */
+    public boolean isUnique() {
+        final String first = following(null, true);
+        return first != null && following(first, true) == null;
+    }
+
+    /**
+     * Gets all matching entries.
+     *
+     * @return The matching entries, in order
+     */
+    public List<String> getMatches() {
+        List<String> res = new ArrayList<>();
+        for (CompletionTrie trie : tries) {
+            res.addAll(trie.find(prefix));
+        }
+        if (tries.size() > 1) {
+            // Entries may be in more than one trie.
+            final Set<String> merged = new TreeSet<>(CompletionTrie.ORDER);
+            merged.addAll(res);
+            res = new ArrayList<>(merged);
+        }
+        if (caseSensitive) {
+            return res.stream().filter(entry -> entry.startsWith(prefix))
+                    .collect(Collectors.toList());
+        }
+        return res;
+    }
+
+    /**
+     * Gets the longest prefix shared by all matching entries, in the case of the first entry.
+     *
+     * @return The longest common prefix, or the prefix itself if there are no matching entries
+     */
+    public String getLongestCommonPrefix() {
+        if (caseSensitive) {
+            String res = null;
+            for (String entry : getMatches()) {
+                res = res == null ? entry : entry.substring(0, commonLength(res, entry, false));
+            }
+            return res == null ? prefix : res;
+        }
+
+        String first = null;
+        String res = null;
+        for (CompletionTrie trie : tries) {
+            final String common = trie.getLongestCommonPrefix(prefix);
+            if (common == null) {
+                continue;
+            }
+            final String trieFirst = trie.first(prefix);
+            if (first == null || CompletionTrie.ORDER.compare(trieFirst, first) < 0) {
+                first = trieFirst;
+            }
+            res = res == null ? common : res.substring(0, commonLength(res, common, true));
+        }
+        return first == null ? prefix : first.substring(0, res.length());
+    }
+
+    /**
+     * Finds the entry to cycle to from the given entry.
+     *
+     * @param start   The entry to start from, or null to start from the beginning
+     * @param forward True to cycle forwards, false to cycle backwards
+     *
+     * @return The entry to cycle to, or null if there are no matching entries
+     */
+    private String cycle(final String start, final boolean forward) {
+        final String res = following(start, forward);
+        return res == null && start != null ? following(null, forward) : res;
+    }
+
+    /**
+     * Finds the matching entry after (or before) the given entry, without wrapping around.
+     *
+     * @param start   The entry to start from, or null to start from the beginning (or end)
+     * @param forward True to look forwards, false to look backwards
+     *
+     * @return The matching entry, or null if there are none
+     */
+    private String following(final String start, final boolean forward) {
+        String entry = start;
+        do {
+            entry = step(entry, forward);
+        } while (entry != null && caseSensitive && !entry.startsWith(prefix));
+        return entry;
+    }
+
+    private String step(final String start, final boolean forward) {
+        String res = null;
+        for (CompletionTrie trie : tries) {
+            final String candidate;
+            if (start == null) {
+                candidate = forward ? trie.first(prefix) : trie.last(prefix);
+            } else {
+                candidate = forward ? trie.higher(prefix, start) : trie.lower(prefix, start);
+            }
+            if (candidate != null && (res == null
+                    || CompletionTrie.ORDER.compare(candidate, res) < 0 == forward)) {
+                res = candidate;
+            }
+        }
+        return res;
+    }
+
+    private static int commonLength(final String first, final String second,
+            final boolean ignoreCase) {
+        int length = 0;
+        while (length < first.length() && length < second.length()
+                && first.regionMatches(ignoreCase, length, second, length, 1)) {
+            length++;
+        }
+        return length;
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.tabcompletion_mirc;
+
+import com.dmdirc.events.ChannelGotNamesEvent;
+import com.dmdirc.events.ChannelJoinEvent;
+import com.dmdirc.events.ChannelKickEvent;
+import com.dmdirc.events.ChannelNickChangeEvent;
+import com.dmdirc.events.ChannelPartEvent;
+import com.dmdirc.events.ChannelQuitEvent;
+import com.dmdirc.events.FrameClosingEvent;
+import com.dmdirc.interfaces.GroupChat;
+import com.dmdirc.interfaces.GroupChatUser;
+import com.dmdirc.interfaces.WindowModel;
+import com.dmdirc.ui.input.AdditionalTabTargets;
+import com.dmdirc.ui.input.TabCompleter;
+import com.dmdirc.ui.input.TabCompletionType;
+
+import net.engio.mbassy.listener.Handler;
+
+/**
+ * Tab completion candidates for a single window.
+ *
+ * <p>For group chats, the nicknames of users in the chat are kept in a {@link CompletionTrie}
+ * that is updated as users join, leave and change nicknames, rather than being scanned and sorted
+ * on each completion. Other candidates (commands, channels and so on) are taken from the window's
+ * {@link TabCompleter}.
+ */
+public class CompletionIndex {
+
+    /** The tab completer to take other candidates from. */
+    private final TabCompleter tabCompleter;
+    /** The group chat whose users are being indexed, or null if the window isn't a group chat. */
+    private final GroupChat groupChat;
+    /** The nicknames of users in the group chat. */
+    private final CompletionTrie nicknames = new CompletionTrie();
+
+    /**
+     * Creates a new index for the given window. If the window is a group chat, the index will
+     * listen for changes to its users until the window is closed.
+     *
+     * @param tabCompleter The tab completer to take other candidates from
+     * @param window       The window to index
+     */
+    public CompletionIndex(final TabCompleter tabCompleter, final WindowModel window) {
+        this.tabCompleter = tabCompleter;
+        if (window instanceof GroupChat) {
+            groupChat = (GroupChat) window;
+            reindex();
+            window.getEventBus().subscribe(this);
+        } else {
+            groupChat = null;
+        }
+    }
+
+    /**
+     * Starts completing the given word.
+     *
+     * <p>If nicknames are indexed, they are excluded from the additional targets so that the tab
+     * completer doesn't also have to search them.
+     *
+     * @param word          The word to complete
+     * @param additional    The additional targets to use, if any
+     * @param caseSensitive Whether completions must match the word's case
+     *
+     * @return A cursor positioned before the first candidate
+     */
+    public CompletionCursor complete(final String word, final AdditionalTabTargets additional,
+            final boolean caseSensitive) {
+        final AdditionalTabTargets targets = additional == null ? new AdditionalTabTargets()
+                : additional;
+        final boolean useNicknames = groupChat != null
+                && targets.shouldInclude(TabCompletionType.CHANNEL_NICK);
+        if (useNicknames) {
+            targets.exclude(TabCompletionType.CHANNEL_NICK);
+        }
+
+        final CompletionTrie others = new CompletionTrie();
+        tabCompleter.complete(word, targets).forEach(others::add);
+        if (useNicknames) {
+            return new CompletionCursor(word, caseSensitive, nicknames, others);
+        }
+        return new CompletionCursor(word, caseSensitive, others);
+    }
+
+    @Handler
+    public void handleNames(final ChannelGotNamesEvent event) {
+        if (event.getChannel().equals(groupChat)) {
+            reindex();
+        }
+    }
+
+    @Handler
+    public void handleJoin(final ChannelJoinEvent event) {
+        if (event.getChannel().equals(groupChat)) {
+            nicknames.add(event.getClient().getNickname());
+        }
+    }
+
+    @Handler
+    public void handlePart(final ChannelPartEvent event) {
+        if (event.getChannel().equals(groupChat)) {
+            nicknames.remove(event.getClient().getNickname());
+        }
+    }
+
+    @Handler
+    public void handleQuit(final ChannelQuitEvent event) {
+        if (event.getChannel().equals(groupChat)) {
+            nicknames.remove(event.getClient().getNickname());
+        }
+    }
+
+    @Handler
+    public void handleKick(final ChannelKickEvent event) {
+        if (event.getChannel().equals(groupChat)) {
+            nicknames.remove(event.getVictim().getNickname());
+        }
+    }
+
+    @Handler
+    public void handleNickChange(final ChannelNickChangeEvent event) {
+        if (event.getChannel().equals(groupChat)) {
+            nicknames.remove(event.getOldNick());
+            nicknames.add(event.getClient().getNickname());
+        }
+    }
+
+    @Handler
+    public void handleClosing(final FrameClosingEvent event) {
+        if (event.getSource().equals(groupChat)) {
+            groupChat.getEventBus().unsubscribe(this);
+        }
+    }
+
+    /**
+     * Rebuilds the index from the group chat's current users.
+     */
+    private void reindex() {
+        synchronized (nicknames) {
+            nicknames.clear();
+            for (GroupChatUser user : groupChat.getUsers()) {
+                nicknames.add(user.getNickname());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.tabcompletion_mirc;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A case-folded prefix trie of tab completion candidates.
+ *
+ * <p>Entries are ordered case insensitively (see {@link #ORDER}), and can be looked up, cycled
+ * through and have their longest common prefix found in time proportional to the length of the
+ * prefix rather than the number of entries. All methods are thread safe.
+ */
+public class CompletionTrie {
+
+    /** The order entries are kept in: case insensitively, then case sensitively. */
+    public static final Comparator<String> ORDER = Comparator.comparing(CompletionTrie::fold)
+            .thenComparing(Comparator.naturalOrder());
+    /** The root node, for the empty prefix. */
+    private final Node root = new Node();
+    /** The number of entries in the trie. */
+    private int size;
+
+    /**
+     * Adds an entry to the trie.
+     *
+     * @param entry The entry to add
+     *
+     * @return True if the entry was added, false if it was already present
+     */
+    public synchronized boolean add(final String entry) {
+        final String key = fold(entry);
+        Node node = root;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.children.computeIfAbsent(key.charAt(i), c -> new Node());
+        }
+        if (node.entries.add(entry)) {
+            size++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes an entry from the trie.
+     *
+     * @param entry The entry to remove
+     *
+     * @return True if the entry was removed, false if it wasn't present
+     */
+    public synchronized boolean remove(final String entry) {
+        final String key = fold(entry);
+        final Node[] path = new Node[key.length() + 1];
+        if (walk(key, path) < key.length() || !path[key.length()].entries.remove(entry)) {
+            return false;
+        }
+        size--;
+        // Prune nodes that no longer lead to any entries.
+        for (int i = key.length(); i > 0 && path[i].isEmpty(); i--) {
+            path[i - 1].children.remove(key.charAt(i - 1));
+        }
+        return true;
+    }
+
+    /**
+     * Removes all entries from the trie.
+     */
+    public synchronized void clear() {
+        root.children.clear();
+        root.entries.clear();
+        size = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Finds all entries that start with the given prefix, ignoring case.
+     *
+     * @param prefix The prefix to look for
+     *
+     * @return The matching entries, in order
+     */
+    public synchronized List<String> find(final String prefix) {
+        final List<String> res = new ArrayList<>();
+        final Node node = getNode(prefix);
+        if (node != null) {
+            node.collect(res);
+        }
+        return res;
+    }
+
+    /**
+     * Gets the longest prefix shared by all entries that start with the given prefix, ignoring
+     * case. The result is in the case of the first matching entry.
+     *
+     * @param prefix The prefix to look for
+     *
+     * @return The longest common prefix, or null if no entries match
+     */
+    public synchronized String getLongestCommonPrefix(final String prefix) {
+        Node node = getNode(prefix);
+        if (node == null || node.isEmpty()) {
+            return null;
+        }
+        int length = prefix.length();
+        while (node.entries.isEmpty() && node.children.size() == 1) {
+            node = node.children.firstEntry().getValue();
+            length++;
+        }
+        return min(node).substring(0, length);
+    }
+
+    /**
+     * Gets the first entry that starts with the given prefix, ignoring case.
+     *
+     * @param prefix The prefix to look for
+     *
+     * @return The first matching entry, or null if no entries match
+     */
+    public synchronized String first(final String prefix) {
+        final Node node = getNode(prefix);
+        return node == null || node.isEmpty() ? null : min(node);
+    }
+
+    /**
+     * Gets the last entry that starts with the given prefix, ignoring case.
+     *
+     * @param prefix The prefix to look for
+     *
+     * @return The last matching entry, or null if no entries match
+     */
+    public synchronized String last(final String prefix) {
+        final Node node = getNode(prefix);
+        return node == null || node.isEmpty() ? null : max(node);
+    }
+
+    /**
+     * Gets the entry following the given entry, out of those that start with the given prefix.
+     * The given entry need not be in the trie.
+     *
+     * @param prefix The prefix to look for
+     * @param entry  The entry to look after, which must start with the prefix
+     *
+     * @return The next matching entry, or null if there are none
+     */
+    public synchronized String higher(final String prefix, final String entry) {
+        final String key = fold(entry);
+        final Node[] path = new Node[key.length() + 1];
+        final int depth = walk(key, path);
+        if (depth == key.length()) {
+            final String next = path[depth].entries.higher(entry);
+            if (next != null) {
+                return next;
+            }
+            if (!path[depth].children.isEmpty()) {
+                return min(path[depth].children.firstEntry().getValue());
+            }
+        }
+        for (int i = Math.min(depth, key.length() - 1); i >= prefix.length(); i--) {
+            final Map.Entry<Character, Node> sibling = path[i].children
+                    .higherEntry(key.charAt(i));
+            if (sibling != null) {
+                return min(sibling.getValue());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the entry preceding the given entry, out of those that start with the given prefix.
+     * The given entry need not be in the trie.
+     *
+     * @param prefix The prefix to look for
+     * @param entry  The entry to look before, which must start with the prefix
+     *
+     * @return The previous matching entry, or null if there are none
+     */
+    public synchronized String lower(final String prefix, final String entry) {
+        final String key = fold(entry);
+        final Node[] path = new Node[key.length() + 1];
+        final int depth = walk(key, path);
+        if (depth == key.length()) {
+            final String previous = path[depth].entries.lower(entry);
+            if (previous != null) {
+                return previous;
+            }
+        }
+        for (int i = Math.min(depth, key.length() - 1); i >= prefix.length(); i--) {
+            final Map.Entry<Character, Node> sibling = path[i].children
+                    .lowerEntry(key.charAt(i));
+            if (sibling != null) {
+                return max(sibling.getValue());
+            }
+            if (!path[i].entries.isEmpty()) {
+                return path[i].entries.last();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Folds the case of a string, in the same way as
+     * {@link String#regionMatches(boolean, int, String, int, int)}.
+     *
+     * @param value The string to fold
+     *
+     * @return The folded string, which is the same length as the original
+     */
+    public static String fold(final String value) {
+        final char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Gets the node for the given prefix.
+     *
+     * @param prefix The prefix to look for
+     *
+     * @return The node, or null if no entries start with the prefix
+     */
+    private Node getNode(final String prefix) {
+        final String key = fold(prefix);
+        final Node[] path = new Node[key.length() + 1];
+        return walk(key, path) == key.length() ? path[key.length()] : null;
+    }
+
+    /**
+     * Walks down the trie as far as possible towards the given key.
+     *
+     * @param key  The folded key to walk towards
+     * @param path Array to store the nodes visited in, indexed by depth
+     *
+     * @return The depth reached
+     */
+    private int walk(final String key, final Node[] path) {
+        Node node = root;
+        path[0] = node;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.children.get(key.charAt(i));
+            if (node == null) {
+                return i;
+            }
+            path[i + 1] = node;
+        }
+        return key.length();
+    }
+
+    private static String min(final Node start) {
+        Node node = start;
+        while (node.entries.isEmpty()) {
+            node = node.children.firstEntry().getValue();
+        }
+        return node.entries.first();
+    }
+
+    private static String max(final Node start) {
+        Node node = start;
+        while (!node.children.isEmpty()) {
+            node = node.children.lastEntry().getValue();
+        }
+        return node.entries.last();
+    }
+
+    /** A node in the trie. Every node other than the root leads to at least one entry. */
+    private static final class Node {
+
+        /** Child nodes, keyed on the next folded character. */
+        private final TreeMap<Character, Node> children = new TreeMap<>();
+        /** Entries whose folded form ends at this node. */
+        private final TreeSet<String> entries = new TreeSet<>();
+
+        boolean isEmpty() {
+            return entries.isEmpty() && children.isEmpty();
+        }
+
+        void collect(final List<String> res) {
+            res.addAll(entries);
+            children.values().forEach(child -> child.collect(res));
+        }
+
+    }
+
+}
@@ -25,15 +25,13 @@ import com.dmdirc.ui.input.tabstyles.TabCompletionResult;
 import com.dmdirc.ui.input.tabstyles.TabCompletionStyle;
 
 import java.awt.Toolkit;
-import java.util.ArrayList;
-import java.util.List;
 
 public class MircStyle implements TabCompletionStyle {
 
-    /** The last word that was tab completed. */
-    private String lastWord;
-    /** The last string we tried to tab complete. */
-    private String tabString;
+    /** The candidates we complete from. */
+    private final CompletionIndex index;
+    /** The cursor for the current completion, if any. */
+    private CompletionCursor cursor;
     /** The tab completer that we use. */
     protected final TabCompleter tabCompleter;
     /** The input window that we use. */
@@ -48,6 +46,7 @@ public class MircStyle implements TabCompletionStyle {
     public MircStyle(final TabCompleter completer, final WindowModel window) {
         this.tabCompleter = completer;
         this.window = window;
+        this.index = new CompletionIndex(completer, window);
     }
 
     @Override
@@ -57,33 +56,31 @@ public class MircStyle implements TabCompletionStyle {
 
         final String word = original.substring(start, end);
         final String target;
-        if (word.equals(lastWord)) {
+        if (cursor != null && word.equals(cursor.getCurrent())) {
             // We're continuing to tab through
-            final List<String> results = new ArrayList<>(tabCompleter.complete(tabString, additional));
-            results.sort(String.CASE_INSENSITIVE_ORDER);
-            target = results.get((results.indexOf(lastWord) + (shiftPressed ? -1: 1) + results.size()) % results.size());
+            target = shiftPressed ? cursor.previous() : cursor.next();
         } else {
             // New tab target
-            final List<String> results = new ArrayList<>(tabCompleter.complete(word, additional));
+            cursor = index.complete(word, additional, window.getConfigManager()
+                    .getOptionBool("tabcompletion", "casesensitive"));
 
-            if (results.isEmpty()) {
-                Toolkit.getDefaultToolkit().beep();
-                return null;
+            if (cursor.isEmpty()) {
+                target = null;
+            } else if (!word.isEmpty()
+                    && window instanceof GroupChat
+                    && window.getName().startsWith(word)) {
+                target = window.getName();
+                cursor.setCurrent(target);
             } else {
-                results.sort(String.CASE_INSENSITIVE_ORDER);
-
-                if (!word.isEmpty()
-                        && window instanceof GroupChat
-                        && window.getName().startsWith(word)) {
-                    target = window.getName();
-                } else {
-                    target = results.get(0);
-                }
-                tabString = word;
+                target = cursor.next();
             }
         }
 
-        lastWord = target;
+        if (target == null) {
+            cursor = null;
+            Toolkit.getDefaultToolkit().beep();
+            return null;
+        }
 
         return new TabCompletionResult(original.substring(0, start) + target
                 + original.substring(end), start + target.length());
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.tabcompletion_mirc;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompletionCursorTest {
+
+    private CompletionTrie trie;
+
+    @Before
+    public void setUp() {
+        trie = new CompletionTrie();
+        trie.add("alice");
+        trie.add("ALBERT");
+        trie.add("Alan");
+        trie.add("bob");
+    }
+
+    @Test
+    public void testCyclesForwardsAndWraps() {
+        final CompletionCursor cursor = new CompletionCursor("al", false, trie);
+        assertEquals("Alan", cursor.next());
+        assertEquals("ALBERT", cursor.next());
+        assertEquals("alice", cursor.next());
+        assertEquals("Alan", cursor.next());
+    }
+
+    @Test
+    public void testCyclesBackwardsAndWraps() {
+        final CompletionCursor cursor = new CompletionCursor("al", false, trie);
+        assertEquals("alice", cursor.previous());
+        assertEquals("ALBERT", cursor.previous());
+        assertEquals("Alan", cursor.previous());
+        assertEquals("alice", cursor.previous());
+    }
+
+    @Test
+    public void testCaseSensitiveSkipsOtherCases() {
+        trie.add("Alfred");
+        final CompletionCursor cursor = new CompletionCursor("Al", true, trie);
+        assertEquals(Arrays.asList("Alan", "Alfred"), cursor.getMatches());
+        assertEquals("Alan", cursor.next());
+        assertEquals("Alfred", cursor.next());
+        assertEquals("Alan", cursor.next());
+        assertEquals("Alfred", cursor.previous());
+    }
+
+    @Test
+    public void testNoMatches() {
+        final CompletionCursor cursor = new CompletionCursor("c", false, trie);
+        assertTrue(cursor.isEmpty());
+        assertFalse(cursor.isUnique());
+        assertNull(cursor.next());
+        assertEquals("c", cursor.getLongestCommonPrefix());
+    }
+
+    @Test
+    public void testUnique() {
+        assertTrue(new CompletionCursor("B", false, trie).isUnique());
+        assertFalse(new CompletionCursor("B", true, trie).isUnique());
+        assertFalse(new CompletionCursor("a", false, trie).isUnique());
+    }
+
+    @Test
+    public void testMergesTries() {
+        final CompletionTrie other = new CompletionTrie();
+        other.add("alice");
+        other.add("Alfred");
+        final CompletionCursor cursor = new CompletionCursor("al", false, trie, other);
+        assertEquals(Arrays.asList("Alan", "ALBERT", "Alfred", "alice"), cursor.getMatches());
+        assertEquals("Alan", cursor.next());
+        assertEquals("ALBERT", cursor.next());
+        assertEquals("Alfred", cursor.next());
+        assertEquals("alice", cursor.next());
+        assertEquals("Alan", cursor.next());
+    }
+
+    @Test
+    public void testPicksUpChangesWhileCycling() {
+        final CompletionCursor cursor = new CompletionCursor("al", false, trie);
+        assertEquals("Alan", cursor.next());
+        trie.add("Alana");
+        assertEquals("Alana", cursor.next());
+        trie.remove("Alana");
+        trie.remove("ALBERT");
+        assertEquals("alice", cursor.next());
+    }
+
+    @Test
+    public void testSetCurrent() {
+        final CompletionCursor cursor = new CompletionCursor("al", false, trie);
+        cursor.setCurrent("alb");
+        assertEquals("ALBERT", cursor.next());
+        cursor.setCurrent("alb");
+        assertEquals("Alan", cursor.previous());
+    }
+
+    @Test
+    public void testLongestCommonPrefix() {
+        trie.add("Alison");
+        assertEquals("Al", new CompletionCursor("a", false, trie).getLongestCommonPrefix());
+        assertEquals("ali", new CompletionCursor("ALI", false, trie).getLongestCommonPrefix());
+        assertEquals("Al", new CompletionCursor("Al", true, trie).getLongestCommonPrefix());
+        assertEquals("Alison", new CompletionCursor("Ali", true, trie).getLongestCommonPrefix());
+    }
+
+    @Test
+    public void testLongestCommonPrefixAcrossTries() {
+        final CompletionTrie other = new CompletionTrie();
+        other.add("ALICIA");
+        final CompletionCursor cursor = new CompletionCursor("alic", false, trie, other);
+        assertEquals("alic", cursor.getLongestCommonPrefix());
+        assertEquals(Collections.singletonList("ALICIA"),
+                new CompletionCursor("alici", false, trie, other).getMatches());
+    }
+
+}
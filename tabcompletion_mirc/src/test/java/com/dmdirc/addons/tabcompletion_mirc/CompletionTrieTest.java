@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.tabcompletion_mirc;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompletionTrieTest {
+
+    private CompletionTrie trie;
+
+    @Before
+    public void setUp() {
+        trie = new CompletionTrie();
+        trie.add("alice");
+        trie.add("ALBERT");
+        trie.add("Alan");
+        trie.add("bob");
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        assertFalse(trie.add("bob"));
+        assertTrue(trie.add("Bob"));
+        assertEquals(5, trie.size());
+
+        assertFalse(trie.remove("BOB"));
+        assertTrue(trie.remove("bob"));
+        assertFalse(trie.remove("bobby"));
+        assertEquals(4, trie.size());
+        assertEquals(Collections.singletonList("Bob"), trie.find("b"));
+    }
+
+    @Test
+    public void testRemovingLastEntryPrunesNodes() {
+        assertTrue(trie.remove("bob"));
+        assertTrue(trie.find("b").isEmpty());
+        assertNull(trie.first("b"));
+        assertNull(trie.higher("", "alice"));
+    }
+
+    @Test
+    public void testClear() {
+        trie.clear();
+        assertEquals(0, trie.size());
+        assertTrue(trie.find("").isEmpty());
+    }
+
+    @Test
+    public void testFindIgnoresCase() {
+        assertEquals(Arrays.asList("Alan", "ALBERT", "alice"), trie.find("al"));
+        assertEquals(Arrays.asList("Alan", "ALBERT", "alice"), trie.find("AL"));
+        assertEquals(Arrays.asList("Alan", "ALBERT", "alice", "bob"), trie.find(""));
+        assertTrue(trie.find("c").isEmpty());
+    }
+
+    @Test
+    public void testEntriesDifferingInCaseAreOrdered() {
+        trie.add("Bob");
+        trie.add("BOB");
+        assertEquals(Arrays.asList("BOB", "Bob", "bob"), trie.find("bob"));
+        assertEquals("bob", trie.higher("b", "Bob"));
+        assertEquals("BOB", trie.lower("b", "Bob"));
+    }
+
+    @Test
+    public void testLongestCommonPrefix() {
+        assertEquals("Al", trie.getLongestCommonPrefix("a"));
+        assertEquals("bob", trie.getLongestCommonPrefix("B"));
+        assertNull(trie.getLongestCommonPrefix("c"));
+
+        trie.add("Alison");
+        // In the case of the first matching entry, rather than the prefix.
+        assertEquals("ali", trie.getLongestCommonPrefix("ALI"));
+        assertEquals("Alison", trie.getLongestCommonPrefix("alis"));
+    }
+
+    @Test
+    public void testFirstAndLast() {
+        assertEquals("Alan", trie.first("a"));
+        assertEquals("alice", trie.last("a"));
+        assertEquals("Alan", trie.first(""));
+        assertEquals("bob", trie.last(""));
+        assertNull(trie.first("c"));
+        assertNull(trie.last("c"));
+    }
+
+    @Test
+    public void testHigherAndLower() {
+        assertEquals("ALBERT", trie.higher("al", "Alan"));
+        assertEquals("ALBERT", trie.higher("al", "alb"));
+        assertNull(trie.higher("al", "alice"));
+        assertEquals("bob", trie.higher("", "alice"));
+
+        assertEquals("Alan", trie.lower("al", "ALBERT"));
+        assertEquals("alice", trie.lower("a", "alz"));
+        assertNull(trie.lower("al", "Alan"));
+        assertEquals("alice", trie.lower("", "bob"));
+    }
+
+    @Test
+    public void testMatchesSortedSet() {
+        final Random random = new Random(42);
+        final CompletionTrie randomTrie = new CompletionTrie();
+        final TreeSet<String> expected = new TreeSet<>(CompletionTrie.ORDER);
+        for (int i = 0; i < 500; i++) {
+            final String entry = randomString(random);
+            assertEquals(expected.add(entry), randomTrie.add(entry));
+            if (random.nextInt(4) == 0) {
+                final String removed = randomString(random);
+                assertEquals(expected.remove(removed), randomTrie.remove(removed));
+            }
+        }
+        assertEquals(expected.size(), randomTrie.size());
+
+        for (int i = 0; i < 500; i++) {
+            final String prefix = random.nextBoolean() ? "" : randomString(random);
+            final String entry = prefix + randomString(random);
+            assertEquals(filter(expected.higher(entry), prefix), randomTrie.higher(prefix, entry));
+            assertEquals(filter(expected.lower(entry), prefix), randomTrie.lower(prefix, entry));
+        }
+    }
+
+    private static String randomString(final Random random) {
+        final char[] chars = new char[random.nextInt(5)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = "aAbB".charAt(random.nextInt(4));
+        }
+        return new String(chars);
+    }
+
+    private static String filter(final String entry, final String prefix) {
+        return entry != null && CompletionTrie.fold(entry).startsWith(CompletionTrie.fold(prefix))
+                ? entry : null;
+    }
+
+}
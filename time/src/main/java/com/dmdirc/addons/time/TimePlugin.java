@@ -38,9 +38,16 @@ public class TimePlugin extends BaseCommandPlugin {
         manager = getObjectGraph().get(TimerManager.class);
     }
 
+    @Override
+    public void onLoad() {
+        super.onLoad();
+        manager.load();
+    }
+
     @Override
     public void onUnload() {
         super.onUnload();
+        manager.unload();
         manager = null;
     }
 
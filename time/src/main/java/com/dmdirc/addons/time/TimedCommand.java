@@ -17,30 +17,56 @@
 
 package com.dmdirc.addons.time;
 
+import com.dmdirc.interfaces.Connection;
 import com.dmdirc.interfaces.WindowModel;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Optional;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Timed command represents a command that has been scheduled by the user.
+ *
+ * <p>Commands run at a fixed rate on the {@link TimerFactory}'s shared scheduler. Each run records
+ * how late it started compared to when it was due (drift), and how long the command took to
+ * execute (latency).
  */
-public class TimedCommand extends TimerTask {
+public class TimedCommand implements Runnable {
 
+    private static final Logger LOG = LoggerFactory.getLogger(TimedCommand.class);
     /** The number of repetitions remaining. */
-    private int repetitions;
+    private volatile int repetitions;
     /** The command to execute. */
     private final String command;
-    /** The container to use for executing commands. */
+    /** The container to use for executing commands, or null if it must be looked up. */
     private final WindowModel origin;
-    /** The number of seconds between each execution. */
-    private final int delay;
+    /** The network of the window to execute commands in, if it must be looked up. */
+    private final String network;
+    /** The name of the window to execute commands in, if it must be looked up. */
+    private final String windowName;
+    /** The number of milliseconds between each execution. */
+    private final long interval;
     /** The key for this timer in the Timer Manager. */
     private final int timerKey;
     /** The manager for this timer. */
     private final TimerManager manager;
-    /** The timer we're using for scheduling this command. */
-    private Timer timer;
+    /** The scheduled runs of this command. */
+    private ScheduledFuture<?> future;
+    /** The time the first run was due, in nanoseconds. */
+    private long firstRunTime;
+    /** The number of times the command has been due to run, including skipped runs. */
+    private long dueRuns;
+    /** The number of times the command has run. */
+    private volatile long runs;
+    /** The total and maximum drift of all runs, in nanoseconds. */
+    private volatile long totalDrift;
+    private volatile long maxDrift;
+    /** The total and maximum execution time of all runs, in nanoseconds. */
+    private volatile long totalLatency;
+    private volatile long maxLatency;
 
     /**
      * Creates a new instance of TimedCommand.
@@ -48,7 +74,7 @@ public class TimedCommand extends TimerTask {
      * @param manager           The manager that is controlling this command.
      * @param timerKey          The key for this timer in the Timer Manager.
      * @param repetitions       The number of times this command will be executed
-     * @param delay             The number of seconds between each execution
+     * @param interval          The number of milliseconds between each execution
      * @param command           The command to be executed
      * @param origin            The frame container to use for the execution
      */
@@ -56,20 +82,60 @@ public class TimedCommand extends TimerTask {
             final TimerManager manager,
             final int timerKey,
             final int repetitions,
-            final int delay,
+            final long interval,
             final String command,
             final WindowModel origin) {
+        this(manager, timerKey, repetitions, interval, command, origin, null, null);
+    }
+
+    /**
+     * Creates a new instance of TimedCommand that executes commands in whichever window has the
+     * given network and name when it runs. Runs are skipped if there is no such window.
+     *
+     * @param manager           The manager that is controlling this command.
+     * @param timerKey          The key for this timer in the Timer Manager.
+     * @param repetitions       The number of times this command will be executed
+     * @param interval          The number of milliseconds between each execution
+     * @param command           The command to be executed
+     * @param network           The network of the window to use for the execution
+     * @param windowName        The name of the window to use for the execution
+     */
+    public TimedCommand(
+            final TimerManager manager,
+            final int timerKey,
+            final int repetitions,
+            final long interval,
+            final String command,
+            final String network,
+            final String windowName) {
+        this(manager, timerKey, repetitions, interval, command, null, network, windowName);
+    }
+
+    private TimedCommand(
+            final TimerManager manager,
+            final int timerKey,
+            final int repetitions,
+            final long interval,
+            final String command,
+            final WindowModel origin,
+            final String network,
+            final String windowName) {
         this.timerKey = timerKey;
         this.repetitions = repetitions;
         this.command = command;
         this.origin = origin;
+        this.network = network;
+        this.windowName = windowName;
         this.manager = manager;
-        this.delay = delay;
+        this.interval = interval;
     }
 
     public void schedule(final TimerFactory timerFactory) {
-        timer = timerFactory.getTimer("Timed Command Timer");
-        timer.schedule(this, delay * 1000L, delay * 1000L);
+        synchronized (this) {
+            firstRunTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+            future = timerFactory.getScheduler().scheduleAtFixedRate(this, interval, interval,
+                    TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
@@ -81,26 +147,107 @@ public class TimedCommand extends TimerTask {
         return command;
     }
 
+    public int getRepetitions() {
+        return repetitions;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Returns the network of the window this timer executes commands in.
+     *
+     * @return The window's network, or an empty string if it doesn't have one
+     */
+    public String getNetwork() {
+        if (origin == null) {
+            return network;
+        }
+        return origin.getConnection().map(Connection::getNetwork).orElse("");
+    }
+
+    /**
+     * Returns the name of the window this timer executes commands in.
+     *
+     * @return The window's name
+     */
+    public String getWindowName() {
+        return origin == null ? windowName : origin.getName();
+    }
+
+    public long getRuns() {
+        return runs;
+    }
+
+    public long getTotalDrift() {
+        return totalDrift;
+    }
+
+    public long getMaxDrift() {
+        return maxDrift;
+    }
+
+    public long getTotalLatency() {
+        return totalLatency;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
     /**
      * Cancels this timer and removes it from the Timer Manager
      */
     public void cancelTimer() {
         manager.removeTimer(timerKey);
-        if (timer != null) {
-            timer.cancel();
+        synchronized (this) {
+            if (future != null) {
+                future.cancel(false);
+            }
         }
     }
 
     @Override
     public void run() {
-        if (timer == null) {
+        final long dueTime;
+        synchronized (this) {
+            if (future == null) {
+                return;
+            }
+            dueTime = firstRunTime + dueRuns++ * TimeUnit.MILLISECONDS.toNanos(interval);
+        }
+
+        final long startTime = System.nanoTime();
+        final Optional<WindowModel> window = origin == null
+                ? manager.findWindow(network, windowName) : Optional.of(origin);
+        if (!window.isPresent()) {
+            manager.timerSkipped();
             return;
         }
-        origin.getInputModel().get().getCommandParser().parseCommand(origin, command);
+
+        try {
+            window.get().getInputModel().get().getCommandParser()
+                    .parseCommand(window.get(), command);
+        } catch (RuntimeException ex) {
+            // Don't let one bad command stop this timer or any others.
+            LOG.warn("Unable to execute timed command: {}", command, ex);
+        }
+
+        final long drift = Math.max(0, startTime - dueTime);
+        final long latency = System.nanoTime() - startTime;
+        runs++;
+        totalDrift += drift;
+        maxDrift = Math.max(maxDrift, drift);
+        totalLatency += latency;
+        maxLatency = Math.max(maxLatency, latency);
+        manager.timerRan(drift, latency);
 
         if (--repetitions <= 0) {
             manager.removeTimer(timerKey);
-            timer.cancel();
+            synchronized (this) {
+                future.cancel(false);
+            }
         }
     }
 
@@ -30,6 +30,7 @@ import com.dmdirc.ui.input.AdditionalTabTargets;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
+import java.math.BigDecimal;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -42,10 +43,10 @@ public class TimerCommand extends BaseCommand implements IntelligentCommand {
 
     /** A command info object for this command. */
     public static final CommandInfo INFO = new BaseCommandInfo("timer",
-            "timer [--list|--cancel <timer id> | <repetitions> <interval> "
-            + "<command>] - lists all active timers / cancels an active timer "
-            + "of given ID / schedules a command to be executed after a certain "
-            + "time",
+            "timer [--list|--stats|--cancel <timer id> | <repetitions> <interval>[ms] "
+            + "<command>] - lists all active timers / shows timer statistics / "
+            + "cancels an active timer of given ID / schedules a command to be "
+            + "executed after a certain time, in seconds or milliseconds",
             CommandType.TYPE_GLOBAL);
     /** The TimerManager for this TimerCommand. */
     private final TimerManager manager;
@@ -75,6 +76,9 @@ public class TimerCommand extends BaseCommand implements IntelligentCommand {
                 case "--list":
                     doList(origin, args.isSilent());
                     break;
+                case "--stats":
+                    doStats(origin, args.isSilent());
+                    break;
                 default:
                     if (args.getArguments().length < 3) {
                         doUsage(origin, args.isSilent());
@@ -90,20 +94,20 @@ public class TimerCommand extends BaseCommand implements IntelligentCommand {
 
     private void doCommand(final WindowModel origin, final CommandArguments args) {
         final int repetitions;
-        final int interval;
+        final long interval;
 
         final String command = args.getArgumentsAsString(2);
 
         try {
             repetitions = Integer.parseInt(args.getArguments()[0]);
-            interval = Integer.parseInt(args.getArguments()[1]);
+            interval = parseInterval(args.getArguments()[1]);
         } catch (NumberFormatException ex) {
             doUsage(origin, args.isSilent());
             return;
         }
 
         if (interval < 1) {
-            showError(origin, args.isSilent(), "Cannot use intervals below 1");
+            showError(origin, args.isSilent(), "Cannot use intervals below 1ms");
             return;
         }
 
@@ -139,6 +143,51 @@ public class TimerCommand extends BaseCommand implements IntelligentCommand {
         }
     }
 
+    private void doStats(final WindowModel origin, final boolean isSilent) {
+        final long runs = manager.getRuns();
+        showOutput(origin, isSilent, manager.listTimers().size() + " active timers, "
+                + runs + " runs, " + manager.getSkippedRuns() + " skipped");
+        showOutput(origin, isSilent, "Drift: average "
+                + formatAverage(manager.getTotalDrift(), runs)
+                + ", max " + formatNanos(manager.getMaxDrift())
+                + " - Execution: average " + formatAverage(manager.getTotalLatency(), runs)
+                + ", max " + formatNanos(manager.getMaxLatency()));
+        for (Entry<Integer, TimedCommand> entry : manager.listTimers()) {
+            final TimedCommand timer = entry.getValue();
+            showOutput(origin, isSilent, "Timer ID: " + entry.getKey() + " - "
+                    + timer.getRuns() + " runs, " + timer.getRepetitions() + " remaining"
+                    + " - Drift: average " + formatAverage(timer.getTotalDrift(), timer.getRuns())
+                    + ", max " + formatNanos(timer.getMaxDrift())
+                    + " - Execution: average "
+                    + formatAverage(timer.getTotalLatency(), timer.getRuns())
+                    + ", max " + formatNanos(timer.getMaxLatency()));
+        }
+    }
+
+    /**
+     * Parses an interval, which is in seconds (possibly fractional) unless it ends with "ms".
+     *
+     * @param interval The interval to parse
+     *
+     * @return The interval in milliseconds
+     *
+     * @throws NumberFormatException If the interval is not valid
+     */
+    private static long parseInterval(final String interval) {
+        if (interval.endsWith("ms")) {
+            return Long.parseLong(interval.substring(0, interval.length() - 2));
+        }
+        return new BigDecimal(interval).movePointRight(3).longValue();
+    }
+
+    private static String formatAverage(final long total, final long count) {
+        return count == 0 ? "-" : formatNanos(total / count);
+    }
+
+    private static String formatNanos(final long nanos) {
+        return String.format("%.1fms", nanos / 1000000.0);
+    }
+
     /**
      * Displays usage information for this command.
      *
@@ -157,6 +206,7 @@ public class TimerCommand extends BaseCommand implements IntelligentCommand {
         targets.excludeAll();
         if (arg == 0) {
             targets.add("--list");
+            targets.add("--stats");
             targets.add("--cancel");
         } else if (arg == 1 && "--cancel".equals(context.getPreviousArgs().get(0))) {
             targets.addAll(manager.getTimerIDs().stream()
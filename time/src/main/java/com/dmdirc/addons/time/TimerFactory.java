@@ -17,21 +17,51 @@
 
 package com.dmdirc.addons.time;
 
-import java.util.Timer;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 /**
- * Factory to create {@link Timer}s.
+ * Provides the scheduler shared by all {@link TimedCommand}s.
  */
 @Singleton
 public class TimerFactory {
 
+    /** The shared scheduler, if it has been created. */
+    private ScheduledThreadPoolExecutor scheduler;
+
     @Inject
     public TimerFactory() {}
 
-    public Timer getTimer(final String name) {
-        return new Timer(name);
+    /**
+     * Gets the shared scheduler, creating it if required. All timers run on the scheduler's single
+     * thread.
+     *
+     * @return The shared scheduler
+     */
+    public synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null || scheduler.isShutdown()) {
+            scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+                final Thread thread = new Thread(runnable, "Timed Command Timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // Cancelled timers shouldn't wait around in the queue until they would have run.
+            scheduler.setRemoveOnCancelPolicy(true);
+        }
+        return scheduler;
+    }
+
+    /**
+     * Shuts down the shared scheduler, cancelling all timers.
+     */
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
     }
+
 }
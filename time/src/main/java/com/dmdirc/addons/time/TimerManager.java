@@ -17,48 +17,115 @@
 
 package com.dmdirc.addons.time;
 
+import com.dmdirc.addons.time.TimerYamlStore.StoredTimer;
+import com.dmdirc.commandline.CommandLineOptionsModule.Directory;
+import com.dmdirc.commandline.CommandLineOptionsModule.DirectoryType;
+import com.dmdirc.interfaces.Connection;
 import com.dmdirc.interfaces.WindowModel;
+import com.dmdirc.ui.WindowManager;
 
-import java.util.HashMap;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
 /**
  * Class to manage Timers.
+ *
+ * <p>All timers share a single scheduler thread, and are saved so that they are restored when the
+ * client restarts. Restored timers run in whichever window has the same network and name as the
+ * window they were created in, if it is open.
  */
+@Singleton
 public class TimerManager {
 
+    /** The name of the file timers are saved in. */
+    private static final String TIMERS_FILE = "timers.yml";
+    /** How long to wait before saving timers after they change, in milliseconds. */
+    private static final long SAVE_DELAY = 1000;
     /** Map of all the timers that are running. */
-    private final Map<Integer, TimedCommand> timerList = new HashMap<>();
+    private final Map<Integer, TimedCommand> timerList = new ConcurrentSkipListMap<>();
+    /** The next key to give to a timer. */
+    private final AtomicInteger nextKey = new AtomicInteger();
+    /** Whether timers have changed since they were last saved. */
+    private final AtomicBoolean savePending = new AtomicBoolean();
+    /** The number of times timers have run, and skipped running as their window wasn't open. */
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder skippedRuns = new LongAdder();
+    /** The total and maximum drift of all runs, in nanoseconds. */
+    private final LongAdder totalDrift = new LongAdder();
+    private final AtomicLong maxDrift = new AtomicLong();
+    /** The total and maximum execution time of all runs, in nanoseconds. */
+    private final LongAdder totalLatency = new LongAdder();
+    private final AtomicLong maxLatency = new AtomicLong();
     /** The timer factory to create timers with. */
     private final TimerFactory timerFactory;
+    /** The store to save timers in. */
+    private final TimerYamlStore store;
+    /** The window manager to find windows for restored timers with. */
+    private final WindowManager windowManager;
+    /** The file to save timers in. */
+    private final Path path;
 
     @Inject
-    public TimerManager(final TimerFactory timerFactory) {
+    public TimerManager(final TimerFactory timerFactory, final TimerYamlStore store,
+            final WindowManager windowManager, @Directory(DirectoryType.BASE) final Path path) {
         this.timerFactory = timerFactory;
+        this.store = store;
+        this.windowManager = windowManager;
+        this.path = path.resolve(TIMERS_FILE);
+    }
+
+    /**
+     * Restores any saved timers and starts them.
+     */
+    public void load() {
+        for (StoredTimer stored : store.readTimers(path)) {
+            final TimedCommand timedCommand = new TimedCommand(this, stored.getId(),
+                    stored.getRepetitions(), stored.getInterval(), stored.getCommand(),
+                    stored.getNetwork(), stored.getWindowName());
+            timerList.put(stored.getId(), timedCommand);
+            nextKey.accumulateAndGet(stored.getId() + 1, Math::max);
+            timedCommand.schedule(timerFactory);
+        }
+    }
+
+    /**
+     * Saves and stops all timers.
+     */
+    public void unload() {
+        save();
+        timerFactory.shutdown();
+        timerList.clear();
     }
 
     /**
      * Adds a timer to the internal list and starts the timer.
      *
      * @param repetitions Amount of times the timer repeats
-     * @param interval    Interval between repetitions
+     * @param interval    Interval between repetitions, in milliseconds
      * @param command     Command to be run when the timer fires
      * @param origin      The frame container to use for the execution
      */
-    public void addTimer(final int repetitions, final int interval,
+    public void addTimer(final int repetitions, final long interval,
             final String command, final WindowModel origin) {
-
-        synchronized (this) {
-            final int timerKey = findFreeKey();
-            final TimedCommand timedCommand = new TimedCommand(this, timerKey,
-                    repetitions, interval, command, origin);
-            timerList.put(timerKey, timedCommand);
-            timedCommand.schedule(timerFactory);
-        }
+        final int timerKey = nextKey.getAndIncrement();
+        final TimedCommand timedCommand = new TimedCommand(this, timerKey,
+                repetitions, interval, command, origin);
+        timerList.put(timerKey, timedCommand);
+        timedCommand.schedule(timerFactory);
+        scheduleSave();
     }
 
     /**
@@ -68,7 +135,9 @@ public class TimerManager {
      * @param timerKey Key of the timer to remove
      */
     public void removeTimer(final int timerKey) {
-        timerList.remove(timerKey);
+        if (timerList.remove(timerKey) != null) {
+            scheduleSave();
+        }
     }
 
     /**
@@ -89,19 +158,6 @@ public class TimerManager {
         return timerList.keySet();
     }
 
-    /**
-     * Locates a key in our list that is currently not being used by a timer.
-     *
-     * @return Returns a key that can be used for creating a new timer
-     */
-    private int findFreeKey() {
-        int i = 0;
-        while (timerList.containsKey(i)) {
-            i++;
-        }
-        return i;
-    }
-
     /**
      * Matches a Timer ID to a Timer. This will return null if there is no Timer with the provided
      * ID.
@@ -125,4 +181,99 @@ public class TimerManager {
         return timerList.containsKey(id);
     }
 
+    /**
+     * Finds an open window with the given network and name.
+     *
+     * @param network The network of the window, or an empty string if it has no connection
+     * @param name    The name of the window
+     *
+     * @return The window, if it is open
+     */
+    public Optional<WindowModel> findWindow(final String network, final String name) {
+        for (WindowModel window : windowManager.getRootWindows()) {
+            if (isWindow(window, network, name)) {
+                return Optional.of(window);
+            }
+            for (WindowModel child : windowManager.getChildren(window)) {
+                if (isWindow(child, network, name)) {
+                    return Optional.of(child);
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Records that a timer has run.
+     *
+     * @param drift   How late the run started, in nanoseconds
+     * @param latency How long the command took to execute, in nanoseconds
+     */
+    public void timerRan(final long drift, final long latency) {
+        runs.increment();
+        totalDrift.add(drift);
+        maxDrift.accumulateAndGet(drift, Math::max);
+        totalLatency.add(latency);
+        maxLatency.accumulateAndGet(latency, Math::max);
+    }
+
+    /**
+     * Records that a timer skipped a run, as its window wasn't open.
+     */
+    public void timerSkipped() {
+        skippedRuns.increment();
+    }
+
+    public long getRuns() {
+        return runs.sum();
+    }
+
+    public long getSkippedRuns() {
+        return skippedRuns.sum();
+    }
+
+    public long getTotalDrift() {
+        return totalDrift.sum();
+    }
+
+    public long getMaxDrift() {
+        return maxDrift.get();
+    }
+
+    public long getTotalLatency() {
+        return totalLatency.sum();
+    }
+
+    public long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    /**
+     * Saves timers on the scheduler thread shortly, so that many changes at once only result in
+     * one save.
+     */
+    private void scheduleSave() {
+        if (savePending.compareAndSet(false, true)) {
+            timerFactory.getScheduler().schedule(this::save, SAVE_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Saves all current timers.
+     */
+    private void save() {
+        savePending.set(false);
+        store.writeTimers(path, timerList.entrySet().stream()
+                .map(entry -> new StoredTimer(entry.getKey(), entry.getValue().getRepetitions(),
+                        entry.getValue().getInterval(), entry.getValue().getCommand(),
+                        entry.getValue().getNetwork(), entry.getValue().getWindowName()))
+                .collect(Collectors.toList()));
+    }
+
+    private static boolean isWindow(final WindowModel window, final String network,
+            final String name) {
+        return window.getName().equals(name)
+                && window.getConnection().map(Connection::getNetwork).orElse("").equals(network);
+    }
+
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.time;
+
+import com.dmdirc.util.io.yaml.BaseYamlStore;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.dmdirc.util.io.yaml.YamlReaderUtils.asMap;
+import static com.dmdirc.util.io.yaml.YamlReaderUtils.requiredString;
+
+/**
+ * Stores timers so that they can be restored when the client restarts.
+ */
+@Singleton
+public class TimerYamlStore extends BaseYamlStore<TimerYamlStore.StoredTimer> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimerYamlStore.class);
+
+    @Inject
+    public TimerYamlStore() {
+    }
+
+    public Collection<StoredTimer> readTimers(final Path path) {
+        return read(path);
+    }
+
+    public void writeTimers(final Path path, final Collection<StoredTimer> timers) {
+        write(path, timers);
+    }
+
+    @Override
+    protected Optional<StoredTimer> convertFromYaml(final Object object) {
+        try {
+            final Map<Object, Object> map = asMap(object);
+            return Optional.of(new StoredTimer(
+                    Integer.parseInt(requiredString(map, "id")),
+                    Integer.parseInt(requiredString(map, "repetitions")),
+                    Long.parseLong(requiredString(map, "interval")),
+                    requiredString(map, "command"),
+                    requiredString(map, "network"),
+                    requiredString(map, "window")));
+        } catch (IllegalArgumentException ex) {
+            LOG.info("Unable to read timer", ex);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    protected Object convertToYaml(final StoredTimer object) {
+        final Map<Object, Object> map = new HashMap<>();
+        map.put("id", String.valueOf(object.getId()));
+        map.put("repetitions", String.valueOf(object.getRepetitions()));
+        map.put("interval", String.valueOf(object.getInterval()));
+        map.put("command", object.getCommand());
+        map.put("network", object.getNetwork());
+        map.put("window", object.getWindowName());
+        return map;
+    }
+
+    /** A timer that has been stored. */
+    public static class StoredTimer {
+
+        private final int id;
+        private final int repetitions;
+        private final long interval;
+        private final String command;
+        private final String network;
+        private final String windowName;
+
+        public StoredTimer(final int id, final int repetitions, final long interval,
+                final String command, final String network, final String windowName) {
+            this.id = id;
+            this.repetitions = repetitions;
+            this.interval = interval;
+            this.command = command;
+            this.network = network;
+            this.windowName = windowName;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public int getRepetitions() {
+            return repetitions;
+        }
+
+        public long getInterval() {
+            return interval;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public String getNetwork() {
+            return network;
+        }
+
+        public String getWindowName() {
+            return windowName;
+        }
+
+    }
+
+}
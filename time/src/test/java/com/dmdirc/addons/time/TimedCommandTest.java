@@ -22,7 +22,9 @@ import com.dmdirc.interfaces.InputModel;
 import com.dmdirc.interfaces.WindowModel;
 
 import java.util.Optional;
-import java.util.Timer;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -31,7 +33,9 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import static junit.framework.TestCase.assertEquals;
-import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -45,22 +49,25 @@ public class TimedCommandTest {
     @Mock private InputModel inputModel;
     @Mock private CommandParser commandParser;
     @Mock private TimerFactory timerFactory;
-    @Mock private Timer timer;
+    @Mock private ScheduledExecutorService scheduler;
+    @Mock private ScheduledFuture<?> timer;
 
     private TimedCommand instance;
 
     @Before
     public void setUp() throws Exception {
-        when(timerFactory.getTimer(anyString())).thenReturn(timer);
+        when(timerFactory.getScheduler()).thenReturn(scheduler);
+        doReturn(timer).when(scheduler).scheduleAtFixedRate(any(Runnable.class), anyLong(),
+                anyLong(), any(TimeUnit.class));
         when(origin.getInputModel()).thenReturn(Optional.of(inputModel));
         when(inputModel.getCommandParser()).thenReturn(commandParser);
-        instance = new TimedCommand(timerManager, 1, 2, 3, "command", origin);
+        instance = new TimedCommand(timerManager, 1, 2, 3000, "command", origin);
     }
 
     @Test
     public void testSchedule() throws Exception {
         instance.schedule(timerFactory);
-        verify(timer).schedule(instance, 3000, 3000);
+        verify(scheduler).scheduleAtFixedRate(instance, 3000, 3000, TimeUnit.MILLISECONDS);
     }
 
     @Test
@@ -79,7 +86,7 @@ public class TimedCommandTest {
         instance.schedule(timerFactory);
         instance.cancelTimer();
         verify(timerManager).removeTimer(1);
-        verify(timer).cancel();
+        verify(timer).cancel(false);
     }
 
     @Test
@@ -87,7 +94,7 @@ public class TimedCommandTest {
         instance.run();
         verify(commandParser, never()).parseCommand(origin, "command");
         verify(timerManager, never()).removeTimer(1);
-        verify(timer, never()).cancel();
+        verify(timer, never()).cancel(false);
     }
 
     @Test
@@ -96,7 +103,7 @@ public class TimedCommandTest {
         instance.run();
         verify(commandParser, times(1)).parseCommand(origin, "command");
         verify(timerManager, never()).removeTimer(1);
-        verify(timer, never()).cancel();
+        verify(timer, never()).cancel(false);
     }
 
     @Test
@@ -106,6 +113,35 @@ public class TimedCommandTest {
         instance.run();
         verify(commandParser, times(2)).parseCommand(origin, "command");
         verify(timerManager, times(1)).removeTimer(1);
-        verify(timer, times(1)).cancel();
+        verify(timer, times(1)).cancel(false);
+    }
+
+    @Test
+    public void testRun_RecordsStatistics() throws Exception {
+        instance.schedule(timerFactory);
+        instance.run();
+        assertEquals(1, instance.getRuns());
+        assertEquals(1, instance.getRepetitions());
+        verify(timerManager).timerRan(anyLong(), anyLong());
+    }
+
+    @Test
+    public void testRun_SkipsWithoutWindow() throws Exception {
+        when(timerManager.findWindow("network", "#channel")).thenReturn(Optional.empty());
+        instance = new TimedCommand(timerManager, 1, 2, 3000, "command", "network", "#channel");
+        instance.schedule(timerFactory);
+        instance.run();
+        verify(commandParser, never()).parseCommand(origin, "command");
+        verify(timerManager).timerSkipped();
+        assertEquals(2, instance.getRepetitions());
+    }
+
+    @Test
+    public void testRun_FindsWindow() throws Exception {
+        when(timerManager.findWindow("network", "#channel")).thenReturn(Optional.of(origin));
+        instance = new TimedCommand(timerManager, 1, 2, 3000, "command", "network", "#channel");
+        instance.schedule(timerFactory);
+        instance.run();
+        verify(commandParser).parseCommand(origin, "command");
     }
 }
\ No newline at end of file
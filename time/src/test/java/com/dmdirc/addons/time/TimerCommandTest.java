@@ -186,22 +186,52 @@ public class TimerCommandTest {
         mockCommandArguments("1", "0", "woop");
         instance.execute(frameContainer, commandArguments, commandContext);
         verify(eventbus).publishAsync(errorEventCaptor.capture());
-        assertEquals("Cannot use intervals below 1", errorEventCaptor.getValue().getMessage());
+        assertEquals("Cannot use intervals below 1ms", errorEventCaptor.getValue().getMessage());
     }
 
     @Test
     public void testExecute_add() throws Exception {
         mockCommandArguments("1", "1", "woop");
         instance.execute(frameContainer, commandArguments, commandContext);
-        verify(timerManager).addTimer(1, 1, "woop", frameContainer);
+        verify(timerManager).addTimer(1, 1000, "woop", frameContainer);
         verify(eventbus).publishAsync(outputEventCaptor.capture());
         assertEquals("Command scheduled.", outputEventCaptor.getValue().getMessage());
     }
 
+    @Test
+    public void testExecute_add_milliseconds() throws Exception {
+        mockCommandArguments("1", "250ms", "woop");
+        instance.execute(frameContainer, commandArguments, commandContext);
+        verify(timerManager).addTimer(1, 250, "woop", frameContainer);
+    }
+
+    @Test
+    public void testExecute_add_fractional_seconds() throws Exception {
+        mockCommandArguments("1", "1.5", "woop");
+        instance.execute(frameContainer, commandArguments, commandContext);
+        verify(timerManager).addTimer(1, 1500, "woop", frameContainer);
+    }
+
+    @Test
+    public void testExecute_stats() throws Exception {
+        when(timerManager.listTimers()).thenReturn(
+                ImmutableMap.<Integer, TimedCommand>builder().put(1, timer).build().entrySet());
+        when(timerManager.getRuns()).thenReturn(2L);
+        when(timerManager.getTotalDrift()).thenReturn(3000000L);
+        mockCommandArguments("--stats", "", "");
+        instance.execute(frameContainer, commandArguments, commandContext);
+        verify(eventbus, times(3)).publishAsync(outputEventCaptor.capture());
+        assertEquals("1 active timers, 2 runs, 0 skipped",
+                outputEventCaptor.getAllValues().get(0).getMessage());
+        assertEquals(String.format("Drift: average %.1fms, max %.1fms - "
+                + "Execution: average %.1fms, max %.1fms", 1.5, 0.0, 0.0, 0.0),
+                outputEventCaptor.getAllValues().get(1).getMessage());
+    }
+
     @Test
     public void testGetSuggestions_first() throws Exception {
         final AdditionalTabTargets targets = instance.getSuggestions(0, intelligentCommandContext);
-        assertEquals(Lists.newArrayList("--list", "--cancel"), targets);
+        assertEquals(Lists.newArrayList("--list", "--stats", "--cancel"), targets);
     }
 
     @Test
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_swing;
+
+import com.dmdirc.config.binding.BasicInvocation;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * ConfigBinder Invocation that queues the update to run on the EDT, without waiting for it. If a
+ * setting changes again before the update has run, only the latest value is applied.
+ */
+public class AsyncEDTInvocation extends BasicInvocation {
+
+    @Override
+    public void invoke(final Field field, final Object instance, final Object value) {
+        EdtEventQueue.getInstance().post(getName(field.getDeclaringClass(), field.getName()),
+                new EdtEventQueue.Key(AsyncEDTInvocation.class, instance, field, null),
+                () -> AsyncEDTInvocation.super.invoke(field, instance, value));
+    }
+
+    @Override
+    public void invoke(final Method method, final Object instance, final Object value) {
+        EdtEventQueue.getInstance().post(getName(method.getDeclaringClass(), method.getName()),
+                new EdtEventQueue.Key(AsyncEDTInvocation.class, instance, method, null),
+                () -> AsyncEDTInvocation.super.invoke(method, instance, value));
+    }
+
+    private static String getName(final Class<?> type, final String member) {
+        return type.getSimpleName() + '.' + member;
+    }
+
+}
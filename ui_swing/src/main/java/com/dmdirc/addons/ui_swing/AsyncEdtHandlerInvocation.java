@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_swing;
+
+import java.lang.reflect.Method;
+
+import net.engio.mbassy.bus.MessagePublication;
+import net.engio.mbassy.dispatch.ReflectiveHandlerInvocation;
+import net.engio.mbassy.subscription.SubscriptionContext;
+
+/**
+ * Handler invocation that queues the handler to run on the Swing EDT, without waiting for it.
+ *
+ * <p>Unlike {@link EdtHandlerInvocation}, the thread publishing the event is never blocked by the
+ * EDT. Calls are run in the order they were published, batched with other calls made within the
+ * same frame by {@link EdtEventQueue}. Handlers can be annotated as follows:
+ *
+ * <pre><code>@Handler(invocation = AsyncEdtHandlerInvocation.class)</code></pre>
+ *
+ * <p>Handlers must not rely on the publisher waiting for them, and must not read state from the
+ * event that may have changed by the time they run. If only the latest event for each window
+ * matters, use {@link CoalescingEdtHandlerInvocation} instead.
+ */
+public class AsyncEdtHandlerInvocation extends ReflectiveHandlerInvocation {
+
+    /** Name of the handler, used for statistics. */
+    private final String name;
+
+    public AsyncEdtHandlerInvocation(final SubscriptionContext context) {
+        super(context);
+        final Method method = context.getHandler().getMethod();
+        name = method.getDeclaringClass().getSimpleName() + '.' + method.getName();
+    }
+
+    @Override
+    public void invoke(final Object listener, final Object message,
+            final MessagePublication publication) {
+        EdtEventQueue.getInstance().post(name, getKey(listener, message),
+                () -> AsyncEdtHandlerInvocation.super.invoke(listener, message, publication));
+    }
+
+    /**
+     * Gets the key used to coalesce calls to the handler.
+     *
+     * @param listener The listener the handler belongs to
+     * @param message  The event being handled
+     *
+     * @return The key for the call, or null if it should not be coalesced
+     */
+    protected Object getKey(final Object listener, final Object message) {
+        return null;
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_swing;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import net.engio.mbassy.subscription.SubscriptionContext;
+
+/**
+ * Handler invocation that queues the handler to run on the Swing EDT, discarding any earlier call
+ * for the same listener, event type and window that hasn't run yet.
+ *
+ * <p>This is suitable for handlers that only care about the latest state, such as unread status
+ * or title changes, where a burst of events only needs to be handled once. Handlers that apply
+ * each event as a change, such as a user joining a channel, should use
+ * {@link AsyncEdtHandlerInvocation}. Handlers can be annotated as follows:
+ *
+ * <pre><code>@Handler(invocation = CoalescingEdtHandlerInvocation.class)</code></pre>
+ *
+ * <p>The window an event relates to is found from its {@code getSource}, {@code getContainer},
+ * {@code getChannel} or {@code getWindow} method, whichever is found first. Events without any of
+ * these are coalesced by type alone.
+ */
+public class CoalescingEdtHandlerInvocation extends AsyncEdtHandlerInvocation {
+
+    /** Names of methods that may return the window an event relates to, in order. */
+    private static final String[] WINDOW_GETTERS =
+            {"getSource", "getContainer", "getChannel", "getWindow"};
+    /** Getter for the window of each event class, or null if it has none. */
+    private static final ClassValue<MethodHandle> WINDOW_GETTER = new ClassValue<MethodHandle>() {
+        @Override
+        protected MethodHandle computeValue(final Class<?> type) {
+            return findWindowGetter(type);
+        }
+    };
+
+    public CoalescingEdtHandlerInvocation(final SubscriptionContext context) {
+        super(context);
+    }
+
+    @Override
+    protected Object getKey(final Object listener, final Object message) {
+        return new EdtEventQueue.Key(this, listener, message.getClass(), getWindow(message));
+    }
+
+    private static Object getWindow(final Object message) {
+        final MethodHandle getter = WINDOW_GETTER.get(message.getClass());
+        if (getter == null) {
+            return null;
+        }
+        try {
+            return (Object) getter.invokeExact(message);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException("Unable to get window for " + message, ex);
+        }
+    }
+
+    private static MethodHandle findWindowGetter(final Class<?> type) {
+        for (String name : WINDOW_GETTERS) {
+            try {
+                final Method method = type.getMethod(name);
+                if (!Modifier.isStatic(method.getModifiers())) {
+                    return MethodHandles.publicLookup().unreflect(method)
+                            .asType(MethodType.methodType(Object.class, Object.class));
+                }
+            } catch (NoSuchMethodException | IllegalAccessException ex) {
+                // Try the next one
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_swing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.dmdirc.util.LogUtils.APP_ERROR;
+
+/**
+ * Queues tasks to run on the EDT, running everything posted within a frame interval as a single
+ * batch.
+ *
+ * <p>Tasks may be posted with a key; if a task with the same key is still waiting to run, it is
+ * replaced by the new task, which keeps the original task's place in the queue so that it still
+ * runs in order with tasks posted around it. This lets bursts of events where only the latest
+ * matters (such as repeated unread status changes for one window) cost a single call on the EDT.
+ *
+ * <p>Tasks posted from the EDT run immediately, after anything already queued, so handlers
+ * triggered by Swing itself behave as if they were called synchronously.
+ *
+ * <p>The number of calls, coalesced calls, time spent on the EDT and time spent waiting in the
+ * queue are recorded for each handler.
+ */
+public final class EdtEventQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EdtEventQueue.class);
+    /** Time to wait before running posted tasks, in milliseconds. */
+    private static final int FRAME_INTERVAL = 16;
+    /** Time a single task can take before it's reported as slow, in milliseconds. */
+    private static final long SLOW_TASK = 100;
+    /** The queue shared by all EDT invocations. */
+    private static final EdtEventQueue INSTANCE = new EdtEventQueue();
+    /** Tasks waiting to run, by key. */
+    private final Map<Object, Task> pending = new LinkedHashMap<>();
+    /** Statistics for each handler that has posted tasks. */
+    private final Map<String, HandlerStats> handlers = new HashMap<>();
+    /** Timer used to run the queue once per frame. */
+    private final Timer timer;
+    /** Whether the timer has been started for the current batch. */
+    private boolean scheduled;
+    /** Largest number of tasks that have been waiting at once. */
+    private int maxDepth;
+    /** Number of batches that have been run. */
+    private long batches;
+
+    private EdtEventQueue() {
+        timer = new Timer(FRAME_INTERVAL, e -> flush());
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Gets the queue shared by all EDT invocations.
+     *
+     * @return The shared queue
+     */
+    public static EdtEventQueue getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Posts a task to run on the EDT.
+     *
+     * @param handler Name of the handler posting the task, used for statistics
+     * @param key     Key used to coalesce tasks, or null to always run the task
+     * @param task    The task to run
+     */
+    public void post(final String handler, final Object key, final Runnable task) {
+        final boolean start;
+        synchronized (this) {
+            final HandlerStats stats = handlers.computeIfAbsent(handler, k -> new HandlerStats());
+            stats.posted++;
+            final Task previous = key == null ? null : pending.get(key);
+            if (previous != null) {
+                stats.coalesced++;
+            }
+            // Replacing an existing key keeps its position in the queue. Coalesced tasks also keep
+            // the original post time, so latency covers the whole wait.
+            pending.put(key == null ? new Object() : key, new Task(handler, task,
+                    previous == null ? System.nanoTime() : previous.posted));
+            maxDepth = Math.max(maxDepth, pending.size());
+            start = !scheduled;
+            scheduled = true;
+        }
+
+        if (SwingUtilities.isEventDispatchThread()) {
+            flush();
+        } else if (start) {
+            timer.restart();
+        }
+    }
+
+    /**
+     * Runs all queued tasks. Must be called on the EDT.
+     */
+    public void flush() {
+        final List<Task> batch;
+        synchronized (this) {
+            scheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending.values());
+            pending.clear();
+            batches++;
+        }
+
+        for (Task task : batch) {
+            final long start = System.nanoTime();
+            try {
+                task.task.run();
+            } catch (RuntimeException ex) {
+                LOG.error(APP_ERROR, "Error running EDT handler {}", task.handler, ex);
+            }
+            final long end = System.nanoTime();
+            final long time = end - start;
+            synchronized (this) {
+                handlers.get(task.handler).ran(time, start - task.posted);
+            }
+            if (TimeUnit.NANOSECONDS.toMillis(time) >= SLOW_TASK) {
+                LOG.debug("EDT handler {} took {}ms", task.handler,
+                        TimeUnit.NANOSECONDS.toMillis(time));
+            }
+        }
+    }
+
+    public synchronized int getQueueDepth() {
+        return pending.size();
+    }
+
+    public synchronized int getMaxQueueDepth() {
+        return maxDepth;
+    }
+
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    /**
+     * Gets a summary of each handler's calls, with the handlers that have spent the most time on
+     * the EDT first.
+     *
+     * @return Human-readable statistics for each handler
+     */
+    public synchronized List<String> getHandlerStats() {
+        final List<Map.Entry<String, HandlerStats>> entries = new ArrayList<>(handlers.entrySet());
+        entries.sort((e1, e2) -> Long.compare(e2.getValue().totalTime, e1.getValue().totalTime));
+        final List<String> res = new ArrayList<>(entries.size());
+        for (Map.Entry<String, HandlerStats> entry : entries) {
+            res.add(entry.getKey() + ": " + entry.getValue());
+        }
+        return res;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return pending.size() + " queued (max " + maxDepth + "), " + batches + " batches, "
+                + handlers.size() + " handlers";
+    }
+
+    /**
+     * Key used to coalesce tasks. The invoker and target are compared by identity, as listeners
+     * may well consider themselves equal to other instances; the type and window are compared
+     * by equality.
+     */
+    public static final class Key {
+
+        private final Object invoker;
+        private final Object target;
+        private final Object type;
+        private final Object window;
+
+        /**
+         * Creates a new key.
+         *
+         * @param invoker The invocation posting the task
+         * @param target  The object the task is being run for, such as a listener
+         * @param type    The type of task, such as the event class
+         * @param window  The window the task relates to, or null
+         */
+        public Key(final Object invoker, final Object target, final Object type,
+                final Object window) {
+            this.invoker = invoker;
+            this.target = target;
+            this.type = type;
+            this.window = window;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return invoker == other.invoker && target == other.target
+                    && Objects.equals(type, other.type) && Objects.equals(window, other.window);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(invoker), System.identityHashCode(target),
+                    type, window);
+        }
+
+    }
+
+    /** A task waiting to run. */
+    private static class Task {
+
+        private final String handler;
+        private final Runnable task;
+        private final long posted;
+
+        Task(final String handler, final Runnable task, final long posted) {
+            this.handler = handler;
+            this.task = task;
+            this.posted = posted;
+        }
+
+    }
+
+    /** Statistics for a single handler. */
+    private static class HandlerStats {
+
+        private long posted;
+        private long coalesced;
+        private long calls;
+        private long totalTime;
+        private long maxTime;
+        private long totalLatency;
+        private long maxLatency;
+
+        void ran(final long time, final long latency) {
+            calls++;
+            totalTime += time;
+            maxTime = Math.max(maxTime, time);
+            totalLatency += latency;
+            maxLatency = Math.max(maxLatency, latency);
+        }
+
+        @Override
+        public String toString() {
+            final long divisor = Math.max(1, calls);
+            return posted + " posted, " + coalesced + " coalesced, " + calls + " run, "
+                    + TimeUnit.NANOSECONDS.toMicros(totalTime / divisor) + "us mean/"
+                    + TimeUnit.NANOSECONDS.toMicros(maxTime) + "us max on EDT, "
+                    + TimeUnit.NANOSECONDS.toMicros(totalLatency / divisor) + "us mean/"
+                    + TimeUnit.NANOSECONDS.toMicros(maxLatency) + "us max queued";
+        }
+
+    }
+
+}
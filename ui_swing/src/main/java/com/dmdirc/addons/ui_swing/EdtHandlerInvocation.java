@@ -34,6 +34,9 @@ import net.engio.mbassy.subscription.SubscriptionContext;
  * <pre><code>@Handler(
  *     invocation = EdtHandlerInvocation.class,
  *     delivery = Invoke.Asynchronously)</code></pre>
+ *
+ * <p>To avoid blocking the publishing thread on the EDT altogether, use
+ * {@link AsyncEdtHandlerInvocation} or {@link CoalescingEdtHandlerInvocation}.
  */
 public class EdtHandlerInvocation extends ReflectiveHandlerInvocation {
 
@@ -517,7 +517,7 @@ public class MainFrame extends JFrame implements WindowListener, ConfigChangeLis
         }
     }
 
-    @Handler(invocation = EdtHandlerInvocation.class)
+    @Handler(invocation = CoalescingEdtHandlerInvocation.class)
     public void titleChanged(final FrameTitleChangedEvent event) {
         checkOnEDT();
         activeFrame.map(TextFrame::getContainer)
@@ -525,7 +525,7 @@ public class MainFrame extends JFrame implements WindowListener, ConfigChangeLis
                 .ifPresent(c -> setTitle(event.getTitle()));
     }
 
-    @Handler(invocation = EdtHandlerInvocation.class)
+    @Handler(invocation = CoalescingEdtHandlerInvocation.class)
     public void unreadStatusChanged(final UnreadStatusChangedEvent event) {
         checkOnEDT();
         activeFrame.map(TextFrame::getContainer)
@@ -22,6 +22,7 @@ import com.dmdirc.addons.ui_swing.commands.Input;
 import com.dmdirc.addons.ui_swing.commands.PopInCommand;
 import com.dmdirc.addons.ui_swing.commands.PopOutCommand;
 import com.dmdirc.addons.ui_swing.commands.ServerSettings;
+import com.dmdirc.addons.ui_swing.commands.SwingStats;
 import com.dmdirc.addons.ui_swing.framemanager.FrameManagerProvider;
 import com.dmdirc.addons.ui_swing.injection.SwingModule;
 import com.dmdirc.interfaces.ui.UIController;
@@ -54,6 +55,7 @@ public class SwingController extends BaseCommandPlugin implements UIController {
         registerCommand(Input.class, Input.INFO);
         registerCommand(PopOutCommand.class, PopOutCommand.INFO);
         registerCommand(PopInCommand.class, PopInCommand.INFO);
+        registerCommand(SwingStats.class, SwingStats.INFO);
     }
 
     @Override
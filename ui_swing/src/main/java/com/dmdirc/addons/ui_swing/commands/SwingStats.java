@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_swing.commands;
+
+import com.dmdirc.addons.ui_swing.EdtEventQueue;
+import com.dmdirc.addons.ui_swing.SwingWindowFactory;
+import com.dmdirc.addons.ui_swing.UIUtilities;
+import com.dmdirc.addons.ui_swing.components.frames.TextFrame;
+import com.dmdirc.commandparser.BaseCommandInfo;
+import com.dmdirc.commandparser.CommandArguments;
+import com.dmdirc.commandparser.CommandInfo;
+import com.dmdirc.commandparser.CommandType;
+import com.dmdirc.commandparser.commands.BaseCommand;
+import com.dmdirc.commandparser.commands.context.CommandContext;
+import com.dmdirc.interfaces.CommandController;
+import com.dmdirc.interfaces.WindowModel;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+
+/**
+ * Shows statistics about the Swing UI's rendering caches for the current window, and about the
+ * event handlers queued to run on the EDT.
+ */
+public class SwingStats extends BaseCommand {
+
+    /** A command info object for this command. */
+    public static final CommandInfo INFO = new BaseCommandInfo("swingstats",
+            "swingstats - shows statistics about the Swing UI's caches and EDT handlers",
+            CommandType.TYPE_GLOBAL);
+    /** Window factory instance used to get a container's window. */
+    private final SwingWindowFactory windowFactory;
+
+    /**
+     * Creates a new swing stats command.
+     *
+     * @param windowFactory     Window factory to get windows from
+     * @param commandController The controller to use for command information.
+     */
+    @Inject
+    public SwingStats(final SwingWindowFactory windowFactory,
+            final CommandController commandController) {
+        super(commandController);
+        this.windowFactory = windowFactory;
+    }
+
+    @Override
+    public void execute(@Nonnull final WindowModel origin,
+            final CommandArguments args, final CommandContext context) {
+        final TextFrame frame = windowFactory.getSwingWindow(origin);
+        if (frame != null) {
+            showOutput(origin, args.isSilent(), UIUtilities.invokeAndWait(
+                    () -> frame.getTextPane().getLayoutCacheStats()));
+        }
+
+        final EdtEventQueue queue = EdtEventQueue.getInstance();
+        showOutput(origin, args.isSilent(), "EDT event queue: " + queue);
+        for (String stats : queue.getHandlerStats()) {
+            showOutput(origin, args.isSilent(), "    " + stats);
+        }
+    }
+
+}
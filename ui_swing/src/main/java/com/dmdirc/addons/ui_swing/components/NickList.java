@@ -17,8 +17,9 @@
 
 package com.dmdirc.addons.ui_swing.components;
 
+import com.dmdirc.addons.ui_swing.AsyncEdtHandlerInvocation;
+import com.dmdirc.addons.ui_swing.CoalescingEdtHandlerInvocation;
 import com.dmdirc.addons.ui_swing.EDTInvocation;
-import com.dmdirc.addons.ui_swing.EdtHandlerInvocation;
 import com.dmdirc.addons.ui_swing.UIUtilities;
 import com.dmdirc.addons.ui_swing.components.frames.ChannelFrame;
 import com.dmdirc.addons.ui_swing.components.renderers.NicklistRenderer;
@@ -217,14 +218,14 @@ public class NickList extends JScrollPane implements MouseListener {
         nickList.repaint();
     }
 
-    @Handler(invocation = EdtHandlerInvocation.class)
+    @Handler(invocation = CoalescingEdtHandlerInvocation.class)
     public void handleClientsChanged(final NickListClientsChangedEvent event) {
         if (event.getChannel().getWindowModel().equals(frame.getContainer())) {
             nicklistModel.replace(event.getUsers());
         }
     }
 
-    @Handler(invocation = EdtHandlerInvocation.class)
+    @Handler(invocation = CoalescingEdtHandlerInvocation.class)
     public void handleNickListUpdated(final NickListUpdatedEvent event) {
         if (event.getChannel().getWindowModel().equals(frame.getContainer())) {
             nicklistModel.sort();
@@ -232,14 +233,14 @@ public class NickList extends JScrollPane implements MouseListener {
         }
     }
 
-    @Handler(invocation = EdtHandlerInvocation.class)
+    @Handler(invocation = AsyncEdtHandlerInvocation.class)
     public void handleClientAdded(final NickListClientAddedEvent event) {
         if (event.getChannel().getWindowModel().equals(frame.getContainer())) {
             nicklistModel.add(event.getUser());
         }
     }
 
-    @Handler(invocation = EdtHandlerInvocation.class)
+    @Handler(invocation = AsyncEdtHandlerInvocation.class)
     public void handleClientRemoved(final NickListClientRemovedEvent event) {
         if (event.getChannel().getWindowModel().equals(frame.getContainer())) {
             nicklistModel.remove(event.getUser());
@@ -24,18 +24,35 @@ import com.dmdirc.config.provider.ConfigChangeListener;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.swing.AbstractListModel;
 
-/** Stores and provides means to modify nicklist data for a channel. */
+/**
+ * Stores and provides means to modify nicklist data for a channel.
+ *
+ * <p>Users are kept sorted as they are added and removed, using sort keys computed once per user
+ * rather than on every comparison. Changes fire events covering only the affected rows. This model
+ * should only be used from the EDT.
+ */
 public final class NicklistListModel extends AbstractListModel<GroupChatUser> implements
         ConfigChangeListener {
 
     /** A version number for this class. */
-    private static final long serialVersionUID = 1;
-    /** stores the nicknames to be shown in this list. */
-    private final List<GroupChatUser> nicknames;
+    private static final long serialVersionUID = 2;
+    /** The sorted entries shown in this list. */
+    private final List<Entry> entries = new ArrayList<>();
+    /** The entry for each user in the list. */
+    private final Map<GroupChatUser, Entry> users = new HashMap<>();
+    /** The rank of each distinct mode string seen, lowest first. */
+    private final Map<String, Integer> modeRanks = new HashMap<>();
+    /** Distinct mode strings seen, in rank order. */
+    private final List<String> modeOrder = new ArrayList<>();
+    /** Compares entries using their precomputed keys. */
+    private final Comparator<Entry> comparator = this::compare;
     /** Config manager. */
     private final AggregateConfigProvider config;
     /** Sort by mode? */
@@ -49,7 +66,7 @@ public final class NicklistListModel extends AbstractListModel<GroupChatUser> im
      * @param config Config manager
      */
     public NicklistListModel(final AggregateConfigProvider config) {
-        this(config, Collections.synchronizedList(new ArrayList<>()));
+        this(config, Collections.emptyList());
     }
 
     /**
@@ -67,9 +84,8 @@ public final class NicklistListModel extends AbstractListModel<GroupChatUser> im
         sortByCase = config.getOptionBool("nicklist", "sortByCase");
         config.addChangeListener("nicklist", "sortByMode", this);
         config.addChangeListener("nicklist", "sortByCase", this);
-        nicknames = Collections.synchronizedList(newNicknames);
 
-        sort();
+        replace(newNicknames);
     }
 
     /**
@@ -79,7 +95,7 @@ public final class NicklistListModel extends AbstractListModel<GroupChatUser> im
      */
     @Override
     public int getSize() {
-        return nicknames.size();
+        return entries.size();
     }
 
     /**
@@ -91,16 +107,22 @@ public final class NicklistListModel extends AbstractListModel<GroupChatUser> im
      */
     @Override
     public GroupChatUser getElementAt(final int index) {
-        return nicknames.get(index);
+        return entries.get(index).user;
     }
 
     /**
-     * Sorts the nicklist based on settings in the Config.
+     * Re-sorts the nicklist based on settings in the Config, recomputing every user's sort key.
+     * This should be called when users' nicknames or modes change.
      */
     public void sort() {
-        synchronized (nicknames) {
-            nicknames.sort(new NicklistComparator(sortByMode, sortByCase));
+        modeRanks.clear();
+        modeOrder.clear();
+        for (int i = 0; i < entries.size(); i++) {
+            final Entry entry = createEntry(entries.get(i).user);
+            entries.set(i, entry);
+            users.put(entry.user, entry);
         }
+        entries.sort(comparator);
         rerender();
     }
 
@@ -112,9 +134,25 @@ public final class NicklistListModel extends AbstractListModel<GroupChatUser> im
      * @return boolean success
      */
     public boolean replace(final Collection<GroupChatUser> clients) {
-        nicknames.clear();
-        nicknames.addAll(clients);
-        sort();
+        final int oldSize = entries.size();
+        entries.clear();
+        users.clear();
+        modeRanks.clear();
+        modeOrder.clear();
+        for (GroupChatUser client : clients) {
+            final Entry entry = createEntry(client);
+            if (users.put(client, entry) == null) {
+                entries.add(entry);
+            }
+        }
+        entries.sort(comparator);
+
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+        if (!entries.isEmpty()) {
+            fireIntervalAdded(this, 0, entries.size() - 1);
+        }
 
         return true;
     }
@@ -127,8 +165,14 @@ public final class NicklistListModel extends AbstractListModel<GroupChatUser> im
      * @return boolean success
      */
     public boolean add(final GroupChatUser client) {
-        nicknames.add(client);
-        sort();
+        // Re-adding a client updates its position.
+        remove(client);
+
+        final Entry entry = createEntry(client);
+        final int index = findInsertionPoint(entry);
+        entries.add(index, entry);
+        users.put(client, entry);
+        fireIntervalAdded(this, index, index);
 
         return true;
     }
@@ -141,11 +185,13 @@ public final class NicklistListModel extends AbstractListModel<GroupChatUser> im
      * @return boolean success
      */
     public boolean remove(final GroupChatUser client) {
+        final Entry entry = users.get(client);
+        if (entry == null) {
+            return false;
+        }
 
-        final boolean returnValue = nicknames.remove(client);
-        rerender();
-
-        return returnValue;
+        remove(indexOf(entry));
+        return true;
     }
 
     /**
@@ -156,18 +202,20 @@ public final class NicklistListModel extends AbstractListModel<GroupChatUser> im
      * @return ChannelClientInfo client removed
      */
     public GroupChatUser remove(final int index) {
+        final Entry entry = entries.remove(index);
+        users.remove(entry.user);
+        fireIntervalRemoved(this, index, index);
 
-        final GroupChatUser returnValue = nicknames.remove(index);
-        rerender();
-
-        return returnValue;
+        return entry.user;
     }
 
     /**
      * Fires the model changed event forcing the model to re-render.
      */
     public void rerender() {
-        fireContentsChanged(this, 0, nicknames.size());
+        if (!entries.isEmpty()) {
+            fireContentsChanged(this, 0, entries.size() - 1);
+        }
     }
 
     @Override
@@ -184,4 +232,99 @@ public final class NicklistListModel extends AbstractListModel<GroupChatUser> im
         sort();
     }
 
+    private Entry createEntry(final GroupChatUser client) {
+        final String modes = client.getAllModes();
+        if (sortByMode && !modeRanks.containsKey(modes)) {
+            addMode(modes, client.getModeComparator());
+        }
+        final String nickname = client.getNickname();
+        return new Entry(client, modes, sortByCase ? nickname : nickname.toLowerCase());
+    }
+
+    /**
+     * Records a newly seen mode string, and re-ranks all known mode strings. Mode strings that the
+     * comparator considers equal are given the same rank.
+     */
+    private void addMode(final String modes, final Comparator<String> modeComparator) {
+        int index = Collections.binarySearch(modeOrder, modes, modeComparator);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        modeOrder.add(index, modes);
+
+        int rank = 0;
+        for (int i = 0; i < modeOrder.size(); i++) {
+            if (i > 0 && modeComparator.compare(modeOrder.get(i - 1), modeOrder.get(i)) != 0) {
+                rank++;
+            }
+            modeRanks.put(modeOrder.get(i), rank);
+        }
+    }
+
+    private int compare(final Entry entry1, final Entry entry2) {
+        if (sortByMode && !entry1.modes.equals(entry2.modes)) {
+            final int result = Integer.compare(modeRanks.get(entry1.modes),
+                    modeRanks.get(entry2.modes));
+            if (result != 0) {
+                return result;
+            }
+        }
+        return entry1.key.compareTo(entry2.key);
+    }
+
+    /**
+     * Finds the index to insert the given entry at, after any entries that sort equally.
+     */
+    private int findInsertionPoint(final Entry entry) {
+        int low = 0;
+        int high = entries.size();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (comparator.compare(entries.get(mid), entry) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the index of the given entry, which must be in the list.
+     */
+    private int indexOf(final Entry entry) {
+        int index = Collections.binarySearch(entries, entry, comparator);
+        if (index >= 0) {
+            // Several entries may sort equally; find this one among them.
+            while (index > 0 && comparator.compare(entries.get(index - 1), entry) == 0) {
+                index--;
+            }
+            while (index < entries.size() && comparator.compare(entries.get(index), entry) == 0) {
+                if (entries.get(index) == entry) {
+                    return index;
+                }
+                index++;
+            }
+        }
+        return entries.indexOf(entry);
+    }
+
+    /** A user in the list, along with the keys it is sorted by. */
+    private static final class Entry {
+
+        /** The user. */
+        private final GroupChatUser user;
+        /** The user's modes when the entry was created. */
+        private final String modes;
+        /** The user's nickname, case folded unless sorting by case. */
+        private final String key;
+
+        Entry(final GroupChatUser user, final String modes, final String key) {
+            this.user = user;
+            this.modes = modes;
+            this.key = key;
+        }
+
+    }
+
 }
@@ -22,13 +22,12 @@ import com.dmdirc.addons.ui_swing.actions.SearchAction;
 import com.dmdirc.addons.ui_swing.components.frames.InputTextFrame;
 import com.dmdirc.addons.ui_swing.components.frames.TextFrame;
 import com.dmdirc.addons.ui_swing.components.validating.ValidatingJTextField;
+import com.dmdirc.addons.ui_swing.textpane.DocumentSearchIndex;
 import com.dmdirc.addons.ui_swing.textpane.TextPane;
 import com.dmdirc.config.provider.AggregateConfigProvider;
 import com.dmdirc.config.provider.ConfigChangeListener;
 import com.dmdirc.interfaces.ui.SearchBar;
 import com.dmdirc.ui.messages.ColourManager;
-import com.dmdirc.ui.messages.Document;
-import com.dmdirc.ui.messages.IRCDocumentSearcher;
 import com.dmdirc.ui.messages.LinePosition;
 import com.dmdirc.util.collections.ListenerList;
 
@@ -36,6 +35,9 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
@@ -80,6 +82,20 @@ public final class SwingSearchBar extends JPanel implements ActionListener,
     private SearchValidator validator;
     /** Wrap indicator. */
     private JLabel wrapIndicator;
+    /** Matches for the last phrase searched for, in document order. */
+    private List<DocumentSearchIndex.Match> matches = Collections.emptyList();
+    /** The phrase the current matches were found for. */
+    private String matchedText = "";
+    /** Whether the current matches were found case sensitively. */
+    private boolean matchedCaseSensitive;
+    /** Number of background searches started, used to discard out of date results. */
+    private int searchCount;
+    /** The phrase being searched for in the background, or null if no search is running. */
+    private String searchingText;
+    /** Whether the background search is case sensitive. */
+    private boolean searchingCaseSensitive;
+    /** Actions to perform once the background search has finished. */
+    private final List<Runnable> afterSearch = new ArrayList<>();
 
     /**
      * Creates a new instance of StatusBar.
@@ -173,6 +189,7 @@ public final class SwingSearchBar extends JPanel implements ActionListener,
             validator.setValidates(true);
             searchBox.checkError();
             line = parent.getTextPane().getLastVisibleLine();
+            updateMatches();
         }
     }
 
@@ -184,6 +201,7 @@ public final class SwingSearchBar extends JPanel implements ActionListener,
             searchBox.checkError();
             setVisible(true);
             getFocus();
+            updateMatches();
         });
     }
 
@@ -192,6 +210,8 @@ public final class SwingSearchBar extends JPanel implements ActionListener,
     public void close() {
         SwingUtilities.invokeLater(() -> {
             setVisible(false);
+            cancelSearch();
+            setMatches("", false, Collections.emptyList());
             if (parent instanceof InputTextFrame) {
                 ((InputTextFrame) parent).getInputField().
                         requestFocusInWindow();
@@ -218,36 +238,181 @@ public final class SwingSearchBar extends JPanel implements ActionListener,
             final boolean caseSensitive) {
         wrapIndicator.setVisible(false);
 
-        final boolean up = Direction.UP == direction;
+        if (text.equals(matchedText) && caseSensitive == matchedCaseSensitive) {
+            selectMatch(direction);
+        } else {
+            // The background search hasn't finished yet, or was for a different phrase.
+            startSearch(text, caseSensitive, () -> selectMatch(direction));
+        }
+    }
 
+    /**
+     * Selects the closest match in the given direction from the current selection, wrapping
+     * around to the other end of the document if there are none.
+     *
+     * @param direction The direction to look for a match in
+     */
+    private void selectMatch(final Direction direction) {
         final TextPane textPane = parent.getTextPane();
-        final Document document = textPane.getDocument();
-        final IRCDocumentSearcher searcher = new IRCDocumentSearcher(text,
-                document,
-                caseSensitive);
-        searcher.setPosition(textPane.getSelectedRange());
-
-        final LinePosition result = up ? searcher.searchUp() : searcher.
-                searchDown();
-
-        if (result != null) {
-            if ((textPane.getSelectedRange().getEndLine() != 0 || textPane.
-                    getSelectedRange().getEndPos() != 0)
-                    && (up && result.getEndLine() > textPane.getSelectedRange().getEndLine()
-                    || !up && result.getStartLine() < textPane.getSelectedRange().getStartLine())) {
-                wrapIndicator.setVisible(true);
-                textPane.setScrollBarPosition(result.getEndLine());
-                textPane.setSelectedText(result);
-                validator.setValidates(true);
-                searchBox.checkError();
+        final DocumentSearchIndex index = textPane.getSearchIndex();
+        final LinePosition selectedRange = textPane.getSelectedRange();
+        final int match;
+        if (Direction.UP == direction) {
+            match = findMatchBefore(index, index.getLineId(selectedRange.getStartLine()),
+                    selectedRange.getStartPos());
+        } else {
+            match = findMatchAfter(index, index.getLineId(selectedRange.getStartLine()),
+                    selectedRange.getStartPos());
+        }
+
+        if (match == -1) {
+            // Nothing further in that direction; wrap around to the other end.
+            final int wrapped = Direction.UP == direction
+                    ? findMatchBefore(index, Integer.MAX_VALUE, 0)
+                    : findMatchAfter(index, Integer.MIN_VALUE, 0);
+            if (wrapped != -1) {
+                wrapIndicator.setVisible(selectedRange.getStartLine() != -1);
+                selectMatch(index, wrapped);
+            }
+        } else {
+            selectMatch(index, match);
+        }
+    }
+
+    /**
+     * Searches for the text in the search box in the background, and highlights all matches once
+     * found. The closest match above the last visible line is then selected.
+     */
+    private void updateMatches() {
+        final String text = searchBox.getText();
+        final boolean caseSensitive = caseCheck.isSelected();
+        cancelSearch();
+        if (text.isEmpty()) {
+            setMatches(text, caseSensitive, Collections.emptyList());
+            return;
+        }
+
+        startSearch(text, caseSensitive, () -> {
+            final TextPane textPane = parent.getTextPane();
+            final DocumentSearchIndex index = textPane.getSearchIndex();
+            final int anchor = line == -1 ? textPane.getLastVisibleLine() : line;
+            int match = findMatchBefore(index, index.getLineId(anchor + 1), 0);
+            if (match == -1) {
+                match = findMatchAfter(index, Integer.MIN_VALUE, 0);
+            }
+            if (match != -1) {
+                selectMatch(index, match);
+            }
+        });
+    }
+
+    /**
+     * Searches for the given phrase in the background, unless that search is already running, and
+     * performs the given action on the EDT once the matches have been set.
+     *
+     * @param text          The text to search for
+     * @param caseSensitive Whether the search is case sensitive
+     * @param then          The action to perform once the search has finished
+     */
+    private void startSearch(final String text, final boolean caseSensitive,
+            final Runnable then) {
+        if (!text.equals(searchingText) || caseSensitive != searchingCaseSensitive) {
+            cancelSearch();
+            searchingText = text;
+            searchingCaseSensitive = caseSensitive;
+            final int count = searchCount;
+            final DocumentSearchIndex index = parent.getTextPane().getSearchIndex();
+            new SupplierLoggingSwingWorker<List<DocumentSearchIndex.Match>, Void>(
+                    () -> index.search(text, caseSensitive),
+                    result -> {
+                        if (count == searchCount) {
+                            final List<Runnable> actions = new ArrayList<>(afterSearch);
+                            cancelSearch();
+                            setMatches(text, caseSensitive, result);
+                            actions.forEach(Runnable::run);
+                        }
+                    }).execute();
+        }
+        afterSearch.add(then);
+    }
+
+    /**
+     * Discards the results of any background search that is still running, along with the actions
+     * waiting for it.
+     */
+    private void cancelSearch() {
+        searchCount++;
+        searchingText = null;
+        afterSearch.clear();
+    }
+
+    /**
+     * Replaces the current matches, and highlights them in the text pane.
+     */
+    private void setMatches(final String text, final boolean caseSensitive,
+            final List<DocumentSearchIndex.Match> newMatches) {
+        matches = newMatches;
+        matchedText = text;
+        matchedCaseSensitive = caseSensitive;
+        parent.getTextPane().setSearchMatches(newMatches);
+        validator.setValidates(text.isEmpty() || !newMatches.isEmpty());
+        searchBox.checkError();
+    }
+
+    /**
+     * Finds the last match starting before the given position that is still in the document.
+     *
+     * @return The index of the match, or -1 if there is none
+     */
+    private int findMatchBefore(final DocumentSearchIndex index, final int lineId,
+            final int position) {
+        final int match = findFirstMatchNotBefore(lineId, position) - 1;
+        return match < 0 || index.getLineNumber(matches.get(match).getLineId()) == -1
+                ? -1 : match;
+    }
+
+    /**
+     * Finds the first match starting after the given position that is still in the document.
+     *
+     * @return The index of the match, or -1 if there is none
+     */
+    private int findMatchAfter(final DocumentSearchIndex index, final int lineId,
+            final int position) {
+        int match = findFirstMatchNotBefore(lineId, position);
+        while (match < matches.size() && (index.getLineNumber(matches.get(match).getLineId()) == -1
+                || matches.get(match).getLineId() == lineId
+                && matches.get(match).getStart() == position)) {
+            match++;
+        }
+        return match < matches.size() ? match : -1;
+    }
+
+    /**
+     * Binary searches the matches for the first one starting at or after the given position.
+     */
+    private int findFirstMatchNotBefore(final int lineId, final int position) {
+        int low = 0;
+        int high = matches.size();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            final DocumentSearchIndex.Match match = matches.get(mid);
+            if (match.getLineId() < lineId
+                    || match.getLineId() == lineId && match.getStart() < position) {
+                low = mid + 1;
             } else {
-                //found, select and return found
-                textPane.setScrollBarPosition(result.getEndLine());
-                textPane.setSelectedText(result);
-                validator.setValidates(true);
-                searchBox.checkError();
+                high = mid;
             }
         }
+        return low;
+    }
+
+    private void selectMatch(final DocumentSearchIndex index, final int match) {
+        final TextPane textPane = parent.getTextPane();
+        final DocumentSearchIndex.Match found = matches.get(match);
+        final int lineNumber = index.getLineNumber(found.getLineId());
+        textPane.setScrollBarPosition(lineNumber);
+        textPane.setSelectedText(new LinePosition(lineNumber, found.getStart(), lineNumber,
+                found.getEnd()));
     }
 
     /**
@@ -331,6 +496,7 @@ public final class SwingSearchBar extends JPanel implements ActionListener,
         searchBox.checkError();
         nextButton.setEnabled(!searchBox.getText().isEmpty());
         prevButton.setEnabled(!searchBox.getText().isEmpty());
+        updateMatches();
     }
 
     /** {@inheritDoc}. */
@@ -340,6 +506,7 @@ public final class SwingSearchBar extends JPanel implements ActionListener,
         searchBox.checkError();
         nextButton.setEnabled(!searchBox.getText().isEmpty());
         prevButton.setEnabled(!searchBox.getText().isEmpty());
+        updateMatches();
     }
 
     /** {@inheritDoc}. */
@@ -17,7 +17,7 @@
 
 package com.dmdirc.addons.ui_swing.components.frames;
 
-import com.dmdirc.addons.ui_swing.EdtHandlerInvocation;
+import com.dmdirc.addons.ui_swing.CoalescingEdtHandlerInvocation;
 import com.dmdirc.addons.ui_swing.components.IconManager;
 import com.dmdirc.events.FrameIconChangedEvent;
 import com.dmdirc.events.FrameTitleChangedEvent;
@@ -28,7 +28,6 @@ import javax.swing.JFrame;
 import net.miginfocom.swing.MigLayout;
 
 import net.engio.mbassy.listener.Handler;
-import net.engio.mbassy.listener.Invoke;
 
 /**
  * Frame that contains popped out windows
@@ -66,14 +65,14 @@ public class DesktopWindowFrame extends JFrame {
         setVisible(true);
     }
 
-    @Handler(invocation = EdtHandlerInvocation.class, delivery = Invoke.Asynchronously)
+    @Handler(invocation = CoalescingEdtHandlerInvocation.class)
     public void iconChanged(final FrameIconChangedEvent event) {
         if (event.getContainer().equals(windowWindow.getContainer())) {
             setIconImage(iconManager.getImage(event.getIcon()));
         }
     }
 
-    @Handler(invocation = EdtHandlerInvocation.class, delivery = Invoke.Asynchronously)
+    @Handler(invocation = CoalescingEdtHandlerInvocation.class)
     public void titleChanged(final FrameTitleChangedEvent event) {
         if (event.getContainer().equals(windowWindow.getContainer())) {
             setTitle(event.getTitle());
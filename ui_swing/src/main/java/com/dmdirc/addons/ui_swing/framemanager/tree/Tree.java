@@ -146,6 +146,18 @@ public class Tree extends JTree implements MouseMotionListener, MouseListener, A
         return node;
     }
 
+    /**
+     * Repaints the row showing the given node, if it is visible.
+     *
+     * @param node The node to repaint
+     */
+    public void repaintNode(final TreeViewNode node) {
+        final Rectangle bounds = getPathBounds(new TreePath(node.getPath()));
+        if (bounds != null) {
+            repaint(0, bounds.y, getWidth(), bounds.height);
+        }
+    }
+
     @ConfigBinding(key = "dragSelection", invocation = EDTInvocation.class)
     public void handleDragSelection(final String value) {
         dragSelect = config.getOptionBool("treeview", "dragSelection");
@@ -17,6 +17,8 @@
 
 package com.dmdirc.addons.ui_swing.framemanager.tree;
 
+import com.dmdirc.addons.ui_swing.CoalescingEdtHandlerInvocation;
+import com.dmdirc.addons.ui_swing.EdtEventQueue;
 import com.dmdirc.addons.ui_swing.EdtHandlerInvocation;
 import com.dmdirc.addons.ui_swing.SwingController;
 import com.dmdirc.addons.ui_swing.SwingWindowFactory;
@@ -32,6 +34,7 @@ import com.dmdirc.addons.ui_swing.framemanager.FrameManager;
 import com.dmdirc.addons.ui_swing.interfaces.ActiveFrameManager;
 import com.dmdirc.config.GlobalConfig;
 import com.dmdirc.events.FrameIconChangedEvent;
+import com.dmdirc.events.FrameNameChangedEvent;
 import com.dmdirc.events.UnreadStatusChangedEvent;
 import com.dmdirc.events.eventbus.EventBus;
 import com.dmdirc.interfaces.WindowModel;
@@ -45,8 +48,10 @@ import java.awt.Color;
 import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import javax.inject.Inject;
 import javax.swing.JComponent;
@@ -60,13 +65,17 @@ import javax.swing.tree.MutableTreeNode;
 import javax.swing.tree.TreeNode;
 import javax.swing.tree.TreePath;
 import net.engio.mbassy.listener.Handler;
-import net.engio.mbassy.listener.Invoke;
 import net.miginfocom.swing.MigLayout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Manages open windows in the application in a tree style view.
+ *
+ * <p>Windows being added and removed are queued and applied to the tree in batches, at most once
+ * per frame, so opening or closing many windows at once doesn't stall the event bus or the EDT.
+ * Changes to a single node (unread status, rollover, name and icon) only repaint that node's row,
+ * and apply any queued changes first so they're never lost for a node that hasn't been added yet.
  */
 public class TreeFrameManager implements FrameManager, Serializable, ConfigChangeListener {
 
@@ -97,6 +106,12 @@ public class TreeFrameManager implements FrameManager, Serializable, ConfigChang
     private TreeViewModel model;
     /** Tree scroller. */
     private TreeScroller scroller;
+    /** Changes to the tree's structure waiting to be applied on the EDT, in order. */
+    private final List<Runnable> pendingChanges = new ArrayList<>();
+    /** The last node added while applying changes, which will be scrolled to. */
+    private TreeViewNode scrollTarget;
+    /** The node the mouse is currently over, if any. */
+    private TreeViewNode rolloverNode;
 
     @Inject
     public TreeFrameManager(final WindowManager windowManager,
@@ -167,70 +182,123 @@ public class TreeFrameManager implements FrameManager, Serializable, ConfigChang
 
     @Handler
     public void doAddWindow(final SwingWindowAddedEvent event) {
-        final TextFrame parent = event.getParentWindow().orElse(null);
-        final TextFrame window = event.getChildWindow();
-        if (nodes.containsKey(window)) {
-            return;
-        }
-        if (parent == null) {
-            addWindow(model.getRootNode(), window);
-        } else {
-            addWindow(nodes.get(parent), window);
-        }
-    }
-
-    @Handler
-    public void doDeleteWindow(final SwingWindowDeletedEvent event) {
-        final TextFrame window = event.getChildWindow();
-        UIUtilities.invokeAndWait(() -> {
-            if (nodes.get(window) == null) {
+        queueChange(() -> {
+            final TextFrame parent = event.getParentWindow().orElse(null);
+            final TextFrame window = event.getChildWindow();
+            if (nodes.containsKey(window)) {
                 return;
             }
-            final DefaultMutableTreeNode node = nodes.get(window);
-            if (node.getLevel() == 0) {
-                LOG.warn(LogUtils.USER_ERROR, "delServer triggered for root node {}",
-                        node, new IllegalArgumentException());
+            if (parent == null) {
+                scrollTarget = addWindow(model.getRootNode(), window);
             } else {
-                model.removeNodeFromParent(nodes.get(window));
-            }
-            synchronized (nodes) {
-                eventBus.unsubscribe(nodes.get(window).getLabel());
-                nodes.remove(window);
+                scrollTarget = addWindow(nodes.get(parent), window);
             }
         });
     }
 
+    @Handler
+    public void doDeleteWindow(final SwingWindowDeletedEvent event) {
+        queueChange(() -> deleteWindow(event.getChildWindow()));
+    }
+
     /**
-     * Adds a window to the frame container.
+     * Queues a change to the tree's structure, to be applied on the EDT with any other changes
+     * made in the same frame.
+     *
+     * @param change The change to apply
+     */
+    private void queueChange(final Runnable change) {
+        synchronized (pendingChanges) {
+            pendingChanges.add(change);
+        }
+        EdtEventQueue.getInstance().post("TreeFrameManager.applyChanges",
+                new EdtEventQueue.Key(TreeFrameManager.class, this, "changes", null),
+                this::applyChanges);
+    }
+
+    /**
+     * Applies any queued changes to the tree's structure. Must be called on the EDT.
+     */
+    private void applyChanges() {
+        final List<Runnable> changes;
+        synchronized (pendingChanges) {
+            changes = new ArrayList<>(pendingChanges);
+            pendingChanges.clear();
+        }
+        scrollTarget = null;
+        changes.forEach(Runnable::run);
+        if (scrollTarget != null) {
+            scrollToNode(scrollTarget);
+            scrollTarget = null;
+        }
+    }
+
+    /**
+     * Adds a window to the tree. Must be called on the EDT.
      *
      * @param parent Parent node
      * @param window Window to add
+     *
+     * @return The node added for the window
      */
-    public void addWindow(final MutableTreeNode parent, final TextFrame window) {
-        UIUtilities.invokeAndWait(() -> {
-            final NodeLabel label = new NodeLabel(window, iconManager, getForegroundColour());
-            eventBus.subscribe(label);
-            swingEventBus.subscribe(label);
-            final TreeViewNode node = new TreeViewNode(label, window);
-            synchronized (nodes) {
-                nodes.put(window, node);
-            }
-            if (parent == null) {
-                model.insertNodeInto(node, model.getRootNode());
-            } else {
-                model.insertNodeInto(node, parent);
-            }
-            tree.expandPath(new TreePath(node.getPath()).getParentPath());
-            final Rectangle view = tree.getRowBounds(tree.getRowForPath(new TreePath(node.
-                    getPath())));
-            if (view != null) {
-                tree.scrollRectToVisible(new Rectangle(0, (int) view.getY(), 0, 0));
-            }
+    private TreeViewNode addWindow(final MutableTreeNode parent, final TextFrame window) {
+        final NodeLabel label = new NodeLabel(window, iconManager, getForegroundColour());
+        eventBus.subscribe(label);
+        swingEventBus.subscribe(label);
+        final TreeViewNode node = new TreeViewNode(label, window);
+        synchronized (nodes) {
+            nodes.put(window, node);
+        }
+        if (parent == null) {
+            model.insertNodeInto(node, model.getRootNode());
+        } else {
+            model.insertNodeInto(node, parent);
+        }
+        tree.expandPath(new TreePath(node.getPath()).getParentPath());
 
-            refreshNodeLabel(window, node);
-            node.getLabel().iconChanged(new FrameIconChangedEvent(window.getContainer(),
-                    window.getContainer().getIcon()));
-        });
+        refreshNodeLabel(window, node);
+        node.getLabel().iconChanged(new FrameIconChangedEvent(window.getContainer(),
+                window.getContainer().getIcon()));
+        return node;
+    }
+
+    /**
+     * Removes a window from the tree. Must be called on the EDT.
+     *
+     * @param window Window to remove
+     */
+    private void deleteWindow(final TextFrame window) {
+        final TreeViewNode node = nodes.get(window);
+        if (node == null) {
+            return;
+        }
+        if (node.getLevel() == 0) {
+            LOG.warn(LogUtils.USER_ERROR, "delServer triggered for root node {}",
+                    node, new IllegalArgumentException());
+        } else {
+            model.removeNodeFromParent(node);
+        }
+        if (node == rolloverNode) {
+            rolloverNode = null;
+        }
+        synchronized (nodes) {
+            eventBus.unsubscribe(node.getLabel());
+            swingEventBus.unsubscribe(node.getLabel());
+            nodes.remove(window);
+        }
+    }
+
+    /**
+     * Scrolls the tree so the given node is visible.
+     *
+     * @param node The node to scroll to
+     */
+    private void scrollToNode(final TreeViewNode node) {
+        final Rectangle view = tree.getRowBounds(tree.getRowForPath(new TreePath(node.
+                getPath())));
+        if (view != null) {
+            tree.scrollRectToVisible(new Rectangle(0, (int) view.getY(), 0, 0));
+        }
     }
 
     /**
@@ -248,19 +316,21 @@ public class TreeFrameManager implements FrameManager, Serializable, ConfigChang
      * @param event event to check
      */
     protected void checkRollover(final MouseEvent event) {
-        NodeLabel node = null;
-
-        if (event != null && tree.getNodeForLocation(event.getX(), event.getY()) != null) {
-            node = tree.getNodeForLocation(event.getX(), event.getY()).getLabel();
+        final TreeViewNode node = event == null ? null
+                : tree.getNodeForLocation(event.getX(), event.getY());
+        if (node == rolloverNode) {
+            return;
         }
 
-        synchronized (nodes) {
-            for (TreeViewNode treeNode : nodes.values()) {
-                final NodeLabel label = treeNode.getLabel();
-                label.setRollover(label == node);
-            }
+        if (rolloverNode != null) {
+            rolloverNode.getLabel().setRollover(false);
+            tree.repaintNode(rolloverNode);
         }
-        tree.repaint();
+        if (node != null && node.getLabel() != null) {
+            node.getLabel().setRollover(true);
+            tree.repaintNode(node);
+        }
+        rolloverNode = node;
     }
 
     /** Sets treeview colours. */
@@ -306,6 +376,18 @@ public class TreeFrameManager implements FrameManager, Serializable, ConfigChang
      */
     private void redoTreeView() {
         UIUtilities.invokeLater(() -> {
+            synchronized (pendingChanges) {
+                // Everything queued so far is covered by rebuilding from the window manager.
+                pendingChanges.clear();
+            }
+            synchronized (nodes) {
+                nodes.values().forEach(node -> {
+                    eventBus.unsubscribe(node.getLabel());
+                    swingEventBus.unsubscribe(node.getLabel());
+                });
+                nodes.clear();
+            }
+            rolloverNode = null;
             ((DefaultTreeModel) tree.getModel()).setRoot(null);
             ((DefaultTreeModel) tree.getModel()).setRoot(new TreeViewNode(null, null));
             if (scroller != null) {
@@ -313,14 +395,18 @@ public class TreeFrameManager implements FrameManager, Serializable, ConfigChang
             }
             scroller = new TreeTreeScroller(swingEventBus, tree);
 
+            TreeViewNode lastNode = null;
             for (WindowModel window : windowManager.getRootWindows()) {
-                addWindow(null, windowFactory.getSwingWindow(window));
+                lastNode = addWindow(null, windowFactory.getSwingWindow(window));
                 final Collection<WindowModel> childWindows = windowManager.getChildren(window);
                 for (WindowModel childWindow : childWindows) {
-                    addWindow(nodes.get(windowFactory.getSwingWindow(window)),
+                    lastNode = addWindow(nodes.get(windowFactory.getSwingWindow(window)),
                             windowFactory.getSwingWindow(childWindow));
                 }
             }
+            if (lastNode != null) {
+                scrollToNode(lastNode);
+            }
 
             if (activeFrameManager.getActiveFrame() != null) {
                 selectionChanged(new SwingWindowSelectedEvent(activeFrameManager.getActiveFrame()));
@@ -332,6 +418,8 @@ public class TreeFrameManager implements FrameManager, Serializable, ConfigChang
     public void selectionChanged(final SwingWindowSelectedEvent event) {
         if (event.getWindow().isPresent()) {
             UIUtilities.invokeLater(() -> {
+                // The window may have only just been added.
+                applyChanges();
                 final TreeNode[] treePath = ((DefaultTreeModel) tree.getModel())
                         .getPathToRoot(nodes.get(event.getWindow().get()));
                 if (treePath != null && treePath.length > 0) {
@@ -344,18 +432,45 @@ public class TreeFrameManager implements FrameManager, Serializable, ConfigChang
         }
     }
 
-    @Handler(invocation = EdtHandlerInvocation.class, delivery = Invoke.Asynchronously)
+    @Handler(invocation = CoalescingEdtHandlerInvocation.class)
     public void unreadStatusChanged(final UnreadStatusChangedEvent event) {
+        // The window may have only just been added.
+        applyChanges();
         synchronized (nodes) {
             final TreeViewNode node = nodes.get(windowFactory.getSwingWindow(event.getSource()));
             if (node != null) {
                 final NodeLabel label = node.getLabel();
                 if (label != null) {
                     label.unreadStatusChanged(event);
-                    tree.repaint();
+                    tree.repaintNode(node);
                 }
             }
         }
     }
 
+    @Handler(invocation = CoalescingEdtHandlerInvocation.class)
+    public void nameChanged(final FrameNameChangedEvent event) {
+        nodeChanged(event.getContainer());
+    }
+
+    @Handler(invocation = CoalescingEdtHandlerInvocation.class)
+    public void iconChanged(final FrameIconChangedEvent event) {
+        nodeChanged(event.getContainer());
+    }
+
+    /**
+     * Tells the model that a window's node has changed, so that its row is resized and
+     * repainted.
+     *
+     * @param window The window that has changed
+     */
+    private void nodeChanged(final WindowModel window) {
+        // The window may have only just been added.
+        applyChanges();
+        final TreeViewNode node = nodes.get(windowFactory.getSwingWindow(window));
+        if (node != null && node.getParent() != null) {
+            model.nodeChanged(node);
+        }
+    }
+
 }
@@ -31,6 +31,7 @@ import com.dmdirc.addons.ui_swing.commands.Input;
 import com.dmdirc.addons.ui_swing.commands.PopInCommand;
 import com.dmdirc.addons.ui_swing.commands.PopOutCommand;
 import com.dmdirc.addons.ui_swing.commands.ServerSettings;
+import com.dmdirc.addons.ui_swing.commands.SwingStats;
 import com.dmdirc.addons.ui_swing.components.IconManager;
 import com.dmdirc.addons.ui_swing.components.addonpanel.PluginPanel;
 import com.dmdirc.addons.ui_swing.components.addonpanel.ThemePanel;
@@ -80,7 +81,8 @@ import javax.inject.Singleton;
             PopOutCommand.class,
             Input.class,
             ServerSettings.class,
-            ChannelSettings.class
+            ChannelSettings.class,
+            SwingStats.class
         })
 @SuppressWarnings("TypeMayBeWeakened")
 public class SwingModule {
@@ -18,133 +18,433 @@
 package com.dmdirc.addons.ui_swing.textpane;
 
 import com.dmdirc.ui.core.util.ExtendedAttributedString;
-import com.dmdirc.ui.messages.DelegatingStyledMessageMaker;
 import com.dmdirc.ui.messages.IRCTextAttribute;
+import com.dmdirc.ui.messages.StyledMessageMaker;
+import com.dmdirc.util.colours.Colour;
 
+import java.awt.Color;
 import java.awt.Font;
 import java.awt.font.TextAttribute;
+import java.text.AttributedCharacterIterator.Attribute;
 import java.text.AttributedString;
-import java.util.Enumeration;
-
-import javax.swing.text.AttributeSet;
-import javax.swing.text.BadLocationException;
-import javax.swing.text.Element;
-import javax.swing.text.StyleConstants;
-import javax.swing.text.StyledDocument;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Creates an attributed string from a styled document.
+ * {@link StyledMessageMaker} that produces an {@link AttributedString} directly.
+ *
+ * <p>Text is collected into a single buffer along with a list of styled runs, and the attributed
+ * string is only created once the whole message has been appended. Font families, colours and
+ * the attribute maps for each combination of styles are interned and shared between all makers,
+ * so a typical message allocates little more than the resulting string.
  */
-public class AttributedStringMessageMaker
-        extends DelegatingStyledMessageMaker<StyledDocument, AttributedString> {
+public class AttributedStringMessageMaker implements StyledMessageMaker<AttributedString> {
+
+    /** Maximum number of style combinations to intern before creating maps on demand. */
+    private static final int MAX_INTERNED_STYLES = 4096;
+    /** Font family to use for fixed width text. */
+    private static final String MONOSPACED = "monospaced";
+    /** Interned font family names, keyed on the requested font name. */
+    private static final Map<String, String> FAMILIES = new ConcurrentHashMap<>();
+    /** Interned colours, keyed on their RGB value. */
+    private static final Map<Integer, Color> COLOURS = new ConcurrentHashMap<>();
+    /** Interned attribute maps, keyed on the style they represent. */
+    private static final Map<Style, Map<Attribute, Object>> STYLES = new ConcurrentHashMap<>();
+
+    /** The text of the message. */
+    private final StringBuilder text = new StringBuilder();
+    /** The styled runs of the message, in order. */
+    private final List<Run> runs = new ArrayList<>();
 
     private String fontName;
+    private String fontFamily;
     private int fontSize;
 
-    public AttributedStringMessageMaker() {
-        super(new StyledDocumentMaker());
+    private boolean bold;
+    private boolean underline;
+    private boolean italic;
+    private boolean fixedWidth;
+    private Color foreground;
+    private Color background;
+    private Color defaultForeground;
+    private Color defaultBackground;
+    private String hyperlink;
+    private String channel;
+    private String nickname;
+    private String tooltip;
+    /** Whether underlining should be kept when the current link style is removed. */
+    private boolean restoreUnderline;
+    /** The foreground colour to restore when the current link style is removed. */
+    private Color restoreColour;
+    /** Attributes for the current style, or null if the style has changed since last used. */
+    private Map<Attribute, Object> currentStyle;
+
+    @Override
+    public AttributedString getStyledMessage() {
+        if (text.length() == 0) {
+            return new ExtendedAttributedString(new AttributedString("\n"), fontSize)
+                    .getAttributedString();
+        }
+
+        final AttributedString attString = new AttributedString(text.toString());
+        attString.addAttribute(TextAttribute.SIZE, fontSize);
+        attString.addAttribute(TextAttribute.FAMILY, fontFamily);
+        for (Run run : runs) {
+            run.apply(attString);
+        }
+
+        final ExtendedAttributedString attributedString =
+                new ExtendedAttributedString(attString, fontSize);
+        fontSize = attributedString.getMaxLineHeight();
+        return attributedString.getAttributedString();
     }
 
     @Override
-    public int getMaximumFontSize() {
-        return fontSize;
+    public void resetAllStyles() {
+        bold = false;
+        underline = false;
+        italic = false;
+        fixedWidth = false;
+        resetColours();
+    }
+
+    @Override
+    public void resetColours() {
+        foreground = defaultForeground;
+        background = defaultBackground;
+        currentStyle = null;
+    }
+
+    @Override
+    public void appendString(final String string) {
+        if (string.isEmpty()) {
+            return;
+        }
+
+        final int start = text.length();
+        text.append(string);
+
+        if (currentStyle == null) {
+            currentStyle = getStyle(new Style(bold, underline, italic, fixedWidth, foreground,
+                    background));
+        }
+
+        final Run last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+        if (last != null && last.end == start && last.style == currentStyle
+                && Objects.equals(last.hyperlink, hyperlink)
+                && Objects.equals(last.channel, channel)
+                && Objects.equals(last.nickname, nickname)
+                && Objects.equals(last.tooltip, tooltip)) {
+            last.end = text.length();
+        } else {
+            runs.add(new Run(start, text.length(), currentStyle, hyperlink, channel, nickname,
+                    tooltip));
+        }
+    }
+
+    @Override
+    public void toggleBold() {
+        bold = !bold;
+        currentStyle = null;
+    }
+
+    @Override
+    public void toggleUnderline() {
+        underline = !underline;
+        currentStyle = null;
+    }
+
+    @Override
+    public void toggleItalic() {
+        italic = !italic;
+        currentStyle = null;
+    }
+
+    @Override
+    public void startHyperlink(final String url) {
+        hyperlink = url;
+    }
+
+    @Override
+    public void endHyperlink() {
+        hyperlink = null;
+    }
+
+    @Override
+    public void toggleHyperlinkStyle(final Colour colour) {
+        toggleLink(hyperlink == null, colour);
+    }
+
+    @Override
+    public void startChannelLink(final String channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void endChannelLink() {
+        channel = null;
+    }
+
+    @Override
+    public void toggleChannelLinkStyle(final Colour colour) {
+        toggleLink(channel == null, colour);
+    }
+
+    @Override
+    public void startNicknameLink(final String nickname) {
+        this.nickname = nickname;
+    }
+
+    @Override
+    public void endNicknameLink() {
+        nickname = null;
+    }
+
+    @Override
+    public void toggleFixedWidth() {
+        fixedWidth = !fixedWidth;
+        currentStyle = null;
+    }
+
+    @Override
+    public void setForeground(final Colour colour) {
+        foreground = convertColour(colour);
+        currentStyle = null;
+    }
+
+    @Override
+    public void setDefaultForeground(final Colour colour) {
+        defaultForeground = convertColour(colour);
+    }
+
+    @Override
+    public void setBackground(final Colour colour) {
+        background = convertColour(colour);
+        currentStyle = null;
+    }
+
+    @Override
+    public void setDefaultBackground(final Colour colour) {
+        defaultBackground = convertColour(colour);
+    }
+
+    @Override
+    public void startSmilie(final String smilie) {
+        // Smilies aren't rendered
+    }
+
+    @Override
+    public void endSmilie() {
+        // Smilies aren't rendered
+    }
+
+    @Override
+    public void startToolTip(final String tooltip) {
+        this.tooltip = tooltip;
+    }
+
+    @Override
+    public void endToolTip() {
+        tooltip = null;
     }
 
     @Override
     public void setDefaultFont(final String fontName, final int fontSize) {
-        this.fontName = fontName;
+        if (!Objects.equals(this.fontName, fontName)) {
+            this.fontName = fontName;
+            fontFamily = FAMILIES.computeIfAbsent(String.valueOf(fontName),
+                    name -> new Font(fontName, Font.PLAIN, 1).getFamily());
+        }
         this.fontSize = fontSize;
     }
 
     @Override
-    protected AttributedString convert(final StyledDocument styledMessage) {
-        final Element line = styledMessage.getParagraphElement(0);
-        final AttributedString attString;
-        try {
-            attString = new AttributedString(
-                    line.getDocument().getText(0,
-                    line.getDocument().getLength()));
-        } catch (BadLocationException ex) {
-            // Shouldn't happen
-            return null;
+    public int getMaximumFontSize() {
+        return fontSize;
+    }
+
+    @Override
+    public void clear() {
+        defaultForeground = null;
+        defaultBackground = null;
+        text.setLength(0);
+        runs.clear();
+    }
+
+    /**
+     * Adds or removes the style for a link.
+     *
+     * @param add    True if the link style should be added, false if it should be removed
+     * @param colour The colour to colour the link
+     */
+    private void toggleLink(final boolean add, final Colour colour) {
+        if (add) {
+            if (underline) {
+                restoreUnderline = true;
+            } else {
+                underline = true;
+            }
+
+            if (colour != null) {
+                if (foreground != null) {
+                    restoreColour = foreground;
+                }
+                foreground = convertColour(colour);
+            }
+        } else {
+            if (restoreUnderline) {
+                restoreUnderline = false;
+            } else {
+                underline = false;
+            }
+
+            if (colour != null) {
+                foreground = restoreColour;
+                restoreColour = null;
+            }
         }
+        currentStyle = null;
+    }
 
-        if (attString.getIterator().getEndIndex() != 0) {
-            final Font font = new Font(fontName, Font.PLAIN, fontSize);
-            attString.addAttribute(TextAttribute.SIZE, font.getSize());
-            attString.addAttribute(TextAttribute.FAMILY, font.getFamily());
+    /**
+     * Gets the attribute map for the given style, interning it if possible.
+     *
+     * @param style The style to get attributes for
+     *
+     * @return An unmodifiable map of attributes
+     */
+    private static Map<Attribute, Object> getStyle(final Style style) {
+        final Map<Attribute, Object> attributes = STYLES.get(style);
+        if (attributes != null) {
+            return attributes;
+        }
+        if (STYLES.size() >= MAX_INTERNED_STYLES) {
+            return style.toAttributes();
         }
+        return STYLES.computeIfAbsent(style, Style::toAttributes);
+    }
 
-        for (int i = 0; i < line.getElementCount(); i++) {
-            final Element element = line.getElement(i);
-
-            final AttributeSet as = element.getAttributes();
-            final Enumeration<?> ae = as.getAttributeNames();
-
-            while (ae.hasMoreElements()) {
-                final Object attrib = ae.nextElement();
-
-                if (attrib == IRCTextAttribute.HYPERLINK) {
-                    //Hyperlink
-                    attString.addAttribute(IRCTextAttribute.HYPERLINK,
-                            as.getAttribute(attrib), element.getStartOffset(),
-                            element.getEndOffset());
-                } else if (attrib == IRCTextAttribute.NICKNAME) {
-                    //Nicknames
-                    attString.addAttribute(IRCTextAttribute.NICKNAME,
-                            as.getAttribute(attrib), element.getStartOffset(),
-                            element.getEndOffset());
-                } else if (attrib == IRCTextAttribute.CHANNEL) {
-                    //Channels
-                    attString.addAttribute(IRCTextAttribute.CHANNEL,
-                            as.getAttribute(attrib), element.getStartOffset(),
-                            element.getEndOffset());
-                } else if (attrib == IRCTextAttribute.TOOLTIP) {
-                    //Tooltips
-                    attString.addAttribute(IRCTextAttribute.TOOLTIP,
-                            as.getAttribute(attrib), element.getStartOffset(),
-                            element.getEndOffset());
-                } else if (attrib == StyleConstants.Foreground) {
-                    //Foreground
-                    attString.addAttribute(TextAttribute.FOREGROUND,
-                            as.getAttribute(attrib), element.getStartOffset(),
-                            element.getEndOffset());
-                } else if (attrib == StyleConstants.Background) {
-                    //Background
-                    attString.addAttribute(TextAttribute.BACKGROUND,
-                            as.getAttribute(attrib), element.getStartOffset(),
-                            element.getEndOffset());
-                } else if (attrib == StyleConstants.Bold) {
-                    //Bold
-                    attString.addAttribute(TextAttribute.WEIGHT,
-                            TextAttribute.WEIGHT_BOLD, element.getStartOffset(),
-                            element.getEndOffset());
-                } else if (attrib == StyleConstants.Family) {
-                    //Family
-                    attString.addAttribute(TextAttribute.FAMILY,
-                            as.getAttribute(attrib), element.getStartOffset(),
-                            element.getEndOffset());
-                } else if (attrib == StyleConstants.Italic) {
-                    //italics
-                    attString.addAttribute(TextAttribute.POSTURE,
-                            TextAttribute.POSTURE_OBLIQUE,
-                            element.getStartOffset(),
-                            element.getEndOffset());
-                } else if (attrib == StyleConstants.Underline) {
-                    //Underline
-                    attString.addAttribute(TextAttribute.UNDERLINE,
-                            TextAttribute.UNDERLINE_ON, element.getStartOffset(),
-                            element.getEndOffset());
-                }
+    /**
+     * Converts a DMDirc {@link Colour} into an AWT-specific {@link Color} by copying the values of
+     * the red, green and blue channels.
+     *
+     * @param colour The colour to be converted
+     *
+     * @return A corresponding AWT colour
+     */
+    private static Color convertColour(final Colour colour) {
+        return COLOURS.computeIfAbsent(
+                colour.getRed() << 16 | colour.getGreen() << 8 | colour.getBlue(), Color::new);
+    }
+
+    /** A combination of text styles. */
+    private static final class Style {
+
+        private final boolean bold;
+        private final boolean underline;
+        private final boolean italic;
+        private final boolean fixedWidth;
+        private final Color foreground;
+        private final Color background;
+
+        Style(final boolean bold, final boolean underline, final boolean italic,
+                final boolean fixedWidth, final Color foreground, final Color background) {
+            this.bold = bold;
+            this.underline = underline;
+            this.italic = italic;
+            this.fixedWidth = fixedWidth;
+            this.foreground = foreground;
+            this.background = background;
+        }
+
+        Map<Attribute, Object> toAttributes() {
+            final Map<Attribute, Object> attributes = new HashMap<>();
+            if (foreground != null) {
+                attributes.put(TextAttribute.FOREGROUND, foreground);
+            }
+            if (background != null) {
+                attributes.put(TextAttribute.BACKGROUND, background);
+            }
+            if (bold) {
+                attributes.put(TextAttribute.WEIGHT, TextAttribute.WEIGHT_BOLD);
+            }
+            if (fixedWidth) {
+                attributes.put(TextAttribute.FAMILY, MONOSPACED);
+            }
+            if (italic) {
+                attributes.put(TextAttribute.POSTURE, TextAttribute.POSTURE_OBLIQUE);
+            }
+            if (underline) {
+                attributes.put(TextAttribute.UNDERLINE, TextAttribute.UNDERLINE_ON);
+            }
+            return Collections.unmodifiableMap(attributes);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Style)) {
+                return false;
+            }
+            final Style other = (Style) obj;
+            return bold == other.bold && underline == other.underline && italic == other.italic
+                    && fixedWidth == other.fixedWidth
+                    && Objects.equals(foreground, other.foreground)
+                    && Objects.equals(background, other.background);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(bold, underline, italic, fixedWidth, foreground, background);
+        }
+
+    }
+
+    /** A run of text sharing the same style and links. */
+    private static final class Run {
+
+        private final int start;
+        private int end;
+        private final Map<Attribute, Object> style;
+        private final String hyperlink;
+        private final String channel;
+        private final String nickname;
+        private final String tooltip;
+
+        Run(final int start, final int end, final Map<Attribute, Object> style,
+                final String hyperlink, final String channel, final String nickname,
+                final String tooltip) {
+            this.start = start;
+            this.end = end;
+            this.style = style;
+            this.hyperlink = hyperlink;
+            this.channel = channel;
+            this.nickname = nickname;
+            this.tooltip = tooltip;
+        }
+
+        void apply(final AttributedString string) {
+            if (!style.isEmpty()) {
+                string.addAttributes(style, start, end);
+            }
+            if (hyperlink != null) {
+                string.addAttribute(IRCTextAttribute.HYPERLINK, hyperlink, start, end);
+            }
+            if (channel != null) {
+                string.addAttribute(IRCTextAttribute.CHANNEL, channel, start, end);
+            }
+            if (nickname != null) {
+                string.addAttribute(IRCTextAttribute.NICKNAME, nickname, start, end);
+            }
+            if (tooltip != null) {
+                string.addAttribute(IRCTextAttribute.TOOLTIP, tooltip, start, end);
             }
         }
 
-        final ExtendedAttributedString attributedString =
-                attString.getIterator().getEndIndex() == 0
-                        ? new ExtendedAttributedString(new AttributedString("\n"), fontSize)
-                        : new ExtendedAttributedString(attString, fontSize);
-        fontSize = attributedString.getMaxLineHeight();
-        return attributedString.getAttributedString();
     }
 
 }
@@ -23,19 +23,13 @@ import com.dmdirc.ui.messages.LinePosition;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Shape;
-import java.awt.font.LineBreakMeasurer;
-import java.awt.font.TextAttribute;
 import java.awt.font.TextLayout;
 import java.awt.geom.Rectangle2D;
-import java.text.AttributedCharacterIterator;
 import java.text.AttributedString;
-import java.util.ArrayList;
 import java.util.List;
 
 import javax.swing.UIManager;
 
-import static com.google.common.base.Preconditions.checkNotNull;
-
 /**
  * Renders basic text, line wrapping where appropriate.
  */
@@ -55,18 +49,22 @@ public class BasicTextLineRenderer implements LineRenderer {
 
     private final Color highlightForeground;
     private final Color highlightBackground;
+    private final Color matchBackground;
 
-    /** Reused in each render pass to save creating a new list. */
-    private final List<TextLayout> wrappedLines = new ArrayList<>();
+    /** Cache of wrapped layouts, shared with the canvas. */
+    private final LineLayoutCache layoutCache;
 
     public BasicTextLineRenderer(final TextPane textPane, final TextPaneCanvas textPaneCanvas,
             final CachingDocument<AttributedString> document) {
         this.textPane = textPane;
         this.textPaneCanvas = textPaneCanvas;
         this.document = document;
+        this.layoutCache = textPaneCanvas.getLayoutCache();
 
         highlightForeground = UIManager.getColor("TextArea.selectionForeground");
         highlightBackground = UIManager.getColor("TextArea.selectionBackground");
+        matchBackground = new Color(highlightBackground.getRed(), highlightBackground.getGreen(),
+                highlightBackground.getBlue(), 96);
     }
 
     @Override
@@ -76,22 +74,16 @@ public class BasicTextLineRenderer implements LineRenderer {
         result.textLayouts.clear();
         result.totalHeight = 0;
 
-        final AttributedCharacterIterator iterator = document.getStyledLine(line).getIterator();
-        final int paragraphStart = iterator.getBeginIndex();
-        final int paragraphEnd = iterator.getEndIndex();
-        final LineBreakMeasurer lineMeasurer = new LineBreakMeasurer(iterator,
-                graphics.getFontRenderContext());
-        lineMeasurer.setPosition(paragraphStart);
-
         float newDrawPosY = drawPosY;
 
-        // Calculate layouts for each wrapped line.
-        wrappedLines.clear();
+        // Get the layouts for each wrapped line, re-using them from previous paints if possible.
+        // The line is only styled if it has to be wrapped again.
+        final List<TextLayout> wrappedLines = layoutCache.getLayouts(line, document.getLine(line),
+                () -> document.getStyledLine(line), canvasWidth,
+                graphics.getFontRenderContext());
         int chars = 0;
-        while (lineMeasurer.getPosition() < paragraphEnd) {
-            final TextLayout layout = checkNotNull(lineMeasurer.nextLayout(canvasWidth));
+        for (TextLayout layout : wrappedLines) {
             chars += layout.getCharacterCount();
-            wrappedLines.add(layout);
         }
 
         // Loop through each wrapped line
@@ -125,31 +117,63 @@ public class BasicTextLineRenderer implements LineRenderer {
     protected void renderLine(final Graphics2D graphics, final float canvasWidth, final int line,
             final float drawPosX, final float drawPosY, final int numberOfWraps, final int chars,
             final TextLayout layout) {
-        graphics.setColor(textPane.getForeground());
-        layout.draw(graphics, drawPosX, drawPosY);
-        doHighlight(line, chars, layout, graphics, canvasWidth + DOUBLE_SIDE_PADDING,
-                drawPosX, drawPosY);
+        final Rectangle2D.Float area = new Rectangle2D.Float(0,
+                drawPosY - layout.getAscent() - layout.getLeading(),
+                canvasWidth + DOUBLE_SIDE_PADDING,
+                layout.getAscent() + layout.getDescent() + layout.getLeading());
+
+        // Only draw lines inside the area being repainted, but record them all for hit testing.
+        if (graphics.hitClip((int) area.x, (int) area.y, (int) Math.ceil(area.width),
+                (int) Math.ceil(area.height))) {
+            doSearchMatches(line, chars, layout, graphics, drawPosX, drawPosY);
+            graphics.setColor(textPane.getForeground());
+            layout.draw(graphics, drawPosX, drawPosY);
+            doHighlight(line, numberOfWraps, chars, layout, graphics,
+                    canvasWidth + DOUBLE_SIDE_PADDING, drawPosX, drawPosY);
+        }
         final LineInfo lineInfo = new LineInfo(line, numberOfWraps);
         result.firstVisibleLine = line;
         result.textLayouts.put(lineInfo, layout);
-        result.drawnAreas.put(lineInfo,
-                new Rectangle2D.Float(0,
-                        drawPosY - layout.getAscent() - layout.getLeading(),
-                        canvasWidth + DOUBLE_SIDE_PADDING,
-                        layout.getAscent() + layout.getDescent() + layout.getLeading()));
+        result.drawnAreas.put(lineInfo, area);
+    }
+
+    /**
+     * Fills the background of any search matches in a wrapped line.
+     *
+     * @param line     Line number
+     * @param chars    Number of characters already handled in a wrapped line
+     * @param layout   Current wrapped line's textlayout
+     * @param g        Graphics surface to draw on
+     * @param drawPosX current x location of the line
+     * @param drawPosY current y location of the line
+     */
+    protected void doSearchMatches(final int line, final int chars, final TextLayout layout,
+            final Graphics2D g, final float drawPosX, final float drawPosY) {
+        final int length = layout.getCharacterCount();
+        for (DocumentSearchIndex.Match match : textPaneCanvas.getSearchMatches(line)) {
+            final int firstChar = Math.max(0, match.getStart() - chars);
+            final int lastChar = Math.min(length, match.getEnd() - chars);
+            if (lastChar > firstChar) {
+                g.setColor(matchBackground);
+                g.translate(drawPosX, drawPosY);
+                g.fill(layout.getLogicalHighlightShape(firstChar, lastChar));
+                g.translate(-drawPosX, -drawPosY);
+            }
+        }
     }
 
     /**
      * Redraws the text that has been highlighted.
      *
      * @param line     Line number
+     * @param part     Wrapped part of the line
      * @param chars    Number of characters already handled in a wrapped line
      * @param layout   Current wrapped line's textlayout
      * @param g        Graphics surface to draw highlight on
      * @param drawPosX current x location of the line
      * @param drawPosY current y location of the line
      */
-    protected void doHighlight(final int line, final int chars,
+    protected void doHighlight(final int line, final int part, final int chars,
             final TextLayout layout, final Graphics2D g, final float canvasWidth,
             final float drawPosX, final float drawPosY) {
         final LinePosition selectedRange = textPaneCanvas.getSelectedRange();
@@ -179,39 +203,36 @@ public class BasicTextLineRenderer implements LineRenderer {
 
             // If the selection includes the chars we're showing
             if (lastChar > 0 && firstChar < layout.getCharacterCount() && lastChar > firstChar) {
-                doHighlight(line,
-                        layout.getLogicalHighlightShape(firstChar, lastChar), g, canvasWidth,
-                        drawPosY, drawPosX, chars + firstChar, chars + lastChar,
+                doHighlight(line, part, layout.getLogicalHighlightShape(firstChar, lastChar), g,
+                        canvasWidth, drawPosY, drawPosX,
                         lastChar == layout.getCharacterCount());
             }
         }
     }
 
-    private void doHighlight(final int line, final Shape logicalHighlightShape, final Graphics2D g,
-            final float canvasWidth, final float drawPosY, final float drawPosX,
-            final int firstChar, final int lastChar, final boolean isEndOfLine) {
-        final AttributedCharacterIterator iterator = document.getStyledLine(line).getIterator();
-        final AttributedString as = new AttributedString(iterator, firstChar, lastChar);
-
-        as.addAttribute(TextAttribute.FOREGROUND, highlightForeground);
-        as.addAttribute(TextAttribute.BACKGROUND, highlightBackground);
-        final TextLayout newLayout = new TextLayout(as.getIterator(), g.getFontRenderContext());
-
-        final Rectangle2D bounds = logicalHighlightShape.getBounds();
+    private void doHighlight(final int line, final int part, final Shape logicalHighlightShape,
+            final Graphics2D g, final float canvasWidth, final float drawPosY,
+            final float drawPosX, final boolean isEndOfLine) {
+        final Rectangle2D bounds = logicalHighlightShape.getBounds2D();
 
         g.setColor(highlightBackground);
-        g.translate(drawPosX + bounds.getX(), drawPosY);
+        g.translate(drawPosX, drawPosY);
+        final Shape clip = g.getClip();
 
         if (isEndOfLine) {
             g.fill(new Rectangle2D.Double(
-                    bounds.getWidth(),
+                    bounds.getMaxX(),
                     bounds.getY(),
-                    canvasWidth - bounds.getX() - bounds.getWidth(),
+                    canvasWidth - bounds.getMaxX(),
                     bounds.getHeight()));
         }
 
-        newLayout.draw(g, 0, 0);
-        g.translate(-drawPosX - bounds.getX(), -drawPosY);
+        // Draw the highlighted copy of the whole part, clipped to the selected region.
+        g.clip(logicalHighlightShape);
+        layoutCache.getHighlightLayout(line, part, highlightForeground, highlightBackground)
+                .draw(g, 0, 0);
+        g.setClip(clip);
+        g.translate(-drawPosX, -drawPosY);
     }
 
 }
@@ -0,0 +1,410 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_swing.textpane;
+
+import com.dmdirc.ui.messages.Document;
+import com.dmdirc.ui.messages.DocumentListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A trigram index of the lines in a document, used to find search matches without scanning
+ * every line.
+ *
+ * <p>Each line is given an ID when it is indexed, which stays the same as lines are trimmed from
+ * the start of the document; {@link #getLineNumber(int)} converts an ID back to the line's current
+ * position. Queries shorter than a trigram fall back to scanning each line.
+ *
+ * <p>The text of each line is copied when the line is added, on the thread that added it, so
+ * searches never read from the document and can't see lines that have been trimmed or shifted
+ * before the index was told about it. Appended lines are indexed as they are added. Lines that
+ * were in the document when the index was created, or that were added while an earlier backlog
+ * was still being indexed, are indexed when the document is next searched, a chunk at a time.
+ *
+ * <p>The index is thread safe. Searches only hold its lock for a chunk of lines at a time, so lines
+ * can be added and trimmed while a large document is being indexed in the background.
+ */
+public class DocumentSearchIndex implements DocumentListener {
+
+    /** Length of the indexed character sequences. */
+    private static final int GRAM_LENGTH = 3;
+    /** Minimum number of trimmed lines before empty posting lists are swept. */
+    private static final int MIN_SWEEP_INTERVAL = 1024;
+    /** Minimum number of trimmed lines before their text is discarded. */
+    private static final int MIN_COMPACT_INTERVAL = 1024;
+    /** Maximum number of lines indexed or scanned each time the lock is taken. */
+    private static final int CHUNK_LINES = 512;
+
+    /** The document being indexed. */
+    private final Document document;
+    /** IDs of the lines containing each trigram, in ascending order. */
+    private final Map<Long, Postings> postings = new HashMap<>();
+    /** Text of each line in the document, starting at {@link #textStart}. */
+    private final List<String> texts = new ArrayList<>();
+    /** Position in {@link #texts} of the first line in the document. */
+    private int textStart;
+    /** ID of the first line in the document. */
+    private int firstId;
+    /** ID that will be given to the next line added. */
+    private int nextId;
+    /** ID of the first line that hasn't been indexed yet. */
+    private int indexedId;
+    /** Value of {@link #firstId} when posting lists were last swept. */
+    private int lastSweepId;
+
+    /**
+     * Creates a new index for the given document. The caller is responsible for registering the
+     * index as a listener on the document. Must be called on a thread where the document can be
+     * safely read.
+     *
+     * @param document The document to index
+     */
+    public DocumentSearchIndex(final Document document) {
+        this.document = document;
+        copyLines(0, document.getNumLines());
+        this.nextId = texts.size();
+    }
+
+    /**
+     * Finds all occurrences of the given text in the document.
+     *
+     * @param text          The text to search for
+     * @param caseSensitive Whether the search is case sensitive
+     *
+     * @return All matches, in document order
+     */
+    public List<Match> search(final String text, final boolean caseSensitive) {
+        if (text.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final List<Match> matches = new ArrayList<>();
+        if (text.length() < GRAM_LENGTH) {
+            int id = 0;
+            while (id != -1) {
+                id = scanChunk(id, text, caseSensitive, matches);
+            }
+            return matches;
+        }
+
+        while (!indexChunk()) {
+            // Let lines be added and trimmed between chunks.
+        }
+        return searchIndex(text, caseSensitive, matches);
+    }
+
+    /**
+     * Finds matches for a query of at least one trigram using the index.
+     */
+    private synchronized List<Match> searchIndex(final String text, final boolean caseSensitive,
+            final List<Match> matches) {
+        // Catch up with any lines added since the last chunk was indexed.
+        indexTo(nextId);
+
+        final List<Postings> lists = new ArrayList<>(text.length() - GRAM_LENGTH + 1);
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            final Postings list = postings.get(getGram(text, i));
+            if (list == null) {
+                return matches;
+            }
+            list.prune(firstId);
+            lists.add(list);
+        }
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+
+        final Postings shortest = lists.get(0);
+        final int[] positions = new int[lists.size()];
+        candidates:
+        for (int i = shortest.start; i < shortest.end; i++) {
+            final int id = shortest.ids[i];
+            for (int j = 1; j < lists.size(); j++) {
+                final Postings list = lists.get(j);
+                positions[j] = list.seek(id, positions[j]);
+                if (positions[j] >= list.end) {
+                    break candidates;
+                }
+                if (list.ids[positions[j]] != id) {
+                    continue candidates;
+                }
+            }
+            // Every trigram appears in the line, but not necessarily in order.
+            findMatches(id, text, caseSensitive, matches);
+        }
+        return matches;
+    }
+
+    /**
+     * Gets the current line number of the line with the given ID.
+     *
+     * @param id The ID of the line
+     *
+     * @return The line's current number, or -1 if it has been trimmed
+     */
+    public synchronized int getLineNumber(final int id) {
+        return id < firstId ? -1 : id - firstId;
+    }
+
+    /**
+     * Gets the ID of the line currently at the given position.
+     *
+     * @param line The line number
+     *
+     * @return The line's ID
+     */
+    public synchronized int getLineId(final int line) {
+        return firstId + line;
+    }
+
+    @Override
+    public synchronized void trimmed(final int newSize, final int numTrimmed) {
+        firstId += numTrimmed;
+        textStart = Math.min(texts.size(), textStart + numTrimmed);
+        if (textStart >= Math.max(MIN_COMPACT_INTERVAL, texts.size() - textStart)) {
+            texts.subList(0, textStart).clear();
+            textStart = 0;
+        }
+        indexedId = Math.max(indexedId, firstId);
+        if (firstId - lastSweepId >= Math.max(MIN_SWEEP_INTERVAL, nextId - firstId)) {
+            sweep();
+        }
+    }
+
+    @Override
+    public synchronized void cleared() {
+        postings.clear();
+        texts.clear();
+        textStart = 0;
+        firstId = nextId;
+        indexedId = nextId;
+        lastSweepId = firstId;
+    }
+
+    @Override
+    public synchronized void linesAdded(final int line, final int length, final int size) {
+        if (firstId + line != nextId) {
+            // Lines were inserted rather than appended; re-index everything when next searched.
+            postings.clear();
+            texts.clear();
+            textStart = 0;
+            copyLines(0, size);
+            indexedId = firstId;
+            lastSweepId = firstId;
+            nextId = firstId + size;
+            return;
+        }
+
+        final boolean indexed = indexedId == nextId;
+        copyLines(line, length);
+        nextId += length;
+        if (indexed) {
+            // Only index new lines straight away if there's no backlog to wait behind.
+            indexTo(nextId);
+        }
+    }
+
+    @Override
+    public void repaintNeeded() {
+        // Styles don't affect the index
+    }
+
+    /**
+     * Indexes the next chunk of lines that haven't been indexed yet.
+     *
+     * @return True if every line has now been indexed, false otherwise
+     */
+    private synchronized boolean indexChunk() {
+        indexTo(Math.min(nextId, indexedId + CHUNK_LINES));
+        return indexedId == nextId;
+    }
+
+    /**
+     * Copies the text of lines from the document. Must be called on the thread that changes the
+     * document.
+     */
+    private void copyLines(final int line, final int length) {
+        for (int i = 0; i < length; i++) {
+            texts.add(document.getLine(line + i).getText());
+        }
+    }
+
+    private void indexTo(final int id) {
+        while (indexedId < id) {
+            indexLine(indexedId++);
+        }
+    }
+
+    /**
+     * Scans the next chunk of lines for a query too short to use the index.
+     *
+     * @param from The ID of the first line to scan
+     *
+     * @return The ID of the next line to scan, or -1 if every line has been scanned
+     */
+    private synchronized int scanChunk(final int from, final String text,
+            final boolean caseSensitive, final List<Match> matches) {
+        final int start = Math.max(from, firstId);
+        final int end = Math.min(nextId, start + CHUNK_LINES);
+        for (int id = start; id < end; id++) {
+            findMatches(id, text, caseSensitive, matches);
+        }
+        return end == nextId ? -1 : end;
+    }
+
+    private void indexLine(final int id) {
+        final String text = getText(id);
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            postings.computeIfAbsent(getGram(text, i), k -> new Postings()).add(id);
+        }
+    }
+
+    /**
+     * Removes trimmed lines from every posting list, and removes any lists left empty.
+     */
+    private void sweep() {
+        final Iterator<Postings> iterator = postings.values().iterator();
+        while (iterator.hasNext()) {
+            final Postings list = iterator.next();
+            list.prune(firstId);
+            if (list.size() == 0) {
+                iterator.remove();
+            }
+        }
+        lastSweepId = firstId;
+    }
+
+    private void findMatches(final int id, final String text, final boolean caseSensitive,
+            final List<Match> matches) {
+        final String line = getText(id);
+        int i = 0;
+        while (i + text.length() <= line.length()) {
+            if (line.regionMatches(!caseSensitive, i, text, 0, text.length())) {
+                matches.add(new Match(id, i, i + text.length()));
+                i += text.length();
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private String getText(final int id) {
+        return texts.get(textStart + id - firstId);
+    }
+
+    /**
+     * Packs the case-folded characters at the given position into a single key.
+     */
+    private static long getGram(final String text, final int offset) {
+        long gram = 0;
+        for (int i = 0; i < GRAM_LENGTH; i++) {
+            gram = gram << 16 | Character.toLowerCase(text.charAt(offset + i));
+        }
+        return gram;
+    }
+
+    /** A growable, ascending list of line IDs. */
+    private static class Postings {
+
+        private int[] ids = new int[4];
+        private int start;
+        private int end;
+
+        void add(final int id) {
+            // A line containing the same trigram several times is only recorded once.
+            if (end > start && ids[end - 1] == id) {
+                return;
+            }
+            if (end == ids.length) {
+                if (start > ids.length / 2) {
+                    System.arraycopy(ids, start, ids, 0, end - start);
+                    end -= start;
+                    start = 0;
+                } else {
+                    ids = Arrays.copyOf(ids, ids.length * 2);
+                }
+            }
+            ids[end++] = id;
+        }
+
+        /** Drops IDs below the given ID. */
+        void prune(final int firstId) {
+            while (start < end && ids[start] < firstId) {
+                start++;
+            }
+        }
+
+        /** Finds the first position at or after {@code from} holding an ID no less than id. */
+        int seek(final int id, final int from) {
+            int low = Math.max(from, start);
+            int high = end;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (ids[mid] < id) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        int size() {
+            return end - start;
+        }
+
+    }
+
+    /** A single occurrence of the search text. */
+    public static final class Match {
+
+        private final int lineId;
+        private final int start;
+        private final int end;
+
+        Match(final int lineId, final int start, final int end) {
+            this.lineId = lineId;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Gets the ID of the line the match is on.
+         *
+         * @return The match's line ID
+         * @see DocumentSearchIndex#getLineNumber(int)
+         */
+        public int getLineId() {
+            return lineId;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+    }
+
+}
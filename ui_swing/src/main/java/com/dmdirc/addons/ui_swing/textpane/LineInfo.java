@@ -17,8 +17,11 @@
 
 package com.dmdirc.addons.ui_swing.textpane;
 
+import java.util.Objects;
+
 /**
- * Information about a position in a line.
+ * Information about a position in a line. Instances are compared by value, so must not be modified
+ * while they are used as keys in a map.
  */
 public final class LineInfo {
 
@@ -106,6 +109,20 @@ public final class LineInfo {
         this.part = part;
     }
 
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof LineInfo)) {
+            return false;
+        }
+        final LineInfo other = (LineInfo) obj;
+        return line == other.line && part == other.part && index == other.index;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(line, part, index);
+    }
+
     /* {@inheritDoc} */
     @Override
     public String toString() {
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_swing.textpane;
+
+import com.dmdirc.ui.messages.Line;
+
+import java.awt.Color;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineBreakMeasurer;
+import java.awt.font.TextAttribute;
+import java.awt.font.TextLayout;
+import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Caches the wrapped layouts of lines in a document, so that lines don't have to be re-measured
+ * every time the canvas is painted.
+ *
+ * <p>Entries are keyed by line number, and are only used if they were created from the same
+ * {@link Line} instance of the document, for the same width and with the same font render context.
+ * Lines are only styled when there is no usable entry, so that the cache still saves work when the
+ * document no longer holds a styled copy of the line. Changing the width discards the whole cache,
+ * as does an explicit {@link #invalidate()}, which must be used when the way lines are styled
+ * changes. When lines are trimmed from the start of the document the remaining entries are
+ * renumbered rather than discarded.
+ *
+ * <p>Each entry can also hold highlighted copies of its layouts, used to draw selected text without
+ * laying it out again on every paint.
+ *
+ * <p>This class is not thread safe, and should only be used on the EDT.
+ */
+class LineLayoutCache {
+
+    /** Default maximum number of lines to cache. */
+    private static final int DEFAULT_MAX_LINES = 1024;
+
+    /** Cached layouts, in least-recently-used order. */
+    private final LinkedHashMap<Integer, Entry> entries;
+    /** Maximum number of lines to cache. */
+    private final int maxLines;
+    /** Width that the cached layouts were wrapped to. */
+    private float width = -1;
+    /** Number of lookups satisfied by the cache. */
+    private long hits;
+    /** Number of lookups that required a line to be wrapped. */
+    private long misses;
+
+    /**
+     * Creates a new cache holding up to a default number of lines.
+     */
+    LineLayoutCache() {
+        this(DEFAULT_MAX_LINES);
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxLines Maximum number of lines to cache
+     */
+    LineLayoutCache(final int maxLines) {
+        this.maxLines = Math.max(1, maxLines);
+        entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Integer, Entry> eldest) {
+                return size() > LineLayoutCache.this.maxLines;
+            }
+        };
+    }
+
+    /**
+     * Gets the wrapped layouts for a line, wrapping it if there is no usable cached copy.
+     *
+     * @param line    The number of the line
+     * @param source  The document's line at that number
+     * @param text    Supplier of the styled text of the line, only used if it must be wrapped
+     * @param width   The width to wrap the line to
+     * @param context The font render context the line will be drawn with
+     *
+     * @return The layouts for each wrapped part of the line, in order. The list must not be
+     * modified.
+     */
+    List<TextLayout> getLayouts(final int line, final Line source,
+            final Supplier<AttributedString> text, final float width,
+            final FontRenderContext context) {
+        if (width != this.width) {
+            entries.clear();
+            this.width = width;
+        }
+
+        final Entry entry = entries.get(line);
+        if (entry != null && entry.source == source && entry.context.equals(context)) {
+            hits++;
+            return entry.layouts;
+        }
+
+        misses++;
+        final AttributedString styled = text.get();
+        final List<TextLayout> layouts = wrap(styled, width, context);
+        entries.put(line, new Entry(source, styled, context, layouts));
+        return layouts;
+    }
+
+    /**
+     * Gets a copy of one wrapped part of a line, with its colours replaced by the given highlight
+     * colours. Glyphs are positioned identically to the normal layout, so the highlighted copy can
+     * be drawn over it clipped to the selected region. The line must have been retrieved using
+     * {@link #getLayouts} with the current width.
+     *
+     * @param line       The number of the line
+     * @param part       The wrapped part of the line
+     * @param foreground The foreground colour of highlighted text
+     * @param background The background colour of highlighted text
+     *
+     * @return The highlighted layout for the part
+     */
+    TextLayout getHighlightLayout(final int line, final int part, final Color foreground,
+            final Color background) {
+        final Entry entry = entries.get(line);
+        if (entry == null) {
+            throw new IllegalStateException("Line " + line + " has no cached layouts");
+        }
+
+        if (entry.highlightLayouts == null || !foreground.equals(entry.highlightForeground)
+                || !background.equals(entry.highlightBackground)) {
+            entry.highlightLayouts = new TextLayout[entry.layouts.size()];
+            entry.highlightForeground = foreground;
+            entry.highlightBackground = background;
+        }
+
+        if (entry.highlightLayouts[part] == null) {
+            int start = entry.text.getIterator().getBeginIndex();
+            for (int i = 0; i < part; i++) {
+                start += entry.layouts.get(i).getCharacterCount();
+            }
+            final AttributedString highlighted = new AttributedString(entry.text.getIterator(),
+                    start, start + entry.layouts.get(part).getCharacterCount());
+            highlighted.addAttribute(TextAttribute.FOREGROUND, foreground);
+            highlighted.addAttribute(TextAttribute.BACKGROUND, background);
+            entry.highlightLayouts[part] = new TextLayout(highlighted.getIterator(),
+                    entry.context);
+        }
+        return entry.highlightLayouts[part];
+    }
+
+    /**
+     * Renumbers cached lines after lines have been trimmed from the start of the document.
+     *
+     * @param numTrimmed The number of lines that were removed
+     */
+    void trimmed(final int numTrimmed) {
+        if (numTrimmed <= 0) {
+            return;
+        }
+        // Copy in iteration order, so that the least-recently-used order is preserved.
+        final Map<Integer, Entry> remaining = new LinkedHashMap<>(entries.size());
+        for (Map.Entry<Integer, Entry> entry : entries.entrySet()) {
+            if (entry.getKey() >= numTrimmed) {
+                remaining.put(entry.getKey() - numTrimmed, entry.getValue());
+            }
+        }
+        entries.clear();
+        entries.putAll(remaining);
+    }
+
+    /**
+     * Discards all cached layouts.
+     */
+    void invalidate() {
+        entries.clear();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the proportion of lookups that were satisfied by the cache.
+     *
+     * @return The hit rate, between 0 and 1
+     */
+    double getHitRate() {
+        final long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private static List<TextLayout> wrap(final AttributedString text, final float width,
+            final FontRenderContext context) {
+        final AttributedCharacterIterator iterator = text.getIterator();
+        final int paragraphEnd = iterator.getEndIndex();
+        final LineBreakMeasurer lineMeasurer = new LineBreakMeasurer(iterator, context);
+        lineMeasurer.setPosition(iterator.getBeginIndex());
+
+        final List<TextLayout> layouts = new ArrayList<>(1);
+        while (lineMeasurer.getPosition() < paragraphEnd) {
+            layouts.add(checkNotNull(lineMeasurer.nextLayout(width)));
+        }
+        return Collections.unmodifiableList(layouts);
+    }
+
+    /** A cached set of layouts for a single line. */
+    private static class Entry {
+
+        /** The document line the layouts were created for. */
+        private final Line source;
+        /** The styled text the layouts were created from. */
+        private final AttributedString text;
+        /** The font render context the layouts were created with. */
+        private final FontRenderContext context;
+        /** The layouts of each wrapped part of the line. */
+        private final List<TextLayout> layouts;
+        /** Highlighted copies of each wrapped part, created when first needed. */
+        private TextLayout[] highlightLayouts;
+        /** The foreground colour of the highlighted layouts. */
+        private Color highlightForeground;
+        /** The background colour of the highlighted layouts. */
+        private Color highlightBackground;
+
+        Entry(final Line source, final AttributedString text, final FontRenderContext context,
+                final List<TextLayout> layouts) {
+            this.source = source;
+            this.text = text;
+            this.context = context;
+            this.layouts = layouts;
+        }
+
+    }
+
+}
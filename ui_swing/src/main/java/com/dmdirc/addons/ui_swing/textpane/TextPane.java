@@ -40,6 +40,7 @@ import java.awt.event.MouseMotionAdapter;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
+import java.util.Collection;
 import javax.swing.BoundedRangeModel;
 import javax.swing.DefaultBoundedRangeModel;
 import javax.swing.JComponent;
@@ -81,6 +82,8 @@ public final class TextPane extends JComponent implements MouseWheelListener,
     private int lastSeenLine;
     /** Show new line notifications. */
     private boolean showNotification;
+    /** Search index for the document, created when first needed. */
+    private DocumentSearchIndex searchIndex;
 
     /**
      * Creates a new instance of TextPane.
@@ -430,6 +433,7 @@ public final class TextPane extends JComponent implements MouseWheelListener,
     @Override
     public void trimmed(final int newSize, final int numTrimmed) {
         UIUtilities.invokeLater(() -> {
+            canvas.trimmed(numTrimmed);
             lastSeenLine -= numTrimmed;
             final LinePosition selectedRange = getSelectedRange();
             selectedRange.setStartLine(selectedRange.getStartLine() - numTrimmed);
@@ -454,6 +458,7 @@ public final class TextPane extends JComponent implements MouseWheelListener,
         UIUtilities.invokeLater(() -> {
             scrollModel.setMaximum(0);
             scrollModel.setValue(0);
+            canvas.cleared();
             canvas.recalc();
         });
     }
@@ -474,7 +479,11 @@ public final class TextPane extends JComponent implements MouseWheelListener,
 
     @Override
     public void repaintNeeded() {
-        UIUtilities.invokeLater(canvas::recalc);
+        UIUtilities.invokeLater(() -> {
+            // Lines may now be styled differently, so their cached layouts can't be re-used.
+            canvas.getLayoutCache().invalidate();
+            canvas.recalc();
+        });
     }
 
     /**
@@ -486,6 +495,29 @@ public final class TextPane extends JComponent implements MouseWheelListener,
         return document;
     }
 
+    /**
+     * Retrieves the search index for this TextPane's document, creating it if required. Must be
+     * called on the EDT.
+     *
+     * @return This TextPane's search index
+     */
+    public DocumentSearchIndex getSearchIndex() {
+        if (searchIndex == null) {
+            searchIndex = new DocumentSearchIndex(document);
+            document.addIRCDocumentListener(searchIndex);
+        }
+        return searchIndex;
+    }
+
+    /**
+     * Highlights the given search matches, replacing any previously highlighted matches.
+     *
+     * @param matches The matches to highlight, from this TextPane's search index
+     */
+    public void setSearchMatches(final Collection<DocumentSearchIndex.Match> matches) {
+        canvas.setSearchMatches(getSearchIndex(), matches);
+    }
+
     /**
      * Retrieves the parent window for this TextPane.
      *
@@ -495,6 +527,18 @@ public final class TextPane extends JComponent implements MouseWheelListener,
         return window;
     }
 
+    /**
+     * Describes how effective the cache of wrapped line layouts has been. Must be called on the
+     * EDT.
+     *
+     * @return A summary of the layout cache's size and hit rate
+     */
+    public String getLayoutCacheStats() {
+        final LineLayoutCache cache = canvas.getLayoutCache();
+        return String.format("Layout cache: %d lines, %d hits, %d misses (%.1f%% hit rate)",
+                cache.size(), cache.getHits(), cache.getMisses(), cache.getHitRate() * 100);
+    }
+
     /**
      * Adds a TextPane listener to this TextPane.
      *
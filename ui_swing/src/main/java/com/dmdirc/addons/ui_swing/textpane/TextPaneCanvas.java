@@ -44,7 +44,11 @@ import java.awt.font.TextLayout;
 import java.awt.geom.Rectangle2D;
 import java.text.AttributedCharacterIterator;
 import java.text.AttributedString;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.swing.JPanel;
@@ -88,6 +92,12 @@ class TextPaneCanvas extends JPanel implements MouseInputListener,
     private final ListenerList listeners = new ListenerList();
     /** Renderer to use for lines. */
     private final LineRenderer lineRenderer;
+    /** Cache of wrapped line layouts, kept between paints. */
+    private final LineLayoutCache layoutCache;
+    /** Highlighted search matches, keyed on line ID. */
+    private final Map<Integer, List<DocumentSearchIndex.Match>> searchMatches = new HashMap<>();
+    /** Index the search matches belong to, or null if there are none. */
+    private DocumentSearchIndex searchIndex;
 
     /**
      * Creates a new text pane canvas.
@@ -99,6 +109,7 @@ class TextPaneCanvas extends JPanel implements MouseInputListener,
         this.document = document;
         textPane = parent;
         this.manager = parent.getWindow().getConfigManager();
+        this.layoutCache = new LineLayoutCache();
         this.lineRenderer = new BasicTextLineRenderer(textPane, this, document);
         startLine = 0;
         setDoubleBuffered(true);
@@ -110,6 +121,8 @@ class TextPaneCanvas extends JPanel implements MouseInputListener,
         addMouseMotionListener(this);
         addComponentListener(this);
         manager.addChangeListener("ui", "quickCopy", this);
+        manager.addChangeListener("ui", "textPaneFontName", this);
+        manager.addChangeListener("ui", "textPaneFontSize", this);
 
         updateCachedSettings();
         ToolTipManager.sharedInstance().registerComponent(this);
@@ -153,11 +166,10 @@ class TextPaneCanvas extends JPanel implements MouseInputListener,
         final float formatHeight = getHeight();
         float drawPosY = formatHeight - DOUBLE_SIDE_PADDING;
 
-        lineLayouts.clear();
-        lineAreas.clear();
-
         //check theres something to draw and theres some space to draw in
         if (document.getNumLines() == 0 || formatWidth < 1) {
+            lineLayouts.clear();
+            lineAreas.clear();
             setCursor(Cursor.getDefaultCursor());
             return;
         }
@@ -177,6 +189,10 @@ class TextPaneCanvas extends JPanel implements MouseInputListener,
             }
         }
 
+        // Every painted line replaced its own entries, so only lines scrolled out of view remain.
+        lineAreas.keySet().removeIf(this::isOutsidePaintedLines);
+        lineLayouts.keySet().removeIf(this::isOutsidePaintedLines);
+
         checkForLink();
     }
 
@@ -186,10 +202,25 @@ class TextPaneCanvas extends JPanel implements MouseInputListener,
                 line);
         lineAreas.putAll(result.drawnAreas);
         lineLayouts.putAll(result.textLayouts);
+        // The line may have wrapped onto more parts the last time it was painted.
+        final int parts = result.textLayouts.size();
+        lineAreas.keySet().removeIf(info -> info.getLine() == line && info.getPart() >= parts);
+        lineLayouts.keySet().removeIf(info -> info.getLine() == line && info.getPart() >= parts);
         firstVisibleLine = result.firstVisibleLine;
         return drawPosY - result.totalHeight;
     }
 
+    /**
+     * Determines whether the given line info lies outside the lines painted most recently.
+     *
+     * @param info The line info to check
+     *
+     * @return True if the line was not painted, false otherwise
+     */
+    private boolean isOutsidePaintedLines(final LineInfo info) {
+        return info.getLine() < firstVisibleLine || info.getLine() > startLine;
+    }
+
     @Override
     public void adjustmentValueChanged(final AdjustmentEvent e) {
         if (startLine != e.getValue()) {
@@ -236,6 +267,7 @@ class TextPaneCanvas extends JPanel implements MouseInputListener,
      */
     private void setSelection(final int line, final int start, final int end,
             final boolean copyControlCharacters) {
+        final LinePosition oldSelection = new LinePosition(selection);
         selection.setStartLine(line);
         selection.setEndLine(line);
         selection.setStartPos(start);
@@ -244,6 +276,7 @@ class TextPaneCanvas extends JPanel implements MouseInputListener,
             textPane.copy(copyControlCharacters);
             clearSelection();
         }
+        repaintSelectionChange(oldSelection);
     }
 
     /**
@@ -414,6 +447,7 @@ class TextPaneCanvas extends JPanel implements MouseInputListener,
             }
 
             if (info.getLine() != -1 && info.getPart() != -1) {
+                final LinePosition oldSelection = new LinePosition(selection);
                 if (type == MouseEventType.CLICK) {
                     selection.setStartLine(info.getLine());
                     selection.setStartPos(info.getIndex());
@@ -421,7 +455,7 @@ class TextPaneCanvas extends JPanel implements MouseInputListener,
                 selection.setEndLine(info.getLine());
                 selection.setEndPos(info.getIndex());
 
-                recalc();
+                repaintSelectionChange(oldSelection);
             }
         }
     }
@@ -556,9 +590,70 @@ class TextPaneCanvas extends JPanel implements MouseInputListener,
 
     /** Clears the selection. */
     protected void clearSelection() {
+        final LinePosition oldSelection = new LinePosition(selection);
         selection.setEndLine(selection.getStartLine());
         selection.setEndPos(selection.getStartPos());
-        recalc();
+        repaintSelectionChange(oldSelection);
+    }
+
+    /**
+     * Repaints the rows whose highlighting differs between the given selection and the current
+     * one, rather than the whole canvas.
+     *
+     * @param oldSelection The selection before it was changed
+     */
+    private void repaintSelectionChange(final LinePosition oldSelection) {
+        if (!isVisible()) {
+            return;
+        }
+        if (lineAreas.isEmpty()) {
+            repaint();
+            return;
+        }
+
+        final LinePosition before = oldSelection.getNormalised();
+        final LinePosition after = selection.getNormalised();
+        for (Map.Entry<LineInfo, Rectangle2D.Float> entry : lineAreas.entrySet()) {
+            if (!isLineSelectionEqual(before, after, entry.getKey().getLine())) {
+                repaint(entry.getValue().getBounds());
+            }
+        }
+    }
+
+    /**
+     * Determines whether two selections highlight the same characters on a line.
+     *
+     * @param first  The first normalised selection
+     * @param second The second normalised selection
+     * @param line   The line to check
+     *
+     * @return True if the line's highlighting is the same for both selections
+     */
+    private static boolean isLineSelectionEqual(final LinePosition first,
+            final LinePosition second, final int line) {
+        final int firstStart = getSelectionStart(first, line);
+        final int firstEnd = getSelectionEnd(first, line);
+        final int secondStart = getSelectionStart(second, line);
+        final int secondEnd = getSelectionEnd(second, line);
+        if (firstStart >= firstEnd && secondStart >= secondEnd) {
+            // Neither selection highlights anything on the line.
+            return true;
+        }
+        return firstStart == secondStart && firstEnd == secondEnd;
+    }
+
+    private static int getSelectionStart(final LinePosition selection, final int line) {
+        if (line < selection.getStartLine() || line > selection.getEndLine()) {
+            return 0;
+        }
+        return line == selection.getStartLine() ? selection.getStartPos() : 0;
+    }
+
+    private static int getSelectionEnd(final LinePosition selection, final int line) {
+        if (line < selection.getStartLine() || line > selection.getEndLine()) {
+            return 0;
+        }
+        return line == selection.getEndLine() ? selection.getEndPos() : Integer.MAX_VALUE;
     }
 
     /**
@@ -620,9 +715,66 @@ class TextPaneCanvas extends JPanel implements MouseInputListener,
 
     @Override
     public void configChanged(final String domain, final String key) {
+        UIUtilities.invokeLater(layoutCache::invalidate);
         updateCachedSettings();
     }
 
+    /**
+     * Highlights the given search matches, replacing any previously highlighted matches.
+     *
+     * @param index   The index the matches were found by
+     * @param matches The matches to highlight
+     */
+    public void setSearchMatches(final DocumentSearchIndex index,
+            final Collection<DocumentSearchIndex.Match> matches) {
+        searchMatches.clear();
+        searchIndex = matches.isEmpty() ? null : index;
+        for (DocumentSearchIndex.Match match : matches) {
+            searchMatches.computeIfAbsent(match.getLineId(), k -> new ArrayList<>()).add(match);
+        }
+        recalc();
+    }
+
+    /**
+     * Gets the highlighted search matches on a line.
+     *
+     * @param line The line number
+     *
+     * @return The matches on the line, in order
+     */
+    public List<DocumentSearchIndex.Match> getSearchMatches(final int line) {
+        if (searchIndex == null) {
+            return Collections.emptyList();
+        }
+        return searchMatches.getOrDefault(searchIndex.getLineId(line), Collections.emptyList());
+    }
+
+    /**
+     * Gets the cache of wrapped line layouts used by this canvas.
+     *
+     * @return The canvas' layout cache
+     */
+    LineLayoutCache getLayoutCache() {
+        return layoutCache;
+    }
+
+    /**
+     * Updates the layout cache after lines have been trimmed from the document. Must be called on
+     * the EDT.
+     *
+     * @param numTrimmed The number of lines that were removed
+     */
+    void trimmed(final int numTrimmed) {
+        layoutCache.trimmed(numTrimmed);
+    }
+
+    /**
+     * Discards the layout cache after the document has been cleared. Must be called on the EDT.
+     */
+    void cleared() {
+        layoutCache.invalidate();
+    }
+
     @Override
     public String getToolTipText(final MouseEvent event) {
         final AttributedCharacterIterator iterator = getIterator(
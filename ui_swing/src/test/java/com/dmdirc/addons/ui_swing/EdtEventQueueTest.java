@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_swing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EdtEventQueueTest {
+
+    private final EdtEventQueue queue = EdtEventQueue.getInstance();
+    private final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws Exception {
+        SwingUtilities.invokeAndWait(queue::flush);
+    }
+
+    @Test
+    public void testRunsTasksInOrderOnEdt() throws Exception {
+        queue.post("test", null, () -> record("one"));
+        queue.post("test", null, () -> record("two"));
+        SwingUtilities.invokeAndWait(queue::flush);
+
+        assertEquals(Arrays.asList("one@edt", "two@edt"), calls);
+    }
+
+    @Test
+    public void testCoalescesTasksWithSameKeyInPlace() throws Exception {
+        final Object listener = new Object();
+        queue.post("coalescing", key(listener, "window"), () -> record("first"));
+        queue.post("coalescing", null, () -> record("other"));
+        queue.post("coalescing", key(listener, "window"), () -> record("second"));
+        SwingUtilities.invokeAndWait(queue::flush);
+
+        assertEquals(Arrays.asList("second@edt", "other@edt"), calls);
+        assertTrue(queue.getHandlerStats().stream()
+                .anyMatch(s -> s.startsWith("coalescing: 3 posted, 1 coalesced, 2 run")));
+    }
+
+    @Test
+    public void testDoesNotCoalesceDifferentWindows() throws Exception {
+        final Object listener = new Object();
+        queue.post("test", key(listener, "one"), () -> record("one"));
+        queue.post("test", key(listener, "two"), () -> record("two"));
+        SwingUtilities.invokeAndWait(queue::flush);
+
+        assertEquals(Arrays.asList("one@edt", "two@edt"), calls);
+    }
+
+    @Test
+    public void testPostingFromEdtRunsImmediately() throws Exception {
+        queue.post("test", null, () -> record("queued"));
+        SwingUtilities.invokeAndWait(() -> {
+            queue.post("test", null, () -> record("posted"));
+            calls.add("returned");
+        });
+
+        assertEquals(Arrays.asList("queued@edt", "posted@edt", "returned"), calls);
+    }
+
+    @Test
+    public void testKeysCompareListenersByIdentity() {
+        final List<String> first = new ArrayList<>();
+        final List<String> second = new ArrayList<>();
+        assertEquals(key(first, "window"), key(first, "window"));
+        assertEquals(key(first, "window").hashCode(), key(first, "window").hashCode());
+        assertNotEquals(key(first, "window"), key(second, "window"));
+    }
+
+    private void record(final String call) {
+        calls.add(call + (SwingUtilities.isEventDispatchThread() ? "@edt" : ""));
+    }
+
+    private EdtEventQueue.Key key(final Object listener, final Object window) {
+        return new EdtEventQueue.Key(this, listener, String.class, window);
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_swing.components;
+
+import com.dmdirc.config.provider.AggregateConfigProvider;
+import com.dmdirc.interfaces.GroupChatUser;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class NicklistListModelTest {
+
+    /** Orders mode strings so that ops come before voices, which come before normal users. */
+    private static final Comparator<String> MODES = Comparator.comparing(
+            modes -> modes.isEmpty() ? 2 : "ov".indexOf(modes.charAt(0)));
+
+    @Mock private AggregateConfigProvider config;
+    @Mock private ListDataListener listener;
+    @Captor private ArgumentCaptor<ListDataEvent> event;
+    private GroupChatUser alice;
+    private GroupChatUser bob;
+    private GroupChatUser carol;
+    private GroupChatUser dave;
+    private NicklistListModel model;
+
+    @Before
+    public void setUp() {
+        when(config.getOptionBool("nicklist", "sortByMode")).thenReturn(true);
+        when(config.getOptionBool("nicklist", "sortByCase")).thenReturn(false);
+        alice = getUser("alice", "");
+        bob = getUser("Bob", "v");
+        carol = getUser("carol", "o");
+        dave = getUser("Dave", "");
+        model = new NicklistListModel(config);
+        model.replace(Arrays.asList(alice, bob, carol));
+        model.addListDataListener(listener);
+    }
+
+    @Test
+    public void testReplaceSortsByModeThenNickname() {
+        assertOrder(carol, bob, alice);
+    }
+
+    @Test
+    public void testAddInsertsInOrder() {
+        model.add(dave);
+        assertOrder(carol, bob, alice, dave);
+        verify(listener).intervalAdded(event.capture());
+        assertEquals(3, event.getValue().getIndex0());
+        assertEquals(3, event.getValue().getIndex1());
+    }
+
+    @Test
+    public void testRemoveFiresSingleRow() {
+        model.remove(bob);
+        assertOrder(carol, alice);
+        verify(listener).intervalRemoved(event.capture());
+        assertEquals(1, event.getValue().getIndex0());
+        assertEquals(1, event.getValue().getIndex1());
+    }
+
+    @Test
+    public void testRemoveUnknownUser() {
+        assertFalse(model.remove(dave));
+        assertOrder(carol, bob, alice);
+    }
+
+    @Test
+    public void testSortPicksUpModeChanges() {
+        when(alice.getAllModes()).thenReturn("o");
+        model.sort();
+        assertOrder(alice, carol, bob);
+    }
+
+    @Test
+    public void testSortByCase() {
+        when(config.getOptionBool("nicklist", "sortByMode")).thenReturn(false);
+        when(config.getOptionBool("nicklist", "sortByCase")).thenReturn(true);
+        model.configChanged("nicklist", "sortByMode");
+        model.configChanged("nicklist", "sortByCase");
+        assertOrder(bob, alice, carol);
+    }
+
+    private void assertOrder(final GroupChatUser... users) {
+        assertEquals(users.length, model.getSize());
+        for (int i = 0; i < users.length; i++) {
+            assertSame(users[i], model.getElementAt(i));
+        }
+    }
+
+    private static GroupChatUser getUser(final String nickname, final String modes) {
+        final GroupChatUser user = mock(GroupChatUser.class);
+        when(user.getNickname()).thenReturn(nickname);
+        when(user.getAllModes()).thenReturn(modes);
+        when(user.getModeComparator()).thenReturn(MODES);
+        return user;
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_swing.framemanager.tree;
+
+import com.dmdirc.addons.ui_swing.SwingWindowFactory;
+import com.dmdirc.addons.ui_swing.UIUtilities;
+import com.dmdirc.addons.ui_swing.components.IconManager;
+import com.dmdirc.addons.ui_swing.components.frames.TextFrame;
+import com.dmdirc.addons.ui_swing.events.SwingEventBus;
+import com.dmdirc.addons.ui_swing.events.SwingWindowAddedEvent;
+import com.dmdirc.addons.ui_swing.interfaces.ActiveFrameManager;
+import com.dmdirc.config.binding.ConfigBinder;
+import com.dmdirc.config.provider.AggregateConfigProvider;
+import com.dmdirc.events.UnreadStatusChangedEvent;
+import com.dmdirc.events.eventbus.EventBus;
+import com.dmdirc.interfaces.WindowModel;
+import com.dmdirc.ui.WindowManager;
+import com.dmdirc.ui.messages.ColourManager;
+import com.dmdirc.util.colours.Colour;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.Optional;
+
+import javax.swing.SwingUtilities;
+import javax.swing.tree.TreeModel;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TreeFrameManagerTest {
+
+    @Mock private WindowManager windowManager;
+    @Mock private AggregateConfigProvider config;
+    @Mock private ConfigBinder configBinder;
+    @Mock private ColourManager colourManager;
+    @Mock private ActiveFrameManager activeFrameManager;
+    @Mock private SwingWindowFactory windowFactory;
+    @Mock private EventBus eventBus;
+    @Mock private SwingEventBus swingEventBus;
+    @Mock private IconManager iconManager;
+    @Mock private TextFrame window;
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS) private WindowModel container;
+    private TreeFrameManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        when(config.getBinder()).thenReturn(configBinder);
+        when(configBinder.withDefaultDomain("domain")).thenReturn(configBinder);
+        when(colourManager.getColourFromString(anyString(), any(Colour.class)))
+                .thenReturn(Colour.BLACK);
+        when(window.getContainer()).thenReturn(container);
+        when(windowFactory.getSwingWindow(container)).thenReturn(window);
+        when(container.getUnreadStatusManager().getNotificationColour())
+                .thenReturn(Optional.empty());
+
+        manager = new TreeFrameManager(windowManager, config, colourManager, activeFrameManager,
+                windowFactory, "domain", eventBus, swingEventBus, iconManager);
+        // The tree is created on the EDT.
+        SwingUtilities.invokeAndWait(() -> {});
+    }
+
+    @Test
+    public void testUnreadStatusAppliesToWindowAddedInSameFrame() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            // Add the window from another thread, so the change waits in the EDT queue.
+            final Thread thread = new Thread(() -> manager.doAddWindow(
+                    new SwingWindowAddedEvent(Optional.empty(), window)));
+            thread.start();
+            Uninterruptibles.joinUninterruptibly(thread);
+
+            manager.unreadStatusChanged(new UnreadStatusChangedEvent(container,
+                    container.getUnreadStatusManager(), Optional.of(Colour.RED), 1));
+        });
+
+        final TreeModel model = manager.getTree().getModel();
+        final TreeViewNode node = (TreeViewNode) model.getChild(model.getRoot(), 0);
+        assertEquals(UIUtilities.convertColour(Colour.RED),
+                node.getLabel().getNotificationColour());
+    }
+
+}
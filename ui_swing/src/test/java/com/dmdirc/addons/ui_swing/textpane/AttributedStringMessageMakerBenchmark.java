@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_swing.textpane;
+
+import com.dmdirc.ui.messages.StyledMessageMaker;
+import com.dmdirc.util.colours.Colour;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+/**
+ * Compares the memory allocated per line by {@link AttributedStringMessageMaker} with that
+ * allocated by {@link StyledDocumentMaker}. The old text pane path built a styled document for
+ * every line and then converted it, so the styled document figure is a lower bound for it.
+ *
+ * <p>This is not run as part of the test suite; run its main method directly. Allocation is
+ * measured with the HotSpot thread allocation counters.
+ */
+public final class AttributedStringMessageMakerBenchmark {
+
+    private static final int LINES = 100000;
+    private static final int ROUNDS = 5;
+    private static final Colour GREY = new Colour(128, 128, 128);
+    private static final Colour BLUE = new Colour(0, 0, 255);
+    private static final Colour RED = new Colour(255, 0, 0);
+
+    private AttributedStringMessageMakerBenchmark() {
+        // Shouldn't be instantiated
+    }
+
+    public static void main(final String... args) {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            final long documentBytes = measure(threads, thread, StyledDocumentMaker::new);
+            final long directBytes = measure(threads, thread, () -> {
+                final AttributedStringMessageMaker maker = new AttributedStringMessageMaker();
+                maker.setDefaultFont("Dialog", 12);
+                return maker;
+            });
+            System.out.printf("Round %d: styled document %d bytes/line, direct %d bytes/line%n",
+                    round + 1, documentBytes / LINES, directBytes / LINES);
+        }
+    }
+
+    private static long measure(final com.sun.management.ThreadMXBean threads, final long thread,
+            final Supplier<StyledMessageMaker<?>> supplier) {
+        final StyledMessageMaker<?> maker = supplier.get();
+        final long start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < LINES; i++) {
+            maker.clear();
+            writeLine(maker, i);
+            if (maker.getStyledMessage() == null) {
+                throw new IllegalStateException();
+            }
+        }
+        return threads.getThreadAllocatedBytes(thread) - start;
+    }
+
+    /**
+     * Writes a typical channel message: a timestamp, a nickname link, and text with a hyperlink
+     * and some formatting.
+     */
+    private static void writeLine(final StyledMessageMaker<?> maker, final int line) {
+        maker.resetAllStyles();
+        maker.setForeground(GREY);
+        maker.appendString("[12:34:56] ");
+        maker.resetColours();
+        maker.appendString("<");
+        maker.startNicknameLink("nick" + line % 20);
+        maker.appendString("nick" + line % 20);
+        maker.endNicknameLink();
+        maker.appendString("> Have a look at ");
+        maker.toggleHyperlinkStyle(BLUE);
+        maker.startHyperlink("http://example.com/");
+        maker.appendString("http://example.com/");
+        maker.toggleHyperlinkStyle(BLUE);
+        maker.endHyperlink();
+        maker.appendString(", it's ");
+        maker.toggleBold();
+        maker.setForeground(RED);
+        maker.appendString("really");
+        maker.resetAllStyles();
+        maker.appendString(" quite good.");
+    }
+
+}
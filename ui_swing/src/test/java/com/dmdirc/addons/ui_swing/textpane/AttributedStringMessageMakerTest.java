@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_swing.textpane;
+
+import com.dmdirc.ui.messages.IRCTextAttribute;
+import com.dmdirc.util.colours.Colour;
+
+import java.awt.Color;
+import java.awt.font.TextAttribute;
+import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class AttributedStringMessageMakerTest {
+
+    private AttributedStringMessageMaker maker;
+
+    @Before
+    public void setUp() {
+        maker = new AttributedStringMessageMaker();
+        maker.setDefaultFont("Dialog", 12);
+    }
+
+    @Test
+    public void testEmptyMessageIsNewline() {
+        assertEquals("\n", getText(maker.getStyledMessage()));
+    }
+
+    @Test
+    public void testAppendsText() {
+        maker.appendString("Hello ");
+        maker.appendString("world");
+        assertEquals("Hello world", getText(maker.getStyledMessage()));
+    }
+
+    @Test
+    public void testAppliesDefaultFont() {
+        maker.appendString("text");
+        final AttributedCharacterIterator iterator = maker.getStyledMessage().getIterator();
+        assertEquals(12, iterator.getAttribute(TextAttribute.SIZE));
+        assertEquals("Dialog", iterator.getAttribute(TextAttribute.FAMILY));
+    }
+
+    @Test
+    public void testStylesApplyToLaterText() {
+        maker.appendString("plain");
+        maker.toggleBold();
+        maker.appendString("bold");
+        maker.toggleBold();
+        maker.toggleFixedWidth();
+        maker.appendString("fixed");
+
+        final AttributedCharacterIterator iterator = maker.getStyledMessage().getIterator();
+        assertNull(iterator.getAttribute(TextAttribute.WEIGHT));
+        iterator.setIndex(5);
+        assertSame(TextAttribute.WEIGHT_BOLD, iterator.getAttribute(TextAttribute.WEIGHT));
+        iterator.setIndex(9);
+        assertNull(iterator.getAttribute(TextAttribute.WEIGHT));
+        assertEquals("monospaced", iterator.getAttribute(TextAttribute.FAMILY));
+    }
+
+    @Test
+    public void testColoursAndReset() {
+        maker.setDefaultForeground(new Colour(1, 2, 3));
+        maker.resetAllStyles();
+        maker.appendString("a");
+        maker.setForeground(new Colour(255, 0, 0));
+        maker.appendString("b");
+        maker.resetColours();
+        maker.appendString("c");
+
+        final AttributedCharacterIterator iterator = maker.getStyledMessage().getIterator();
+        assertEquals(new Color(1, 2, 3), iterator.getAttribute(TextAttribute.FOREGROUND));
+        iterator.setIndex(1);
+        assertEquals(Color.RED, iterator.getAttribute(TextAttribute.FOREGROUND));
+        iterator.setIndex(2);
+        assertEquals(new Color(1, 2, 3), iterator.getAttribute(TextAttribute.FOREGROUND));
+    }
+
+    @Test
+    public void testLinks() {
+        maker.appendString("see ");
+        maker.toggleHyperlinkStyle(new Colour(0, 0, 255));
+        maker.startHyperlink("http://example.com");
+        maker.appendString("here");
+        maker.toggleHyperlinkStyle(new Colour(0, 0, 255));
+        maker.endHyperlink();
+        maker.appendString(".");
+
+        final AttributedCharacterIterator iterator = maker.getStyledMessage().getIterator();
+        assertNull(iterator.getAttribute(IRCTextAttribute.HYPERLINK));
+        iterator.setIndex(4);
+        assertEquals("http://example.com", iterator.getAttribute(IRCTextAttribute.HYPERLINK));
+        assertEquals(Color.BLUE, iterator.getAttribute(TextAttribute.FOREGROUND));
+        assertSame(TextAttribute.UNDERLINE_ON, iterator.getAttribute(TextAttribute.UNDERLINE));
+        iterator.setIndex(8);
+        assertNull(iterator.getAttribute(IRCTextAttribute.HYPERLINK));
+        assertNull(iterator.getAttribute(TextAttribute.FOREGROUND));
+        assertNull(iterator.getAttribute(TextAttribute.UNDERLINE));
+    }
+
+    @Test
+    public void testClear() {
+        maker.appendString("first");
+        maker.getStyledMessage();
+        maker.clear();
+        maker.appendString("second");
+        assertEquals("second", getText(maker.getStyledMessage()));
+    }
+
+    private static String getText(final AttributedString string) {
+        final AttributedCharacterIterator iterator = string.getIterator();
+        final StringBuilder builder = new StringBuilder();
+        for (char c = iterator.first(); c != AttributedCharacterIterator.DONE;
+                c = iterator.next()) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_swing.textpane;
+
+import com.dmdirc.ui.messages.Document;
+import com.dmdirc.ui.messages.Line;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DocumentSearchIndexTest {
+
+    @Mock private Document document;
+    private final List<String> lines = new ArrayList<>();
+    private DocumentSearchIndex index;
+
+    @Before
+    public void setUp() {
+        when(document.getNumLines()).thenAnswer(invocation -> lines.size());
+        when(document.getLine(anyInt())).thenAnswer(invocation -> {
+            final Line line = mock(Line.class);
+            when(line.getText()).thenReturn(lines.get((Integer) invocation.getArguments()[0]));
+            return line;
+        });
+        lines.add("The quick brown fox");
+        lines.add("jumps over the lazy dog");
+        lines.add("THE END");
+        index = new DocumentSearchIndex(document);
+    }
+
+    @Test
+    public void testFindsAllMatchesInOrder() {
+        final List<DocumentSearchIndex.Match> matches = index.search("the", false);
+        assertEquals(3, matches.size());
+        assertMatch(matches.get(0), 0, 0, 3);
+        assertMatch(matches.get(1), 1, 11, 14);
+        assertMatch(matches.get(2), 2, 0, 3);
+    }
+
+    @Test
+    public void testCaseSensitive() {
+        final List<DocumentSearchIndex.Match> matches = index.search("the", true);
+        assertEquals(1, matches.size());
+        assertMatch(matches.get(0), 1, 11, 14);
+    }
+
+    @Test
+    public void testShortQuery() {
+        assertEquals(4, index.search("o", false).size());
+    }
+
+    @Test
+    public void testTrigramsMustBeInOrder() {
+        assertTrue(index.search("thethe", false).isEmpty());
+        assertTrue(index.search("quick dog", false).isEmpty());
+    }
+
+    @Test
+    public void testIndexesAddedLines() {
+        index.search("fox", false);
+        lines.add("another fox");
+        index.linesAdded(3, 1, 4);
+        final List<DocumentSearchIndex.Match> matches = index.search("fox", false);
+        assertEquals(2, matches.size());
+        assertMatch(matches.get(1), 3, 8, 11);
+    }
+
+    @Test
+    public void testTrimmedLinesKeepIds() {
+        final DocumentSearchIndex.Match match = index.search("lazy", false).get(0);
+        lines.remove(0);
+        index.trimmed(2, 1);
+        assertEquals(0, index.getLineNumber(match.getLineId()));
+        assertTrue(index.search("quick", false).isEmpty());
+        assertMatch(index.search("lazy", false).get(0), 0, 15, 19);
+    }
+
+    @Test
+    public void testSearchesTextOfLinesWhenTheyWereAdded() {
+        lines.add("another fox");
+        index.linesAdded(3, 1, 4);
+        // The document has trimmed a line, but hasn't told the index yet.
+        lines.remove(0);
+        List<DocumentSearchIndex.Match> matches = index.search("fox", false);
+        assertEquals(2, matches.size());
+        assertMatch(matches.get(0), 0, 16, 19);
+        assertMatch(matches.get(1), 3, 8, 11);
+
+        index.trimmed(3, 1);
+        matches = index.search("fox", false);
+        assertEquals(1, matches.size());
+        assertMatch(matches.get(0), 2, 8, 11);
+        assertTrue(index.search("quick", false).isEmpty());
+    }
+
+    @Test
+    public void testIndexesLinesAddedBeforeFirstSearch() {
+        for (int i = 0; i < 2000; i++) {
+            lines.add("line " + i);
+            index.linesAdded(lines.size() - 1, 1, lines.size());
+        }
+        assertEquals(2000, index.search("line", false).size());
+        assertEquals(2000, index.search("ne", false).size());
+        assertMatch(index.search("line 1999", false).get(0), 2002, 0, 9);
+    }
+
+    @Test
+    public void testReindexesInsertedLines() {
+        index.search("fox", false);
+        lines.add(0, "a second fox");
+        index.linesAdded(0, 1, 4);
+        final List<DocumentSearchIndex.Match> matches = index.search("fox", false);
+        assertEquals(2, matches.size());
+        assertMatch(matches.get(0), 0, 9, 12);
+        assertMatch(matches.get(1), 1, 16, 19);
+    }
+
+    @Test
+    public void testCleared() {
+        index.search("fox", false);
+        lines.clear();
+        index.cleared();
+        assertTrue(index.search("fox", false).isEmpty());
+    }
+
+    private void assertMatch(final DocumentSearchIndex.Match match, final int line,
+            final int start, final int end) {
+        assertEquals(line, index.getLineNumber(match.getLineId()));
+        assertEquals(start, match.getStart());
+        assertEquals(end, match.getEnd());
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_swing.textpane;
+
+import com.dmdirc.ui.messages.Line;
+
+import java.awt.Color;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextLayout;
+import java.text.AttributedString;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LineLayoutCacheTest {
+
+    private static final String TEXT = "The quick brown fox jumps over the lazy dog";
+
+    @Mock private Line line;
+    @Mock private Line other;
+    private final FontRenderContext context = new FontRenderContext(null, false, false);
+    private final Supplier<AttributedString> text = () -> new AttributedString(TEXT);
+    private LineLayoutCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new LineLayoutCache(4);
+    }
+
+    @Test
+    public void testReusesLayoutsForSameLine() {
+        final List<TextLayout> first = cache.getLayouts(0, line, text, 1000, context);
+        final List<TextLayout> second = cache.getLayouts(0, line, text, 1000, context);
+        assertSame(first, second);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate(), 0.001);
+    }
+
+    @Test
+    public void testOnlyStylesLinesThatAreWrapped() {
+        final AtomicInteger styled = new AtomicInteger();
+        final Supplier<AttributedString> counting = () -> {
+            styled.incrementAndGet();
+            return new AttributedString(TEXT);
+        };
+        for (int i = 0; i < 10; i++) {
+            cache.getLayouts(0, line, counting, 1000, context);
+        }
+        assertEquals(1, styled.get());
+        assertEquals(9, cache.getHits());
+    }
+
+    @Test
+    public void testWrapsWholeLine() {
+        final List<TextLayout> layouts = cache.getLayouts(0, line, text, 50, context);
+        assertTrue(layouts.size() > 1);
+        assertEquals(TEXT.length(), layouts.stream().mapToInt(TextLayout::getCharacterCount).sum());
+    }
+
+    @Test
+    public void testWidthChangeDiscardsCache() {
+        cache.getLayouts(0, line, text, 1000, context);
+        cache.getLayouts(1, other, text, 1000, context);
+        cache.getLayouts(0, line, text, 500, context);
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testDifferentLineIsRewrapped() {
+        final List<TextLayout> first = cache.getLayouts(0, line, text, 1000, context);
+        final List<TextLayout> second = cache.getLayouts(0, other, text, 1000, context);
+        assertNotSame(first, second);
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testInvalidate() {
+        cache.getLayouts(0, line, text, 1000, context);
+        cache.invalidate();
+        assertEquals(0, cache.size());
+        cache.getLayouts(0, line, text, 1000, context);
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testTrimmedRenumbersLines() {
+        cache.getLayouts(0, line, text, 1000, context);
+        final List<TextLayout> layouts = cache.getLayouts(3, other, text, 1000, context);
+        cache.trimmed(2);
+        assertEquals(1, cache.size());
+        assertSame(layouts, cache.getLayouts(1, other, text, 1000, context));
+    }
+
+    @Test
+    public void testHighlightLayoutMatchesPart() {
+        final List<TextLayout> layouts = cache.getLayouts(0, line, text, 50, context);
+        final TextLayout highlighted = cache.getHighlightLayout(0, 1, Color.WHITE, Color.BLUE);
+        assertEquals(layouts.get(1).getCharacterCount(), highlighted.getCharacterCount());
+        assertEquals(layouts.get(1).getAdvance(), highlighted.getAdvance(), 0.001);
+        assertSame(highlighted, cache.getHighlightLayout(0, 1, Color.WHITE, Color.BLUE));
+        assertNotSame(highlighted, cache.getHighlightLayout(0, 1, Color.BLACK, Color.BLUE));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testHighlightLayoutRequiresCachedLine() {
+        cache.getHighlightLayout(0, 0, Color.WHITE, Color.BLUE);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedLinesEvicted() {
+        for (int i = 0; i < 5; i++) {
+            cache.getLayouts(i, mock(Line.class), text, 1000, context);
+        }
+        assertEquals(4, cache.size());
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_web2;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import javax.annotation.Nullable;
+
+/**
+ * A message to be sent to web clients.
+ *
+ * <p>Deltas are shared between every session they're sent to, so their content must not be
+ * modified once created. The serialised form is produced the first time it is needed, and reused
+ * for all other sessions.
+ */
+public class Delta {
+
+    private final JsonObject body;
+    private final String type;
+    @Nullable private final String window;
+    /** The serialised message, or null if not yet serialised. */
+    private volatile String message;
+
+    /**
+     * Creates a new delta.
+     *
+     * @param body The content of the message, which must contain a {@code type} property and may
+     * contain a {@code window} property.
+     */
+    public Delta(final JsonObject body) {
+        this.body = body;
+        this.type = body.get("type").getAsString();
+        final JsonElement windowElement = body.get("window");
+        this.window = windowElement == null || windowElement.isJsonNull() ? null
+                : windowElement.getAsString();
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Gets the ID of the window this delta relates to.
+     *
+     * @return The window's ID, or null if the delta isn't specific to a window.
+     */
+    @Nullable
+    public String getWindow() {
+        return window;
+    }
+
+    public JsonObject getBody() {
+        return body;
+    }
+
+    /**
+     * Gets the serialised form of this delta.
+     *
+     * @return The message to send to clients.
+     */
+    public String getMessage() {
+        String result = message;
+        if (result == null) {
+            result = body.toString();
+            message = result;
+        }
+        return result;
+    }
+
+}
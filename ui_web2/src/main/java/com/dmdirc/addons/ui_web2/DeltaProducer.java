@@ -0,0 +1,472 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_web2;
+
+import com.dmdirc.addons.ui_web2.serialisers.StyledLineSerialiser;
+import com.dmdirc.config.GlobalConfig;
+import com.dmdirc.config.provider.AggregateConfigProvider;
+import com.dmdirc.events.FrameIconChangedEvent;
+import com.dmdirc.events.FrameNameChangedEvent;
+import com.dmdirc.events.FrameTitleChangedEvent;
+import com.dmdirc.events.eventbus.EventBus;
+import com.dmdirc.interfaces.WindowModel;
+import com.dmdirc.interfaces.ui.FrameListener;
+import com.dmdirc.plugins.PluginDomain;
+import com.dmdirc.ui.WindowManager;
+import com.dmdirc.ui.messages.Document;
+import com.dmdirc.ui.messages.DocumentListener;
+import com.dmdirc.ui.messages.Line;
+import com.dmdirc.ui.messages.Styliser;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import net.engio.mbassy.listener.Handler;
+
+/**
+ * Tracks windows and their back buffers, and produces deltas describing changes to them for web
+ * clients.
+ *
+ * <p>Each line added to a window's back buffer is given a sequence number one higher than the
+ * previous line. Clients remember the sequence number they expect next for each window, and can
+ * pass it back when they reconnect to receive only the lines they missed. If a back buffer changes
+ * in a way that can't be described by appending lines (for example, if it is cleared) the window's
+ * sequence numbers skip ahead, and clients are sent a reset with the window's most recent lines.
+ *
+ * <p>Every stream has a unique identifier, so that sequence numbers from a previous stream (for
+ * example, before the plugin was reloaded) are never mistaken for current ones.
+ *
+ * <p>All state is guarded by this producer's lock, and deltas are passed to subscribers while it
+ * is held so that they are received in order and never interleave with a snapshot.
+ */
+@Singleton
+public class DeltaProducer implements FrameListener {
+
+    /** Streams for each tracked window, keyed on window ID. */
+    private final Map<String, WindowStream> windows = new HashMap<>();
+    /** Serialiser used for lines in deltas. */
+    private final StyledLineSerialiser lineSerialiser = new StyledLineSerialiser();
+    /** Subscribers to pass deltas to. */
+    private final Collection<Consumer<Delta>> subscribers = new CopyOnWriteArrayList<>();
+    private final EventBus eventBus;
+    private final WindowManager windowManager;
+    private final Gson serialiser;
+    private final AggregateConfigProvider config;
+    private final String domain;
+    /** Unique identifier of the current stream, or null if not started. */
+    private String stream;
+
+    @Inject
+    public DeltaProducer(
+            final EventBus eventBus,
+            final WindowManager windowManager,
+            final Gson serialiser,
+            @GlobalConfig final AggregateConfigProvider config,
+            @PluginDomain(WebUiPlugin.class) final String domain) {
+        this.eventBus = eventBus;
+        this.windowManager = windowManager;
+        this.serialiser = serialiser;
+        this.config = config;
+        this.domain = domain;
+    }
+
+    /**
+     * Starts tracking windows. Sequence numbers are only continuous while the producer is started.
+     */
+    public synchronized void start() {
+        if (stream != null) {
+            return;
+        }
+
+        stream = UUID.randomUUID().toString();
+        windowManager.addListenerAndSync(this);
+        eventBus.subscribe(this);
+    }
+
+    /**
+     * Stops tracking windows, and removes all subscribers.
+     */
+    public synchronized void stop() {
+        if (stream == null) {
+            return;
+        }
+
+        eventBus.unsubscribe(this);
+        windowManager.removeListener(this);
+        windows.values().forEach(WindowStream::detach);
+        windows.clear();
+        subscribers.clear();
+        stream = null;
+    }
+
+    /**
+     * Adds a new subscriber. The initial message is produced and passed to the subscriber while the
+     * producer's lock is held, so the subscriber receives every delta after it and none before.
+     *
+     * <p>Subscribers are called with the producer's lock held, so must not block.
+     *
+     * @param subscriber The subscriber to add.
+     * @param initialMessage Supplier of the first message to pass to the subscriber.
+     */
+    public synchronized void addSubscriber(final Consumer<Delta> subscriber,
+            final Supplier<Delta> initialMessage) {
+        subscriber.accept(initialMessage.get());
+        subscribers.add(subscriber);
+    }
+
+    /**
+     * Removes a subscriber previously added with {@link #addSubscriber(Consumer, Supplier)}.
+     *
+     * @param subscriber The subscriber to remove.
+     */
+    public void removeSubscriber(final Consumer<Delta> subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    /**
+     * Gets the unique identifier of the current stream.
+     *
+     * @return The stream identifier, or null if the producer isn't started.
+     */
+    public synchronized String getStream() {
+        return stream;
+    }
+
+    /**
+     * Gets the current state of every tracked window's back buffer.
+     *
+     * <p>Windows that have an entry in {@code positions} are resumed from that sequence number if
+     * possible, containing only the lines added since. Otherwise the buffer is reset, and contains
+     * at most the configured number of recent lines.
+     *
+     * @param positions The next sequence number the client expects, keyed on window ID.
+     *
+     * @return A JSON object containing the state of each window's buffer, keyed on window ID.
+     */
+    public synchronized JsonObject getBuffers(final Map<String, Long> positions) {
+        final int tail = getTailLength();
+        final JsonObject res = new JsonObject();
+        windows.forEach((id, window) -> res.add(id,
+                window.getBuffer(positions.getOrDefault(id, -1L), tail)));
+        return res;
+    }
+
+    /**
+     * Gets a page of lines from a window's back buffer.
+     *
+     * <p>Only references to the lines are taken while the producer's lock is held; they can be
+     * serialised afterwards without blocking deltas.
+     *
+     * @param request The page to get.
+     *
+     * @return The requested page, or an empty optional if the window isn't known.
+     */
+    public synchronized Optional<HistoryPage> getHistory(final HistoryRequest request) {
+        final WindowStream windowStream = windows.get(request.getWindow());
+        return windowStream == null ? Optional.empty()
+                : Optional.of(windowStream.getPage(request));
+    }
+
+    @Override
+    public void addWindow(final WindowModel window, final boolean focus) {
+        addWindow(null, window, focus);
+    }
+
+    @Override
+    public synchronized void addWindow(@Nullable final WindowModel parent,
+            final WindowModel window, final boolean focus) {
+        if (stream == null || windows.containsKey(window.getId())) {
+            return;
+        }
+
+        final WindowStream windowStream = new WindowStream(window);
+        windows.put(window.getId(), windowStream);
+        windowStream.attach();
+
+        final JsonObject delta = createDelta("windowAdded", window);
+        delta.add("parent", parent == null ? JsonNull.INSTANCE
+                : serialiser.toJsonTree(parent.getId()));
+        delta.add("details", serialiser.toJsonTree(window, WindowModel.class));
+        delta.add("buffer", windowStream.getBuffer(-1, getTailLength()));
+        publish(delta);
+    }
+
+    @Override
+    public void delWindow(final WindowModel window) {
+        delWindow(null, window);
+    }
+
+    @Override
+    public synchronized void delWindow(@Nullable final WindowModel parent,
+            final WindowModel window) {
+        final WindowStream windowStream = windows.remove(window.getId());
+        if (windowStream != null) {
+            windowStream.detach();
+            publish(createDelta("windowRemoved", window));
+        }
+    }
+
+    @Handler
+    public void handleNameChanged(final FrameNameChangedEvent event) {
+        windowChanged(event.getContainer(), "name", event.getName());
+    }
+
+    @Handler
+    public void handleTitleChanged(final FrameTitleChangedEvent event) {
+        windowChanged(event.getContainer(), "title", event.getTitle());
+    }
+
+    @Handler
+    public void handleIconChanged(final FrameIconChangedEvent event) {
+        windowChanged(event.getContainer(), "icon", event.getIcon());
+    }
+
+    /**
+     * Publishes a delta describing a change to one of a window's properties.
+     *
+     * @param window The window that changed.
+     * @param property The name of the property that changed.
+     * @param value The new value of the property.
+     */
+    private synchronized void windowChanged(final WindowModel window, final String property,
+            final String value) {
+        if (windows.containsKey(window.getId())) {
+            final JsonObject delta = createDelta("windowChanged", window);
+            delta.addProperty(property, value);
+            publish(delta);
+        }
+    }
+
+    /**
+     * Gets the maximum number of lines to send for a window whose buffer can't be resumed.
+     *
+     * @return The configured tail length.
+     */
+    private int getTailLength() {
+        return Math.max(0, config.getOptionInt(domain, "snapshotlines"));
+    }
+
+    private static JsonObject createDelta(final String type, final WindowModel window) {
+        final JsonObject delta = new JsonObject();
+        delta.addProperty("type", type);
+        delta.addProperty("window", window.getId());
+        return delta;
+    }
+
+    /**
+     * Passes a delta to all subscribers. Must be called with the producer's lock held.
+     *
+     * @param delta The delta to publish.
+     */
+    private void publish(final JsonObject delta) {
+        if (!subscribers.isEmpty()) {
+            final Delta message = new Delta(delta);
+            subscribers.forEach(s -> s.accept(message));
+        }
+    }
+
+    /**
+     * Assigns sequence numbers to the lines in a window's back buffer, and publishes deltas as
+     * lines are added.
+     */
+    private class WindowStream implements DocumentListener {
+
+        private final WindowModel window;
+        private final Document document;
+        private final Styliser styliser;
+        /** Sequence number of the first line in the document. */
+        private long firstSequence;
+        /** Lowest sequence number a client can resume from, following the last reset. */
+        private long resetSequence;
+        /** Number of lines in the document, as far as we've been told. */
+        private int size;
+
+        WindowStream(final WindowModel window) {
+            this.window = window;
+            this.document = window.getBackBuffer().getDocument();
+            this.styliser = window.getBackBuffer().getStyliser();
+        }
+
+        void attach() {
+            size = document.getNumLines();
+            document.addIRCDocumentListener(this);
+        }
+
+        void detach() {
+            document.removeIRCDocumentListener(this);
+        }
+
+        /**
+         * Gets the state of this window's buffer, resuming from the given position if possible.
+         *
+         * @param from The next sequence number the client expects, or -1 if it has no lines.
+         * @param tail The maximum number of lines to include if the buffer can't be resumed.
+         *
+         * @return A JSON object describing the buffer.
+         */
+        JsonObject getBuffer(final long from, final int tail) {
+            final long nextSequence = firstSequence + size;
+            final boolean resumable = from >= resetSequence && from >= firstSequence
+                    && from <= nextSequence;
+            final long start = resumable ? from : Math.max(firstSequence, nextSequence - tail);
+
+            final JsonObject buffer = new JsonObject();
+            buffer.addProperty("reset", !resumable);
+            buffer.addProperty("firstSeq", firstSequence);
+            buffer.addProperty("nextSeq", nextSequence);
+            buffer.add("lines", getLines((int) (start - firstSequence), size));
+            return buffer;
+        }
+
+        /**
+         * Serialises a range of lines from the document, along with their sequence numbers.
+         *
+         * @param first The index of the first line to include.
+         * @param end The index after the last line to include.
+         *
+         * @return A JSON array of lines.
+         */
+        private JsonArray getLines(final int first, final int end) {
+            final JsonArray lines = new JsonArray();
+            for (int i = first; i < end; i++) {
+                lines.add(lineSerialiser.serialise(firstSequence + i, document.getLine(i),
+                        styliser));
+            }
+            return lines;
+        }
+
+        /**
+         * Gets a page of lines from the document.
+         *
+         * @param request The page to get.
+         *
+         * @return The requested page.
+         */
+        HistoryPage getPage(final HistoryRequest request) {
+            final int anchor;
+            if (request.isTimestamp()) {
+                anchor = findFirstLineSince(request.getAnchor());
+            } else {
+                anchor = (int) (Math.min(Math.max(request.getAnchor(), firstSequence),
+                        firstSequence + size) - firstSequence);
+            }
+
+            final int count = Math.max(0, request.getCount());
+            final int start = request.isBackwards() ? Math.max(0, anchor - count) : anchor;
+            final int end = request.isBackwards() ? anchor : Math.min(size, anchor + count);
+            final List<Line> lines = new ArrayList<>(end - start);
+            for (int i = start; i < end; i++) {
+                lines.add(document.getLine(i));
+            }
+            return new HistoryPage(window.getId(), firstSequence, firstSequence + size,
+                    firstSequence + start, lines, styliser);
+        }
+
+        /**
+         * Finds the first line added at or after the given time. Lines are assumed to be in
+         * timestamp order.
+         *
+         * @param timestamp The time to search for, in milliseconds since the epoch.
+         *
+         * @return The index of the first matching line, or the document size if there are none.
+         */
+        private int findFirstLineSince(final long timestamp) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (document.getLine(mid).getTimestamp() < timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Starts a new run of sequence numbers, leaving a gap so that no client can resume across
+         * it, and publishes the window's recent lines.
+         */
+        private void reset() {
+            firstSequence += size + 1;
+            resetSequence = firstSequence;
+            size = document.getNumLines();
+
+            final JsonObject delta = createDelta("reset", window);
+            delta.add("buffer", getBuffer(-1, getTailLength()));
+            publish(delta);
+        }
+
+        @Override
+        public void trimmed(final int newSize, final int numTrimmed) {
+            synchronized (DeltaProducer.this) {
+                // Clients keep their own copy of lines, so there's nothing to tell them.
+                firstSequence += numTrimmed;
+                size = newSize;
+            }
+        }
+
+        @Override
+        public void cleared() {
+            synchronized (DeltaProducer.this) {
+                reset();
+            }
+        }
+
+        @Override
+        public void linesAdded(final int line, final int length, final int size) {
+            synchronized (DeltaProducer.this) {
+                if (line != this.size) {
+                    // Lines have been inserted rather than appended.
+                    reset();
+                    return;
+                }
+
+                this.size = size;
+                final JsonObject delta = createDelta("lines", window);
+                delta.add("lines", getLines(line, line + length));
+                publish(delta);
+            }
+        }
+
+        @Override
+        public void repaintNeeded() {
+            // Clients do their own rendering.
+        }
+
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_web2;
+
+import com.dmdirc.ui.messages.Line;
+import com.dmdirc.ui.messages.Styliser;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of lines taken from a window's back buffer, which can be serialised without holding any
+ * locks.
+ */
+public class HistoryPage {
+
+    private final String window;
+    private final long firstSequence;
+    private final long nextSequence;
+    private final long startSequence;
+    private final List<Line> lines;
+    private final Styliser styliser;
+
+    /**
+     * Creates a new page.
+     *
+     * @param window The ID of the window the lines came from.
+     * @param firstSequence The sequence number of the first line in the window's back buffer.
+     * @param nextSequence The sequence number the next line added to the window will have.
+     * @param startSequence The sequence number of the first line in the page.
+     * @param lines The lines in the page.
+     * @param styliser The styliser to use to style the lines.
+     */
+    public HistoryPage(final String window, final long firstSequence, final long nextSequence,
+            final long startSequence, final List<Line> lines, final Styliser styliser) {
+        this.window = window;
+        this.firstSequence = firstSequence;
+        this.nextSequence = nextSequence;
+        this.startSequence = startSequence;
+        this.lines = Collections.unmodifiableList(lines);
+        this.styliser = styliser;
+    }
+
+    public String getWindow() {
+        return window;
+    }
+
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+
+    public long getNextSequence() {
+        return nextSequence;
+    }
+
+    public long getStartSequence() {
+        return startSequence;
+    }
+
+    /**
+     * Gets the sequence number after the last line in the page.
+     *
+     * @return The end sequence number of the page.
+     */
+    public long getEndSequence() {
+        return startSequence + lines.size();
+    }
+
+    public List<Line> getLines() {
+        return lines;
+    }
+
+    public Styliser getStyliser() {
+        return styliser;
+    }
+
+}
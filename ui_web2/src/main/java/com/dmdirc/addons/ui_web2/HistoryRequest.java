@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_web2;
+
+/**
+ * Describes a page of lines to fetch from a window's back buffer.
+ *
+ * <p>Pages are anchored either on a sequence number or a timestamp, and extend either forwards
+ * (including the anchor) or backwards (excluding it) from there.
+ */
+public final class HistoryRequest {
+
+    private final String window;
+    private final long anchor;
+    private final boolean timestamp;
+    private final boolean backwards;
+    private final int count;
+
+    private HistoryRequest(final String window, final long anchor, final boolean timestamp,
+            final boolean backwards, final int count) {
+        this.window = window;
+        this.anchor = anchor;
+        this.timestamp = timestamp;
+        this.backwards = backwards;
+        this.count = count;
+    }
+
+    /**
+     * Requests lines starting with the given sequence number.
+     *
+     * @param window The ID of the window to get lines from.
+     * @param sequence The sequence number of the first line.
+     * @param count The maximum number of lines to get.
+     *
+     * @return A new request.
+     */
+    public static HistoryRequest from(final String window, final long sequence, final int count) {
+        return new HistoryRequest(window, sequence, false, false, count);
+    }
+
+    /**
+     * Requests the lines immediately before the given sequence number.
+     *
+     * @param window The ID of the window to get lines from.
+     * @param sequence The sequence number after the last line.
+     * @param count The maximum number of lines to get.
+     *
+     * @return A new request.
+     */
+    public static HistoryRequest before(final String window, final long sequence,
+            final int count) {
+        return new HistoryRequest(window, sequence, false, true, count);
+    }
+
+    /**
+     * Requests lines starting with the first one added at or after the given time.
+     *
+     * @param window The ID of the window to get lines from.
+     * @param time The earliest time to include, in milliseconds since the epoch.
+     * @param count The maximum number of lines to get.
+     *
+     * @return A new request.
+     */
+    public static HistoryRequest since(final String window, final long time, final int count) {
+        return new HistoryRequest(window, time, true, false, count);
+    }
+
+    /**
+     * Requests the last lines added before the given time.
+     *
+     * @param window The ID of the window to get lines from.
+     * @param time The time to get lines before, in milliseconds since the epoch.
+     * @param count The maximum number of lines to get.
+     *
+     * @return A new request.
+     */
+    public static HistoryRequest until(final String window, final long time, final int count) {
+        return new HistoryRequest(window, time, true, true, count);
+    }
+
+    public String getWindow() {
+        return window;
+    }
+
+    /**
+     * Gets the sequence number or timestamp the page is anchored on.
+     *
+     * @return The anchor of the page.
+     */
+    public long getAnchor() {
+        return anchor;
+    }
+
+    /**
+     * Determines whether the page is anchored on a timestamp rather than a sequence number.
+     *
+     * @return True if the anchor is a timestamp, false if it is a sequence number.
+     */
+    public boolean isTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Determines whether the page ends at the anchor, rather than starting at it.
+     *
+     * @return True if lines before the anchor are requested, false otherwise.
+     */
+    public boolean isBackwards() {
+        return backwards;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_web2;
+
+import com.dmdirc.addons.ui_web2.serialisers.StyledLineSerialiser;
+import com.dmdirc.config.GlobalConfig;
+import com.dmdirc.config.provider.AggregateConfigProvider;
+import com.dmdirc.plugins.PluginDomain;
+import com.dmdirc.ui.messages.Line;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import javax.inject.Inject;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves pages of lines from windows' back buffers, so clients can fetch scrollback on demand.
+ *
+ * <p>Requests must give the {@code window} ID, and may give a maximum {@code count} of lines and
+ * one of:
+ * <ul>
+ * <li>{@code from} - a sequence number to start at;</li>
+ * <li>{@code before} - a sequence number to end before;</li>
+ * <li>{@code since} - a timestamp to start at; or</li>
+ * <li>{@code until} - a timestamp to end before.</li>
+ * </ul>
+ * If none are given, the most recent lines are returned.
+ *
+ * <p>The response gives the window's first and next sequence numbers ({@code firstSeq} and
+ * {@code nextSeq}), the sequence numbers at the {@code start} and {@code end} of the page, and the
+ * {@code lines} as serialised by {@link StyledLineSerialiser}. Lines are written straight to the
+ * response as they are styled, so the memory used doesn't depend on the size of the page.
+ */
+public class HistoryServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient DeltaProducer deltaProducer;
+    private final transient AggregateConfigProvider config;
+    private final String domain;
+
+    @Inject
+    public HistoryServlet(final DeltaProducer deltaProducer,
+            @GlobalConfig final AggregateConfigProvider config,
+            @PluginDomain(WebUiPlugin.class) final String domain) {
+        this.deltaProducer = deltaProducer;
+        this.config = config;
+        this.domain = domain;
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response)
+            throws IOException {
+        final HistoryRequest historyRequest;
+        try {
+            historyRequest = getHistoryRequest(request);
+        } catch (IllegalArgumentException ex) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+            return;
+        }
+
+        final Optional<HistoryPage> page = deltaProducer.getHistory(historyRequest);
+        if (!page.isPresent()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown window");
+            return;
+        }
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        try (JsonWriter writer = new JsonWriter(response.getWriter())) {
+            writePage(writer, page.get());
+        }
+    }
+
+    /**
+     * Parses the parameters of a request.
+     *
+     * @param request The request to parse.
+     *
+     * @return The page requested.
+     *
+     * @throws IllegalArgumentException If the request's parameters are missing or invalid.
+     */
+    private HistoryRequest getHistoryRequest(final HttpServletRequest request) {
+        final String window = request.getParameter("window");
+        if (window == null) {
+            throw new IllegalArgumentException("No window specified");
+        }
+
+        final int maxCount = Math.max(1, config.getOptionInt(domain, "historypage"));
+        final String countParameter = request.getParameter("count");
+        final int count = countParameter == null ? maxCount
+                : Math.max(0, Math.min(maxCount, Integer.parseInt(countParameter)));
+
+        if (request.getParameter("from") != null) {
+            return HistoryRequest.from(window, Long.parseLong(request.getParameter("from")),
+                    count);
+        } else if (request.getParameter("since") != null) {
+            return HistoryRequest.since(window, Long.parseLong(request.getParameter("since")),
+                    count);
+        } else if (request.getParameter("until") != null) {
+            return HistoryRequest.until(window, Long.parseLong(request.getParameter("until")),
+                    count);
+        } else if (request.getParameter("before") != null) {
+            return HistoryRequest.before(window, Long.parseLong(request.getParameter("before")),
+                    count);
+        } else {
+            return HistoryRequest.before(window, Long.MAX_VALUE, count);
+        }
+    }
+
+    private static void writePage(final JsonWriter writer, final HistoryPage page)
+            throws IOException {
+        final StyledLineSerialiser lineSerialiser = new StyledLineSerialiser();
+        writer.beginObject();
+        writer.name("window").value(page.getWindow());
+        writer.name("firstSeq").value(page.getFirstSequence());
+        writer.name("nextSeq").value(page.getNextSequence());
+        writer.name("start").value(page.getStartSequence());
+        writer.name("end").value(page.getEndSequence());
+        writer.name("lines").beginArray();
+        long sequence = page.getStartSequence();
+        for (Line line : page.getLines()) {
+            lineSerialiser.write(writer, sequence++, line, page.getStyliser());
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+}
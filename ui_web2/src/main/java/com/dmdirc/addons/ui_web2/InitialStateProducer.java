@@ -17,57 +17,66 @@
 
 package com.dmdirc.addons.ui_web2;
 
-import com.dmdirc.addons.ui_web2.serialisers.BackBufferSimpleSerializer;
-import com.dmdirc.addons.ui_web2.serialisers.WindowModelSerialiser;
 import com.dmdirc.interfaces.WindowModel;
 import com.dmdirc.ui.WindowManager;
-import com.dmdirc.ui.messages.BackBuffer;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
 
+import java.lang.reflect.Type;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 /**
  * Handles compiling the initial burst of state that will be sent to new web clients.
+ *
+ * <p>The state contains the window tree and, for each window, either the lines the client missed
+ * since it last connected or a short tail of recent lines. Further changes are sent as deltas by
+ * the {@link DeltaProducer}.
  */
 public class InitialStateProducer {
 
+    /** Type used to serialise collections of windows. */
+    private static final Type WINDOWS_TYPE = new TypeToken<Collection<WindowModel>>(){}.getType();
+
     private final Gson serialiser;
     private final WindowManager windowManager;
+    private final DeltaProducer deltaProducer;
 
     @Inject
     public InitialStateProducer(
             final WindowManager windowManager,
-            final WindowModelSerialiser windowSerialiser) {
-        serialiser = new GsonBuilder()
-                .registerTypeHierarchyAdapter(WindowModel.class, windowSerialiser)
-                .registerTypeAdapter(BackBuffer.class, new BackBufferSimpleSerializer())
-                .create();
+            final DeltaProducer deltaProducer,
+            final Gson serialiser) {
+        this.serialiser = serialiser;
         this.windowManager = windowManager;
+        this.deltaProducer = deltaProducer;
     }
 
-    public String getInitialState() {
-        final InitialState state = new InitialState(windowManager.getRootWindows());
-        return serialiser.toJson(state);
-    }
-
-    /** Class to serialize and pass to the client with initial state. */
-    private static class InitialState {
-
-        private final Collection<WindowModel> windows;
-
-        private InitialState(final Collection<WindowModel> windows) {
-            this.windows = windows;
-        }
-
-        public Collection<WindowModel> getWindows() {
-            return Collections.unmodifiableCollection(windows);
-        }
-
+    /**
+     * Gets the initial state to send to a client.
+     *
+     * @param stream The stream the client was previously receiving, if any.
+     * @param positions The next sequence number the client expects for each window, keyed on
+     * window ID. Ignored if the stream is not the current one.
+     *
+     * @return The initial state.
+     */
+    public Delta getInitialState(@Nullable final String stream,
+            final Map<String, Long> positions) {
+        final String currentStream = deltaProducer.getStream();
+        final JsonObject state = new JsonObject();
+        state.addProperty("type", "snapshot");
+        state.addProperty("stream", currentStream);
+        state.add("windows", serialiser.toJsonTree(windowManager.getRootWindows(), WINDOWS_TYPE));
+        state.add("buffers", deltaProducer.getBuffers(currentStream != null
+                && currentStream.equals(stream) ? positions : Collections.emptyMap()));
+        return new Delta(state);
     }
 
 }
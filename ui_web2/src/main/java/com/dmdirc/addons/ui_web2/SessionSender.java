@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_web2;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends deltas to a single web client without blocking the thread that produced them.
+ *
+ * <p>Deltas are queued, and sent asynchronously with at most one write in progress at a time. Any
+ * deltas queued while a write is in progress are sent together as a JSON array in the next write.
+ *
+ * <p>Deltas for windows the client isn't viewing are coalesced while they wait: new lines are
+ * merged into lines that are still queued for the same window (keeping only the most recent), and
+ * property changes are merged into queued changes. If the queue still fills up, the client isn't
+ * keeping up and is disconnected; it can resume from where it got to when it reconnects.
+ */
+public class SessionSender implements Consumer<Delta>, WriteCallback {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionSender.class);
+
+    /** Maximum number of deltas to send in a single write. */
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private final Session session;
+    /** Maximum number of deltas that can be queued before the client is disconnected. */
+    private final int capacity;
+    /** Maximum number of lines to keep when merging lines for a window that isn't being viewed. */
+    private final int maxMergedLines;
+    /** Deltas waiting to be sent. */
+    private final Deque<QueuedDelta> queue = new ArrayDeque<>();
+    /** Queued line deltas that further lines can be merged into, keyed on window ID. */
+    private final Map<String, QueuedDelta> queuedLines = new HashMap<>();
+    /** Queued window changes that further changes can be merged into, keyed on window ID. */
+    private final Map<String, QueuedDelta> queuedChanges = new HashMap<>();
+    /** The ID of the window the client is viewing, if any. */
+    @Nullable private String viewing;
+    /** Whether a write is currently in progress. */
+    private boolean sending;
+    /** Whether the session has been closed, and further deltas should be discarded. */
+    private boolean closed;
+    /** The time the current write started, in nanoseconds. */
+    private long sendStartTime;
+    /** Number of deltas in the current write. */
+    private int sendSize;
+
+    private int maxQueueDepth;
+    private long deltasSent;
+    private long deltasCoalesced;
+    private long writes;
+    private long failedWrites;
+    private long totalWriteTime;
+    private long maxWriteTime;
+    private long lastWriteTime;
+
+    /**
+     * Creates a new sender.
+     *
+     * @param session The session to send deltas to.
+     * @param capacity Maximum number of deltas that can be queued before disconnecting.
+     * @param maxMergedLines Maximum number of lines to keep when merging lines for a window.
+     */
+    public SessionSender(final Session session, final int capacity, final int maxMergedLines) {
+        this.session = session;
+        this.capacity = Math.max(1, capacity);
+        this.maxMergedLines = Math.max(1, maxMergedLines);
+    }
+
+    /**
+     * Queues a delta to be sent to the client.
+     *
+     * @param delta The delta to send.
+     */
+    @Override
+    public void accept(final Delta delta) {
+        final boolean overflowed;
+        final String batch;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            if (coalesce(delta)) {
+                overflowed = false;
+            } else if (queue.size() >= capacity) {
+                overflowed = true;
+                close();
+            } else {
+                overflowed = false;
+                enqueue(delta);
+            }
+            batch = takeBatch();
+        }
+
+        if (overflowed) {
+            LOG.info("Disconnecting web client {}: too many deltas queued",
+                    session.getRemoteAddress());
+            session.close(StatusCode.POLICY_VIOLATION, "Too far behind");
+        } else {
+            send(batch);
+        }
+    }
+
+    /**
+     * Sets the window the client is currently viewing. Deltas for this window are never coalesced.
+     *
+     * @param window The ID of the window being viewed, or null if none is.
+     */
+    public synchronized void setViewing(@Nullable final String window) {
+        viewing = window;
+        if (window != null) {
+            // Anything already queued stays where it is, but mustn't have newer lines merged in.
+            queuedLines.remove(window);
+            queuedChanges.remove(window);
+        }
+    }
+
+    /**
+     * Stops sending deltas, and discards any that are queued.
+     */
+    public synchronized void close() {
+        closed = true;
+        queue.clear();
+        queuedLines.clear();
+        queuedChanges.clear();
+    }
+
+    @Override
+    public void writeSuccess() {
+        final String batch;
+        synchronized (this) {
+            deltasSent += sendSize;
+            batch = writeFinished();
+        }
+
+        send(batch);
+    }
+
+    @Override
+    public void writeFailed(final Throwable ex) {
+        LOG.debug("Unable to send to web client {}", session.getRemoteAddress(), ex);
+        synchronized (this) {
+            failedWrites++;
+            close();
+            writeFinished();
+        }
+        session.close(StatusCode.SERVER_ERROR, "Unable to send");
+    }
+
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    public synchronized int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public synchronized long getDeltasSent() {
+        return deltasSent;
+    }
+
+    public synchronized long getDeltasCoalesced() {
+        return deltasCoalesced;
+    }
+
+    public synchronized long getWrites() {
+        return writes;
+    }
+
+    public synchronized long getFailedWrites() {
+        return failedWrites;
+    }
+
+    /**
+     * Gets the mean time taken by writes to the client.
+     *
+     * @return The mean write time, in milliseconds.
+     */
+    public synchronized double getMeanWriteTime() {
+        final long completed = writes - (sending ? 1 : 0);
+        return completed == 0 ? 0 : (double) totalWriteTime / completed / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Gets the longest time taken by a write to the client.
+     *
+     * @return The maximum write time, in milliseconds.
+     */
+    public synchronized long getMaxWriteTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWriteTime);
+    }
+
+    /**
+     * Gets the time taken by the most recent write to the client.
+     *
+     * @return The last write time, in milliseconds.
+     */
+    public synchronized long getLastWriteTime() {
+        return TimeUnit.NANOSECONDS.toMillis(lastWriteTime);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: queue %d (max %d), sent %d in %d writes, coalesced %d, "
+                        + "write time %.1fms mean, %dms max",
+                session.getRemoteAddress(), queue.size(), maxQueueDepth, deltasSent, writes,
+                deltasCoalesced, getMeanWriteTime(), getMaxWriteTime());
+    }
+
+    /**
+     * Attempts to merge a delta into one that's already queued.
+     *
+     * @param delta The delta to merge.
+     *
+     * @return True if the delta was merged, false if it needs to be queued.
+     */
+    private boolean coalesce(final Delta delta) {
+        final String window = delta.getWindow();
+        if (window == null || window.equals(viewing)) {
+            return false;
+        }
+
+        final QueuedDelta queued;
+        if ("lines".equals(delta.getType())) {
+            queued = queuedLines.get(window);
+            if (queued != null) {
+                queued.delta = mergeLines(queued.delta, delta);
+            }
+        } else if ("windowChanged".equals(delta.getType())) {
+            queued = queuedChanges.get(window);
+            if (queued != null) {
+                queued.delta = mergeChanges(queued.delta, delta);
+            }
+        } else {
+            // Anything else changes the window in a way later deltas can't be merged across.
+            queuedLines.remove(window);
+            queuedChanges.remove(window);
+            return false;
+        }
+
+        if (queued == null) {
+            return false;
+        }
+        deltasCoalesced++;
+        return true;
+    }
+
+    private void enqueue(final Delta delta) {
+        final QueuedDelta queued = new QueuedDelta(delta);
+        queue.add(queued);
+        maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+
+        final String window = delta.getWindow();
+        if (window != null && !window.equals(viewing)) {
+            if ("lines".equals(delta.getType())) {
+                queuedLines.put(window, queued);
+            } else if ("windowChanged".equals(delta.getType())) {
+                queuedChanges.put(window, queued);
+            }
+        }
+    }
+
+    /**
+     * Merges two line deltas for the same window, keeping only the most recent lines.
+     */
+    private Delta mergeLines(final Delta first, final Delta second) {
+        final JsonArray firstLines = first.getBody().getAsJsonArray("lines");
+        final JsonArray secondLines = second.getBody().getAsJsonArray("lines");
+        final int total = firstLines.size() + secondLines.size();
+        final JsonArray lines = new JsonArray();
+        for (int i = Math.max(0, total - maxMergedLines); i < total; i++) {
+            lines.add(i < firstLines.size() ? firstLines.get(i)
+                    : secondLines.get(i - firstLines.size()));
+        }
+
+        final JsonObject body = new JsonObject();
+        body.addProperty("type", first.getType());
+        body.addProperty("window", first.getWindow());
+        body.add("lines", lines);
+        return new Delta(body);
+    }
+
+    /**
+     * Merges two window changes for the same window, with later values replacing earlier ones.
+     */
+    private static Delta mergeChanges(final Delta first, final Delta second) {
+        final JsonObject body = new JsonObject();
+        for (Entry<String, JsonElement> entry : first.getBody().entrySet()) {
+            body.add(entry.getKey(), entry.getValue());
+        }
+        for (Entry<String, JsonElement> entry : second.getBody().entrySet()) {
+            body.add(entry.getKey(), entry.getValue());
+        }
+        return new Delta(body);
+    }
+
+    /**
+     * Takes the next batch of deltas to send, if no write is in progress. Must be called with the
+     * lock held.
+     *
+     * @return The serialised batch to send, or null if there's nothing to send now.
+     */
+    @Nullable
+    private String takeBatch() {
+        if (sending || closed || queue.isEmpty()) {
+            return null;
+        }
+
+        sendSize = Math.min(queue.size(), MAX_BATCH_SIZE);
+        final String batch;
+        if (sendSize == 1) {
+            batch = poll().getMessage();
+        } else {
+            final StringJoiner joiner = new StringJoiner(",", "[", "]");
+            for (int i = 0; i < sendSize; i++) {
+                joiner.add(poll().getMessage());
+            }
+            batch = joiner.toString();
+        }
+
+        sending = true;
+        writes++;
+        sendStartTime = System.nanoTime();
+        return batch;
+    }
+
+    private Delta poll() {
+        final QueuedDelta queued = queue.poll();
+        final String window = queued.delta.getWindow();
+        if (window != null) {
+            queuedLines.remove(window, queued);
+            queuedChanges.remove(window, queued);
+        }
+        return queued.delta;
+    }
+
+    /**
+     * Records the end of a write, and takes the next batch. Must be called with the lock held.
+     *
+     * @return The next batch to send, or null if there's nothing to send now.
+     */
+    @Nullable
+    private String writeFinished() {
+        lastWriteTime = System.nanoTime() - sendStartTime;
+        totalWriteTime += lastWriteTime;
+        maxWriteTime = Math.max(maxWriteTime, lastWriteTime);
+        sending = false;
+        return takeBatch();
+    }
+
+    /**
+     * Starts an asynchronous write. Must be called without the lock held, as the callback may be
+     * called immediately on this thread.
+     *
+     * @param batch The batch to send, or null to do nothing.
+     */
+    private void send(@Nullable final String batch) {
+        if (batch != null) {
+            WebSocketHandler.sendMessage(session, batch, this);
+        }
+    }
+
+    /** A queued delta, which may be replaced as further deltas are merged into it. */
+    private static class QueuedDelta {
+
+        private Delta delta;
+
+        QueuedDelta(final Delta delta) {
+            this.delta = delta;
+        }
+
+    }
+
+}
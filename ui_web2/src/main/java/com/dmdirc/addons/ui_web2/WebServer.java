@@ -26,6 +26,7 @@ import org.eclipse.jetty.server.handler.DefaultHandler;
 import org.eclipse.jetty.server.handler.HandlerList;
 import org.eclipse.jetty.server.handler.ResourceHandler;
 import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.util.resource.Resource;
 import org.eclipse.jetty.websocket.servlet.WebSocketServlet;
 import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
@@ -40,10 +41,12 @@ public class WebServer {
     private static final Logger LOG = LoggerFactory.getLogger(WebServer.class);
 
     private final int port;
+    private final HistoryServlet historyServlet;
     private Server server;
 
-    public WebServer(final int port) {
+    public WebServer(final int port, final HistoryServlet historyServlet) {
         this.port = port;
+        this.historyServlet = historyServlet;
     }
 
     public void start() {
@@ -67,6 +70,7 @@ public class WebServer {
             final ServletContextHandler wsHandler = new ServletContextHandler();
             wsHandler.setContextPath("/");
             wsHandler.addServlet(WebUiWebSocketServlet.class, "/ws");
+            wsHandler.addServlet(new ServletHolder(historyServlet), "/history");
 
             HandlerList handlers = new HandlerList();
             handlers.setHandlers(new Handler[] {
@@ -17,37 +17,88 @@
 
 package com.dmdirc.addons.ui_web2;
 
-import com.dmdirc.events.eventbus.EventBus;
+import com.dmdirc.config.GlobalConfig;
+import com.dmdirc.config.provider.AggregateConfigProvider;
+import com.dmdirc.plugins.PluginDomain;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 
-import java.io.IOException;
 import java.util.Collection;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.eclipse.jetty.websocket.api.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Manages events raised by the {@link WebSocketHandler}.
  *
  * <p>This serves as a bridge between the {@link WebSocketHandler}, which cannot have dependencies
  * passed in sanely due to the framework, and the rest of the plugin/client.
+ *
+ * <p>Clients receive nothing until they send a {@code sync} message, optionally containing the
+ * stream they were previously receiving and the next sequence number they expect for each window.
+ * They are then sent a snapshot from the {@link InitialStateProducer}, followed by deltas from the
+ * {@link DeltaProducer} as things change. Clients can send a {@code view} message naming the
+ * window they are looking at, so that deltas for other windows can be coalesced.
+ *
+ * <p>Each session has its own {@link SessionSender}, so a slow client only delays itself.
  */
 @Singleton
 public class WebSocketController {
 
-    private final Collection<Session> sessions = new CopyOnWriteArrayList<>();
-    private final Object sessionLock = new Object();
-    private final AtomicBoolean subscribed = new AtomicBoolean(false);
-    private final EventBus eventBus;
+    private static final Logger LOG = LoggerFactory.getLogger(WebSocketController.class);
+
+    /** Senders for each session that has synced. */
+    private final Map<Session, SessionSender> senders = new ConcurrentHashMap<>();
+    private final Gson serialiser;
+    private final DeltaProducer deltaProducer;
     private final InitialStateProducer initialStateProducer;
+    private final AggregateConfigProvider config;
+    private final String domain;
 
     @Inject
-    public WebSocketController(final EventBus eventBus, final InitialStateProducer initialStateProducer) {
-        this.eventBus = eventBus;
+    public WebSocketController(final Gson serialiser, final DeltaProducer deltaProducer,
+            final InitialStateProducer initialStateProducer,
+            @GlobalConfig final AggregateConfigProvider config,
+            @PluginDomain(WebUiPlugin.class) final String domain) {
+        this.serialiser = serialiser;
+        this.deltaProducer = deltaProducer;
         this.initialStateProducer = initialStateProducer;
+        this.config = config;
+        this.domain = domain;
+    }
+
+    /**
+     * Starts tracking changes to send to clients.
+     */
+    public void start() {
+        deltaProducer.start();
+    }
+
+    /**
+     * Stops tracking changes, and stops sending deltas to all sessions.
+     */
+    public void stop() {
+        deltaProducer.stop();
+        senders.values().forEach(SessionSender::close);
+        senders.clear();
+    }
+
+    /**
+     * Gets the senders for all synced sessions, which can be used to monitor their queues.
+     *
+     * @return The current session senders.
+     */
+    public Collection<SessionSender> getSenders() {
+        return Collections.unmodifiableCollection(senders.values());
     }
 
     /**
@@ -56,15 +107,7 @@ public class WebSocketController {
      * @param session The session that is now connected.
      */
     void sessionConnected(final Session session) {
-        synchronized (sessionLock) {
-            if (!subscribed.getAndSet(true)) {
-                eventBus.subscribe(this);
-            }
-
-            sessions.add(session);
-        }
-
-        sendMessage(session, initialStateProducer.getInitialState());
+        // Nothing to do until the client tells us what state it already has.
     }
 
     /**
@@ -75,11 +118,11 @@ public class WebSocketController {
      * @param reason The reason for quitting.
      */
     void sessionClosed(final Session session, final int statusCode, final String reason) {
-        synchronized (sessionLock) {
-            sessions.remove(session);
-            if (sessions.isEmpty() && subscribed.getAndSet(false)) {
-                eventBus.unsubscribe(this);
-            }
+        final SessionSender sender = senders.remove(session);
+        if (sender != null) {
+            deltaProducer.removeSubscriber(sender);
+            sender.close();
+            LOG.debug("Web client disconnected: {}", sender);
         }
     }
 
@@ -90,31 +133,79 @@ public class WebSocketController {
      * @param message The message that was received.
      */
     void messageReceived(final Session session, final String message) {
-        // Echo the message back for testing
-        sendMessage(session, message);
+        final ClientMessage request;
+        try {
+            request = serialiser.fromJson(message, ClientMessage.class);
+        } catch (JsonParseException ex) {
+            LOG.info("Ignoring malformed message from web client", ex);
+            return;
+        }
+
+        if (request == null || request.type == null) {
+            return;
+        }
+
+        switch (request.type) {
+            case "sync":
+                sync(session, request);
+                break;
+            case "view":
+                view(session, request.window);
+                break;
+            default:
+                LOG.debug("Ignoring unknown message type from web client: {}", request.type);
+                break;
+        }
     }
 
     /**
-     * Sends a message to a specific session.
+     * Sends a session its initial state, and subscribes it to further deltas.
      *
-     * @param session The session to send a message to.
-     * @param message The message to be sent.
+     * @param session The session to sync.
+     * @param request The sync request sent by the client.
      */
-    private void sendMessage(final Session session, final String message) {
-        try {
-            WebSocketHandler.sendMessage(session, message);
-        } catch (IOException ex) {
-            // TODO: Raise an error...
+    private void sync(final Session session, final ClientMessage request) {
+        final SessionSender sender = new SessionSender(session,
+                config.getOptionInt(domain, "outboundqueue"),
+                config.getOptionInt(domain, "snapshotlines"));
+        sender.setViewing(request.window);
+        final SessionSender previous = senders.put(session, sender);
+        if (previous != null) {
+            deltaProducer.removeSubscriber(previous);
+            previous.close();
         }
+
+        final Map<String, Long> positions = request.windows == null
+                ? Collections.emptyMap() : request.windows;
+        deltaProducer.addSubscriber(sender,
+                () -> initialStateProducer.getInitialState(request.stream, positions));
     }
 
     /**
-     * Sends a message to all connected sessions.
+     * Records which window a session is viewing.
      *
-     * @param message The message to be sent.
+     * @param session The session that changed window.
+     * @param window The ID of the window now being viewed, or null if none is.
      */
-    private void sendMessage(final String message) {
-        sessions.forEach(s -> sendMessage(s, message));
+    private void view(final Session session, @Nullable final String window) {
+        final SessionSender sender = senders.get(session);
+        if (sender != null) {
+            sender.setViewing(window);
+        }
+    }
+
+    /** A message sent by a web client. */
+    private static class ClientMessage {
+
+        /** The type of message. */
+        private String type;
+        /** The stream the client was previously receiving, if any. */
+        private String stream;
+        /** The next sequence number the client expects, keyed on window ID. */
+        private Map<String, Long> windows;
+        /** The ID of the window the client is viewing, if any. */
+        private String window;
+
     }
 
 }
@@ -20,6 +20,7 @@ package com.dmdirc.addons.ui_web2;
 import java.io.IOException;
 
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
@@ -64,4 +65,16 @@ public class WebSocketHandler {
         session.getRemote().sendString(message);
     }
 
+    /**
+     * Sends a message to a session without blocking.
+     *
+     * @param session The session to send the message to.
+     * @param message The message to send.
+     * @param callback Callback to notify when the message has been sent, or has failed.
+     */
+    public static void sendMessage(final Session session, final String message,
+            final WriteCallback callback) {
+        session.getRemote().sendString(message, callback);
+    }
+
 }
@@ -18,10 +18,16 @@
 package com.dmdirc.addons.ui_web2;
 
 import com.dmdirc.ClientModule;
+import com.dmdirc.addons.ui_web2.serialisers.BackBufferSimpleSerializer;
+import com.dmdirc.addons.ui_web2.serialisers.WindowModelSerialiser;
 import com.dmdirc.config.GlobalConfig;
 import com.dmdirc.config.provider.AggregateConfigProvider;
+import com.dmdirc.interfaces.WindowModel;
 import com.dmdirc.plugins.PluginDomain;
 import com.dmdirc.plugins.PluginInfo;
+import com.dmdirc.ui.messages.BackBuffer;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import dagger.Module;
 import dagger.Provides;
 import javax.inject.Singleton;
@@ -31,7 +37,7 @@ import javax.inject.Singleton;
  */
 @Module(
         addsTo = ClientModule.class,
-        injects = WebServer.class,
+        injects = {WebServer.class, WebSocketController.class},
         library = true
 )
 @SuppressWarnings("TypeMayBeWeakened")
@@ -57,15 +63,25 @@ public class WebUiModule {
         return pluginInfo;
     }
 
+    @Provides
+    @Singleton
+    public Gson getSerialiser(final WindowModelSerialiser windowSerialiser) {
+        return new GsonBuilder()
+                .registerTypeHierarchyAdapter(WindowModel.class, windowSerialiser)
+                .registerTypeAdapter(BackBuffer.class, new BackBufferSimpleSerializer())
+                .create();
+    }
+
     @Provides
     @Singleton
     public WebServer getWebServer(
             @PluginDomain(WebUiPlugin.class) final String domain,
             @GlobalConfig final AggregateConfigProvider globalConfig,
-            final WebSocketController controller) {
+            final WebSocketController controller,
+            final HistoryServlet historyServlet) {
         WebSocketHandler.setController(controller);
         final int port = globalConfig.getOptionInt(domain, "port");
-        return new WebServer(port);
+        return new WebServer(port, historyServlet);
     }
 
 }
@@ -28,6 +28,7 @@ import dagger.ObjectGraph;
 public class WebUiPlugin extends BasePlugin {
 
     private WebServer webServer;
+    private WebSocketController controller;
 
     @Override
     public void load(final PluginInfo pluginInfo, final ObjectGraph graph) {
@@ -37,11 +38,13 @@ public class WebUiPlugin extends BasePlugin {
         getObjectGraph().validate();
 
         webServer = getObjectGraph().get(WebServer.class);
+        controller = getObjectGraph().get(WebSocketController.class);
     }
 
     @Override
     public void onLoad() {
         super.onLoad();
+        controller.start();
         webServer.start();
     }
 
@@ -49,6 +52,7 @@ public class WebUiPlugin extends BasePlugin {
     public void onUnload() {
         super.onUnload();
         webServer.stop();
+        controller.stop();
     }
 
 }
@@ -0,0 +1,429 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_web2.serialisers;
+
+import com.dmdirc.ui.messages.Line;
+import com.dmdirc.ui.messages.StyledMessageMaker;
+import com.dmdirc.ui.messages.Styliser;
+import com.dmdirc.util.colours.Colour;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Serialises back buffer {@link Line}s, along with the styled runs that make up their text.
+ *
+ * <p>Each line is serialised as an object with its sequence number ({@code seq}), timestamp
+ * ({@code time}), plain text ({@code text}) and a list of {@code runs}. Each run gives the
+ * {@code start} and {@code end} offsets of a range of text, and any styles that apply to it:
+ * {@code bold}, {@code underline}, {@code italic}, {@code fixed}, {@code fg} and {@code bg} colours,
+ * and {@code link}, {@code channel}, {@code nickname} or {@code tooltip}. Unstyled text has no run.
+ *
+ * <p>Lines can be written straight to a {@link JsonWriter}, so that large numbers of them can be
+ * sent without building a tree. Instances are not thread safe, but can be reused for any number of
+ * lines.
+ */
+public class StyledLineSerialiser implements StyledMessageMaker<String> {
+
+    /** The text of the current line. */
+    private final StringBuilder text = new StringBuilder();
+    /** The styled runs of the current line, in order. */
+    private final List<Run> runs = new ArrayList<>();
+
+    private boolean bold;
+    private boolean underline;
+    private boolean italic;
+    private boolean fixedWidth;
+    private String foreground;
+    private String background;
+    private String hyperlink;
+    private String channel;
+    private String nickname;
+    private String tooltip;
+    /** Whether underlining should be kept when the current link style is removed. */
+    private boolean restoreUnderline;
+    /** The foreground colour to restore when the current link style is removed. */
+    private String restoreColour;
+    private int fontSize;
+
+    /**
+     * Writes a line to the given writer.
+     *
+     * @param out The writer to write to.
+     * @param sequence The sequence number of the line.
+     * @param line The line to write.
+     * @param styliser The styliser to use to style the line.
+     *
+     * @throws IOException If the line could not be written.
+     */
+    public void write(final JsonWriter out, final long sequence, final Line line,
+            final Styliser styliser) throws IOException {
+        style(line, styliser);
+        out.beginObject();
+        out.name("seq").value(sequence);
+        out.name("time").value(line.getTimestamp());
+        out.name("text").value(text.toString());
+        out.name("runs").beginArray();
+        for (Run run : runs) {
+            run.write(out);
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+    /**
+     * Serialises a line into a JSON object.
+     *
+     * @param sequence The sequence number of the line.
+     * @param line The line to serialise.
+     * @param styliser The styliser to use to style the line.
+     *
+     * @return The serialised line.
+     */
+    public JsonObject serialise(final long sequence, final Line line, final Styliser styliser) {
+        style(line, styliser);
+        final JsonObject res = new JsonObject();
+        res.addProperty("seq", sequence);
+        res.addProperty("time", line.getTimestamp());
+        res.addProperty("text", text.toString());
+        final JsonArray runArray = new JsonArray();
+        runs.forEach(run -> runArray.add(run.serialise()));
+        res.add("runs", runArray);
+        return res;
+    }
+
+    private void style(final Line line, final Styliser styliser) {
+        clear();
+        resetAllStyles();
+        hyperlink = null;
+        channel = null;
+        nickname = null;
+        tooltip = null;
+        restoreUnderline = false;
+        restoreColour = null;
+        styliser.addStyledString(this, line.getStyledText());
+    }
+
+    @Override
+    public String getStyledMessage() {
+        return text.toString();
+    }
+
+    @Override
+    public void resetAllStyles() {
+        bold = false;
+        underline = false;
+        italic = false;
+        fixedWidth = false;
+        resetColours();
+    }
+
+    @Override
+    public void resetColours() {
+        // Default colours are left to the client.
+        foreground = null;
+        background = null;
+    }
+
+    @Override
+    public void appendString(final String string) {
+        if (string.isEmpty()) {
+            return;
+        }
+
+        final int start = text.length();
+        text.append(string);
+        if (!bold && !underline && !italic && !fixedWidth && foreground == null
+                && background == null && hyperlink == null && channel == null
+                && nickname == null && tooltip == null) {
+            return;
+        }
+
+        final Run last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+        if (last != null && last.end == start && last.bold == bold
+                && last.underline == underline && last.italic == italic
+                && last.fixedWidth == fixedWidth
+                && Objects.equals(last.foreground, foreground)
+                && Objects.equals(last.background, background)
+                && Objects.equals(last.hyperlink, hyperlink)
+                && Objects.equals(last.channel, channel)
+                && Objects.equals(last.nickname, nickname)
+                && Objects.equals(last.tooltip, tooltip)) {
+            last.end = text.length();
+        } else {
+            runs.add(new Run(start, text.length()));
+        }
+    }
+
+    @Override
+    public void toggleBold() {
+        bold = !bold;
+    }
+
+    @Override
+    public void toggleUnderline() {
+        underline = !underline;
+    }
+
+    @Override
+    public void toggleItalic() {
+        italic = !italic;
+    }
+
+    @Override
+    public void startHyperlink(final String url) {
+        hyperlink = url;
+    }
+
+    @Override
+    public void endHyperlink() {
+        hyperlink = null;
+    }
+
+    @Override
+    public void toggleHyperlinkStyle(final Colour colour) {
+        toggleLink(hyperlink == null, colour);
+    }
+
+    @Override
+    public void startChannelLink(final String channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void endChannelLink() {
+        channel = null;
+    }
+
+    @Override
+    public void toggleChannelLinkStyle(final Colour colour) {
+        toggleLink(channel == null, colour);
+    }
+
+    @Override
+    public void startNicknameLink(final String nickname) {
+        this.nickname = nickname;
+    }
+
+    @Override
+    public void endNicknameLink() {
+        nickname = null;
+    }
+
+    @Override
+    public void toggleFixedWidth() {
+        fixedWidth = !fixedWidth;
+    }
+
+    @Override
+    public void setForeground(final Colour colour) {
+        foreground = convertColour(colour);
+    }
+
+    @Override
+    public void setDefaultForeground(final Colour colour) {
+        // Default colours are left to the client.
+    }
+
+    @Override
+    public void setBackground(final Colour colour) {
+        background = convertColour(colour);
+    }
+
+    @Override
+    public void setDefaultBackground(final Colour colour) {
+        // Default colours are left to the client.
+    }
+
+    @Override
+    public void startSmilie(final String smilie) {
+        // Smilies aren't rendered
+    }
+
+    @Override
+    public void endSmilie() {
+        // Smilies aren't rendered
+    }
+
+    @Override
+    public void startToolTip(final String tooltip) {
+        this.tooltip = tooltip;
+    }
+
+    @Override
+    public void endToolTip() {
+        tooltip = null;
+    }
+
+    @Override
+    public void setDefaultFont(final String fontName, final int fontSize) {
+        // Fonts are left to the client.
+        this.fontSize = fontSize;
+    }
+
+    @Override
+    public int getMaximumFontSize() {
+        return fontSize;
+    }
+
+    @Override
+    public void clear() {
+        text.setLength(0);
+        runs.clear();
+    }
+
+    /**
+     * Adds or removes the style for a link.
+     *
+     * @param add    True if the link style should be added, false if it should be removed
+     * @param colour The colour to colour the link
+     */
+    private void toggleLink(final boolean add, final Colour colour) {
+        if (add) {
+            if (underline) {
+                restoreUnderline = true;
+            } else {
+                underline = true;
+            }
+
+            if (colour != null) {
+                restoreColour = foreground;
+                foreground = convertColour(colour);
+            }
+        } else {
+            if (restoreUnderline) {
+                restoreUnderline = false;
+            } else {
+                underline = false;
+            }
+
+            if (colour != null) {
+                foreground = restoreColour;
+                restoreColour = null;
+            }
+        }
+    }
+
+    private static String convertColour(final Colour colour) {
+        return String.format("#%02x%02x%02x", colour.getRed(), colour.getGreen(),
+                colour.getBlue());
+    }
+
+    /** A range of text with the same style, taken from the current state of the serialiser. */
+    private final class Run {
+
+        private final int start;
+        private int end;
+        private final boolean bold;
+        private final boolean underline;
+        private final boolean italic;
+        private final boolean fixedWidth;
+        private final String foreground;
+        private final String background;
+        private final String hyperlink;
+        private final String channel;
+        private final String nickname;
+        private final String tooltip;
+
+        Run(final int start, final int end) {
+            this.start = start;
+            this.end = end;
+            bold = StyledLineSerialiser.this.bold;
+            underline = StyledLineSerialiser.this.underline;
+            italic = StyledLineSerialiser.this.italic;
+            fixedWidth = StyledLineSerialiser.this.fixedWidth;
+            foreground = StyledLineSerialiser.this.foreground;
+            background = StyledLineSerialiser.this.background;
+            hyperlink = StyledLineSerialiser.this.hyperlink;
+            channel = StyledLineSerialiser.this.channel;
+            nickname = StyledLineSerialiser.this.nickname;
+            tooltip = StyledLineSerialiser.this.tooltip;
+        }
+
+        void write(final JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("start").value(start);
+            out.name("end").value(end);
+            if (bold) {
+                out.name("bold").value(true);
+            }
+            if (underline) {
+                out.name("underline").value(true);
+            }
+            if (italic) {
+                out.name("italic").value(true);
+            }
+            if (fixedWidth) {
+                out.name("fixed").value(true);
+            }
+            writeIfPresent(out, "fg", foreground);
+            writeIfPresent(out, "bg", background);
+            writeIfPresent(out, "link", hyperlink);
+            writeIfPresent(out, "channel", channel);
+            writeIfPresent(out, "nickname", nickname);
+            writeIfPresent(out, "tooltip", tooltip);
+            out.endObject();
+        }
+
+        JsonObject serialise() {
+            final JsonObject res = new JsonObject();
+            res.addProperty("start", start);
+            res.addProperty("end", end);
+            if (bold) {
+                res.addProperty("bold", true);
+            }
+            if (underline) {
+                res.addProperty("underline", true);
+            }
+            if (italic) {
+                res.addProperty("italic", true);
+            }
+            if (fixedWidth) {
+                res.addProperty("fixed", true);
+            }
+            addIfPresent(res, "fg", foreground);
+            addIfPresent(res, "bg", background);
+            addIfPresent(res, "link", hyperlink);
+            addIfPresent(res, "channel", channel);
+            addIfPresent(res, "nickname", nickname);
+            addIfPresent(res, "tooltip", tooltip);
+            return res;
+        }
+
+        private void addIfPresent(final JsonObject res, final String name, final String value) {
+            if (value != null) {
+                res.addProperty(name, value);
+            }
+        }
+
+        private void writeIfPresent(final JsonWriter out, final String name, final String value)
+                throws IOException {
+            if (value != null) {
+                out.name(name).value(value);
+            }
+        }
+
+    }
+
+}
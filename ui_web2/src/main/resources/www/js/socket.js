@@ -16,6 +16,9 @@
  */
 
 socket = null;
+stream = null;
+positions = {};
+viewing = null;
 
 function getAddress() {
     var loc = window.location;
@@ -27,11 +30,83 @@ function getAddress() {
 function connect() {
     socket = new WebSocket(getAddress());
 
+    socket.onopen = function() {
+        // Tell the server what we already have, so we only get sent what we missed.
+        send({type: "sync", stream: stream, windows: positions, window: viewing});
+    }
+
     socket.onmessage = function(event) {
-      console.log(event.data);
+        // Messages queued while a previous send was in progress arrive together in an array.
+        var data = JSON.parse(event.data);
+        if (Array.isArray(data)) {
+            data.forEach(handleMessage);
+        } else {
+            handleMessage(data);
+        }
     }
+
+    socket.onclose = function() {
+        setTimeout(connect, 1000);
+    }
+}
+
+function handleMessage(message) {
+    switch (message.type) {
+        case "snapshot":
+            stream = message.stream;
+            positions = {};
+            for (var id in message.buffers) {
+                updatePosition(id, message.buffers[id]);
+            }
+            // Keep viewing the same window if it survived, so its updates aren't merged.
+            if (viewing !== null && viewing in positions) {
+                view(viewing);
+            } else {
+                viewing = null;
+            }
+            break;
+        case "windowAdded":
+        case "reset":
+            updatePosition(message.window, message.buffer);
+            break;
+        case "windowRemoved":
+            delete positions[message.window];
+            break;
+        case "lines":
+            var lines = message.lines;
+            positions[message.window] = lines[lines.length - 1].seq + 1;
+            break;
+    }
+    console.log(message);
+}
+
+function view(id) {
+    // Updates for other windows may be merged or dropped, so only the last few lines arrive.
+    viewing = id;
+    send({type: "view", window: id});
+}
+
+function fetchHistory(id, before, count, callback) {
+    // Scrollback is fetched over HTTP a page at a time, rather than sent with the initial state.
+    var uri = "/history?window=" + encodeURIComponent(id) + "&before=" + before;
+    if (count) {
+        uri += "&count=" + count;
+    }
+
+    var request = new XMLHttpRequest();
+    request.open("GET", uri);
+    request.onload = function() {
+        if (request.status === 200) {
+            callback(JSON.parse(request.responseText));
+        }
+    }
+    request.send();
+}
+
+function updatePosition(id, buffer) {
+    positions[id] = buffer.nextSeq;
 }
 
 function send(data) {
     socket.send(JSON.stringify(data));
-}
\ No newline at end of file
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_web2;
+
+import com.dmdirc.config.provider.AggregateConfigProvider;
+import com.dmdirc.events.eventbus.EventBus;
+import com.dmdirc.interfaces.WindowModel;
+import com.dmdirc.ui.WindowManager;
+import com.dmdirc.ui.messages.BackBuffer;
+import com.dmdirc.ui.messages.Document;
+import com.dmdirc.ui.messages.DocumentListener;
+import com.dmdirc.ui.messages.Line;
+import com.dmdirc.ui.messages.StyledMessageMaker;
+import com.dmdirc.ui.messages.Styliser;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DeltaProducerTest {
+
+    @Mock private EventBus eventBus;
+    @Mock private WindowManager windowManager;
+    @Mock private AggregateConfigProvider config;
+    @Mock private WindowModel window;
+    @Mock private BackBuffer backBuffer;
+    @Mock private Document document;
+    @Mock private Styliser styliser;
+    private final Delta initial = new Delta(new JsonParser().parse("{\"type\":\"snapshot\"}")
+            .getAsJsonObject());
+    private final List<String> lines = new ArrayList<>();
+    private final List<Delta> messages = new ArrayList<>();
+    private DeltaProducer producer;
+    private DocumentListener listener;
+
+    @Before
+    public void setUp() {
+        when(config.getOptionInt("domain", "snapshotlines")).thenReturn(2);
+        when(window.getId()).thenReturn("window");
+        when(window.getBackBuffer()).thenReturn(backBuffer);
+        when(backBuffer.getDocument()).thenReturn(document);
+        when(backBuffer.getStyliser()).thenReturn(styliser);
+        doAnswer(invocation -> {
+            ((StyledMessageMaker<?>) invocation.getArguments()[0])
+                    .appendString((String) invocation.getArguments()[1]);
+            return null;
+        }).when(styliser).addStyledString(any(StyledMessageMaker.class), anyVararg());
+        when(document.getNumLines()).thenAnswer(invocation -> lines.size());
+        when(document.getLine(anyInt())).thenAnswer(invocation -> {
+            final int index = (Integer) invocation.getArguments()[0];
+            final Line line = mock(Line.class);
+            when(line.getText()).thenReturn(lines.get(index));
+            when(line.getStyledText()).thenReturn(lines.get(index));
+            when(line.getTimestamp()).thenReturn(1000L * (index + 1));
+            return line;
+        });
+        lines.add("one");
+        lines.add("two");
+        lines.add("three");
+
+        producer = new DeltaProducer(eventBus, windowManager, new Gson(), config, "domain");
+        producer.start();
+        producer.addWindow(window, false);
+
+        final ArgumentCaptor<DocumentListener> captor =
+                ArgumentCaptor.forClass(DocumentListener.class);
+        verify(document).addIRCDocumentListener(captor.capture());
+        listener = captor.getValue();
+        producer.addSubscriber(messages::add, () -> initial);
+    }
+
+    @Test
+    public void testSendsInitialMessage() {
+        assertEquals(Collections.singletonList(initial), messages);
+    }
+
+    @Test
+    public void testBufferWithoutPositionIsTail() {
+        final JsonObject buffer = getBuffer(-1);
+        assertTrue(buffer.get("reset").getAsBoolean());
+        assertEquals(0, buffer.get("firstSeq").getAsLong());
+        assertEquals(3, buffer.get("nextSeq").getAsLong());
+        assertLines(buffer.getAsJsonArray("lines"), 1, "two", "three");
+    }
+
+    @Test
+    public void testBufferResumesFromPosition() {
+        final JsonObject buffer = getBuffer(1);
+        assertFalse(buffer.get("reset").getAsBoolean());
+        assertLines(buffer.getAsJsonArray("lines"), 1, "two", "three");
+        assertEquals(0, getBuffer(3).getAsJsonArray("lines").size());
+    }
+
+    @Test
+    public void testPublishesAddedLines() {
+        lines.add("four");
+        listener.linesAdded(3, 1, 4);
+
+        final JsonObject delta = getMessage(1);
+        assertEquals("lines", delta.get("type").getAsString());
+        assertEquals("window", delta.get("window").getAsString());
+        assertLines(delta.getAsJsonArray("lines"), 3, "four");
+    }
+
+    @Test
+    public void testTrimmingKeepsSequenceNumbers() {
+        lines.remove(0);
+        listener.trimmed(2, 1);
+
+        final JsonObject buffer = getBuffer(-1);
+        assertEquals(1, buffer.get("firstSeq").getAsLong());
+        assertLines(buffer.getAsJsonArray("lines"), 1, "two", "three");
+    }
+
+    @Test
+    public void testCannotResumeFromTrimmedLine() {
+        lines.remove(0);
+        listener.trimmed(2, 1);
+
+        assertTrue(getBuffer(0).get("reset").getAsBoolean());
+        assertFalse(getBuffer(1).get("reset").getAsBoolean());
+    }
+
+    @Test
+    public void testClearingResetsSequence() {
+        lines.clear();
+        listener.cleared();
+
+        final JsonObject delta = getMessage(1);
+        assertEquals("reset", delta.get("type").getAsString());
+        final JsonObject buffer = delta.getAsJsonObject("buffer");
+        assertEquals(4, buffer.get("firstSeq").getAsLong());
+        assertEquals(4, buffer.get("nextSeq").getAsLong());
+        assertTrue(getBuffer(3).get("reset").getAsBoolean());
+        assertFalse(getBuffer(4).get("reset").getAsBoolean());
+    }
+
+    @Test
+    public void testInsertingLinesResetsSequence() {
+        lines.add(0, "zero");
+        listener.linesAdded(0, 1, 4);
+
+        final JsonObject delta = getMessage(1);
+        assertEquals("reset", delta.get("type").getAsString());
+        assertLines(delta.getAsJsonObject("buffer").getAsJsonArray("lines"), 6, "two", "three");
+    }
+
+    @Test
+    public void testStopDetachesAndRemovesSubscribers() {
+        producer.stop();
+        verify(eventBus).unsubscribe(producer);
+        verify(windowManager).removeListener(producer);
+        verify(document).removeIRCDocumentListener(listener);
+        assertEquals(0, producer.getBuffers(Collections.emptyMap()).entrySet().size());
+    }
+
+    @Test
+    public void testHistoryBeforeSequence() {
+        final HistoryPage page = producer.getHistory(
+                HistoryRequest.before("window", 2, 5)).get();
+        assertEquals(0, page.getStartSequence());
+        assertEquals(2, page.getEndSequence());
+        assertEquals(3, page.getNextSequence());
+        assertEquals("two", page.getLines().get(1).getText());
+    }
+
+    @Test
+    public void testHistoryFromSequenceAfterTrim() {
+        lines.remove(0);
+        listener.trimmed(2, 1);
+
+        final HistoryPage page = producer.getHistory(HistoryRequest.from("window", 0, 1)).get();
+        assertEquals(1, page.getFirstSequence());
+        assertEquals(1, page.getStartSequence());
+        assertEquals("two", page.getLines().get(0).getText());
+    }
+
+    @Test
+    public void testHistoryByTimestamp() {
+        assertEquals(1, producer.getHistory(HistoryRequest.since("window", 1500, 5)).get()
+                .getStartSequence());
+        final HistoryPage page = producer.getHistory(
+                HistoryRequest.until("window", 3000, 5)).get();
+        assertEquals(0, page.getStartSequence());
+        assertEquals(2, page.getEndSequence());
+    }
+
+    @Test
+    public void testHistoryForUnknownWindow() {
+        assertEquals(Optional.empty(), producer.getHistory(HistoryRequest.from("other", 0, 1)));
+    }
+
+    private JsonObject getBuffer(final long position) {
+        return producer.getBuffers(Collections.singletonMap("window", position))
+                .getAsJsonObject("window");
+    }
+
+    private JsonObject getMessage(final int index) {
+        return messages.get(index).getBody();
+    }
+
+    private static void assertLines(final JsonArray actual, final long firstSequence,
+            final String... expected) {
+        assertEquals(expected.length, actual.size());
+        for (int i = 0; i < expected.length; i++) {
+            final JsonObject line = actual.get(i).getAsJsonObject();
+            assertEquals(firstSequence + i, line.get("seq").getAsLong());
+            assertEquals(expected[i], line.get("text").getAsString());
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_web2;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SessionSenderTest {
+
+    @Mock private Session session;
+    @Mock private RemoteEndpoint remote;
+    private final ArgumentCaptor<String> messages = ArgumentCaptor.forClass(String.class);
+    private SessionSender sender;
+
+    @Before
+    public void setUp() {
+        when(session.getRemote()).thenReturn(remote);
+        sender = new SessionSender(session, 5, 3);
+        sender.setViewing("viewed");
+    }
+
+    @Test
+    public void testSendsImmediatelyWhenIdle() {
+        sender.accept(createDelta("snapshot", null));
+        verify(remote).sendString("{\"type\":\"snapshot\"}", sender);
+        assertEquals(0, sender.getQueueDepth());
+    }
+
+    @Test
+    public void testBatchesDeltasQueuedDuringWrite() {
+        sender.accept(createDelta("snapshot", null));
+        sender.accept(createLines("viewed", 0));
+        sender.accept(createLines("viewed", 1));
+        assertEquals(2, sender.getQueueDepth());
+
+        sender.writeSuccess();
+        verify(remote, times(2)).sendString(messages.capture(), same(sender));
+        assertEquals('[' + createLines("viewed", 0).getMessage() + ','
+                + createLines("viewed", 1).getMessage() + ']', messages.getValue());
+        assertEquals(0, sender.getQueueDepth());
+        assertEquals(1, sender.getDeltasSent());
+    }
+
+    @Test
+    public void testMergesLinesForOtherWindows() {
+        sender.accept(createDelta("snapshot", null));
+        sender.accept(createLines("other", 0, 1));
+        sender.accept(createLines("other", 2, 3));
+        assertEquals(1, sender.getQueueDepth());
+        assertEquals(1, sender.getDeltasCoalesced());
+
+        sender.writeSuccess();
+        verify(remote, times(2)).sendString(messages.capture(), same(sender));
+        assertEquals(createLines("other", 1, 2, 3).getMessage(), messages.getValue());
+    }
+
+    @Test
+    public void testDoesNotMergeLinesForViewedWindow() {
+        sender.accept(createDelta("snapshot", null));
+        sender.accept(createLines("viewed", 0));
+        sender.accept(createLines("viewed", 1));
+        assertEquals(2, sender.getQueueDepth());
+        assertEquals(0, sender.getDeltasCoalesced());
+    }
+
+    @Test
+    public void testDoesNotMergeLinesAcrossReset() {
+        sender.accept(createDelta("snapshot", null));
+        sender.accept(createLines("other", 0));
+        sender.accept(createDelta("reset", "other"));
+        sender.accept(createLines("other", 5));
+        assertEquals(3, sender.getQueueDepth());
+    }
+
+    @Test
+    public void testMergesWindowChanges() {
+        sender.accept(createDelta("snapshot", null));
+        final JsonObject first = createDelta("windowChanged", "other").getBody();
+        first.addProperty("title", "one");
+        sender.accept(new Delta(first));
+        final JsonObject second = createDelta("windowChanged", "other").getBody();
+        second.addProperty("title", "two");
+        sender.accept(new Delta(second));
+
+        sender.writeSuccess();
+        verify(remote, times(2)).sendString(messages.capture(), same(sender));
+        assertEquals("{\"type\":\"windowChanged\",\"window\":\"other\",\"title\":\"two\"}",
+                messages.getValue());
+    }
+
+    @Test
+    public void testDisconnectsOnOverflow() {
+        sender.accept(createDelta("snapshot", null));
+        for (int i = 0; i < 5; i++) {
+            sender.accept(createLines("viewed", i));
+        }
+        verify(session, never()).close(anyInt(), anyString());
+
+        sender.accept(createLines("viewed", 5));
+        verify(session).close(StatusCode.POLICY_VIOLATION, "Too far behind");
+        assertEquals(0, sender.getQueueDepth());
+        assertEquals(5, sender.getMaxQueueDepth());
+
+        sender.writeSuccess();
+        verify(remote).sendString(anyString(), same(sender));
+    }
+
+    @Test
+    public void testDisconnectsOnWriteFailure() {
+        sender.accept(createDelta("snapshot", null));
+        sender.accept(createLines("viewed", 0));
+        sender.writeFailed(new Exception());
+
+        verify(session).close(StatusCode.SERVER_ERROR, "Unable to send");
+        verify(remote).sendString(anyString(), same(sender));
+        assertEquals(1, sender.getFailedWrites());
+    }
+
+    private static Delta createDelta(final String type, final String window) {
+        final JsonObject body = new JsonObject();
+        body.addProperty("type", type);
+        if (window != null) {
+            body.addProperty("window", window);
+        }
+        return new Delta(body);
+    }
+
+    private static Delta createLines(final String window, final long... sequences) {
+        final JsonObject body = createDelta("lines", window).getBody();
+        final JsonArray lines = new JsonArray();
+        for (long sequence : sequences) {
+            final JsonObject line = new JsonObject();
+            line.addProperty("seq", sequence);
+            lines.add(line);
+        }
+        body.add("lines", lines);
+        return new Delta(body);
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.dmdirc.addons.ui_web2.serialisers;
+
+import com.dmdirc.ui.messages.Line;
+import com.dmdirc.ui.messages.StyledMessageMaker;
+import com.dmdirc.ui.messages.Styliser;
+import com.dmdirc.util.colours.Colour;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.function.Consumer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StyledLineSerialiserTest {
+
+    @Mock private Line line;
+    @Mock private Styliser styliser;
+    private final StyledLineSerialiser serialiser = new StyledLineSerialiser();
+    private Consumer<StyledMessageMaker<?>> styling;
+
+    @Before
+    public void setUp() {
+        when(line.getTimestamp()).thenReturn(1234L);
+        doAnswer(invocation -> {
+            styling.accept((StyledMessageMaker<?>) invocation.getArguments()[0]);
+            return null;
+        }).when(styliser).addStyledString(any(StyledMessageMaker.class), anyVararg());
+    }
+
+    @Test
+    public void testPlainTextHasNoRuns() {
+        styling = maker -> maker.appendString("plain text");
+
+        final JsonObject result = serialiser.serialise(7, line, styliser);
+        assertEquals(7, result.get("seq").getAsLong());
+        assertEquals(1234, result.get("time").getAsLong());
+        assertEquals("plain text", result.get("text").getAsString());
+        assertEquals(0, result.getAsJsonArray("runs").size());
+    }
+
+    @Test
+    public void testStyledRuns() {
+        styling = maker -> {
+            maker.appendString("a ");
+            maker.toggleBold();
+            maker.appendString("bold");
+            maker.toggleBold();
+            maker.setForeground(new Colour(255, 0, 16));
+            maker.appendString("red");
+        };
+
+        final JsonArray runs = serialiser.serialise(0, line, styliser).getAsJsonArray("runs");
+        assertEquals(2, runs.size());
+        final JsonObject bold = runs.get(0).getAsJsonObject();
+        assertEquals(2, bold.get("start").getAsInt());
+        assertEquals(6, bold.get("end").getAsInt());
+        assertTrue(bold.get("bold").getAsBoolean());
+        assertFalse(bold.has("fg"));
+        final JsonObject red = runs.get(1).getAsJsonObject();
+        assertEquals(6, red.get("start").getAsInt());
+        assertEquals(9, red.get("end").getAsInt());
+        assertEquals("#ff0010", red.get("fg").getAsString());
+        assertFalse(red.has("bold"));
+    }
+
+    @Test
+    public void testMergesAdjacentRunsWithSameStyle() {
+        styling = maker -> {
+            maker.toggleItalic();
+            maker.appendString("one");
+            maker.appendString("two");
+        };
+
+        final JsonArray runs = serialiser.serialise(0, line, styliser).getAsJsonArray("runs");
+        assertEquals(1, runs.size());
+        assertEquals(0, runs.get(0).getAsJsonObject().get("start").getAsInt());
+        assertEquals(6, runs.get(0).getAsJsonObject().get("end").getAsInt());
+    }
+
+    @Test
+    public void testLinks() {
+        styling = maker -> {
+            maker.startChannelLink("#dmdirc");
+            maker.appendString("#dmdirc");
+            maker.endChannelLink();
+            maker.appendString(" ");
+            maker.startHyperlink("http://dmdirc.com");
+            maker.appendString("site");
+            maker.endHyperlink();
+        };
+
+        final JsonArray runs = serialiser.serialise(0, line, styliser).getAsJsonArray("runs");
+        assertEquals(2, runs.size());
+        assertEquals("#dmdirc", runs.get(0).getAsJsonObject().get("channel").getAsString());
+        assertEquals("http://dmdirc.com", runs.get(1).getAsJsonObject().get("link").getAsString());
+    }
+
+    @Test
+    public void testStateIsResetBetweenLines() {
+        styling = maker -> {
+            maker.toggleBold();
+            maker.appendString("bold");
+        };
+        serialiser.serialise(0, line, styliser);
+
+        styling = maker -> maker.appendString("plain");
+        final JsonObject result = serialiser.serialise(1, line, styliser);
+        assertEquals("plain", result.get("text").getAsString());
+        assertEquals(0, result.getAsJsonArray("runs").size());
+    }
+
+    @Test
+    public void testWriteMatchesSerialise() throws IOException {
+        styling = maker -> {
+            maker.toggleUnderline();
+            maker.appendString("text");
+        };
+
+        final StringWriter output = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(output)) {
+            serialiser.write(writer, 3, line, styliser);
+        }
+        assertEquals(serialiser.serialise(3, line, styliser),
+                new JsonParser().parse(output.toString()));
+    }
+
+}